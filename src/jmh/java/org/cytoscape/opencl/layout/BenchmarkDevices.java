@@ -0,0 +1,41 @@
+package org.cytoscape.opencl.layout;
+
+import org.cytoscape.cycl.CyCLDevice;
+import org.cytoscape.cycl.CyCLDevice.DeviceTypes;
+import org.cytoscape.cycl.CyCLFactory;
+
+/**
+ * Finds the OpenCL device to benchmark on. Outside of Cytoscape there is no OSGi
+ * service to get a CyCLFactory from, so the implementation class is named with
+ * -Dcycl.factory=... and instantiated through its no-argument constructor.
+ * -Dcycl.deviceType=CPU (default) or GPU selects the device, so the benchmarks
+ * run on CPU OpenCL runtimes such as POCL on machines without a GPU.
+ */
+final class BenchmarkDevices
+{
+	private BenchmarkDevices()
+	{
+	}
+
+	/**
+	 * Compiles the layout program on the selected device.
+	 * @throws IllegalStateException If no factory is configured or no matching device exists
+	 */
+	static LayoutDevice open() throws Exception
+	{
+		String factoryClass = System.getProperty("cycl.factory");
+		if (factoryClass == null)
+			throw new IllegalStateException("OpenCL benchmarks need -Dcycl.factory=<CyCLFactory implementation class>.");
+
+		CyCLFactory factory = (CyCLFactory)Class.forName(factoryClass).getDeclaredConstructor().newInstance();
+		if (!factory.isInitialized())
+			throw new IllegalStateException("OpenCL did not initialize.");
+
+		DeviceTypes type = DeviceTypes.valueOf(System.getProperty("cycl.deviceType", "CPU"));
+		for (CyCLDevice device : factory.getDevices())
+			if (device.getType() == type)
+				return LayoutDevice.compile(new BufferPool(device, 256L * 1024 * 1024), null);
+
+		throw new IllegalStateException("No OpenCL device of type " + type + " found.");
+	}
+}
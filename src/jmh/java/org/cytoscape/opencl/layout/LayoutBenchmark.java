@@ -0,0 +1,72 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.view.layout.LayoutPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole layout of one partition: building the network data, running the 
+ * default schedule and reading the positions back. The "opencl" engine needs 
+ * an OpenCL device, see {@link BenchmarkDevices}; "host" runs anywhere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LayoutBenchmark
+{
+	@Param({ "host", "opencl" })
+	public String engine;
+
+	@Param({ "erdos-renyi", "barabasi-albert", "grid", "components" })
+	public String graph;
+
+	@Param({ "1000", "10000" })
+	public int nodes;
+
+	@Param({ "8" })
+	public int degree;
+
+	private final CLLayoutContext context = new CLLayoutContext();
+	private LayoutDevice device;
+	private LayoutPartition partition;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		if (engine.equals("opencl"))
+			device = BenchmarkDevices.open();
+		partition = SyntheticGraphs.create(graph, nodes, degree, 42);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		if (device != null)
+			device.bufferPool.clear();
+	}
+
+	@Benchmark
+	public SlimNetwork layout()
+	{
+		SlimNetwork slim = SyntheticGraphs.toSlimNetwork(partition, context);
+		LayoutTimings timings = new LayoutTimings("benchmark", engine);
+		LayoutEngine layoutEngine = device != null ? new CLLayouter(context, device, timings) : new JavaLayouter(context, timings);
+		new Simulation(context, () -> false, timings).run(slim, layoutEngine, null);
+		return slim;
+	}
+}
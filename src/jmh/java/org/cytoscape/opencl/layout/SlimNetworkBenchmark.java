@@ -0,0 +1,84 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.view.layout.LayoutNode;
+import org.cytoscape.view.layout.LayoutPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to build the network data for one partition on the host,
+ * from scratch and from a topology cached by an earlier layout.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SlimNetworkBenchmark
+{
+	@Param({ "erdos-renyi", "barabasi-albert", "grid", "components" })
+	public String graph;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int nodes;
+
+	@Param({ "8" })
+	public int degree;
+
+	private final CLLayoutContext context = new CLLayoutContext();
+	private LayoutPartition partition;
+	private List<LayoutNode> inputNodes;
+	private final TopologyCache topologyCache = new TopologyCache(Long.MAX_VALUE);
+
+	@Setup
+	public void setup()
+	{
+		partition = SyntheticGraphs.create(graph, nodes, degree, 42);
+		inputNodes = new ArrayList<>(partition.getNodeList());
+		topologyCache.get(0L, new PartitionGraph(partition), CLLayouter.requiredPadding);
+	}
+
+	/**
+	 * Building reorders the partition's node list, start every build from the input order.
+	 */
+	@Setup(Level.Invocation)
+	public void restoreNodeOrder()
+	{
+		Collections.copy(partition.getNodeList(), inputNodes);
+	}
+
+	@Benchmark
+	public SlimNetwork build()
+	{
+		return SyntheticGraphs.toSlimNetwork(partition, context);
+	}
+
+	@Benchmark
+	public SlimNetwork buildCached()
+	{
+		PartitionGraph graph = new PartitionGraph(partition);
+		SlimTopology topology = topologyCache.get(0L, graph, CLLayouter.requiredPadding);
+		SlimNetwork slim = new SlimNetwork(topology, graph,
+							   (float)context.defaultNodeMass,
+							   (float)context.defaultSpringCoefficient,
+							   (float)context.defaultSpringLength);
+		slim.indexNodes(graph);
+		return slim;
+	}
+}
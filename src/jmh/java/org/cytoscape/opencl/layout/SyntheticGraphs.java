@@ -0,0 +1,235 @@
+package org.cytoscape.opencl.layout;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.cytoscape.model.CyNode;
+import org.cytoscape.view.layout.LayoutEdge;
+import org.cytoscape.view.layout.LayoutNode;
+import org.cytoscape.view.layout.LayoutPartition;
+import org.cytoscape.view.model.View;
+import org.cytoscape.view.model.VisualProperty;
+
+/**
+ * Generates layout partitions with random positions, without a network or view behind them.
+ * All generators are deterministic for a given seed.
+ */
+final class SyntheticGraphs
+{
+	private SyntheticGraphs()
+	{
+	}
+
+	/**
+	 * @param kind One of "erdos-renyi", "barabasi-albert", "grid" and "components"
+	 * @param numNodes Approximate number of nodes
+	 * @param avgDegree Approximate average degree
+	 */
+	static LayoutPartition create(String kind, int numNodes, int avgDegree, long seed)
+	{
+		switch (kind)
+		{
+			case "erdos-renyi":
+				return erdosRenyi(numNodes, avgDegree, seed);
+			case "barabasi-albert":
+				return barabasiAlbert(numNodes, Math.max(1, avgDegree / 2), seed);
+			case "grid":
+				int side = (int)Math.ceil(Math.sqrt(numNodes));
+				return grid(side, side, seed);
+			case "components":
+				return components(numNodes / 20, 20, avgDegree, seed);
+			default:
+				throw new IllegalArgumentException("Unknown graph kind: " + kind);
+		}
+	}
+
+	/**
+	 * Random graph with numNodes * avgDegree / 2 edges between uniformly chosen nodes.
+	 */
+	static LayoutPartition erdosRenyi(int numNodes, int avgDegree, long seed)
+	{
+		Random random = new Random(seed);
+		Builder builder = new Builder(numNodes, random);
+		long numEdges = (long)numNodes * avgDegree / 2;
+		for (long e = 0; e < numEdges; e++)
+			builder.addEdge(random.nextInt(numNodes), random.nextInt(numNodes));
+		return builder.build();
+	}
+
+	/**
+	 * Scale-free graph by preferential attachment, every new node connects to edgesPerNode existing ones.
+	 */
+	static LayoutPartition barabasiAlbert(int numNodes, int edgesPerNode, long seed)
+	{
+		Random random = new Random(seed);
+		Builder builder = new Builder(numNodes, random);
+
+		// Every edge endpoint once, so picking a uniform entry is picking proportional to degree
+		int[] endpoints = new int[2 * numNodes * edgesPerNode];
+		int numEndpoints = 0;
+		for (int i = 1; i < numNodes; i++)
+		{
+			for (int j = 0; j < Math.min(i, edgesPerNode); j++)
+			{
+				int target = numEndpoints == 0 ? 0 : endpoints[random.nextInt(numEndpoints)];
+				builder.addEdge(i, target);
+				endpoints[numEndpoints++] = i;
+				endpoints[numEndpoints++] = target;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Rectangular lattice with 4-neighborhoods.
+	 */
+	static LayoutPartition grid(int width, int height, long seed)
+	{
+		Builder builder = new Builder(width * height, new Random(seed));
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+			{
+				if (x + 1 < width)
+					builder.addEdge(y * width + x, y * width + x + 1);
+				if (y + 1 < height)
+					builder.addEdge(y * width + x, (y + 1) * width + x);
+			}
+		return builder.build();
+	}
+
+	/**
+	 * Many small random components in one partition, like a network with lots of complexes.
+	 */
+	static LayoutPartition components(int numComponents, int componentSize, int avgDegree, long seed)
+	{
+		Random random = new Random(seed);
+		Builder builder = new Builder(numComponents * componentSize, random);
+		for (int c = 0; c < numComponents; c++)
+		{
+			int first = c * componentSize;
+			// A path keeps every component connected
+			for (int i = 1; i < componentSize; i++)
+				builder.addEdge(first + i - 1, first + i);
+			for (int e = componentSize - 1; e < componentSize * avgDegree / 2; e++)
+				builder.addEdge(first + random.nextInt(componentSize), first + random.nextInt(componentSize));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Builds the network data the same way CLLayoutTask does for a partition.
+	 */
+	static SlimNetwork toSlimNetwork(LayoutPartition partition, CLLayoutContext context)
+	{
+		return new SlimNetwork(partition,
+							   context.isDeterministic,
+							   (float)context.defaultNodeMass,
+							   (float)context.defaultSpringCoefficient,
+							   (float)context.defaultSpringLength,
+							   context.edgeWeighter,
+							   CLLayouter.requiredPadding);
+	}
+
+	private static class Builder
+	{
+		final List<LayoutNode> nodes;
+		final List<LayoutEdge> edges = new ArrayList<>();
+
+		Builder(int numNodes, Random random)
+		{
+			nodes = new ArrayList<>(numNodes);
+			for (int i = 0; i < numNodes; i++)
+			{
+				LayoutNode node = new LayoutNode(newNodeView(), i, null);
+				// Same range as a layout from scratch
+				node.setX((random.nextFloat() - 0.5f) * 2f);
+				node.setY((random.nextFloat() - 0.5f) * 2f);
+				nodes.add(node);
+			}
+		}
+
+		void addEdge(int source, int target)
+		{
+			LayoutNode v1 = nodes.get(source), v2 = nodes.get(target);
+			LayoutEdge edge = new LayoutEdge(null, v1, v2, null);
+			edge.setWeight(1.0);
+			edges.add(edge);
+			if (v1 != v2)
+			{
+				v1.addNeighbor(v2);
+				v2.addNeighbor(v1);
+			}
+		}
+
+		LayoutPartition build()
+		{
+			return new SyntheticPartition(nodes, edges);
+		}
+	}
+
+	/**
+	 * A partition that just holds the given lists.
+	 */
+	private static class SyntheticPartition extends LayoutPartition
+	{
+		private final List<LayoutNode> nodes;
+		private final List<LayoutEdge> edges;
+
+		SyntheticPartition(List<LayoutNode> nodes, List<LayoutEdge> edges)
+		{
+			super(nodes.size(), edges.size());
+			this.nodes = nodes;
+			this.edges = edges;
+		}
+
+		@Override
+		public List<LayoutNode> getNodeList()
+		{
+			return nodes;
+		}
+
+		@Override
+		public List<LayoutEdge> getEdgeList()
+		{
+			return edges;
+		}
+
+		@Override
+		public int nodeCount()
+		{
+			return nodes.size();
+		}
+
+		@Override
+		public int edgeCount()
+		{
+			return edges.size();
+		}
+	}
+
+	/**
+	 * A node view that returns the default of every visual property,
+	 * which is all LayoutNode needs.
+	 */
+	@SuppressWarnings("unchecked")
+	private static View<CyNode> newNodeView()
+	{
+		return (View<CyNode>)Proxy.newProxyInstance(SyntheticGraphs.class.getClassLoader(), new Class<?>[] { View.class },
+			(proxy, method, args) ->
+			{
+				if (method.getName().equals("getVisualProperty"))
+					return ((VisualProperty<?>)args[0]).getDefault();
+				if (method.getName().equals("equals"))
+					return proxy == args[0];
+				if (method.getName().equals("hashCode"))
+					return System.identityHashCode(proxy);
+				if (method.getReturnType() == boolean.class)
+					return false;
+				if (method.getReturnType() == Long.class || method.getReturnType() == long.class)
+					return 0L;
+				return null;
+			});
+	}
+}
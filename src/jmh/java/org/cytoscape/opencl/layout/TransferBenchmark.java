@@ -0,0 +1,91 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Host/device transfers of the OpenCL engine: uploading a partition's network data 
+ * into pooled buffers, and reading positions back. Needs an OpenCL device, see {@link BenchmarkDevices}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark
+{
+	@Param({ "erdos-renyi", "barabasi-albert", "grid", "components" })
+	public String graph;
+
+	@Param({ "1000", "100000" })
+	public int nodes;
+
+	@Param({ "8" })
+	public int degree;
+
+	private final CLLayoutContext context = new CLLayoutContext();
+	private final LayoutTimings timings = new LayoutTimings("benchmark", "opencl");
+	private LayoutDevice device;
+	private SlimNetwork slim;
+	
+	// Holds uploaded buffers for the download benchmark
+	private CLLayouter uploaded;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		device = BenchmarkDevices.open();
+		slim = SyntheticGraphs.toSlimNetwork(SyntheticGraphs.create(graph, nodes, degree, 42), context);
+	}
+
+	@Setup(Level.Iteration)
+	public void upload()
+	{
+		uploaded = new CLLayouter(context, device, timings);
+		uploaded.initializeBuffers(slim);
+	}
+
+	@TearDown(Level.Iteration)
+	public void free()
+	{
+		uploaded.freeBuffers();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		device.bufferPool.clear();
+	}
+
+	/**
+	 * Leases and fills all buffers for a partition, then returns them to the pool.
+	 */
+	@Benchmark
+	public void initializeBuffers()
+	{
+		CLLayouter engine = new CLLayouter(context, device, timings);
+		engine.initializeBuffers(slim);
+		engine.freeBuffers();
+	}
+
+	@Benchmark
+	public float[] getPositions()
+	{
+		uploaded.getPositions(slim);
+		return slim.nodePosX;
+	}
+}
@@ -0,0 +1,256 @@
+package org.cytoscape.opencl.layout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+
+import org.cytoscape.cycl.CyCLDevice;
+import org.cytoscape.cycl.CyCLDevice.DeviceTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the fastest {@link LaunchProfile} for a device by timing a few simulation steps
+ * on a synthetic graph with every candidate: work group sizes first, then the GPU tile
+ * size, spring lanes and whether hubs' springs are fused with integration, each with
+ * the best values found so far. Profiles are saved in a properties file, keyed by device
+ * name, vendor and driver version, so a device is only tuned again after a driver update.
+ *
+ * Tuning launches kernels, so nothing else may use the device meanwhile. {@link CLLayout}
+ * tunes on the activator's thread before it hands the devices to any layout.
+ *
+ * Steps are timed with the default {@link CLLayoutContext} only. The key does not include
+ * the settings that change which kernels run, e.g. Barnes-Hut, edge repulsion, compact
+ * springs, the integrator or batching of small partitions, so a profile tuned with the
+ * defaults is also used with other settings, where it may not be the fastest.
+ */
+class Autotuner
+{
+	private static final Logger logger = LoggerFactory.getLogger(Autotuner.class);
+
+	// Synthetic graph: preferential attachment, so that there are hubs for the spring bins
+	private static final int numNodes = 4096;
+	private static final int edgesPerNode = 4;
+	// Steps before timing, to get past lazy allocation and kernel setup in the driver
+	private static final int warmupSteps = 1;
+	private static final int timedSteps = 3;
+	private static final int[] groupSizes = { 32, 64, 128, 256, 512 };
+	private static final int[] springLanes = { 4, 8, 16, 32 };
+
+	// Null if profiles are not saved
+	private final File file;
+
+	/**
+	 * @param file Where profiles are saved, or null to tune again in every session
+	 */
+	Autotuner(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Gives the device its saved profile, or tunes it and saves the result if there is none
+	 * for this device and driver.
+	 */
+	synchronized void apply(LayoutDevice device)
+	{
+		String key = getKey(device.device);
+		Properties saved = load();
+		LaunchProfile profile = LaunchProfile.load(saved, key);
+		if (profile == null)
+		{
+			long start = System.nanoTime();
+			profile = tune(device);
+			logger.info(String.format("Tuned layout kernels on %s in %.1f s: %s", device, (System.nanoTime() - start) * 1e-9, profile));
+
+			profile.store(saved, key);
+			save(saved);
+		}
+		device.profile = profile;
+	}
+
+	private LaunchProfile tune(LayoutDevice device)
+	{
+		CyCLDevice clDevice = device.device;
+		long maxGroupSize = clDevice.getMaxWorkGroupSize();
+		Search search = new Search(device);
+
+		for (int size : groupSizes)
+			if (size <= maxGroupSize)
+				search.tryProfile(search.best.withNodeGroupSize(size));
+
+		if (clDevice.getType() != DeviceTypes.GPU)
+			return search.best;
+
+		// Tiles are unrolled by 16 nodes, so all group sizes qualify
+		for (int size : groupSizes)
+			if (size <= maxGroupSize)
+				search.tryProfile(search.best.withTileGroupSize(size));
+		// The synthetic graph's hubs exceed the default fusion degree, so the lanes matter
+		for (int lanes : springLanes)
+			if (lanes <= Long.highestOneBit(search.best.nodeGroupSize))
+				search.tryProfile(search.best.withSpringLanes(lanes));
+		search.tryProfile(search.best.withMaxFusedSpringDegree(Integer.MAX_VALUE));
+		return search.best;
+	}
+
+	/**
+	 * The fastest profile so far, starting with the device's defaults.
+	 */
+	private class Search
+	{
+		final LayoutDevice device;
+		final SlimNetwork slim = createNetwork();
+		// Default settings; the profile is used with all others, see the class comment
+		final CLLayoutContext context = new CLLayoutContext();
+		LaunchProfile best;
+		double bestTime;
+
+		Search(LayoutDevice device)
+		{
+			this.device = device;
+			best = LaunchProfile.defaults(device.device);
+			bestTime = time(device, best, slim, context);
+		}
+
+		void tryProfile(LaunchProfile candidate)
+		{
+			double time = time(device, candidate, slim, context);
+			if (time < bestTime)
+			{
+				best = candidate;
+				bestTime = time;
+			}
+		}
+	}
+
+	/**
+	 * Seconds per simulation step with the given profile, or infinity if it can't be launched.
+	 */
+	private double time(LayoutDevice device, LaunchProfile profile, SlimNetwork slim, CLLayoutContext context)
+	{
+		LayoutDevice candidate = new LayoutDevice(device.program, device.bufferPool, null, profile);
+		CLLayouter layouter = new CLLayouter(context, candidate, new LayoutTimings("autotune", device.toString()));
+		float[] posX = new float[1], posY = new float[1];
+		try
+		{
+			layouter.initializeBuffers(slim);
+			layouter.initializeSimulation(slim);
+			for (int i = 0; i < warmupSteps; i++)
+				layouter.advanceSimulation(50f, false, slim);
+			// Reading back waits for all steps to finish
+			layouter.getPositions(slim, posX, posY);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < timedSteps; i++)
+				layouter.advanceSimulation(50f, false, slim);
+			layouter.getPositions(slim, posX, posY);
+			return (System.nanoTime() - start) * 1e-9 / timedSteps;
+		}
+		catch (RuntimeException e)
+		{
+			logger.debug("Could not launch layout kernels with " + profile, e);
+			return Double.POSITIVE_INFINITY;
+		}
+		finally
+		{
+			layouter.freeBuffers();
+		}
+	}
+
+	/**
+	 * A random graph where every new node links to existing ones with probability
+	 * proportional to their degree.
+	 */
+	private static SlimNetwork createNetwork()
+	{
+		Random random = new Random(42);
+		int numEdges = (numNodes - 1) * edgesPerNode;
+		int[] sources = new int[numEdges], targets = new int[numEdges];
+		int[] endpoints = new int[numEdges * 2];
+		int e = 0;
+		for (int node = 1; node < numNodes; node++)
+			for (int i = 0; i < edgesPerNode; i++, e++)
+			{
+				sources[e] = node;
+				// Picking a random endpoint of an earlier edge prefers high degrees
+				targets[e] = e == 0 || random.nextInt(4) == 0 ? random.nextInt(node) : endpoints[random.nextInt(e * 2)];
+				endpoints[e * 2] = sources[e];
+				endpoints[e * 2 + 1] = targets[e];
+			}
+
+		float[] posX = new float[numNodes], posY = new float[numNodes];
+		for (int i = 0; i < numNodes; i++)
+		{
+			posX[i] = (random.nextFloat() - 0.5f) * 1000f;
+			posY[i] = (random.nextFloat() - 0.5f) * 1000f;
+		}
+
+		LayoutGraph graph = new LayoutGraph()
+		{
+			public int getNodeCount() { return numNodes; }
+			public int getEdgeCount() { return numEdges; }
+			public long getNodeId(int node) { return node; }
+			public double getX(int node) { return posX[node]; }
+			public double getY(int node) { return posY[node]; }
+			public boolean isLocked(int node) { return false; }
+			public int getEdgeSource(int edge) { return sources[edge]; }
+			public int getEdgeTarget(int edge) { return targets[edge]; }
+			public double getEdgeWeight(int edge) { return 1.0; }
+		};
+		CLLayoutContext context = new CLLayoutContext();
+		return new SlimNetwork(new SlimTopology(graph, CLLayouter.requiredPadding), graph,
+							   (float)context.defaultNodeMass,
+							   (float)context.defaultSpringCoefficient,
+							   (float)context.defaultSpringLength);
+	}
+
+	/**
+	 * Identifies the device and its driver.
+	 */
+	private static String getKey(CyCLDevice device)
+	{
+		return (device.getName() + "." + device.getVendor() + "." + device.getVersion()).replaceAll("[^A-Za-z0-9.]+", "_");
+	}
+
+	private Properties load()
+	{
+		Properties properties = new Properties();
+		if (file == null || !file.exists())
+			return properties;
+
+		try (InputStream in = Files.newInputStream(file.toPath()))
+		{
+			properties.load(in);
+		}
+		catch (IOException e)
+		{
+			logger.warn("Could not read layout launch profiles from " + file, e);
+		}
+		return properties;
+	}
+
+	private void save(Properties properties)
+	{
+		if (file == null)
+			return;
+
+		try
+		{
+			if (file.getParentFile() != null)
+				Files.createDirectories(file.getParentFile().toPath());
+			try (OutputStream out = Files.newOutputStream(file.toPath()))
+			{
+				properties.store(out, "Layout kernel launch profiles per device and driver");
+			}
+		}
+		catch (IOException e)
+		{
+			logger.warn("Could not write layout launch profiles to " + file, e);
+		}
+	}
+}
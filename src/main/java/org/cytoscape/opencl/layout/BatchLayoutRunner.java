@@ -0,0 +1,399 @@
+package org.cytoscape.opencl.layout;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.cytoscape.cycl.CyCLDevice;
+import org.cytoscape.cycl.CyCLDevice.DeviceTypes;
+import org.cytoscape.cycl.CyCLFactory;
+import org.cytoscape.work.TunableValidator.ValidationState;
+
+/**
+ * Lays out edge list and SIF files without Cytoscape, see {@link EdgeListGraph}.
+ * Several graphs are read, built and written concurrently, while their simulations
+ * share the OpenCL devices through a {@link DeviceScheduler} and each device's
+ * {@link BufferPool}. Every graph's coordinates are written as soon as it is done,
+ * and the throughput in graphs per second is printed at the end.
+ *
+ * Outside of Cytoscape there is no OSGi service to get a CyCLFactory from, so the
+ * implementation class is named with -Dcycl.factory=... (and optionally restricted to
+ * one device type with -Dcycl.deviceType=CPU or GPU). Without it, the layout runs on the host.
+ *
+ * Usage: BatchLayoutRunner [options] file-or-directory...
+ * (from a source checkout: mvn -P batch compile exec:exec -Dbatch.args="[options] file-or-directory...")
+ * <pre>
+ *   --out DIR          Directory for the coordinate files (default: current directory)
+ *   --format FORMAT    csv (node,x,y per line) or binary (node count, then x and y per node)
+ *   --threads N        Graphs prepared and written concurrently (default: number of cores)
+ *   --iterations N     Simulation iterations per graph
+ *   --multilevel       Multilevel layout for large graphs
+ *   --barnes-hut       Approximate node repulsion for large graphs
+ *   --converge         Stop early once a graph's layout has converged
+ *   --integrator NAME  rk4 (default), euler or verlet; the latter two are for drafts of huge graphs
+ *   --timings FILE     Write the timings of all graphs as JSON
+ *   --profiles FILE    Tune the kernels' launch shapes per device once and keep them in FILE
+ * </pre>
+ */
+public class BatchLayoutRunner
+{
+	public enum OutputFormat
+	{
+		csv, binary
+	}
+
+	private final CLLayoutContext context;
+	private final Path outputDir;
+	private final OutputFormat format;
+
+	// Null if no OpenCL device is available
+	private final DeviceScheduler<LayoutDevice> scheduler;
+
+	private final TimingReport timingReport = new TimingReport();
+
+	/**
+	 * @param devices Devices to lay out on, best first. If empty, the layout runs on the host.
+	 * @param outputDir Directory the coordinate files are written to
+	 */
+	public BatchLayoutRunner(CLLayoutContext context, List<LayoutDevice> devices, Path outputDir, OutputFormat format)
+	{
+		this.context = context;
+		this.outputDir = outputDir;
+		this.format = format;
+		scheduler = devices.isEmpty() ? null : new DeviceScheduler<>(devices);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		CLLayoutContext context = new CLLayoutContext();
+		Path outputDir = Paths.get(".");
+		OutputFormat format = OutputFormat.csv;
+		int threads = Runtime.getRuntime().availableProcessors();
+		File timingsFile = null;
+		File profilesFile = null;
+		List<Path> inputs = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i])
+			{
+				case "--out": outputDir = Paths.get(value(args, ++i)); break;
+				case "--format": format = OutputFormat.valueOf(value(args, ++i)); break;
+				case "--threads": threads = Integer.parseInt(value(args, ++i)); break;
+				case "--iterations": context.numIterations = Integer.parseInt(value(args, ++i)); break;
+				case "--multilevel": context.useMultilevel = true; break;
+				case "--barnes-hut": context.useBarnesHut = true; break;
+				case "--converge": context.stopWhenConverged = true; break;
+				case "--integrator": context.integrator.setSelectedValue(integrator(value(args, ++i))); break;
+				case "--timings": timingsFile = new File(value(args, ++i)); break;
+				case "--profiles": profilesFile = new File(value(args, ++i)); break;
+				default:
+					if (args[i].startsWith("--"))
+						throw new IllegalArgumentException("Unknown option " + args[i]);
+					inputs.addAll(listInputs(Paths.get(args[i])));
+			}
+		}
+		if (inputs.isEmpty())
+		{
+			System.err.println("Usage: BatchLayoutRunner [--out DIR] [--format csv|binary] [--threads N] [--iterations N] "
+							 + "[--multilevel] [--barnes-hut] [--converge] [--integrator rk4|euler|verlet] [--timings FILE] [--profiles FILE] file-or-directory...");
+			System.exit(2);
+		}
+		if (threads <= 0)
+			throw new IllegalArgumentException("Number of threads must be > 0; current value = " + threads);
+		checkOutputNames(inputs, format);
+
+		StringBuilder errMsg = new StringBuilder();
+		if (context.getValidationState(errMsg) != ValidationState.OK)
+			throw new IllegalArgumentException(errMsg.toString());
+		Files.createDirectories(outputDir);
+
+		List<LayoutDevice> devices = openDevices(context);
+		if (profilesFile != null)
+		{
+			Autotuner autotuner = new Autotuner(profilesFile);
+			for (LayoutDevice device : devices)
+				autotuner.apply(device);
+		}
+		if (devices.isEmpty())
+			System.out.println("Layout will use " + Runtime.getRuntime().availableProcessors() + " host CPU cores, no OpenCL device is available.");
+		else
+			for (LayoutDevice device : devices)
+				System.out.println("Layout will use " + device + ".");
+
+		BatchLayoutRunner runner = new BatchLayoutRunner(context, devices, outputDir, format);
+		int failed = runner.run(inputs, threads);
+
+		if (timingsFile != null)
+			runner.timingReport.writeJson(timingsFile);
+		for (LayoutDevice device : devices)
+			device.bufferPool.clear();
+		System.exit(failed > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Lays out all files on the given number of threads, and prints the throughput.
+	 * @return Number of files that could not be laid out
+	 */
+	public int run(List<Path> inputs, int threads) throws InterruptedException
+	{
+		AtomicLong numNodes = new AtomicLong();
+		long start = System.nanoTime();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Batch layout");
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<?>> futures = new ArrayList<>(inputs.size());
+		for (Path input : inputs)
+			futures.add(executor.submit(() ->
+			{
+				numNodes.addAndGet(layout(input));
+				return null;
+			}));
+		executor.shutdown();
+
+		int failed = 0;
+		for (int i = 0; i < inputs.size(); i++)
+		{
+			try
+			{
+				futures.get(i).get();
+			}
+			catch (Exception e)
+			{
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				System.err.println("Could not lay out " + inputs.get(i) + ": " + cause.getMessage());
+				failed++;
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) * 1e-9;
+		int done = inputs.size() - failed;
+		System.out.println(String.format("Laid out %d graphs (%d nodes) in %.2f s: %.1f graphs/s, %.0f nodes/s%s",
+										 done, numNodes.get(), seconds, done / seconds, numNodes.get() / seconds,
+										 failed > 0 ? ", " + failed + " failed" : ""));
+		if (!timingReport.isEmpty())
+			System.out.println(timingReport.summary());
+		return failed;
+	}
+
+	/**
+	 * Reads, lays out and writes one graph.
+	 * @return Number of nodes
+	 */
+	private int layout(Path input) throws IOException
+	{
+		String label = input.getFileName().toString();
+
+		// Everything but the simulation runs concurrently with other graphs' simulations
+		LayoutTimings hostTimings = new LayoutTimings(label, "host");
+		long start = System.nanoTime();
+		EdgeListGraph graph = EdgeListGraph.read(input);
+		SlimNetwork slim = new SlimNetwork(new SlimTopology(graph, CLLayouter.requiredPadding),
+										   graph,
+										   (float)context.defaultNodeMass,
+										   (float)context.defaultSpringCoefficient,
+										   (float)context.defaultSpringLength);
+		hostTimings.addPhase(LayoutTimings.networkBuild, start);
+		hostTimings.numNodes = graph.getNodeCount();
+		hostTimings.numEdges = graph.getEdgeCount();
+
+		LayoutTimings timings;
+		if (scheduler == null)
+		{
+			timings = new LayoutTimings(label, "host");
+			new Simulation(context, () -> false, timings).run(slim, new JavaLayouter(context, timings), null);
+		}
+		else
+		{
+			LayoutDevice device;
+			try
+			{
+				device = scheduler.acquire(graph.getNodeCount());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a device", e);
+			}
+
+			try
+			{
+				timings = new LayoutTimings(label, device.toString());
+				new Simulation(context, () -> Thread.currentThread().isInterrupted(), timings).run(slim, new CLLayouter(context, device, timings), null);
+			}
+			finally
+			{
+				scheduler.release(device);
+			}
+		}
+
+		start = System.nanoTime();
+		write(graph, slim, input);
+		hostTimings.addPhase(LayoutTimings.writeBack, start);
+
+		timings.addAll(hostTimings);
+		timingReport.add(timings);
+		return graph.getNodeCount();
+	}
+
+	/**
+	 * Writes the simulated positions in the order the nodes first appear in the input,
+	 * to a file named like the input with .csv or .bin appended, see {@link #outputName}.
+	 */
+	private void write(EdgeListGraph graph, SlimNetwork slim, Path input) throws IOException
+	{
+		final int n = graph.getNodeCount();
+		final int[] order = slim.topology.order;
+		float[] posX = new float[n], posY = new float[n];
+		for (int id = 0; id < n; id++)
+		{
+			posX[order[id]] = slim.nodePosX[id];
+			posY[order[id]] = slim.nodePosY[id];
+		}
+
+		Path output = outputDir.resolve(outputName(input, format));
+		if (format == OutputFormat.csv)
+		{
+			try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8))
+			{
+				writer.write("node,x,y\n");
+				for (int i = 0; i < n; i++)
+					writer.write(quote(graph.getNodeName(i)) + "," + posX[i] + "," + posY[i] + "\n");
+			}
+		}
+		else
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output))))
+			{
+				out.writeInt(n);
+				for (int i = 0; i < n; i++)
+				{
+					out.writeFloat(posX[i]);
+					out.writeFloat(posY[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compiles the layout program on all devices of the CyCL implementation named
+	 * with -Dcycl.factory, best first, or returns none if it isn't set or didn't initialize.
+	 */
+	private static List<LayoutDevice> openDevices(CLLayoutContext context) throws Exception
+	{
+		List<LayoutDevice> devices = new ArrayList<>();
+		String factoryClass = System.getProperty("cycl.factory");
+		if (factoryClass == null)
+			return devices;
+
+		CyCLFactory factory = (CyCLFactory)Class.forName(factoryClass).getDeclaredConstructor().newInstance();
+		if (!factory.isInitialized())
+		{
+			System.out.println("OpenCL did not initialize.");
+			return devices;
+		}
+
+		String type = System.getProperty("cycl.deviceType");
+		List<CyCLDevice> candidates = new ArrayList<>();
+		candidates.add(factory.getDevice());
+		for (CyCLDevice device : factory.getDevices())
+			if (device != candidates.get(0))
+				candidates.add(device);
+
+		for (CyCLDevice device : candidates)
+		{
+			if (device == null || type != null && device.getType() != DeviceTypes.valueOf(type))
+				continue;
+			try
+			{
+				devices.add(LayoutDevice.compile(new BufferPool(device, context.bufferPoolMegabytes * 1024L * 1024L), null));
+			}
+			catch (Exception exc)
+			{
+				System.err.println("Could not load and compile OpenCL program on " + device.getName() + ": " + exc.getMessage());
+			}
+		}
+		return devices;
+	}
+
+	/**
+	 * Name of the coordinate file for an input: its whole file name with the format's
+	 * extension appended, so a.txt and a.sif don't overwrite each other.
+	 */
+	static String outputName(Path input, OutputFormat format)
+	{
+		return input.getFileName() + (format == OutputFormat.csv ? ".csv" : ".bin");
+	}
+
+	/**
+	 * Fails if two inputs, e.g. from different directories, have the same file name,
+	 * as their coordinates would be written to the same file.
+	 */
+	static void checkOutputNames(List<Path> inputs, OutputFormat format)
+	{
+		Map<String, Path> byName = new HashMap<>();
+		for (Path input : inputs)
+		{
+			Path other = byName.put(outputName(input, format), input);
+			if (other != null)
+				throw new IllegalArgumentException("Inputs " + other + " and " + input + " would both be written to " + outputName(input, format));
+		}
+	}
+
+	/**
+	 * The file itself, or all regular files in a directory by name.
+	 */
+	private static List<Path> listInputs(Path path) throws IOException
+	{
+		if (!Files.isDirectory(path))
+			return List.of(path);
+		try (Stream<Path> files = Files.list(path))
+		{
+			return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static String quote(String name)
+	{
+		if (name.indexOf(',') < 0 && name.indexOf('"') < 0)
+			return name;
+		return '"' + name.replace("\"", "\"\"") + '"';
+	}
+
+	private static String integrator(String name)
+	{
+		switch (name)
+		{
+			case "rk4": return CLLayoutContext.rungeKuttaIntegrator;
+			case "euler": return CLLayoutContext.eulerIntegrator;
+			case "verlet": return CLLayoutContext.verletIntegrator;
+			default: throw new IllegalArgumentException("Unknown integrator " + name);
+		}
+	}
+
+	private static String value(String[] args, int i)
+	{
+		if (i >= args.length)
+			throw new IllegalArgumentException(args[i - 1] + " needs a value");
+		return args[i];
+	}
+}
@@ -0,0 +1,233 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cytoscape.cycl.CyCLBuffer;
+import org.cytoscape.cycl.CyCLDevice;
+
+/**
+ * Keeps device buffers alive across partitions and layout runs, so that
+ * laying out thousands of small partitions doesn't allocate and free
+ * about 20 buffers for every one of them.
+ *
+ * Buffers are grouped by element type and size class. Requests are rounded
+ * up to the next size class, so a leased buffer may be larger than asked for;
+ * callers must transfer data with explicit byte counts. Idle buffers are freed
+ * in least-recently-returned order once their total size exceeds the memory cap.
+ */
+public class BufferPool
+{
+	private static final int elementSize = 4;	// float and int
+
+	private final CyCLDevice device;
+
+	private final Map<BucketKey, ArrayDeque<CyCLBuffer>> idle = new HashMap<>();
+	// All idle buffers in the order they were returned, oldest first
+	private final LinkedHashMap<CyCLBuffer, BucketKey> idleOrder = new LinkedHashMap<>();
+	private final IdentityHashMap<CyCLBuffer, BucketKey> leased = new IdentityHashMap<>();
+
+	private long memoryCap;
+	private long idleBytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param device Device to allocate buffers on
+	 * @param memoryCap Maximum number of bytes held by idle buffers
+	 */
+	public BufferPool(CyCLDevice device, long memoryCap)
+	{
+		this.device = device;
+		this.memoryCap = memoryCap;
+	}
+
+	public CyCLDevice getDevice()
+	{
+		return device;
+	}
+
+	/**
+	 * Returns an idle buffer of at least the given size, or allocates a new one.
+	 * @param type float.class or int.class
+	 * @param elements Minimum number of elements
+	 */
+	public synchronized CyCLBuffer lease(Class<?> type, int elements)
+	{
+		BucketKey key = new BucketKey(type, sizeClass(elements));
+
+		CyCLBuffer buffer = null;
+		ArrayDeque<CyCLBuffer> bucket = idle.get(key);
+		if (bucket != null && !bucket.isEmpty())
+		{
+			buffer = bucket.pop();
+			idleOrder.remove(buffer);
+			idleBytes -= key.bytes();
+			hits++;
+		}
+		else
+		{
+			buffer = device.createBuffer(type, key.elements);
+			misses++;
+		}
+
+		leased.put(buffer, key);
+		return buffer;
+	}
+
+	/**
+	 * Gives a leased buffer back to the pool. Its content is undefined when leased again.
+	 */
+	public synchronized void release(CyCLBuffer buffer)
+	{
+		BucketKey key = leased.remove(buffer);
+		if (key == null)
+			throw new IllegalArgumentException("Buffer was not leased from this pool.");
+
+		idle.computeIfAbsent(key, k -> new ArrayDeque<>()).push(buffer);
+		idleOrder.put(buffer, key);
+		idleBytes += key.bytes();
+
+		evict();
+	}
+
+	/**
+	 * Changes the memory cap, freeing idle buffers if needed.
+	 */
+	public synchronized void setMemoryCap(long memoryCap)
+	{
+		this.memoryCap = memoryCap;
+		evict();
+	}
+
+	/**
+	 * Frees all idle buffers.
+	 */
+	public synchronized void clear()
+	{
+		long cap = memoryCap;
+		memoryCap = 0;
+		evict();
+		memoryCap = cap;
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<CyCLBuffer, BucketKey>> oldest = idleOrder.entrySet().iterator();
+		while (idleBytes > memoryCap && oldest.hasNext())
+		{
+			Map.Entry<CyCLBuffer, BucketKey> entry = oldest.next();
+			oldest.remove();
+
+			CyCLBuffer buffer = entry.getKey();
+			idle.get(entry.getValue()).remove(buffer);
+			idleBytes -= entry.getValue().bytes();
+			buffer.free();
+			evictions++;
+		}
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	public synchronized long getIdleBytes()
+	{
+		return idleBytes;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		long total = hits + misses;
+		return String.format("Buffer pool on %s: %d hits, %d misses (%.1f%% reused), %d evictions, %d kB idle",
+							 device.getName(), hits, misses, total > 0 ? 100.0 * hits / total : 0.0, evictions, idleBytes / 1024);
+	}
+
+	/**
+	 * Copies host data into the beginning of a (possibly larger) pooled buffer.
+	 */
+	public static void upload(CyCLBuffer buffer, float[] data)
+	{
+		if (data.length > 0)
+			buffer.setFromHost(data, (long)data.length * elementSize, 0);
+	}
+
+	public static void upload(CyCLBuffer buffer, int[] data)
+	{
+		if (data.length > 0)
+			buffer.setFromHost(data, (long)data.length * elementSize, 0);
+	}
+
+	/**
+	 * Copies the beginning of a (possibly larger) pooled buffer back to the host.
+	 */
+	public static void download(CyCLBuffer buffer, float[] data)
+	{
+		if (data.length > 0)
+			buffer.getFromDevice(data, (long)data.length * elementSize, 0);
+	}
+
+	/**
+	 * Rounds up to the next size class. Classes are spaced four per power of two,
+	 * so at most 25% of a buffer is wasted.
+	 */
+	static int sizeClass(int elements)
+	{
+		if (elements <= 16)
+			return 16;
+
+		int highBit = 31 - Integer.numberOfLeadingZeros(elements - 1);
+		int step = 1 << (highBit - 2);
+		return (elements + step - 1) / step * step;
+	}
+
+	private static class BucketKey
+	{
+		final Class<?> type;
+		final int elements;
+
+		BucketKey(Class<?> type, int elements)
+		{
+			this.type = type;
+			this.elements = elements;
+		}
+
+		long bytes()
+		{
+			return (long)elements * elementSize;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof BucketKey))
+				return false;
+			BucketKey other = (BucketKey)o;
+			return type == other.type && elements == other.elements;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return type.hashCode() * 31 + elements;
+		}
+	}
+}
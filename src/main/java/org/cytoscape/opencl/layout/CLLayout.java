@@ -25,33 +25,108 @@ package org.cytoscape.opencl.layout;
  */
 
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.cytoscape.cycl.CyCLDevice;
+import org.cytoscape.cycl.CyCLDevice.DeviceTypes;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.view.layout.AbstractLayoutAlgorithm;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.view.model.View;
 import org.cytoscape.work.TaskIterator;
 import org.cytoscape.work.undo.UndoSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class CLLayout extends AbstractLayoutAlgorithm 
 {
 	private static final String ALGORITHM_ID = "force-directed-cl";
 	static final String ALGORITHM_DISPLAY_NAME = "Prefuse Force Directed OpenCL Layout";
-  final CyCLDevice device;
+	private static final Logger logger = LoggerFactory.getLogger(CLLayout.class);
+  /** One buffer pool per OpenCL device to run on, best first. Empty to use the host engine. */
+  final List<BufferPool> bufferPools = new ArrayList<>();
+  /** Network structure of recent layouts, reused while it doesn't change. */
+  final TopologyCache topologyCache = new TopologyCache(256L * 1024 * 1024);
+  /** Where nodes were after the last layout of every view, for incremental layouts. */
+  final PositionHistory positionHistory = new PositionHistory();
+  /** 
+   * Hands the devices with the compiled layout program to all tasks, null until the first layout 
+   * or if there are no devices. Kernels keep their arguments between launches, so tasks sharing 
+   * the programs must not use a device at the same time.
+   */
+  private DeviceScheduler<LayoutDevice> scheduler;
+  private boolean compiled;
+  /** Picks the launch shapes for every device once it is compiled. */
+  private final Autotuner autotuner;
 
-	public CLLayout(UndoSupport undo, final CyCLDevice device) 
+	/**
+	 * @param launchProfiles File to keep tuned launch shapes of the devices in, or null to tune in every session
+	 */
+	public CLLayout(UndoSupport undo, final List<CyCLDevice> devices, final File launchProfiles) 
 	{
 		super(ALGORITHM_ID, ALGORITHM_DISPLAY_NAME, undo);
-    this.device = device;
+    autotuner = new Autotuner(launchProfiles);
+    for (CyCLDevice device : devices)
+      bufferPools.add(new BufferPool(device, 256L * 1024 * 1024));
 	}
 
 	@Override
 	public TaskIterator createTaskIterator(CyNetworkView networkView, Object context, Set<View<CyNode>> nodesToLayOut, String attrName) 
 	{
-		return new TaskIterator(new CLLayoutTask(toString(), device, networkView, nodesToLayOut, (CLLayoutContext)context, attrName, undoSupport));
+		return new TaskIterator(new CLLayoutTask(toString(), this::getScheduler, topologyCache, positionHistory, networkView, nodesToLayOut, (CLLayoutContext)context, attrName, undoSupport));
+	}
+
+	/**
+	 * Compiles the layout program on every device the first time it is called, 
+	 * and schedules the devices where it worked. All tasks share these programs.
+	 * {@link CyActivator} calls this on its own thread right after startup, so
+	 * layouts normally start without compiling; a layout started before that is
+	 * done waits for it in its task. Devices without a saved launch profile for
+	 * their driver are tuned, see {@link Autotuner}.
+	 * @return The scheduler for the devices, or null if the layout should run on the host
+	 * @throws RuntimeException If there are OpenCL devices, but the program compiled on none of them
+	 */
+	synchronized DeviceScheduler<LayoutDevice> getScheduler()
+	{
+		if (!compiled)
+		{
+			compiled = true;
+			List<LayoutDevice> devices = new ArrayList<>();
+			for (BufferPool bufferPool : bufferPools)
+			{
+				CyCLDevice device = bufferPool.getDevice();
+				
+				if (device.getType() == DeviceTypes.GPU)
+					logger.info("Layout will use GPU " + device.getName() + ", max work group size = " + device.getMaxWorkGroupSize() 
+								+ ", best block size = " + device.getBestBlockSize() + ", best warp size = " + device.getBestWarpSize() + ".");
+				else
+					logger.info("Layout will use CPU " + device.getName() + ".");
+				
+				try
+				{
+					LayoutDevice layoutDevice = LayoutDevice.compile(bufferPool, topologyCache);
+					autotuner.apply(layoutDevice);
+					devices.add(layoutDevice);
+				}
+				catch (Exception exc)
+				{
+					logger.warn("Could not load and compile OpenCL program on " + device.getName() + ".", exc);
+				}
+			}
+			
+			if (!devices.isEmpty())
+				scheduler = new DeviceScheduler<>(devices);
+			else if (!bufferPools.isEmpty())
+				logger.warn("Could not load and compile OpenCL program, cannot do layout.");
+		}
+		
+		if (scheduler == null && !bufferPools.isEmpty())
+			throw new RuntimeException("Could not load and compile OpenCL program.");
+		return scheduler;
 	}
 
 	@Override
@@ -24,12 +24,14 @@ package org.cytoscape.opencl.layout;
  * #L%
  */
 
+import java.io.File;
 import java.io.IOException;
 
 import org.cytoscape.view.layout.EdgeWeighter;
 import org.cytoscape.work.Tunable;
 import org.cytoscape.work.ContainsTunables;
 import org.cytoscape.work.TunableValidator;
+import org.cytoscape.work.util.ListSingleSelection;
 
 public class CLLayoutContext implements TunableValidator 
 {	
@@ -50,8 +52,87 @@ public class CLLayoutContext implements TunableValidator
 	public boolean isDeterministic;
 	@Tunable(description="Start from scratch")
 	public boolean fromScratch = true;
+	@Tunable(description="Only lay out nodes near changes since the last layout", dependsOn="fromScratch=false")
+	public boolean incremental;
+	@Tunable(description="Also lay out nodes up to N hops from a change", dependsOn="incremental=true")
+	public int incrementalHops = 2;
 	@Tunable(description="Don't partition graph before layout", groups="Standard settings")
 	public boolean singlePartition;
+	@Tunable(description="Approximate node repulsion for large partitions (Barnes-Hut)")
+	public boolean useBarnesHut;
+	@Tunable(description="Barnes-Hut opening angle", dependsOn="useBarnesHut=true")
+	public double barnesHutTheta = 0.7;
+	
+	@Tunable(description="Multilevel layout for large partitions")
+	public boolean useMultilevel;
+	@Tunable(description="Refinement iterations on the finest level", dependsOn="useMultilevel=true")
+	public int multilevelRefinementIterations = 4;
+	
+	@Tunable(description="Limit edge repulsion to nearby edges (grid)")
+	public boolean useEdgeRepulsionGrid;
+	@Tunable(description="Edge repulsion cutoff radius", dependsOn="useEdgeRepulsionGrid=true")
+	public double edgeRepulsionCutoff = 200.0;
+	
+	@Tunable(description="Lay out small partitions in batches")
+	public boolean batchSmallPartitions;
+	@Tunable(description="Idle device buffer pool size (MB)")
+	public int bufferPoolMegabytes = 256;
+	@Tunable(description="Network structure cache size (MB)")
+	public int topologyCacheMegabytes = 256;
+	@Tunable(description="Store edge springs in half precision on the device")
+	public boolean compactSprings;
+	@Tunable(description="Device memory per partition, larger ones are laid out in tiles (MB, 0 = unlimited)")
+	public int deviceMemoryMegabytes = 0;
+	
+	static final String rungeKuttaIntegrator = "Runge-Kutta 4 (accurate)";
+	static final String eulerIntegrator = "Semi-implicit Euler (draft, 1 force evaluation per step)";
+	static final String verletIntegrator = "Velocity Verlet (draft, 1 force evaluation per step)";
+	
+	@Tunable(description="Integrator")
+	public ListSingleSelection<String> integrator = new ListSingleSelection<>(rungeKuttaIntegrator, eulerIntegrator, verletIntegrator);
+	@Tunable(description="Adapt time step to the integration error (Runge-Kutta 4 only)")
+	public boolean adaptiveTimestep;
+	@Tunable(description="Integration error tolerance per step", dependsOn="adaptiveTimestep=true")
+	public double adaptiveTolerance = 1.0;
+	
+	@Tunable(description="Show intermediate layouts")
+	public boolean progressiveUpdates;
+	@Tunable(description="Show positions every N iterations", dependsOn="progressiveUpdates=true")
+	public int progressiveInterval = 10;
+	@Tunable(description="Maximum view updates per second", dependsOn="progressiveUpdates=true")
+	public int progressiveFramesPerSecond = 10;
+	
+	@Tunable(description="Write timing report (JSON)")
+	public boolean writeTimingReport;
+	@Tunable(description="Timing report file", params="input=false", dependsOn="writeTimingReport=true")
+	public File timingReportFile = new File(System.getProperty("java.io.tmpdir"), "opencl-layout-timings.json");
+	
+	static final String maxDisplacementCriterion = "Maximum node displacement per step";
+	static final String kineticEnergyCriterion = "Mean kinetic energy per node";
+	
+	@Tunable(description="Stop early when the layout has converged")
+	public boolean stopWhenConverged;
+	@Tunable(description="Convergence criterion", dependsOn="stopWhenConverged=true")
+	public ListSingleSelection<String> convergenceCriterion = new ListSingleSelection<>(maxDisplacementCriterion, kineticEnergyCriterion);
+	@Tunable(description="Convergence threshold", dependsOn="stopWhenConverged=true")
+	public double convergenceThreshold = 0.05;
+	@Tunable(description="Check convergence every N iterations", dependsOn="stopWhenConverged=true")
+	public int convergenceCheckInterval = 10;
+	
+	/** Partitions with up to this many nodes are batched if batchSmallPartitions is set. */
+	static final int maxBatchedPartitionNodes = 64;
+	/** Partitions with fewer nodes are not kept in the topology cache. */
+	static final int minCachedTopologyNodes = 1024;
+	/** Partitions with fewer nodes always use the exact all-pairs repulsion. */
+	static final int minBarnesHutNodes = 4096;
+	/** An incremental layout falls back to a full one if a larger fraction of a partition's nodes would move. */
+	static final float maxIncrementalFraction = 0.25f;
+	/** Pinned nodes up to this many default spring lengths away from the moving nodes of an incremental layout repel them. */
+	static final float incrementalMarginSprings = 3f;
+	/** Partitions with fewer nodes are always laid out in one level. */
+	static final int minMultilevelNodes = 1000;
+	/** Partitions per device that may wait for it with their network already built. */
+	static final int maxPreparedPartitionsPerDevice = 2;
 
 	@Override
 	public ValidationState getValidationState(final Appendable errMsg) 
@@ -66,12 +147,98 @@ public class CLLayoutContext implements TunableValidator
 				errMsg.append("Default spring length must be > 0; current value = " + defaultSpringLength);
 			if (!isPositive(defaultNodeMass))
 				errMsg.append("Default node mass must be > 0; current value = " + defaultNodeMass);
+			if (bufferPoolMegabytes < 0)
+				errMsg.append("Buffer pool size must be >= 0; current value = " + bufferPoolMegabytes);
+			if (topologyCacheMegabytes < 0)
+				errMsg.append("Topology cache size must be >= 0; current value = " + topologyCacheMegabytes);
+			if (deviceMemoryMegabytes < 0)
+				errMsg.append("Device memory per partition must be >= 0; current value = " + deviceMemoryMegabytes);
+			if (useBarnesHut && !isPositive(barnesHutTheta))
+				errMsg.append("Barnes-Hut opening angle must be > 0; current value = " + barnesHutTheta);
+			if (useEdgeRepulsionGrid && !isPositive(edgeRepulsionCutoff))
+				errMsg.append("Edge repulsion cutoff radius must be > 0; current value = " + edgeRepulsionCutoff);
+			if (adaptiveTimestep && !isPositive(adaptiveTolerance))
+				errMsg.append("Integration error tolerance must be > 0; current value = " + adaptiveTolerance);
+			if (adaptiveTimestep && !useRungeKutta())
+				errMsg.append("Adaptive time step needs the Runge-Kutta 4 integrator; current integrator = " + integrator.getSelectedValue());
+			if (progressiveUpdates && !isPositive(progressiveInterval))
+				errMsg.append("Progressive update interval must be > 0; current value = " + progressiveInterval);
+			if (progressiveUpdates && !isPositive(progressiveFramesPerSecond))
+				errMsg.append("View updates per second must be > 0; current value = " + progressiveFramesPerSecond);
+			if (stopWhenConverged && !isPositive(convergenceThreshold))
+				errMsg.append("Convergence threshold must be > 0; current value = " + convergenceThreshold);
+			if (stopWhenConverged && !isPositive(convergenceCheckInterval))
+				errMsg.append("Convergence check interval must be > 0; current value = " + convergenceCheckInterval);
+			if (incremental && incrementalHops < 0)
+				errMsg.append("Neighborhood of changed nodes must be >= 0; current value = " + incrementalHops);
+			if (useMultilevel && !isPositive(multilevelRefinementIterations))
+				errMsg.append("Refinement iterations on the finest level must be > 0; current value = " + multilevelRefinementIterations);
+			if (writeTimingReport && timingReportFile == null)
+				errMsg.append("Timing report file must be set");
 		} 
 		catch (IOException e) {}
 		
 		return isPositive(numIterations) && isPositive(defaultSpringCoefficient) && isPositive(defaultSpringLength) && isPositive(defaultNodeMass)
+			   && bufferPoolMegabytes >= 0
+			   && topologyCacheMegabytes >= 0
+			   && deviceMemoryMegabytes >= 0
+			   && (!useBarnesHut || isPositive(barnesHutTheta))
+			   && (!incremental || incrementalHops >= 0)
+			   && (!useMultilevel || isPositive(multilevelRefinementIterations))
+			   && (!useEdgeRepulsionGrid || isPositive(edgeRepulsionCutoff))
+			   && (!adaptiveTimestep || isPositive(adaptiveTolerance) && useRungeKutta())
+			   && (!progressiveUpdates || isPositive(progressiveInterval) && isPositive(progressiveFramesPerSecond))
+			   && (!stopWhenConverged || isPositive(convergenceThreshold) && isPositive(convergenceCheckInterval))
+			   && (!writeTimingReport || timingReportFile != null)
 			   ? ValidationState.OK : ValidationState.INVALID;
 	}
+	
+	/**
+	 * Whether node-node repulsion in a partition of the given size is approximated with a quadtree.
+	 */
+	boolean useBarnesHut(int numNodes)
+	{
+		return useBarnesHut && numNodes >= minBarnesHutNodes;
+	}
+
+	/**
+	 * Whether a partition of the given size is laid out through a {@link MultilevelHierarchy}.
+	 */
+	boolean useMultilevel(int numNodes)
+	{
+		return useMultilevel && numNodes >= minMultilevelNodes;
+	}
+
+	/**
+	 * Whether every step takes four force evaluations and integrates with RK4, the only
+	 * integrator with an error estimate. The others evaluate forces once per step.
+	 */
+	boolean useRungeKutta()
+	{
+		return rungeKuttaIntegrator.equals(integrator.getSelectedValue());
+	}
+
+	/**
+	 * Whether steps are velocity Verlet, which keeps every node's acceleration between steps.
+	 */
+	boolean useVerlet()
+	{
+		return verletIntegrator.equals(integrator.getSelectedValue());
+	}
+
+	/**
+	 * Whether the simulation has settled, given the motion measured by {@link LayoutEngine#measureMotion}.
+	 * @param motion Total kinetic energy and maximum node speed
+	 * @param timestep Time step of the last iteration
+	 * @param numNodes Number of nodes the motion was measured over
+	 */
+	boolean isConverged(float[] motion, float timestep, int numNodes)
+	{
+		if (kineticEnergyCriterion.equals(convergenceCriterion.getSelectedValue()))
+			return motion[0] / Math.max(1, numNodes) < convergenceThreshold;
+		else
+			return motion[1] * timestep < convergenceThreshold;
+	}
 
 	private static boolean isPositive(final int n) 
 	{
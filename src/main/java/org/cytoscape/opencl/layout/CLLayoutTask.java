@@ -1,24 +1,30 @@
 package org.cytoscape.opencl.layout;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 import org.cytoscape.model.CyNode;
 // import org.cytoscape.opencl.cycl.*;
 //import org.cytoscape.opencl.cycl.CyCL;
-import org.cytoscape.cycl.CyCLBuffer;
-import org.cytoscape.cycl.CyCLDevice;
 import org.cytoscape.cycl.CyCLFactory;
-import org.cytoscape.cycl.CyCLLocalSize;
-import org.cytoscape.cycl.CyCLProgram;
-import org.cytoscape.cycl.CyCLDevice.DeviceTypes;
 import org.cytoscape.view.layout.AbstractParallelPartitionLayoutTask;
 import org.cytoscape.view.layout.LayoutNode;
 import org.cytoscape.view.layout.LayoutPartition;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.view.model.View;
+import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.undo.UndoSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -28,458 +34,530 @@ import org.cytoscape.work.undo.UndoSupport;
  */
 public class CLLayoutTask extends AbstractParallelPartitionLayoutTask 
 {		
-	private volatile Object sync = new Object();
+	private static final Logger logger = LoggerFactory.getLogger(CLLayoutTask.class);
+	
+	// Small partitions waiting to be laid out in one batch
+	private final List<BatchEntry> batchQueue = new ArrayList<>();
 	
 	private final CLLayoutContext context;
 	
-	private final CyCLDevice device;
-	private final CyCLProgram program;
+	// Compiles the devices on first use, see CLLayout.getScheduler()
+	private final Supplier<DeviceScheduler<LayoutDevice>> schedulerSupplier;
+	// Shared with other tasks, null if no OpenCL device is available; set when the layout starts
+	private DeviceScheduler<LayoutDevice> scheduler;
+	// Bounds the partitions built on the host that wait for a device, null without devices
+	private Semaphore preparedPartitions;
+	
+	// Applies intermediate positions to the view, null unless progressive updates are on
+	private volatile ScheduledExecutorService streamExecutor;
+	
+	private final TimingReport timingReport = new TimingReport();
+	
+	private final TopologyCache topologyCache;
+	private final PositionHistory positionHistory;
+	// Positions after the previous layout of this view, null unless this layout is incremental
+	private Map<CyNode, double[]> previousPositions;
 
 	/**
 	 * Creates a new ForceDirectedLayout object.
+	 * @param schedulerSupplier OpenCL devices with the compiled layout program, shared with other tasks. 
+	 * Called when the layout starts, as it may have to compile first. If it gives null, the layout runs on the host.
+	 * @param topologyCache Network structure of previous layouts
+	 * @param positionHistory Positions after previous layouts, for incremental layouts
 	 */
 	public CLLayoutTask(final String displayName, 
-             final CyCLDevice device,
+             final Supplier<DeviceScheduler<LayoutDevice>> schedulerSupplier,
+             final TopologyCache topologyCache,
+             final PositionHistory positionHistory,
 						 final CyNetworkView networkView, 
 						 final Set<View<CyNode>> nodesToLayOut,
 						 final CLLayoutContext context,
 						 final String attrName, 
 						 final UndoSupport undo) 
 	{
-		super(displayName, context.singlePartition, networkView, nodesToLayOut, attrName, undo);
+		super(displayName, isSinglePartition(context), networkView, nodesToLayOut, attrName, undo);
 
 		this.context = context;
-		this.device = device;
+		this.topologyCache = topologyCache;
+		this.positionHistory = positionHistory;
+		topologyCache.setMemoryCap(context.topologyCacheMegabytes * 1024L * 1024L);
 
 		edgeWeighter = context.edgeWeighter;
 		edgeWeighter.setWeightAttribute(layoutAttribute);
 		
-    if (device.getType() == DeviceTypes.GPU) {
-      System.out.println("Layout will use GPU " + device.getName() + ".");
-      System.out.println("Max work group size = "+device.getMaxWorkGroupSize()+".");
-      System.out.println("Best block size = "+device.getBestBlockSize()+".");
-      System.out.println("Best warp size = "+device.getBestWarpSize()+".");
-    } else
-      System.out.println("Layout will use CPU " + device.getName() + ".");
+		this.schedulerSupplier = schedulerSupplier;
+	}
+	
+	/**
+	 * Whether the whole network is laid out as one partition. Incremental layouts always are:
+	 * the base class moves separate partitions apart afterwards, and the next incremental layout
+	 * would then take every node for moved.
+	 */
+	private static boolean isSinglePartition(CLLayoutContext context)
+	{
+		return context.singlePartition || context.incremental && !context.fromScratch;
+	}
+	
+	@Override
+	public void doLayout(TaskMonitor taskMonitor)
+	{
+		taskMonitor.setStatusMessage("Compiling layout program");
+		scheduler = schedulerSupplier.get();
+		if (scheduler != null)
+		{
+			for (LayoutDevice device : scheduler.getDevices())
+				device.bufferPool.setMemoryCap(context.bufferPoolMegabytes * 1024L * 1024L);
+			preparedPartitions = new Semaphore(scheduler.getDevices().size() * CLLayoutContext.maxPreparedPartitionsPerDevice);
+		}
+		else
+		{
+			// No usable OpenCL device, run the same force model on the host
+			logger.info("Layout will use " + Runtime.getRuntime().availableProcessors() + " host CPU cores, no OpenCL device is available.");
+		}
 		
-		String[] kernelNames = new String[] 
-				{
-					"Init",
-					"CalcForcesGravity",
-					"PrepareEdgeRepulsion",
-					"CalcForcesEdgeRepulsion",
-					"CalcForcesSpringDrag",
-					"IntegrateRK0",
-					"IntegrateRK1",
-					"IntegrateRK2",
-					"IntegrateRK3",
-					"IntegrateEuler"
-				};
+		if (context.incremental && !context.fromScratch)
+			previousPositions = positionHistory.get(networkView);
+		
+		if (context.progressiveUpdates)
+		{
+			streamExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "Layout view updates");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
 		
-		CyCLProgram tryProgram;
 		try
 		{
-			tryProgram = device.addProgram("PrefuseLayout", getClass().getResource("/LayoutKernels.cl"), kernelNames, null, false);
+			super.doLayout(taskMonitor);
 		}
-		catch (Exception exc)
+		finally
 		{
-			System.out.println("Could not load and compile OpenCL program, cannot do layout.");
-			throw new RuntimeException();
+			if (streamExecutor != null)
+				streamExecutor.shutdownNow();
+			streamExecutor = null;
 		}
-		program = tryProgram;
+		
+		// Incremental layouts run as one partition, so nothing was moved after the
+		// simulation and the view shows the positions it ended with
+		if (context.incremental && !cancelled)
+			positionHistory.record(networkView);
+		
+		if (scheduler != null)
+			for (LayoutDevice device : scheduler.getDevices())
+				logger.info(device.bufferPool.toString());
+		logger.info(topologyCache.toString());
+		
+		reportTimings(taskMonitor);
 	}
 	
-	@Override
-	public void layoutPartition(LayoutPartition partition) 
+	/**
+	 * Logs where the time went, shows a summary in the task monitor
+	 * and writes the JSON report if requested.
+	 */
+	private void reportTimings(TaskMonitor taskMonitor)
 	{
-		Layouter layouter = new Layouter();
-		layouter.doLayout(partition);
+		if (timingReport.isEmpty())
+			return;
+		
+		String summary = timingReport.summary();
+		logger.info(summary);
+		taskMonitor.showMessage(TaskMonitor.Level.INFO, summary);
+		
+		if (context.writeTimingReport)
+		{
+			try
+			{
+				timingReport.writeJson(context.timingReportFile);
+			}
+			catch (IOException e)
+			{
+				logger.warn("Could not write layout timing report to " + context.timingReportFile, e);
+				taskMonitor.showMessage(TaskMonitor.Level.WARN, "Could not write layout timing report: " + e.getMessage());
+			}
+		}
 	}
 	
 	@Override
-	public String toString() 
+	public void layoutPartition(LayoutPartition partition) 
 	{
-		return CLLayout.ALGORITHM_DISPLAY_NAME;
-	}	
-
-	private class Layouter
-	{	
-		public static final int requiredPadding = 16;
-		
-		// Node data
-		private CyCLBuffer bufferNodePosX;
-		private CyCLBuffer bufferNodePosY;
-		private CyCLBuffer bufferNodeMass;
+		if (previousPositions != null && !hasChanges(partition))
+			return;
 		
-		// Edge data for spring forces
-		private CyCLBuffer bufferEdges;
-		private CyCLBuffer bufferEdgeCoeffs;
-		private CyCLBuffer bufferEdgeLengths;
-		private CyCLBuffer bufferEdgeOffsets;
-		private CyCLBuffer bufferEdgeCounts;
+		if (scheduler == null)
+		{
+			// The host engine parallelizes internally on the common fork/join pool
+			LayoutTimings timings = new LayoutTimings(String.valueOf(partition.getPartitionNumber()), "host");
+			SlimNetwork slim = prepare(partition, timings);
+			if (taskMonitor != null)
+				taskMonitor.setStatusMessage("Moving partition " + partition.getPartitionNumber());
+			simulate(slim, new JavaLayouter(context, timings), partition, timings);
+			writeBack(partition, slim, timings);
+			addTimings(timings);
+		}
+		else if (context.batchSmallPartitions && partition.nodeCount() <= CLLayoutContext.maxBatchedPartitionNodes)
+		{
+			layoutBatched(partition);
+		}
+		else
+		{
+			layoutPipelined(partition);
+		}
+	}
+	
+	/**
+	 * Lays out a partition on a device, which is only held for the simulation. So while
+	 * one partition runs on the device, other partitions' threads build the next ones and
+	 * write back the previous ones. Only a few built partitions may wait for a device,
+	 * which bounds the memory of their networks.
+	 */
+	private void layoutPipelined(LayoutPartition partition)
+	{
+		try
+		{
+			preparedPartitions.acquire();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
 		
-		// Edge data for repulsive edges
-		private CyCLBuffer bufferEdgeUniqueSources;
-		private CyCLBuffer bufferEdgeUniqueTargets;
-		private CyCLBuffer bufferEdgeStartX;
-		private CyCLBuffer bufferEdgeStartY;
-		private CyCLBuffer bufferEdgeTangentX;
-		private CyCLBuffer bufferEdgeTangentY;
-		private CyCLBuffer bufferEdgeCurrentLength;
-		private CyCLBuffer bufferEdgeMassStart;
-		private CyCLBuffer bufferEdgeMassEnd;
+		String label = String.valueOf(partition.getPartitionNumber());
+		LayoutTimings timings;
+		SlimNetwork slim;
+		try
+		{
+			LayoutTimings hostTimings = new LayoutTimings(label, "host");
+			slim = prepare(partition, hostTimings);
+			
+			LayoutDevice device = acquireDevice(partition.nodeCount());
+			if (device == null)
+				return;
+			
+			try
+			{
+				timings = new LayoutTimings(label, device.toString());
+				timings.addAll(hostTimings);
+				if (taskMonitor != null)
+					taskMonitor.setStatusMessage("Moving partition " + partition.getPartitionNumber());
+				simulate(slim, new CLLayouter(context, device, timings), partition, timings);
+			}
+			finally
+			{
+				scheduler.release(device);
+			}
+		}
+		finally
+		{
+			preparedPartitions.release();
+		}
 		
-		private CyCLBuffer bufferForce;
-		private CyCLBuffer bufferVelocity;
+		writeBack(partition, slim, timings);
+		addTimings(timings);
+	}
 	
-		private CyCLBuffer bufferNodeK;
-		private CyCLBuffer bufferNodeL;
-		
-		private boolean buffersInitialized = false;
+	/**
+	 * Waits for an idle device, or returns null if the layout was interrupted.
+	 */
+	private LayoutDevice acquireDevice(long work)
+	{
+		try
+		{
+			return scheduler.acquire(work);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
 	
-		public Layouter()
+	/**
+	 * Lays out a small partition together with all other small partitions that
+	 * are waiting for a device at the same time. Whichever thread gets a device
+	 * first takes the whole queue and runs it as one batch, the others wait for
+	 * that batch to finish. Every thread builds its own partition before it queues
+	 * it, and the batch is written back after the device is released.
+	 */
+	private void layoutBatched(LayoutPartition partition)
+	{
+		BatchEntry entry = new BatchEntry(partition);
+		entry.slim = prepare(partition, entry.timings);
+		synchronized (batchQueue)
 		{
-			
+			batchQueue.add(entry);
 		}
-
-		public void doLayout(LayoutPartition part) 
+		
+		LayoutDevice device = acquireDevice(partition.nodeCount());
+		if (device == null)
 		{
-      // System.out.println("Partition " + part.getPartitionNumber() + ": Initializing...");
-
-			synchronized (sync)
+			// Interrupted, so no other thread's batch may pick up this partition anymore
+			synchronized (batchQueue)
 			{
-				long startTime = System.currentTimeMillis();
-				
-				// Init positions to random or their current values
-				if (context.fromScratch)
-				{
-					Random rand = new Random(123);
-					List<LayoutNode> nodeList = part.getNodeList();
-					
-					for (LayoutNode node : nodeList)
-					{
-						node.setX((rand.nextFloat() - 0.5f) * 2f);
-						node.setY((rand.nextFloat() - 0.5f) * 2f);
-					}
-				}
-				
-				// Calculate our edge weights
-				part.calculateEdgeWeights();
-				
-				SlimNetwork slim = new SlimNetwork(part, 
-												   context.isDeterministic, 
-												   (float)context.defaultNodeMass, 
-												   (float)context.defaultSpringCoefficient, 
-												   (float)context.defaultSpringLength, 
-												   edgeWeighter, 
-												   requiredPadding);
-				
-        long time2 = System.currentTimeMillis();
-				initializeBuffers(slim);
-        // System.out.println("Partition " + part.getPartitionNumber() + ": Took "+(System.currentTimeMillis()-time2)+"ms to init buffers");
-        
-				
-				if (taskMonitor != null)
-					taskMonitor.setStatusMessage("Moving partition " + part.getPartitionNumber());
-				
-				// Initialize velocity to 0
-				initializeSimulation(slim);
-
-        long time3 = System.currentTimeMillis();
-        // System.out.println("Partition " + part.getPartitionNumber() + ": Took "+(time3-startTime)+"ms to init");
-				
-				// Perform layout
-				float timestep = 1000f;
-				for (int i = 0; i < context.numIterations && !cancelled; i++) 
-				{
-					// Gradually decrease time step as simulation converges
-					float decrease = (1f - (float)i / (float)context.numIterations);
-					timestep *= decrease;
-					float step = timestep + 50f;
-	
-					advanceSimulation(step, false, slim);
-				}
+				batchQueue.remove(entry);
+			}
+			return;
+		}
 		
-				if (context.numIterationsEdgeRepulsive > 0)
+		List<BatchEntry> batch = null;
+		try
+		{
+			LayoutTimings timings = null;
+			try
+			{
+				synchronized (batchQueue)
 				{
-					initializeSimulation(slim);
-					
-					timestep = 10f;
-					for (int i = 0; i < context.numIterationsEdgeRepulsive && !cancelled; i++) 
+					// Not yet taken by another thread's batch
+					if (batchQueue.contains(entry))
 					{
-						// Gradually decrease time step as simulation converges
-						float decrease = (1f - (float)i / (float)context.numIterations);
-						timestep *= decrease;
-						
-						advanceSimulation(0.25f, true, slim);
+						batch = new ArrayList<>(batchQueue);
+						batchQueue.clear();
 					}
 				}
-
-				// Get positions back from CL device
-				getPositions(slim);
-				
-				long stopTime = System.currentTimeMillis();
-				//System.out.println(stopTime - startTime);
-        // System.out.println("Partition " + part.getPartitionNumber() + ": algorithm done in "+(stopTime-startTime)+"ms");
 				
-				// Update positions
-				part.resetNodes(); // reset the nodes so we get the new average location
-				for (LayoutNode ln: part.getNodeList())
+				if (batch != null)
 				{
-					if (!ln.isLocked()) 
+					StringBuilder label = new StringBuilder();
+					for (BatchEntry e : batch)
+						label.append(label.length() == 0 ? "" : ",").append(e.partition.getPartitionNumber());
+					timings = new LayoutTimings(label.toString(), device.toString());
+					
+					List<SlimNetwork> slims = new ArrayList<>(batch.size());
+					for (BatchEntry e : batch)
 					{
-						int id = slim.nodeToIndex.get(ln);
-						ln.setX(slim.nodePosX[id]);
-						ln.setY(slim.nodePosY[id]);
-						part.moveNodeToLocation(ln);
+						slims.add(e.slim);
+						timings.addAll(e.timings);
 					}
+					long start = System.nanoTime();
+					SlimNetwork merged = SlimNetwork.concatenate(slims, CLLayouter.requiredPadding);
+					timings.addPhase(LayoutTimings.networkBuild, start);
+					
+					if (taskMonitor != null)
+						taskMonitor.setStatusMessage("Moving " + batch.size() + " partitions");
+					// Batches finish quickly, and their nodes belong to many partitions
+					simulate(merged, new CLLayouter(context, device, timings), null, timings);
+					merged.split(slims);
 				}
-				
-				// Release all CLBuffers
-				freeBuffers();
-        // System.out.println("Partition " + part.getPartitionNumber() + ": done in "+(System.currentTimeMillis()-startTime)+"ms");
 			}
-		}
-	
-		/***
-		 * Allocates memory on GPU and fills it with network data
-		 * @param slim Network data
-		 * @param nodePosX X component of initial node positions
-		 * @param nodePosY Y component of initial node positions
-		 */
-		private void initializeBuffers(SlimNetwork slim)
-		{		
-			// Initialize CLBuffers to hold node and edge information, and copy initial data to them
-			bufferNodePosX = device.createBuffer(slim.nodePosX);
-			bufferNodePosY = device.createBuffer(slim.nodePosY);
-			bufferNodeMass = device.createBuffer(slim.nodeMass);
-			
-			bufferEdges = device.createBuffer(slim.edges);
-			bufferEdgeCoeffs = device.createBuffer(slim.edgeCoeffs);
-			bufferEdgeLengths = device.createBuffer(slim.edgeLengths);
-			bufferEdgeOffsets = device.createBuffer(slim.edgeOffsetsSparse);
-			bufferEdgeCounts = device.createBuffer(slim.edgeCounts);
-			
-			if (context.numIterationsEdgeRepulsive > 0)
+			finally
 			{
-				bufferEdgeUniqueSources = device.createBuffer(slim.edgeUniqueSources);
-				bufferEdgeUniqueTargets = device.createBuffer(slim.edgeUniqueTargets);
-				// Init all with edgeMass because it has the padded tail set to 0:
-				bufferEdgeStartX = device.createBuffer(slim.edgeMassStart);
-				bufferEdgeStartY = device.createBuffer(slim.edgeMassStart);
-				bufferEdgeTangentX = device.createBuffer(slim.edgeMassStart);
-				bufferEdgeTangentY = device.createBuffer(slim.edgeMassStart);
-				bufferEdgeCurrentLength = device.createBuffer(slim.edgeMassStart);
-				bufferEdgeMassStart = device.createBuffer(slim.edgeMassStart);
-				bufferEdgeMassEnd = device.createBuffer(slim.edgeMassEnd);
+				scheduler.release(device);
 			}
 			
-			bufferForce = device.createBuffer(float.class, slim.numNodesPadded * 2);
-			bufferVelocity = device.createBuffer(float.class, slim.numNodes * 2);
+			if (batch != null)
+			{
+				for (BatchEntry e : batch)
+					writeBack(e.partition, e.slim, timings);
+				addTimings(timings);
+			}
+		}
+		finally
+		{
+			if (batch != null)
+				for (BatchEntry e : batch)
+					e.done.countDown();
+		}
+		
+		if (batch == null)
+		{
+			try
+			{
+				entry.done.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 	
-			bufferNodeK = device.createBuffer(float.class, slim.numNodes * 8);
-			bufferNodeL = device.createBuffer(float.class, slim.numNodes * 6);
-			
-			buffersInitialized = true;
+	private static class BatchEntry
+	{
+		final LayoutPartition partition;
+		final CountDownLatch done = new CountDownLatch(1);
+		// Built by the partition's own thread, before it is queued
+		SlimNetwork slim;
+		final LayoutTimings timings;
+		
+		BatchEntry(LayoutPartition partition)
+		{
+			this.partition = partition;
+			timings = new LayoutTimings(String.valueOf(partition.getPartitionNumber()), "host");
 		}
+	}
 	
-		/***
-		 * Releases all memory allocated on GPU
-		 */
-		private void freeBuffers()
+	/**
+	 * Initializes node positions and builds the network data for one partition.
+	 */
+	private SlimNetwork prepare(LayoutPartition part, LayoutTimings timings)
+	{
+		// Init positions to random or their current values. Locked nodes keep theirs, they are pinned,
+		// so free nodes start among them rather than far away around the origin.
+		if (context.fromScratch)
 		{
-			if (!buffersInitialized)
-				return;
+			Random rand = new Random(123);
+			List<LayoutNode> nodeList = part.getNodeList();
 			
-			bufferNodePosX.free();
-			bufferNodePosY.free();
-			bufferNodeMass.free();
-			bufferEdges.free();
-			bufferEdgeCoeffs.free();
-			bufferEdgeLengths.free();
-			bufferEdgeOffsets.free();
-			bufferEdgeCounts.free();
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (LayoutNode node : nodeList)
+				if (node.isLocked())
+				{
+					minX = Math.min(minX, node.getX());
+					minY = Math.min(minY, node.getY());
+					maxX = Math.max(maxX, node.getX());
+					maxY = Math.max(maxY, node.getY());
+				}
 			
-			if (context.numIterationsEdgeRepulsive > 0)
+			double centerX = 0, centerY = 0, halfWidth = 1, halfHeight = 1;
+			if (minX <= maxX)
 			{
-				bufferEdgeStartX.free();
-				bufferEdgeStartY.free();
-				bufferEdgeTangentX.free();
-				bufferEdgeTangentY.free();
-				bufferEdgeCurrentLength.free();
-				bufferEdgeMassStart.free();
-				bufferEdgeMassEnd.free();
+				// At least a spring length across, in case the locked nodes are in a line or a single one
+				centerX = (minX + maxX) / 2;
+				centerY = (minY + maxY) / 2;
+				halfWidth = Math.max(maxX - minX, context.defaultSpringLength) / 2;
+				halfHeight = Math.max(maxY - minY, context.defaultSpringLength) / 2;
 			}
 			
-			bufferForce.free();
-			bufferVelocity.free();
-			bufferNodeK.free();
-			bufferNodeL.free();
-	
-			buffersInitialized = false;
+			for (LayoutNode node : nodeList)
+			{
+				float x = (rand.nextFloat() - 0.5f) * 2f;
+				float y = (rand.nextFloat() - 0.5f) * 2f;
+				if (!node.isLocked())
+				{
+					node.setX(centerX + x * halfWidth);
+					node.setY(centerY + y * halfHeight);
+				}
+			}
 		}
 		
-		/***
-		 * Initializes velocity to 0
-		 * @param slim Network data
-		 */
-		private void initializeSimulation(SlimNetwork slim)
+		// Calculate our edge weights. The weighter is shared by all partitions,
+		// which may be prepared concurrently for different devices.
+		long start = System.nanoTime();
+		synchronized (edgeWeighter)
 		{
-			program.getKernel("Init").execute(new long[] { slim.numNodes }, null, bufferVelocity, slim.numNodes);
+			part.calculateEdgeWeights();
 		}
+		timings.addPhase(LayoutTimings.edgeWeights, start);
+		
+		start = System.nanoTime();
+		if (context.isDeterministic)
+			SlimNetwork.sort(part);
+		PartitionGraph graph = new PartitionGraph(part);
+		// Small partitions are quick to build, and would crowd the cache
+		SlimTopology topology = part.nodeCount() >= CLLayoutContext.minCachedTopologyNodes 
+								? topologyCache.get(networkView.getModel().getSUID(), graph, CLLayouter.requiredPadding) 
+								: new SlimTopology(graph, CLLayouter.requiredPadding);
+		SlimNetwork slim = new SlimNetwork(topology, 
+										   graph, 
+										   (float)context.defaultNodeMass, 
+										   (float)context.defaultSpringCoefficient, 
+										   (float)context.defaultSpringLength);
+		slim.indexNodes(graph);
+		timings.addPhase(LayoutTimings.networkBuild, start);
 		
-		/***
-		 * Copy node positions from GPU to pre-initialized arrays
-		 * @param nodePosX X component of node positions
-		 * @param nodePosY Y component of node positions
-		 */
-		private void getPositions(SlimNetwork slim)
+		timings.numNodes += part.nodeCount();
+		timings.numEdges += part.edgeCount();
+		return slim;
+	}
+	
+	/**
+	 * Whether any node of the partition was added or moved since the previous layout.
+	 */
+	private boolean hasChanges(LayoutPartition partition)
+	{
+		for (LayoutNode node : partition.getNodeList())
+			if (PositionHistory.isChanged(previousPositions, node))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * The region around the changes since the previous layout, 
+	 * or null if the whole partition needs to be laid out.
+	 */
+	private IncrementalRegion findIncrementalRegion(LayoutPartition partition, SlimNetwork slim, LayoutTimings timings)
+	{
+		if (previousPositions == null)
+			return null;
+		
+		long start = System.nanoTime();
+		boolean[] changed = new boolean[slim.numNodes];
+		for (LayoutNode node : partition.getNodeList())
+			changed[slim.nodeToIndex.get(node)] = PositionHistory.isChanged(previousPositions, node);
+		IncrementalRegion region = IncrementalRegion.find(slim, changed, context.incrementalHops, 
+														  CLLayoutContext.incrementalMarginSprings * (float)context.defaultSpringLength, 
+														  CLLayoutContext.maxIncrementalFraction, CLLayouter.requiredPadding);
+		timings.addPhase(LayoutTimings.networkBuild, start);
+		return region;
+	}
+	
+	private void addTimings(LayoutTimings timings)
+	{
+		logger.debug(timings.toString());
+		timingReport.add(timings);
+		if (timings.numTiles > 0 && taskMonitor != null)
+			taskMonitor.showMessage(TaskMonitor.Level.WARN, "Partition " + timings.label + " (" + timings.numNodes + " nodes) did not fit into the memory of "
+									+ timings.engine + " and was laid out in " + timings.numTiles + " tiles, which is slower");
+	}
+	
+	/**
+	 * Runs the simulation schedule on the given engine and
+	 * leaves the resulting positions in slim.nodePosX and slim.nodePosY.
+	 * @param partition Partition to show intermediate positions for, or null
+	 */
+	private void simulate(SlimNetwork slim, LayoutEngine engine, LayoutPartition partition, LayoutTimings timings)
+	{
+		IncrementalRegion region = partition != null ? findIncrementalRegion(partition, slim, timings) : null;
+		if (region != null)
 		{
-			bufferNodePosX.getFromDevice(slim.nodePosX);
-			bufferNodePosY.getFromDevice(slim.nodePosY);
+			new Simulation(context, () -> cancelled, timings).runIncremental(region.getNetwork(), engine);
+			region.apply(slim);
+			return;
 		}
 		
-		/**
-		 * Advances the simulation state by the given amount of time 
-		 * using a Runge-Kutta 4th order integration scheme. All data are 
-		 * stored in the CLBuffer objects initialized and populated previously.
-		 * @param timestep Amount of virtual time to be simulated in this step.
-		 */
-		private void advanceSimulation(float timestep, boolean doEdgeRepulsion, SlimNetwork slim)
+		// With several partitions the base class moves them apart only after all are laid out,
+		// so intermediate positions of one of them would show up in the wrong place
+		PositionStreamer streamer = null;
+		if (streamExecutor != null && partition != null
+			&& (isSinglePartition(context) || partition.nodeCount() >= networkView.getModel().getNodeCount()))
+			streamer = new PositionStreamer(partition, slim, networkView, streamExecutor, context.progressiveFramesPerSecond);
+		
+		try
 		{
-			// Parallelization scheme is different for CPU and GPU kernel versions
-			long[] dimsLocal = new long[]{ device.getBestBlockSize() };
-			long[] dimsGlobal = new long[]{ nextMultipleOf(slim.numNodes, dimsLocal[0]) };
-			
-			calculateForces(doEdgeRepulsion, slim);
-			
-			program.getKernel("IntegrateRK0").execute(dimsGlobal, dimsLocal, 
-						bufferNodePosX, bufferNodePosY, 
-					   	bufferNodeMass, 
-					   	bufferNodeK,
-					   	bufferNodeL,
-					   	bufferVelocity,
-					    bufferForce,
-					    timestep, 
-					    slim.numNodes);
-
-			calculateForces(doEdgeRepulsion, slim);
-			
-			program.getKernel("IntegrateRK1").execute(dimsGlobal, dimsLocal,
-						bufferNodePosX, bufferNodePosY, 
-					   	bufferNodeMass,
-					   	bufferNodeK,
-					   	bufferNodeL,
-					   	bufferVelocity,
-					    bufferForce,
-					    1.0f,
-					    timestep, 
-					    slim.numNodes);
-
-			calculateForces(doEdgeRepulsion, slim);
-			
-			program.getKernel("IntegrateRK2").execute(dimsGlobal, dimsLocal,
-						bufferNodePosX, bufferNodePosY, 
-					   	bufferNodeMass,
-					   	bufferNodeK,
-					   	bufferNodeL,
-					   	bufferVelocity,
-					    bufferForce,
-					    1.0f,
-					    timestep, 
-					    slim.numNodes);
-
-			calculateForces(doEdgeRepulsion, slim);
-			
-			program.getKernel("IntegrateRK3").execute(dimsGlobal, dimsLocal,
-						bufferNodePosX, bufferNodePosY, 
-					   	bufferNodeMass, 
-					   	bufferNodeK,
-					   	bufferNodeL,
-					   	bufferVelocity,
-					    bufferForce,
-					    1.0f,
-					    timestep, 
-					    slim.numNodes);
+			new Simulation(context, () -> cancelled, timings).run(slim, engine, streamer);
 		}
-	
-		/**
-		 * Calculates all forces for the current state of the simulation
-		 * and stores them for integration.
-		 */
-		private void calculateForces(boolean doEdgeRepulsion, SlimNetwork slim)
+		finally
 		{
-				// Parallelization scheme is different for CPU and GPU kernel versions
-				long[] dimsLocalEdgeRepulsion = new long[] { device.getBestBlockSize() };
-				long[] dimsGlobalEdgeRepulsion = new long[] { Math.min(65536, nextMultipleOf(slim.numEdgesUnique, dimsLocalEdgeRepulsion[0])) };
-				long[] dimsLocalGravity = new long[] { device.getBestBlockSize() };
-				long[] dimsGlobalGravity = new long[] { device.getType() == DeviceTypes.GPU ? nextMultipleOf(slim.numNodes, dimsLocalGravity[0]) : slim.numNodesPadded / 2 };
-				long[] dimsLocalSpring = device.getType() == DeviceTypes.GPU ? new long[] { 16, device.getBestBlockSize() / 16 } : new long[] { 1 };
-				long[] dimsGlobalSpring = device.getType() == DeviceTypes.GPU ? new long[]{ 16, nextMultipleOf(slim.numNodes, dimsLocalSpring[1]) } : new long[] { slim.numNodes };
-		
-				if (device.getType() == DeviceTypes.GPU) {
-					program.getKernel("CalcForcesGravity").execute(dimsGlobalGravity, dimsLocalGravity,
-						    device.createLocalSize(dimsLocalGravity[0] * 4), device.createLocalSize(dimsLocalGravity[0] * 4), device.createLocalSize(dimsLocalGravity[0] * 4),
-						    bufferNodePosX, bufferNodePosY,
-						    bufferNodeMass,
-						    bufferForce,
-						    slim.numNodes,
-						    slim.numNodesPadded);
-        } else
-					program.getKernel("CalcForcesGravity").execute(dimsGlobalGravity, dimsLocalGravity,
-						    bufferNodePosX, bufferNodePosY,
-						    bufferNodeMass,
-						    bufferForce,
-						    slim.numNodesPadded / 2);
-				
-				if (doEdgeRepulsion)
-				{
-					program.getKernel("PrepareEdgeRepulsion").execute(dimsGlobalEdgeRepulsion, dimsLocalEdgeRepulsion,
-										bufferNodePosX, bufferNodePosY,
-										bufferEdgeUniqueSources, bufferEdgeUniqueTargets,
-										bufferEdgeStartX, bufferEdgeStartY,
-										bufferEdgeTangentX, bufferEdgeTangentY,
-										bufferEdgeCurrentLength,
-										slim.numEdgesUnique);
-					
-					program.getKernel("CalcForcesEdgeRepulsion").execute(dimsGlobalGravity, dimsLocalGravity,
-										device.createLocalSize(dimsLocalGravity[0] * 4), device.createLocalSize(dimsLocalGravity[0] * 4),	// position
-										device.createLocalSize(dimsLocalGravity[0] * 4), device.createLocalSize(dimsLocalGravity[0] * 4),	// tangent
-										device.createLocalSize(dimsLocalGravity[0] * 4),												// length
-										device.createLocalSize(dimsLocalGravity[0] * 4), device.createLocalSize(dimsLocalGravity[0] * 4),	// mass
-										bufferNodePosX, bufferNodePosY,
-										bufferNodeMass,
-										bufferEdgeStartX, bufferEdgeStartY,
-										bufferEdgeTangentX, bufferEdgeTangentY,
-										bufferEdgeCurrentLength, 
-										bufferEdgeMassStart, bufferEdgeMassEnd,
-										bufferForce,
-										slim.numNodes,
-										slim.numEdgesUniquePadded);
-				}
-				
-				if (device.getType() == DeviceTypes.GPU)
-					program.getKernel("CalcForcesSpringDrag").execute(dimsGlobalSpring, dimsLocalSpring,
-									    device.createLocalSize(dimsLocalSpring[0] * dimsLocalSpring[1] * 2 * 4),
-									    bufferNodePosX, bufferNodePosY, 
-									    bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
-									    bufferEdgeCoeffs, bufferEdgeLengths, 
-									    bufferVelocity, 
-									    bufferForce, 
-									    slim.numNodes);
-				else
-					program.getKernel("CalcForcesSpringDrag").execute(dimsGlobalSpring, dimsLocalSpring,
-									    bufferNodePosX, bufferNodePosY, 
-									    bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
-									    bufferEdgeCoeffs, bufferEdgeLengths, 
-									    bufferVelocity, 
-									    bufferForce, 
-									    slim.numNodes);
+			if (streamer != null)
+				streamer.close();
 		}
-		
-		private long nextMultipleOf(long n, long multipleOf)
+	}
+	
+	/**
+	 * Moves the partition's unlocked nodes to their simulated positions.
+	 */
+	private void writeBack(LayoutPartition part, SlimNetwork slim, LayoutTimings timings)
+	{
+		long start = System.nanoTime();
+		part.resetNodes(); // reset the nodes so we get the new average location
+		for (LayoutNode ln: part.getNodeList())
 		{
-			return (n + multipleOf - 1) / multipleOf * multipleOf;
+			if (!ln.isLocked()) 
+			{
+				int id = slim.nodeToIndex.get(ln);
+				ln.setX(slim.nodePosX[id]);
+				ln.setY(slim.nodePosY[id]);
+				part.moveNodeToLocation(ln);
+			}
 		}
+		timings.addPhase(LayoutTimings.writeBack, start);
+	}
+
+	@Override
+	public String toString() 
+	{
+		return CLLayout.ALGORITHM_DISPLAY_NAME;
 	}
 }
@@ -0,0 +1,1314 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cytoscape.cycl.CyCLBuffer;
+import org.cytoscape.cycl.CyCLDevice;
+import org.cytoscape.cycl.CyCLLocalSize;
+import org.cytoscape.cycl.CyCLProgram;
+import org.cytoscape.cycl.CyCLDevice.DeviceTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the force simulation in the kernels of LayoutKernels.cl on one OpenCL device.
+ * All buffers are leased from the device's pool and returned by freeBuffers().
+ *
+ * Networks that exceed the device memory budget, or fail to allocate, are streamed
+ * through the device in tiles of nodes, see {@link NodeTiles}.
+ */
+class CLLayouter implements LayoutEngine
+{	
+	private static final Logger logger = LoggerFactory.getLogger(CLLayouter.class);
+	
+	public static final int requiredPadding = 16;
+	// Upper bound on work groups in reductions, i.e. on values read back per reduction
+	private static final int maxReductionGroups = 64;
+	// Unless spring forces are fused with integration, nodes with more edges than this get several
+	// work items for their springs: the profile's spring lanes up to that many times as many edges,
+	// a whole work group beyond that
+	private static final int edgesPerLane = 16;
+	// Tiles get at least this many bytes, even if resident data leave less of the budget
+	private static final long minTileBytes = 4L << 20;
+	
+	private final CLLayoutContext context;
+	private final CyCLDevice device;
+	private final CyCLProgram program;
+	private final BufferPool bufferPool;
+	private final TopologyCache topologyCache;
+	private final LaunchProfile profile;
+	private final LayoutTimings timings;
+	
+	// Node data
+	private CyCLBuffer bufferNodePosX;
+	private CyCLBuffer bufferNodePosY;
+	// Positions written by the fused stages, swapped with the above after each stage
+	private CyCLBuffer bufferNodePosOutX;
+	private CyCLBuffer bufferNodePosOutY;
+	private CyCLBuffer bufferNodeMass;
+	private CyCLBuffer bufferNodeMobility;
+	
+	// Edge data for spring forces
+	private CyCLBuffer bufferEdges;
+	private CyCLBuffer bufferEdgeCoeffs;
+	private CyCLBuffer bufferEdgeLengths;
+	private CyCLBuffer bufferEdgeSprings;
+	// How the three buffers above hold the springs, the ones not in use are a dummy
+	private CompactSprings springs;
+	private CyCLBuffer bufferEdgeOffsets;
+	private CyCLBuffer bufferEdgeCounts;
+	// Unfused on GPUs: nodes grouped by degree bin and the first node of every bin
+	private CyCLBuffer bufferBinNodes;
+	private int[] binStart;
+	
+	// Edge data for repulsive edges
+	private CyCLBuffer bufferEdgeUniqueSources;
+	private CyCLBuffer bufferEdgeUniqueTargets;
+	private CyCLBuffer bufferEdgeStartX;
+	private CyCLBuffer bufferEdgeStartY;
+	private CyCLBuffer bufferEdgeTangentX;
+	private CyCLBuffer bufferEdgeTangentY;
+	private CyCLBuffer bufferEdgeCurrentLength;
+	private CyCLBuffer bufferEdgeMassStart;
+	private CyCLBuffer bufferEdgeMassEnd;
+	
+	// Grid of edges within the repulsion cutoff, binned on the host
+	private EdgeGrid grid;
+	private CyCLBuffer bufferGridCellStart;
+	private CyCLBuffer bufferGridCellEdges;
+	private CyCLBuffer bufferEdgeCellMin;
+	private int gridCellCapacity;
+	private int gridEntryCapacity;
+	
+	private CyCLBuffer bufferForce;
+	private CyCLBuffer bufferVelocity;
+	// Per-group kinetic energy and squared speed, null if convergence isn't checked
+	private CyCLBuffer bufferMotion;
+	// Per-group maximum squared step error, null with the fixed schedule
+	private CyCLBuffer bufferStepError;
+	// Velocities before the last step, to reject it, null with the fixed schedule
+	private CyCLBuffer bufferStartVelocity;
+
+	// RK4 state, null with the integrators that evaluate forces once per step
+	private CyCLBuffer bufferNodeK;
+	private CyCLBuffer bufferNodeL;
+	// Acceleration at the end of the last velocity Verlet step, null with other integrators
+	private CyCLBuffer bufferAcceleration;
+	
+	// Segments of a batch of concatenated networks
+	private CyCLBuffer bufferNodeSegment;
+	private CyCLBuffer bufferSegmentNodeStart;
+	private CyCLBuffer bufferSegmentEdgeStart;
+	
+	// Barnes-Hut quadtree, built on the host for every force evaluation
+	private QuadTree tree;
+	private CyCLBuffer bufferCellData;
+	private CyCLBuffer bufferCellLinks;
+	private CyCLBuffer bufferCellBodies;
+	private int cellCapacity;
+	
+	// Tiled mode, null if the whole network is on the device. Then adjacency, springs, mobility,
+	// velocity and integration state only hold the tile being integrated, and the tiles keep them on the host.
+	private NodeTiles tiles;
+	// Topology slice and tile whose state are on the device, -1 if none. The host's copy of
+	// that state is stale while the device's has been integrated further.
+	private int deviceSlice = -1;
+	private int deviceStateTile = -1;
+	private boolean hostStateStale;
+	// Passes over the tiles alternate their direction, see passTile
+	private boolean forwardPass = true;
+	
+	private final List<CyCLBuffer> leasedBuffers = new ArrayList<>();
+	// Device bytes leased since the last release, to estimate what fits if an allocation fails
+	private long leasedBytes;
+	// Topology whose resident buffers are in use, null if they were leased and uploaded for this network
+	private SlimTopology residentTopology;
+	
+	private boolean buffersInitialized = false;
+	
+	// Launch configuration, reused for all steps of a partition
+	private long[] dimsLocalNodes, dimsGlobalNodes;
+	// SpringDragIntegrateRK handles four nodes per work item on CPUs
+	private long[] dimsGlobalSpringIntegrate;
+	private long[] dimsLocalEdgeRepulsion, dimsGlobalEdgeRepulsion;
+	private long[] dimsLocalGravity, dimsGlobalGravity;
+	private long[] dimsLocalSpring, dimsGlobalSpring;
+	private long[][] dimsLocalSpringBin, dimsGlobalSpringBin;
+	private long[] dimsLocalReduction, dimsGlobalReduction;
+	private CyCLLocalSize localSizeTile;
+	private CyCLLocalSize localSizeSpring;
+	private CyCLLocalSize localSizeReduction;
+	private boolean fuseSpring;
+
+	/**
+	 * @param timings Receives the time spent in every kernel
+	 */
+	public CLLayouter(CLLayoutContext context, LayoutDevice layoutDevice, LayoutTimings timings)
+	{
+		this.context = context;
+		device = layoutDevice.device;
+		program = layoutDevice.program;
+		bufferPool = layoutDevice.bufferPool;
+		topologyCache = layoutDevice.topologyCache;
+		profile = layoutDevice.profile;
+		this.timings = timings;
+	}
+
+	/***
+	 * Leases memory on GPU from the pool and fills it with network data
+	 * @param slim Network data
+	 * @param nodePosX X component of initial node positions
+	 * @param nodePosY Y component of initial node positions
+	 */
+	@Override
+	public void initializeBuffers(SlimNetwork slim)
+	{
+		springs = CompactSprings.of(slim, context.compactSprings);
+		
+		long budget = context.deviceMemoryMegabytes * (1L << 20);
+		if (budget > 0 && estimateDeviceBytes(slim) > budget)
+		{
+			initializeTiledBuffers(slim, budget);
+			return;
+		}
+		
+		try
+		{
+			initializeResidentBuffers(slim);
+		}
+		catch (RuntimeException e)
+		{
+			// What could be leased before the device ran out is a fair estimate of what fits
+			long fitted = leasedBytes;
+			releaseBuffers();
+			if (fitted == 0)
+				throw e;
+			logger.warn("Could not allocate " + slim.numNodes + " nodes on " + device.getName() + ", laying them out in tiles", e);
+			bufferPool.clear();
+			initializeTiledBuffers(slim, fitted * 3 / 4);
+		}
+	}
+	
+	/**
+	 * Device bytes needed to hold the whole network, roughly.
+	 */
+	private long estimateDeviceBytes(SlimNetwork slim)
+	{
+		long springBytes = springs.storage == CompactSprings.floatStorage ? 8 : springs.storage == CompactSprings.halfStorage ? 4 : 0;
+		long stateBytes = NodeTiles.stateBytesPerNode(context);
+		if (context.adaptiveTimestep)
+			stateBytes += NodeTiles.startVelocityBytesPerNode;
+		// Mobility is padded like the resident node data, the rest of a tile's node data isn't
+		long bytes = slim.numNodesPadded * (NodeTiles.residentBytesPerNode + 4L)
+				   + slim.numNodes * (NodeTiles.topologyBytesPerNode - 4L + NodeTiles.velocityBytesPerNode + stateBytes)
+				   + slim.numEdgesSparse * (4L + springBytes);
+		if (context.numIterationsEdgeRepulsive > 0)
+			bytes += getEdgeRepulsionBytes(slim);
+		if (context.useBarnesHut(slim.numNodes))
+			bytes += getQuadTreeBytes(slim.numNodes);
+		return bytes;
+	}
+	
+	/**
+	 * Device bytes of a quadtree over the given number of nodes: bodies, and cells of
+	 * 8 values, about as many as half the nodes.
+	 */
+	private static long getQuadTreeBytes(int numNodes)
+	{
+		return numNodes * 4L + numNodes / 2 * 8L * 4L;
+	}
+	
+	/**
+	 * Device bytes of the unique edges and their repulsion data: sources, targets, start, tangent,
+	 * length and the masses at both ends.
+	 */
+	private static long getEdgeRepulsionBytes(SlimNetwork slim)
+	{
+		return slim.numEdgesUniquePadded * 9L * 4L;
+	}
+	
+	private void initializeResidentBuffers(SlimNetwork slim)
+	{
+		// Lease CLBuffers to hold node and edge information, and copy initial data to them
+		bufferNodePosX = createBuffer(slim.nodePosX);
+		bufferNodePosY = createBuffer(slim.nodePosY);
+		bufferNodeMass = createBuffer(slim.nodeMass);
+		bufferNodeMobility = createBuffer(slim.nodeMobility);
+		
+		initializeDimensions(slim);
+		if (fuseSpring)
+		{
+			// Padding must be valid in both, since gravity reads it
+			bufferNodePosOutX = createBuffer(slim.nodePosX);
+			bufferNodePosOutY = createBuffer(slim.nodePosY);
+		}
+		else if (device.getType() == DeviceTypes.GPU)
+			initializeDegreeBins(slim);
+		
+		// The adjacency of a cached topology stays on the device between layouts
+		CyCLBuffer[] resident = topologyCache != null && slim.topology != null ? topologyCache.acquireDeviceBuffers(slim.topology, bufferPool) : null;
+		if (resident != null)
+		{
+			residentTopology = slim.topology;
+			bufferEdges = resident[0];
+			bufferEdgeOffsets = resident[1];
+			bufferEdgeCounts = resident[2];
+		}
+		else
+		{
+			bufferEdges = createBuffer(slim.edges);
+			bufferEdgeOffsets = createBuffer(slim.edgeOffsetsSparse);
+			bufferEdgeCounts = createBuffer(slim.edgeCounts);
+		}
+		CyCLBuffer dummy = createBuffer(float.class, 1);
+		bufferEdgeCoeffs = springs.storage == CompactSprings.floatStorage ? createBuffer(slim.edgeCoeffs) : dummy;
+		bufferEdgeLengths = springs.storage == CompactSprings.floatStorage ? createBuffer(slim.edgeLengths) : dummy;
+		bufferEdgeSprings = springs.storage == CompactSprings.halfStorage ? createBuffer(springs.packed) : dummy;
+		
+		if (slim.nodeSegment != null)
+		{
+			bufferNodeSegment = createBuffer(slim.nodeSegment);
+			bufferSegmentNodeStart = createBuffer(slim.segmentNodeStart);
+			bufferSegmentEdgeStart = createBuffer(slim.segmentEdgeStart);
+		}
+		
+		if (context.numIterationsEdgeRepulsive > 0)
+			initializeEdgeRepulsionBuffers(slim, resident);
+		
+		bufferForce = createBuffer(float.class, slim.numNodesPadded * 2);
+		bufferVelocity = createBuffer(float.class, slim.numNodes * 2);
+		if (context.stopWhenConverged)
+			bufferMotion = createBuffer(float.class, maxReductionGroups * 2);
+		if (context.adaptiveTimestep)
+		{
+			bufferStepError = createBuffer(float.class, maxReductionGroups);
+			bufferStartVelocity = createBuffer(float.class, slim.numNodes * 2);
+		}
+
+		if (context.useRungeKutta())
+		{
+			bufferNodeK = createBuffer(float.class, slim.numNodes * 8);
+			bufferNodeL = createBuffer(float.class, slim.numNodes * 6);
+		}
+		else if (context.useVerlet())
+			bufferAcceleration = createBuffer(float.class, slim.numNodes * 2);
+		
+		if (context.useBarnesHut(slim.numNodes) && slim.nodeSegment == null)
+		{
+			tree = new QuadTree(slim.numNodes);
+			bufferCellBodies = createBuffer(int.class, tree.cellBodies.length);
+		}
+		
+		buffersInitialized = true;
+	}
+
+	/**
+	 * Leases the unique edges and what edge repulsion computes from them. Both modes keep
+	 * them for all edges, since edge repulsion reads the positions of all nodes like gravity.
+	 * @param resident Topology buffers from the cache, or null to upload the unique edges
+	 */
+	private void initializeEdgeRepulsionBuffers(SlimNetwork slim, CyCLBuffer[] resident)
+	{
+		bufferEdgeUniqueSources = resident != null ? resident[3] : createBuffer(slim.edgeUniqueSources);
+		bufferEdgeUniqueTargets = resident != null ? resident[4] : createBuffer(slim.edgeUniqueTargets);
+		// Init all with edgeMass because it has the padded tail set to 0:
+		bufferEdgeStartX = createBuffer(slim.edgeMassStart);
+		bufferEdgeStartY = createBuffer(slim.edgeMassStart);
+		bufferEdgeTangentX = createBuffer(slim.edgeMassStart);
+		bufferEdgeTangentY = createBuffer(slim.edgeMassStart);
+		bufferEdgeCurrentLength = createBuffer(slim.edgeMassStart);
+		bufferEdgeMassStart = createBuffer(slim.edgeMassStart);
+		bufferEdgeMassEnd = createBuffer(slim.edgeMassEnd);
+		
+		if (context.useEdgeRepulsionGrid && slim.nodeSegment == null)
+		{
+			grid = new EdgeGrid((float)context.edgeRepulsionCutoff, slim.numNodes, slim.numEdgesUnique);
+			bufferEdgeCellMin = createBuffer(int.class, grid.edgeCellMin.length);
+		}
+	}
+
+	/**
+	 * Leases positions, masses and forces of all nodes, the edge repulsion data if needed, and
+	 * everything else for the largest tile that fits into the rest of the budget.
+	 * @param budget Device bytes the network may take
+	 */
+	private void initializeTiledBuffers(SlimNetwork slim, long budget)
+	{
+		boolean barnesHut = context.useBarnesHut(slim.numNodes) && slim.nodeSegment == null;
+		boolean edgeRepulsion = context.numIterationsEdgeRepulsive > 0;
+		long resident = slim.numNodesPadded * NodeTiles.residentBytesPerNode 
+					  + (barnesHut ? getQuadTreeBytes(slim.numNodes) : 0)
+					  + (edgeRepulsion ? getEdgeRepulsionBytes(slim) : 0);
+		tiles = new NodeTiles(slim, springs, Math.max(minTileBytes, budget - resident), context);
+		timings.numTiles = Math.max(timings.numTiles, tiles.numTiles);
+		logger.info("Laying out " + slim.numNodes + " nodes on " + device.getName() + " in " + tiles.numTiles + " tiles");
+
+		bufferNodePosX = createBuffer(slim.nodePosX);
+		bufferNodePosY = createBuffer(slim.nodePosY);
+		bufferNodePosOutX = createBuffer(slim.nodePosX);
+		bufferNodePosOutY = createBuffer(slim.nodePosY);
+		bufferNodeMass = createBuffer(slim.nodeMass);
+		bufferForce = createBuffer(float.class, slim.numNodesPadded * 2);
+
+		if (slim.nodeSegment != null)
+		{
+			bufferNodeSegment = createBuffer(slim.nodeSegment);
+			bufferSegmentNodeStart = createBuffer(slim.segmentNodeStart);
+			if (edgeRepulsion)
+				bufferSegmentEdgeStart = createBuffer(slim.segmentEdgeStart);
+		}
+		if (edgeRepulsion)
+			initializeEdgeRepulsionBuffers(slim, null);
+		if (barnesHut)
+		{
+			tree = new QuadTree(slim.numNodes);
+			bufferCellBodies = createBuffer(int.class, tree.cellBodies.length);
+		}
+
+		int slots = Math.max(1, tiles.maxSliceSlots);
+		bufferEdges = createBuffer(int.class, slots);
+		bufferEdgeOffsets = createBuffer(int.class, tiles.maxSliceNodes);
+		bufferEdgeCounts = createBuffer(int.class, tiles.maxSliceNodes);
+		CyCLBuffer dummy = createBuffer(float.class, 1);
+		bufferEdgeCoeffs = springs.storage == CompactSprings.floatStorage ? createBuffer(float.class, slots) : dummy;
+		bufferEdgeLengths = springs.storage == CompactSprings.floatStorage ? createBuffer(float.class, slots) : dummy;
+		bufferEdgeSprings = springs.storage == CompactSprings.halfStorage ? createBuffer(int.class, slots) : dummy;
+		bufferNodeMobility = createBuffer(float.class, tiles.maxSliceNodes);
+		bufferVelocity = createBuffer(float.class, tiles.maxTileNodes * 2);
+		if (context.useRungeKutta())
+		{
+			bufferNodeK = createBuffer(float.class, tiles.maxTileNodes * 8);
+			bufferNodeL = createBuffer(float.class, tiles.maxTileNodes * 6);
+		}
+		else if (context.useVerlet())
+			bufferAcceleration = createBuffer(float.class, tiles.maxTileNodes * 2);
+		
+		if (tiles.topologyResident)
+		{
+			uploadTopology(0);
+			deviceSlice = 0;
+		}
+		// A single tile's state never leaves the device, and is reduced there as in resident mode
+		if (tiles.numTiles == 1)
+		{
+			deviceStateTile = 0;
+			if (context.stopWhenConverged)
+				bufferMotion = createBuffer(float.class, maxReductionGroups * 2);
+			if (context.adaptiveTimestep)
+			{
+				bufferStepError = createBuffer(float.class, maxReductionGroups);
+				bufferStartVelocity = createBuffer(float.class, slim.numNodes * 2);
+			}
+		}
+
+		initializeDimensions(slim);
+		buffersInitialized = true;
+	}
+
+	/***
+	 * Returns all buffers to the pool, and resident ones to the topology cache
+	 */
+	@Override
+	public void freeBuffers()
+	{
+		if (!buffersInitialized)
+			return;
+		
+		releaseBuffers();
+		buffersInitialized = false;
+	}
+	
+	private void releaseBuffers()
+	{
+		for (CyCLBuffer buffer : leasedBuffers)
+			bufferPool.release(buffer);
+		leasedBuffers.clear();
+		leasedBytes = 0;
+		
+		if (residentTopology != null)
+			topologyCache.releaseDeviceBuffers(residentTopology);
+		residentTopology = null;
+		
+		bufferCellData = null;
+		bufferCellLinks = null;
+		cellCapacity = 0;
+		tree = null;
+		
+		bufferGridCellStart = null;
+		bufferGridCellEdges = null;
+		gridCellCapacity = 0;
+		gridEntryCapacity = 0;
+		grid = null;
+		
+		tiles = null;
+		deviceSlice = -1;
+		deviceStateTile = -1;
+		hostStateStale = false;
+		forwardPass = true;
+		bufferAcceleration = null;
+		bufferStartVelocity = null;
+	}
+	
+	private CyCLBuffer createBuffer(float[] data)
+	{
+		CyCLBuffer buffer = createBuffer(float.class, data.length);
+		BufferPool.upload(buffer, data);
+		return buffer;
+	}
+	
+	private CyCLBuffer createBuffer(int[] data)
+	{
+		CyCLBuffer buffer = createBuffer(int.class, data.length);
+		BufferPool.upload(buffer, data);
+		return buffer;
+	}
+	
+	private CyCLBuffer createBuffer(Class<?> type, int elements)
+	{
+		CyCLBuffer buffer = bufferPool.lease(type, elements);
+		leasedBuffers.add(buffer);
+		leasedBytes += 4L * BufferPool.sizeClass(elements);
+		return buffer;
+	}
+	
+	/**
+	 * Launches a kernel and records its time under the kernel's name.
+	 */
+	private void execute(String kernel, long[] globalSize, long[] localSize, Object... args)
+	{
+		long start = System.nanoTime();
+		program.getKernel(kernel).execute(globalSize, localSize, args);
+		timings.addOperation(kernel, start);
+	}
+	
+	private void releaseBuffer(CyCLBuffer buffer)
+	{
+		if (buffer == null)
+			return;
+		
+		leasedBuffers.remove(buffer);
+		bufferPool.release(buffer);
+	}
+	
+	/***
+	 * Initializes velocity to 0
+	 * @param slim Network data
+	 */
+	@Override
+	public void initializeSimulation(SlimNetwork slim)
+	{
+		if (tiles != null && tiles.velocity != null)
+		{
+			tiles.resetVelocity();
+			deviceStateTile = -1;
+			return;
+		}
+		
+		execute("Init", new long[] { slim.numNodes }, null, bufferVelocity, slim.numNodes);
+		if (bufferAcceleration != null)
+			execute("Init", new long[] { slim.numNodes }, null, bufferAcceleration, slim.numNodes);
+	}
+	
+	@Override
+	public float estimateError(SlimNetwork slim)
+	{
+		if (tiles != null && tiles.velocity != null)
+		{
+			downloadDeviceState();
+			getPositions(slim);
+			return tiles.estimateError(slim.nodePosX, slim.nodePosY);
+		}
+		
+		execute("ReduceStepError", dimsGlobalReduction, dimsLocalReduction,
+							localSizeReduction,
+							bufferNodePosX, bufferNodePosY,
+							bufferNodeK,
+							bufferStepError,
+							slim.numNodes);
+		
+		float[] groupError = new float[(int)(dimsGlobalReduction[0] / dimsLocalReduction[0])];
+		BufferPool.download(bufferStepError, groupError);
+		
+		float error2 = 0f;
+		for (float e : groupError)
+			error2 = Math.max(error2, e);
+		return (float)Math.sqrt(error2);
+	}
+	
+	@Override
+	public void rejectStep(SlimNetwork slim)
+	{
+		if (tiles != null && tiles.velocity != null)
+		{
+			downloadDeviceState();
+			tiles.rejectStep(slim.nodePosX, slim.nodePosY);
+			BufferPool.upload(bufferNodePosX, slim.nodePosX);
+			BufferPool.upload(bufferNodePosY, slim.nodePosY);
+			deviceStateTile = -1;
+			return;
+		}
+		
+		execute("RejectStep", dimsGlobalNodes, dimsLocalNodes,
+							bufferNodePosX, bufferNodePosY,
+							bufferNodeK, bufferStartVelocity,
+							bufferVelocity,
+							slim.numNodes);
+	}
+	
+	/**
+	 * Reduces velocities to one value pair per work group on the device 
+	 * and finishes the reduction on the host.
+	 */
+	@Override
+	public float[] measureMotion(SlimNetwork slim)
+	{
+		if (tiles != null && tiles.velocity != null)
+		{
+			downloadDeviceState();
+			return tiles.measureMotion(slim.nodeMass);
+		}
+		
+		execute("ReduceMotion", dimsGlobalReduction, dimsLocalReduction,
+							localSizeReduction,
+							bufferVelocity, bufferNodeMass,
+							bufferMotion,
+							slim.numNodes);
+		
+		float[] groupMotion = new float[(int)(dimsGlobalReduction[0] / dimsLocalReduction[0]) * 2];
+		BufferPool.download(bufferMotion, groupMotion);
+		
+		float energy = 0f, maxSpeed2 = 0f;
+		for (int i = 0; i < groupMotion.length; i += 2)
+		{
+			energy += groupMotion[i];
+			maxSpeed2 = Math.max(maxSpeed2, groupMotion[i + 1]);
+		}
+		return new float[] { energy, (float)Math.sqrt(maxSpeed2) };
+	}
+	
+	/***
+	 * Copy node positions from GPU to pre-initialized arrays
+	 * @param nodePosX X component of node positions
+	 * @param nodePosY Y component of node positions
+	 */
+	@Override
+	public void getPositions(SlimNetwork slim)
+	{
+		BufferPool.download(bufferNodePosX, slim.nodePosX);
+		BufferPool.download(bufferNodePosY, slim.nodePosY);
+	}
+	
+	@Override
+	public void getPositions(SlimNetwork slim, float[] posX, float[] posY)
+	{
+		BufferPool.download(bufferNodePosX, posX);
+		BufferPool.download(bufferNodePosY, posY);
+	}
+	
+	/**
+	 * Advances the simulation state by the given amount of time 
+	 * using a Runge-Kutta 4th order integration scheme, or the context's
+	 * cheaper integrator. All data are stored in the CLBuffer objects
+	 * initialized and populated previously.
+	 * @param timestep Amount of virtual time to be simulated in this step.
+	 */
+	@Override
+	public void advanceSimulation(float timestep, boolean doEdgeRepulsion, SlimNetwork slim)
+	{
+		if (tiles != null)
+		{
+			if (context.useRungeKutta())
+				advanceSimulationTiled(timestep, doEdgeRepulsion, slim);
+			else
+				advanceSimulationTiledSingleEvaluation(timestep, doEdgeRepulsion, slim);
+			return;
+		}
+		if (!context.useRungeKutta())
+		{
+			advanceSimulationSingleEvaluation(timestep, doEdgeRepulsion, slim);
+			return;
+		}
+		if (bufferStartVelocity != null)
+			execute("KeepStepStart", dimsGlobalNodes, dimsLocalNodes,
+								bufferVelocity, bufferStartVelocity,
+								slim.numNodes);
+		if (!fuseSpring)
+		{
+			advanceSimulationUnfused(timestep, doEdgeRepulsion, slim);
+			return;
+		}
+		
+		// Without edge repulsion and approximations, a GPU does the whole stage in one kernel
+		boolean fuseGravity = device.getType() == DeviceTypes.GPU && !doEdgeRepulsion && slim.nodeSegment == null && tree == null;
+		
+		for (int stage = 0; stage < 4; stage++)
+		{
+			if (fuseGravity)
+				execute("GravitySpringDragIntegrateRK", dimsGlobalGravity, dimsLocalGravity,
+									localSizeTile, localSizeTile, localSizeTile,
+									bufferNodePosX, bufferNodePosY,
+									bufferNodePosOutX, bufferNodePosOutY,
+									bufferNodeMass,
+									bufferNodeMobility,
+									bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
+									bufferEdgeCoeffs, bufferEdgeLengths, bufferEdgeSprings,
+									springs.coeffScale, springs.lengthScale, springs.storage,
+									bufferNodeK,
+									bufferNodeL,
+									bufferVelocity,
+									1.0f,
+									timestep,
+									stage,
+									slim.numNodes,
+									slim.numNodesPadded);
+			else
+			{
+				calculateRepulsion(doEdgeRepulsion, slim);
+				execute("SpringDragIntegrateRK", dimsGlobalSpringIntegrate, dimsLocalNodes,
+									bufferNodePosX, bufferNodePosY,
+									bufferNodePosOutX, bufferNodePosOutY,
+									bufferNodeMass,
+									bufferNodeMobility,
+									bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
+									bufferEdgeCoeffs, bufferEdgeLengths, bufferEdgeSprings,
+									springs.coeffScale, springs.lengthScale, springs.storage,
+									bufferNodeK,
+									bufferNodeL,
+									bufferVelocity,
+									bufferForce,
+									1.0f,
+									timestep,
+									stage,
+									slim.numNodes);
+			}
+			
+			// The next stage reads what this one wrote. After four stages, 
+			// the current positions are back in the original buffers.
+			swapPositions();
+		}
+	}
+	
+	/**
+	 * Same as {@link #advanceSimulation}, for a network in tiles. Repulsion is computed for
+	 * all nodes at once, since their positions stay on the device. Then every tile's part of
+	 * the network and its integration state are loaded and integrated, see {@link #loadTile}.
+	 * CyCL transfers are blocking, so they can't overlap with the kernel of the previous tile.
+	 */
+	private void advanceSimulationTiled(float timestep, boolean doEdgeRepulsion, SlimNetwork slim)
+	{
+		if (context.adaptiveTimestep)
+			keepTiledStepStart(slim);
+		
+		for (int stage = 0; stage < 4; stage++)
+		{
+			calculateRepulsion(doEdgeRepulsion, slim);
+			
+			for (int i = 0; i < tiles.numTiles; i++)
+			{
+				int t = passTile(i);
+				int tileStart = tiles.tileStart[t], tileSize = tiles.tileStart[t + 1] - tileStart;
+				loadTile(t, true);
+				
+				execute("SpringDragIntegrateRKTile", new long[] { nextMultipleOf(tileSize, dimsLocalNodes[0]) }, dimsLocalNodes,
+									bufferNodePosX, bufferNodePosY,
+									bufferNodePosOutX, bufferNodePosOutY,
+									bufferNodeMass,
+									bufferForce,
+									bufferNodeMobility,
+									bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
+									bufferEdgeCoeffs, bufferEdgeLengths, bufferEdgeSprings,
+									springs.coeffScale, springs.lengthScale, springs.storage,
+									bufferNodeK,
+									bufferNodeL,
+									bufferVelocity,
+									1.0f,
+									timestep,
+									stage,
+									tileStart,
+									tileSize,
+									tiles.topologyStart(t));
+			}
+			
+			forwardPass = !forwardPass;
+			swapPositions();
+		}
+	}
+	
+	/**
+	 * Same as {@link #advanceSimulationSingleEvaluation}, for a network in tiles. Semi-implicit
+	 * Euler takes one pass over the tiles. Velocity Verlet drifts every tile first, so repulsion
+	 * sees the new positions of all nodes, then kicks every tile with the forces there.
+	 */
+	private void advanceSimulationTiledSingleEvaluation(float timestep, boolean doEdgeRepulsion, SlimNetwork slim)
+	{
+		if (bufferAcceleration == null)
+		{
+			calculateRepulsion(doEdgeRepulsion, slim);
+			
+			for (int i = 0; i < tiles.numTiles; i++)
+			{
+				int t = passTile(i);
+				int tileStart = tiles.tileStart[t], tileSize = tiles.tileStart[t + 1] - tileStart;
+				loadTile(t, true);
+				
+				execute("SpringDragIntegrateEulerTile", new long[] { nextMultipleOf(tileSize, dimsLocalNodes[0]) }, dimsLocalNodes,
+									bufferNodePosX, bufferNodePosY,
+									bufferNodePosOutX, bufferNodePosOutY,
+									bufferNodeMass,
+									bufferForce,
+									bufferNodeMobility,
+									bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
+									bufferEdgeCoeffs, bufferEdgeLengths, bufferEdgeSprings,
+									springs.coeffScale, springs.lengthScale, springs.storage,
+									bufferVelocity,
+									1.0f,
+									timestep,
+									tileStart,
+									tileSize,
+									tiles.topologyStart(t));
+			}
+			
+			forwardPass = !forwardPass;
+			swapPositions();
+			return;
+		}
+		
+		for (int i = 0; i < tiles.numTiles; i++)
+		{
+			int t = passTile(i);
+			int tileStart = tiles.tileStart[t], tileSize = tiles.tileStart[t + 1] - tileStart;
+			loadTile(t, false);
+			
+			execute("IntegrateVerletDriftTile", new long[] { nextMultipleOf(tileSize, dimsLocalNodes[0]) }, dimsLocalNodes,
+								bufferNodePosX, bufferNodePosY,
+								bufferVelocity,
+								bufferAcceleration,
+								1.0f,
+								timestep,
+								tileStart,
+								tileSize);
+		}
+		forwardPass = !forwardPass;
+		
+		calculateRepulsion(doEdgeRepulsion, slim);
+		
+		for (int i = 0; i < tiles.numTiles; i++)
+		{
+			int t = passTile(i);
+			int tileStart = tiles.tileStart[t], tileSize = tiles.tileStart[t + 1] - tileStart;
+			loadTile(t, true);
+			
+			execute("SpringDragVerletKickTile", new long[] { nextMultipleOf(tileSize, dimsLocalNodes[0]) }, dimsLocalNodes,
+								bufferNodePosX, bufferNodePosY,
+								bufferNodeMass,
+								bufferForce,
+								bufferNodeMobility,
+								bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
+								bufferEdgeCoeffs, bufferEdgeLengths, bufferEdgeSprings,
+								springs.coeffScale, springs.lengthScale, springs.storage,
+								bufferVelocity,
+								bufferAcceleration,
+								1.0f,
+								timestep,
+								tileStart,
+								tileSize,
+								tiles.topologyStart(t));
+		}
+		forwardPass = !forwardPass;
+	}
+	
+	/**
+	 * Keeps the velocities before a tiled RK4 step, on the device if the state stays there.
+	 */
+	private void keepTiledStepStart(SlimNetwork slim)
+	{
+		if (tiles.velocity == null)
+			execute("KeepStepStart", dimsGlobalNodes, dimsLocalNodes,
+								bufferVelocity, bufferStartVelocity,
+								slim.numNodes);
+		else
+		{
+			downloadDeviceState();
+			tiles.keepStepStart();
+		}
+	}
+	
+	/**
+	 * The i-th tile of the current pass. Passes alternate their direction, so the tile
+	 * one pass ends with starts the next one, and is still on the device.
+	 */
+	private int passTile(int i)
+	{
+		return forwardPass ? i : tiles.numTiles - 1 - i;
+	}
+	
+	/**
+	 * Makes the given tile's state, and its topology slice if needed, the one on the device
+	 * for a kernel that is about to integrate it. Transfers only what isn't there yet, after
+	 * reading back the state of the tile it replaces.
+	 */
+	private void loadTile(int t, boolean topology)
+	{
+		int slice = tiles.topologySlice(t);
+		if ((!topology || deviceSlice == slice) && deviceStateTile == t)
+		{
+			hostStateStale = true;
+			return;
+		}
+		
+		long start = System.nanoTime();
+		if (topology && deviceSlice != slice)
+		{
+			uploadTopology(slice);
+			deviceSlice = slice;
+		}
+		if (deviceStateTile != t)
+		{
+			downloadDeviceState();
+			BufferPool.upload(bufferVelocity, tiles.velocity[t]);
+			if (tiles.k != null)
+			{
+				BufferPool.upload(bufferNodeK, tiles.k[t]);
+				BufferPool.upload(bufferNodeL, tiles.l[t]);
+			}
+			if (tiles.accel != null)
+				BufferPool.upload(bufferAcceleration, tiles.accel[t]);
+			deviceStateTile = t;
+		}
+		hostStateStale = true;
+		timings.addOperation(LayoutTimings.tileTransfer, start);
+	}
+	
+	/**
+	 * Copies the state of the tile on the device to the host, if the host's copy is stale.
+	 * The device keeps it, so the tile's next pass doesn't upload it again.
+	 */
+	private void downloadDeviceState()
+	{
+		if (deviceStateTile < 0 || !hostStateStale)
+			return;
+		
+		long start = System.nanoTime();
+		BufferPool.download(bufferVelocity, tiles.velocity[deviceStateTile]);
+		if (tiles.k != null)
+		{
+			BufferPool.download(bufferNodeK, tiles.k[deviceStateTile]);
+			BufferPool.download(bufferNodeL, tiles.l[deviceStateTile]);
+		}
+		if (tiles.accel != null)
+			BufferPool.download(bufferAcceleration, tiles.accel[deviceStateTile]);
+		hostStateStale = false;
+		timings.addOperation(LayoutTimings.tileTransfer, start);
+	}
+	
+	/**
+	 * Uploads adjacency, springs and mobility of the given topology slice.
+	 */
+	private void uploadTopology(int slice)
+	{
+		BufferPool.upload(bufferEdges, tiles.edges[slice]);
+		BufferPool.upload(bufferEdgeOffsets, tiles.edgeOffsets[slice]);
+		BufferPool.upload(bufferEdgeCounts, tiles.edgeCounts[slice]);
+		if (springs.storage == CompactSprings.floatStorage)
+		{
+			BufferPool.upload(bufferEdgeCoeffs, tiles.edgeCoeffs[slice]);
+			BufferPool.upload(bufferEdgeLengths, tiles.edgeLengths[slice]);
+		}
+		else if (springs.storage == CompactSprings.halfStorage)
+			BufferPool.upload(bufferEdgeSprings, tiles.edgeSprings[slice]);
+		BufferPool.upload(bufferNodeMobility, tiles.mobility[slice]);
+	}
+	
+	/**
+	 * Makes the positions written by the last pass the current ones.
+	 */
+	private void swapPositions()
+	{
+		CyCLBuffer swap = bufferNodePosX;
+		bufferNodePosX = bufferNodePosOutX;
+		bufferNodePosOutX = swap;
+		swap = bufferNodePosY;
+		bufferNodePosY = bufferNodePosOutY;
+		bufferNodePosOutY = swap;
+	}
+	
+	/**
+	 * Same as {@link #advanceSimulation}, but with separate force and integration kernels.
+	 * Used for graphs with high-degree nodes, where the spring kernel for GPUs spreads 
+	 * each node's edges over more work items the more edges it has.
+	 */
+	private void advanceSimulationUnfused(float timestep, boolean doEdgeRepulsion, SlimNetwork slim)
+	{
+		calculateForces(doEdgeRepulsion, slim);
+		
+		execute("IntegrateRK0", dimsGlobalNodes, dimsLocalNodes, 
+					bufferNodePosX, bufferNodePosY, 
+				   	bufferNodeMass,
+				   	bufferNodeMobility,
+				   	bufferNodeK,
+				   	bufferNodeL,
+				   	bufferVelocity,
+				    bufferForce,
+				    timestep, 
+				    slim.numNodes);
+
+		calculateForces(doEdgeRepulsion, slim);
+		
+		execute("IntegrateRK1", dimsGlobalNodes, dimsLocalNodes,
+					bufferNodePosX, bufferNodePosY, 
+				   	bufferNodeMass,
+				   	bufferNodeMobility,
+				   	bufferNodeK,
+				   	bufferNodeL,
+				   	bufferVelocity,
+				    bufferForce,
+				    1.0f,
+				    timestep, 
+				    slim.numNodes);
+
+		calculateForces(doEdgeRepulsion, slim);
+		
+		execute("IntegrateRK2", dimsGlobalNodes, dimsLocalNodes,
+					bufferNodePosX, bufferNodePosY, 
+				   	bufferNodeMass,
+				   	bufferNodeMobility,
+				   	bufferNodeK,
+				   	bufferNodeL,
+				   	bufferVelocity,
+				    bufferForce,
+				    1.0f,
+				    timestep, 
+				    slim.numNodes);
+
+		calculateForces(doEdgeRepulsion, slim);
+		
+		execute("IntegrateRK3", dimsGlobalNodes, dimsLocalNodes,
+					bufferNodePosX, bufferNodePosY, 
+				   	bufferNodeMass,
+				   	bufferNodeMobility,
+				   	bufferNodeK,
+				   	bufferNodeL,
+				   	bufferVelocity,
+				    bufferForce,
+				    1.0f,
+				    timestep, 
+				    slim.numNodes);
+	}
+	
+	/**
+	 * Same as {@link #advanceSimulation}, with semi-implicit Euler or velocity Verlet
+	 * steps, which evaluate forces only once.
+	 */
+	private void advanceSimulationSingleEvaluation(float timestep, boolean doEdgeRepulsion, SlimNetwork slim)
+	{
+		if (bufferAcceleration == null)
+		{
+			calculateForces(doEdgeRepulsion, slim);
+			
+			execute("IntegrateEuler", dimsGlobalNodes, dimsLocalNodes,
+						bufferNodePosX, bufferNodePosY,
+						bufferNodeMass,
+						bufferNodeMobility,
+						bufferVelocity,
+						bufferForce,
+						1.0f,
+						timestep,
+						slim.numNodes);
+			return;
+		}
+		
+		execute("IntegrateVerletDrift", dimsGlobalNodes, dimsLocalNodes,
+					bufferNodePosX, bufferNodePosY,
+					bufferVelocity,
+					bufferAcceleration,
+					1.0f,
+					timestep,
+					slim.numNodes);
+		
+		calculateForces(doEdgeRepulsion, slim);
+		
+		execute("IntegrateVerletKick", dimsGlobalNodes, dimsLocalNodes,
+					bufferNodeMass,
+					bufferNodeMobility,
+					bufferVelocity,
+					bufferAcceleration,
+					bufferForce,
+					1.0f,
+					timestep,
+					slim.numNodes);
+	}
+	
+	/**
+	 * Computes launch dimensions and local memory sizes once per partition, from the device's {@link LaunchProfile}.
+	 */
+	private void initializeDimensions(SlimNetwork slim)
+	{
+		// Parallelization scheme is different for CPU and GPU kernel versions
+		boolean gpu = device.getType() == DeviceTypes.GPU;
+		
+		dimsLocalNodes = new long[] { profile.nodeGroupSize };
+		dimsGlobalNodes = new long[] { nextMultipleOf(slim.numNodes, dimsLocalNodes[0]) };
+		dimsGlobalSpringIntegrate = gpu ? dimsGlobalNodes : new long[] { nextMultipleOf((slim.numNodes + 3) / 4, dimsLocalNodes[0]) };
+		dimsLocalEdgeRepulsion = new long[] { profile.nodeGroupSize };
+		dimsGlobalEdgeRepulsion = new long[] { Math.min(65536, nextMultipleOf(slim.numEdgesUnique, dimsLocalEdgeRepulsion[0])) };
+		dimsLocalGravity = new long[] { gpu ? profile.tileGroupSize : device.getBestBlockSize() };
+		dimsGlobalGravity = new long[] { gpu ? nextMultipleOf(slim.numNodes, dimsLocalGravity[0]) : slim.numNodesPadded / 2 };
+		dimsLocalSpring = new long[] { 1 };
+		dimsGlobalSpring = new long[] { slim.numNodes };
+		// Reductions need a power of two work group size, and only a few groups
+		dimsLocalReduction = new long[] { Long.highestOneBit(device.getBestBlockSize()) };
+		long numGroups = Math.min(maxReductionGroups, (slim.numNodes + dimsLocalReduction[0] - 1) / dimsLocalReduction[0]);
+		dimsGlobalReduction = new long[] { Math.max(1, numGroups) * dimsLocalReduction[0] };
+		
+		localSizeTile = device.createLocalSize(dimsLocalGravity[0] * 4);
+		localSizeReduction = device.createLocalSize(dimsLocalReduction[0] * 2 * 4);
+		
+		int maxDegree = 0;
+		for (int i = 0; i < slim.numNodes; i++)
+			maxDegree = Math.max(maxDegree, slim.edgeCounts[i]);
+		// Only RK4 stages have fused kernels
+		fuseSpring = context.useRungeKutta() && (!gpu || maxDegree <= profile.maxFusedSpringDegree);
+	}
+
+	/**
+	 * Groups nodes by degree for the GPU version of CalcForcesSpringDrag, which gives every
+	 * node of the first bin one work item, of the second the profile's spring lanes and of the last a whole
+	 * work group. Nodes are sorted by degree, except in batches and incremental regions,
+	 * so bins are usually ranges of consecutive nodes.
+	 */
+	private void initializeDegreeBins(SlimNetwork slim)
+	{
+		// A power of two, so that the lanes of every bin divide it
+		int springLanes = profile.springLanes;
+		long groupSize = Math.max(springLanes, Long.highestOneBit(profile.nodeGroupSize));
+		long[] lanes = { 1, springLanes, groupSize };
+		
+		int[] bin = new int[slim.numNodes];
+		binStart = new int[lanes.length + 1];
+		for (int i = 0; i < slim.numNodes; i++)
+		{
+			int degree = slim.edgeCounts[i];
+			bin[i] = degree <= edgesPerLane ? 0 : degree <= edgesPerLane * springLanes ? 1 : 2;
+			binStart[bin[i] + 1]++;
+		}
+		for (int b = 0; b < lanes.length; b++)
+			binStart[b + 1] += binStart[b];
+		
+		int[] binNodes = new int[Math.max(1, slim.numNodes)];
+		int[] fill = binStart.clone();
+		for (int i = 0; i < slim.numNodes; i++)
+			binNodes[fill[bin[i]]++] = i;
+		bufferBinNodes = createBuffer(binNodes);
+		
+		dimsLocalSpringBin = new long[lanes.length][];
+		dimsGlobalSpringBin = new long[lanes.length][];
+		for (int b = 0; b < lanes.length; b++)
+		{
+			long nodesPerGroup = groupSize / lanes[b];
+			dimsLocalSpringBin[b] = new long[] { lanes[b], nodesPerGroup };
+			dimsGlobalSpringBin[b] = new long[] { lanes[b], nextMultipleOf(binStart[b + 1] - binStart[b], nodesPerGroup) };
+		}
+		localSizeSpring = device.createLocalSize(groupSize * 2 * 4);
+	}
+
+	/**
+	 * Calculates all forces for the current state of the simulation
+	 * and stores them for integration.
+	 */
+	private void calculateForces(boolean doEdgeRepulsion, SlimNetwork slim)
+	{
+			calculateRepulsion(doEdgeRepulsion, slim);
+			
+			if (device.getType() == DeviceTypes.GPU)
+			{
+				for (int bin = 0; bin < binStart.length - 1; bin++)
+					if (binStart[bin + 1] > binStart[bin])
+						execute("CalcForcesSpringDrag", dimsGlobalSpringBin[bin], dimsLocalSpringBin[bin],
+										    localSizeSpring,
+										    bufferNodePosX, bufferNodePosY, 
+										    bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
+										    bufferEdgeCoeffs, bufferEdgeLengths, bufferEdgeSprings,
+										    springs.coeffScale, springs.lengthScale, springs.storage,
+										    bufferVelocity, 
+										    bufferForce, 
+										    bufferBinNodes,
+										    binStart[bin], binStart[bin + 1] - binStart[bin]);
+			}
+			else
+				execute("CalcForcesSpringDrag", dimsGlobalSpring, dimsLocalSpring,
+								    bufferNodePosX, bufferNodePosY, 
+								    bufferEdges, bufferEdgeOffsets, bufferEdgeCounts,
+								    bufferEdgeCoeffs, bufferEdgeLengths, bufferEdgeSprings,
+								    springs.coeffScale, springs.lengthScale, springs.storage,
+								    bufferVelocity, 
+								    bufferForce, 
+								    slim.numNodes);
+	}
+	
+	/**
+	 * Calculates node-node and, if requested, edge repulsion, 
+	 * overwriting the previous content of the force buffer.
+	 */
+	private void calculateRepulsion(boolean doEdgeRepulsion, SlimNetwork slim)
+	{
+			if (slim.nodeSegment != null)
+				execute("CalcForcesGravitySegmented", dimsGlobalNodes, dimsLocalNodes,
+						bufferNodePosX, bufferNodePosY,
+						bufferNodeMass,
+						bufferNodeSegment, bufferSegmentNodeStart,
+						bufferForce,
+						slim.numNodes);
+			else if (tree != null)
+				calcForcesBarnesHut(slim);
+			else if (device.getType() == DeviceTypes.GPU) {
+				execute("CalcForcesGravity", dimsGlobalGravity, dimsLocalGravity,
+					    localSizeTile, localSizeTile, localSizeTile,
+					    bufferNodePosX, bufferNodePosY,
+					    bufferNodeMass,
+					    bufferForce,
+					    slim.numNodes,
+					    slim.numNodesPadded);
+        } else
+				execute("CalcForcesGravity", dimsGlobalGravity, dimsLocalGravity,
+					    bufferNodePosX, bufferNodePosY,
+					    bufferNodeMass,
+					    bufferForce,
+					    slim.numNodesPadded / 2);
+			
+			if (doEdgeRepulsion)
+			{
+				execute("PrepareEdgeRepulsion", dimsGlobalEdgeRepulsion, dimsLocalEdgeRepulsion,
+									bufferNodePosX, bufferNodePosY,
+									bufferEdgeUniqueSources, bufferEdgeUniqueTargets,
+									bufferEdgeStartX, bufferEdgeStartY,
+									bufferEdgeTangentX, bufferEdgeTangentY,
+									bufferEdgeCurrentLength,
+									slim.numEdgesUnique);
+				
+				if (slim.nodeSegment != null)
+					execute("CalcForcesEdgeRepulsionSegmented", dimsGlobalNodes, dimsLocalNodes,
+							bufferNodePosX, bufferNodePosY,
+							bufferNodeMass,
+							bufferEdgeStartX, bufferEdgeStartY,
+							bufferEdgeTangentX, bufferEdgeTangentY,
+							bufferEdgeCurrentLength,
+							bufferEdgeMassStart, bufferEdgeMassEnd,
+							bufferNodeSegment, bufferSegmentEdgeStart,
+							bufferForce,
+							slim.numNodes);
+				else if (grid != null)
+					calcForcesEdgeRepulsionGrid(slim);
+				else if (device.getType() != DeviceTypes.GPU)
+					// The CPU version reads edges eight at a time without local memory
+					execute("CalcForcesEdgeRepulsion", dimsGlobalNodes, dimsLocalNodes,
+										bufferNodePosX, bufferNodePosY,
+										bufferNodeMass,
+										bufferEdgeStartX, bufferEdgeStartY,
+										bufferEdgeTangentX, bufferEdgeTangentY,
+										bufferEdgeCurrentLength, 
+										bufferEdgeMassStart, bufferEdgeMassEnd,
+										bufferForce,
+										slim.numNodes,
+										slim.numEdgesUniquePadded);
+				else
+					execute("CalcForcesEdgeRepulsion", dimsGlobalGravity, dimsLocalGravity,
+										localSizeTile, localSizeTile,	// position
+										localSizeTile, localSizeTile,	// tangent
+										localSizeTile,					// length
+										localSizeTile, localSizeTile,	// mass
+										bufferNodePosX, bufferNodePosY,
+										bufferNodeMass,
+										bufferEdgeStartX, bufferEdgeStartY,
+										bufferEdgeTangentX, bufferEdgeTangentY,
+										bufferEdgeCurrentLength, 
+										bufferEdgeMassStart, bufferEdgeMassEnd,
+										bufferForce,
+										slim.numNodes,
+										slim.numEdgesUniquePadded);
+			}
+	}
+	
+	/**
+	 * Approximates node-node repulsion with a quadtree built on the host from the current positions.
+	 */
+	private void calcForcesBarnesHut(SlimNetwork slim)
+	{
+		long start = System.nanoTime();
+		BufferPool.download(bufferNodePosX, slim.nodePosX);
+		BufferPool.download(bufferNodePosY, slim.nodePosY);
+		tree.build(slim.nodePosX, slim.nodePosY, slim.nodeMass, slim.numNodes);
+		
+		// Cell count varies between steps, grow the device buffers along with the tree
+		if (cellCapacity < tree.capacity)
+		{
+			releaseBuffer(bufferCellData);
+			releaseBuffer(bufferCellLinks);
+			cellCapacity = tree.capacity;
+			bufferCellData = createBuffer(float.class, cellCapacity * 4);
+			bufferCellLinks = createBuffer(int.class, cellCapacity * 4);
+		}
+		BufferPool.upload(bufferCellData, tree.cellData);
+		BufferPool.upload(bufferCellLinks, tree.cellLinks);
+		BufferPool.upload(bufferCellBodies, tree.cellBodies);
+		timings.addOperation(LayoutTimings.quadTreeBuild, start);
+		
+		float theta = (float)context.barnesHutTheta;
+		execute("CalcForcesBarnesHut", dimsGlobalNodes, dimsLocalNodes,
+							bufferNodePosX, bufferNodePosY,
+							bufferNodeMass,
+							bufferCellData, bufferCellLinks, bufferCellBodies,
+							bufferForce,
+							theta * theta,
+							tree.numCells,
+							slim.numNodes);
+	}
+	
+	/**
+	 * Limits edge repulsion to edges within the cutoff radius, binned on the host from the current positions.
+	 */
+	private void calcForcesEdgeRepulsionGrid(SlimNetwork slim)
+	{
+		long start = System.nanoTime();
+		BufferPool.download(bufferNodePosX, slim.nodePosX);
+		BufferPool.download(bufferNodePosY, slim.nodePosY);
+		grid.build(slim.nodePosX, slim.nodePosY, slim.numNodes, slim.edgeUniqueSources, slim.edgeUniqueTargets, slim.numEdgesUnique);
+		
+		// Grid resolution and bin sizes vary between steps, grow the device buffers along with the grid
+		if (gridCellCapacity < grid.cellCapacity)
+		{
+			releaseBuffer(bufferGridCellStart);
+			gridCellCapacity = grid.cellCapacity;
+			bufferGridCellStart = createBuffer(int.class, gridCellCapacity);
+		}
+		if (gridEntryCapacity < grid.entryCapacity)
+		{
+			releaseBuffer(bufferGridCellEdges);
+			gridEntryCapacity = grid.entryCapacity;
+			bufferGridCellEdges = createBuffer(int.class, gridEntryCapacity);
+		}
+		BufferPool.upload(bufferGridCellStart, grid.cellStart);
+		BufferPool.upload(bufferGridCellEdges, grid.cellEdges);
+		BufferPool.upload(bufferEdgeCellMin, grid.edgeCellMin);
+		timings.addOperation(LayoutTimings.edgeGridBuild, start);
+		
+		execute("CalcForcesEdgeRepulsionGrid", dimsGlobalNodes, dimsLocalNodes,
+							bufferNodePosX, bufferNodePosY,
+							bufferNodeMass,
+							bufferEdgeStartX, bufferEdgeStartY,
+							bufferEdgeTangentX, bufferEdgeTangentY,
+							bufferEdgeCurrentLength,
+							bufferEdgeMassStart, bufferEdgeMassEnd,
+							bufferGridCellStart, bufferGridCellEdges,
+							bufferEdgeCellMin,
+							bufferForce,
+							grid.originX, grid.originY, grid.invCellSize, grid.getCutoff(),
+							grid.gridWidth, grid.gridHeight,
+							slim.numNodes);
+	}
+	
+	private long nextMultipleOf(long n, long multipleOf)
+	{
+		return (n + multipleOf - 1) / multipleOf * multipleOf;
+	}
+}
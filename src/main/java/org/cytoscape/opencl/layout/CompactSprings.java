@@ -0,0 +1,107 @@
+package org.cytoscape.opencl.layout;
+
+/**
+ * Spring coefficients and rest lengths of a network in the form they are stored on the
+ * device, see loadSpring() in LayoutKernels.cl. If all springs are equal, which they are
+ * unless edge weights differ or nodes share several edges, only that one spring is passed. Otherwise every neighbor slot
+ * has a float for each, or, in compact mode, two halves taking 4 bytes instead of 8. 
+ * Forces are always computed in float.
+ */
+class CompactSprings
+{
+	static final int floatStorage = 0;
+	static final int halfStorage = 1;
+	static final int uniformStorage = 2;
+
+	final int storage;
+	// Largest coefficient and length with halfStorage, the only ones with uniformStorage
+	final float coeffScale;
+	final float lengthScale;
+	// With halfStorage, coefficient and length of every slot relative to the scales,
+	// as two halves in one int (coefficient in the low bits), otherwise null
+	final int[] packed;
+
+	private CompactSprings(int storage, float coeffScale, float lengthScale, int[] packed)
+	{
+		this.storage = storage;
+		this.coeffScale = coeffScale;
+		this.lengthScale = lengthScale;
+		this.packed = packed;
+	}
+
+	/**
+	 * Finds the most compact storage for the springs of all neighbor slots in use.
+	 * @param halfPrecision Whether springs may be rounded to half precision
+	 */
+	static CompactSprings of(SlimNetwork slim, boolean halfPrecision)
+	{
+		float maxCoeff = 0f, maxLength = 0f;
+		float firstCoeff = Float.NaN, firstLength = Float.NaN;
+		boolean uniform = true;
+		for (int i = 0; i < slim.numNodes; i++)
+			for (int e = slim.edgeOffsetsSparse[i]; e < slim.edgeOffsetsSparse[i] + slim.edgeCounts[i]; e++)
+			{
+				float coeff = slim.edgeCoeffs[e], length = slim.edgeLengths[e];
+				if (Float.isNaN(firstCoeff))
+				{
+					firstCoeff = coeff;
+					firstLength = length;
+				}
+				uniform &= coeff == firstCoeff && length == firstLength;
+				maxCoeff = Math.max(maxCoeff, Math.abs(coeff));
+				maxLength = Math.max(maxLength, Math.abs(length));
+			}
+
+		if (uniform)
+			return new CompactSprings(uniformStorage, Float.isNaN(firstCoeff) ? 0f : firstCoeff, Float.isNaN(firstLength) ? 0f : firstLength, null);
+		if (!halfPrecision)
+			return new CompactSprings(floatStorage, 1f, 1f, null);
+
+		// Relative to the largest values, so that no spring is out of half range
+		float coeffScale = maxCoeff > 0f ? maxCoeff : 1f;
+		float lengthScale = maxLength > 0f ? maxLength : 1f;
+		int[] packed = new int[slim.numEdgesSparse];
+		for (int i = 0; i < slim.numNodes; i++)
+			for (int e = slim.edgeOffsetsSparse[i]; e < slim.edgeOffsetsSparse[i] + slim.edgeCounts[i]; e++)
+				packed[e] = (toHalf(slim.edgeCoeffs[e] / coeffScale) & 0xffff) | toHalf(slim.edgeLengths[e] / lengthScale) << 16;
+
+		return new CompactSprings(halfStorage, coeffScale, lengthScale, packed);
+	}
+
+	/**
+	 * Rounds to the nearest IEEE 754 half precision value, ties to even.
+	 * Values beyond the half range become infinite, NaN isn't expected.
+	 */
+	static int toHalf(float value)
+	{
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+		int mantissa = bits & 0x7fffff;
+
+		if (exponent >= 31)
+			return sign | 0x7c00;
+
+		int shift, half;
+		if (exponent <= 0)
+		{
+			// Subnormal, the implicit leading 1 becomes explicit
+			if (exponent < -10)
+				return sign;
+			mantissa |= 0x800000;
+			shift = 14 - exponent;
+			half = mantissa >> shift;
+		}
+		else
+		{
+			shift = 13;
+			half = exponent << 10 | mantissa >> shift;
+		}
+
+		// A carry out of the mantissa correctly increments the exponent
+		int rest = mantissa & ((1 << shift) - 1), halfway = 1 << (shift - 1);
+		if (rest > halfway || rest == halfway && (half & 1) != 0)
+			half++;
+		return sign | half;
+	}
+}
@@ -2,8 +2,12 @@ package org.cytoscape.opencl.layout;
 
 import static org.cytoscape.work.ServiceProperties.*;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
+import org.cytoscape.application.CyApplicationConfiguration;
 import org.cytoscape.cycl.CyCLDevice;
 import org.cytoscape.cycl.CyCLFactory;
 import org.cytoscape.service.util.AbstractCyActivator;
@@ -29,17 +33,25 @@ public class CyActivator extends AbstractCyActivator {
 	private void initialize(BundleContext bc, CyCLFactory cycl) {
 		new Thread(() -> {
 			try {
-				// Don't initialize if there are no OpenCL devices.
-        if (!cycl.isInitialized()) {
-					logger.error("OpenCL did not initialize. Cannot register '" + CLLayout.ALGORITHM_DISPLAY_NAME + "'.");
-					return;
-        }
-
-        CyCLDevice device = cycl.getDevice(); // Get the best device
+				// Without OpenCL devices the layout falls back to the host engine.
+				List<CyCLDevice> devices = new ArrayList<>();
+				if (cycl.isInitialized())
+				{
+					// Run partitions on all devices, the best one first
+					CyCLDevice best = cycl.getDevice();
+					devices.add(best);
+					for (CyCLDevice device : cycl.getDevices())
+						if (device != best)
+							devices.add(device);
+				}
+				else
+					logger.warn("OpenCL did not initialize. '" + CLLayout.ALGORITHM_DISPLAY_NAME + "' will run on the host CPU.");
 				
 				UndoSupport undo = getService(bc, UndoSupport.class);
+				CyApplicationConfiguration config = getService(bc, CyApplicationConfiguration.class);
+				File launchProfiles = new File(config.getAppConfigurationDirectoryLocation(CyActivator.class), "launch-profiles.properties");
 
-				CLLayout forceDirectedCLLayout = new CLLayout(undo, device);
+				CLLayout forceDirectedCLLayout = new CLLayout(undo, devices, launchProfiles);
 
 		        Properties forceDirectedCLLayoutProps = new Properties();
 		        forceDirectedCLLayoutProps.setProperty(PREFERRED_MENU, "Layout.Cytoscape Layouts");
@@ -47,8 +59,15 @@ public class CyActivator extends AbstractCyActivator {
 		        forceDirectedCLLayoutProps.setProperty(TITLE, forceDirectedCLLayout.toString());
 		        forceDirectedCLLayoutProps.setProperty(MENU_GRAVITY, "10.5");
 				registerService(bc, forceDirectedCLLayout, CyLayoutAlgorithm.class, forceDirectedCLLayoutProps);
+				
+				// Compile and tune now rather than in the first layout
+				try {
+					forceDirectedCLLayout.getScheduler();
+				} catch (RuntimeException e) {
+					logger.warn(e.getMessage());
+				}
 			} catch (Exception e) {
-				e.printStackTrace();
+				logger.warn("Could not register '" + CLLayout.ALGORITHM_DISPLAY_NAME + "'.", e);
 			}
 		}).start();
 	}
@@ -0,0 +1,112 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Hands out a set of devices to concurrently running partitions, one partition
+ * per device at a time. When more partitions wait than devices are idle, the
+ * largest partition goes first, and it gets the best idle device, i.e. the one
+ * listed first.
+ *
+ * The device type is a parameter, so the scheduler can be driven with any
+ * stand-in objects as well as with real OpenCL devices.
+ */
+class DeviceScheduler<T>
+{
+	private final List<T> devices;
+	private final boolean[] busy;
+
+	private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+	private long nextTicket = 0;
+
+	/**
+	 * @param devices Devices to schedule, best first
+	 */
+	public DeviceScheduler(List<T> devices)
+	{
+		if (devices.isEmpty())
+			throw new IllegalArgumentException("Need at least one device.");
+
+		this.devices = new ArrayList<>(devices);
+		this.busy = new boolean[devices.size()];
+	}
+
+	public List<T> getDevices()
+	{
+		return devices;
+	}
+
+	/**
+	 * Blocks until a device is idle and no larger partition is waiting for one.
+	 * @param work Size of the partition, e.g. its node count
+	 * @return The device, which must be given back with {@link #release(Object)}
+	 */
+	public synchronized T acquire(long work) throws InterruptedException
+	{
+		Waiter me = new Waiter(work, nextTicket++);
+		waiters.add(me);
+		try
+		{
+			while (true)
+			{
+				if (waiters.peek() == me)
+				{
+					for (int i = 0; i < busy.length; i++)
+						if (!busy[i])
+						{
+							busy[i] = true;
+							return devices.get(i);
+						}
+				}
+				wait();
+			}
+		}
+		finally
+		{
+			waiters.remove(me);
+			// Whoever is next in line may be able to proceed now
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Makes a device available to waiting partitions again.
+	 */
+	public synchronized void release(T device)
+	{
+		for (int i = 0; i < devices.size(); i++)
+			if (devices.get(i) == device)
+			{
+				if (!busy[i])
+					throw new IllegalStateException("Device was not acquired.");
+				busy[i] = false;
+				notifyAll();
+				return;
+			}
+
+		throw new IllegalArgumentException("Unknown device.");
+	}
+
+	private static class Waiter implements Comparable<Waiter>
+	{
+		final long work;
+		final long ticket;
+
+		Waiter(long work, long ticket)
+		{
+			this.work = work;
+			this.ticket = ticket;
+		}
+
+		@Override
+		public int compareTo(Waiter other)
+		{
+			// Largest first, then first come first served
+			if (work != other.work)
+				return Long.compare(other.work, work);
+			return Long.compare(ticket, other.ticket);
+		}
+	}
+}
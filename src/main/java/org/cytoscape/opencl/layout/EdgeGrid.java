@@ -0,0 +1,168 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the unique edges of a SlimNetwork, used to limit edge
+ * repulsion to edges within a cutoff radius of each node.
+ *
+ * Cells are at least as large as the cutoff, and every edge is binned into all
+ * cells overlapped by its bounding box. A node therefore finds every edge within
+ * the cutoff in the 3x3 cells around its own. Since an edge can occur in several of
+ * those cells, it is only evaluated in the first one: the cell at the maximum of
+ * the edge's first cell and the node's first neighbor cell, per axis.
+ *
+ * Edges overlapping more than {@link #maxCellsPerEdge} cells are not binned but
+ * put into an extra bucket that every node evaluates.
+ */
+class EdgeGrid
+{
+	public static final int maxCellsPerEdge = 64;
+
+	public float originX, originY, cellSize, invCellSize;
+	public int gridWidth, gridHeight;
+
+	// Offsets into cellEdges, one entry per cell plus the long edge bucket, plus the end
+	public int[] cellStart;
+	public int[] cellEdges;
+	// Per edge: x and y index of the first cell overlapped by its bounding box
+	public int[] edgeCellMin;
+
+	public int cellCapacity;
+	public int entryCapacity;
+
+	private final float cutoff;
+	private final int maxCells;
+
+	private int[] edgeCellMax;
+	private int[] fill = new int[0];
+
+	/**
+	 * @param cutoff Edges farther away than this from a node don't repel it
+	 * @param numNodes Number of nodes, bounds the grid resolution
+	 * @param numEdges Number of unique edges
+	 */
+	public EdgeGrid(float cutoff, int numNodes, int numEdges)
+	{
+		this.cutoff = cutoff;
+		// Keep the grid in proportion to the network, it can't help beyond that.
+		maxCells = Math.max(1, 2 * (numNodes + numEdges));
+
+		edgeCellMin = new int[Math.max(1, numEdges * 2)];
+		edgeCellMax = new int[Math.max(1, numEdges * 2)];
+		ensureCapacity(16, Math.max(16, numEdges * 2));
+	}
+
+	/**
+	 * Bins all edges for the current node positions.
+	 */
+	public void build(float[] nodePosX, float[] nodePosY, int numNodes, int[] edgeSources, int[] edgeTargets, int numEdges)
+	{
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < numNodes; i++)
+		{
+			minX = Math.min(minX, nodePosX[i]);
+			minY = Math.min(minY, nodePosY[i]);
+			maxX = Math.max(maxX, nodePosX[i]);
+			maxY = Math.max(maxY, nodePosY[i]);
+		}
+		if (numNodes == 0 || !Float.isFinite(maxX - minX) || !Float.isFinite(maxY - minY))
+			minX = minY = maxX = maxY = 0f;
+
+		originX = minX;
+		originY = minY;
+		cellSize = cutoff;
+		while (true)
+		{
+			long w = (long)((maxX - minX) / cellSize) + 1, h = (long)((maxY - minY) / cellSize) + 1;
+			if (w * h <= maxCells)
+			{
+				gridWidth = (int)w;
+				gridHeight = (int)h;
+				break;
+			}
+			cellSize *= 2f;
+		}
+		// Multiply by the inverse, so host and device compute identical cell indices
+		invCellSize = 1f / cellSize;
+
+		int numCells = gridWidth * gridHeight;
+		int longEdges = numCells;
+		ensureCapacity(numCells + 2, entryCapacity);
+		Arrays.fill(cellStart, 0, numCells + 2, 0);
+
+		// Count the edges per cell
+		for (int e = 0; e < numEdges; e++)
+		{
+			int s = edgeSources[e], t = edgeTargets[e];
+			int x0 = cellX(Math.min(nodePosX[s], nodePosX[t])), x1 = cellX(Math.max(nodePosX[s], nodePosX[t]));
+			int y0 = cellY(Math.min(nodePosY[s], nodePosY[t])), y1 = cellY(Math.max(nodePosY[s], nodePosY[t]));
+			edgeCellMin[e * 2] = x0;
+			edgeCellMin[e * 2 + 1] = y0;
+			edgeCellMax[e * 2] = x1;
+			edgeCellMax[e * 2 + 1] = y1;
+
+			if ((x1 - x0 + 1) * (y1 - y0 + 1) > maxCellsPerEdge)
+			{
+				cellStart[longEdges + 1]++;
+				continue;
+			}
+			for (int y = y0; y <= y1; y++)
+				for (int x = x0; x <= x1; x++)
+					cellStart[y * gridWidth + x + 1]++;
+		}
+
+		for (int c = 0; c <= numCells; c++)
+			cellStart[c + 1] += cellStart[c];
+		int numEntries = cellStart[numCells + 1];
+		ensureCapacity(cellCapacity, numEntries);
+
+		// Fill in the edge indices
+		if (fill.length < numCells + 1)
+			fill = new int[cellCapacity];
+		System.arraycopy(cellStart, 0, fill, 0, numCells + 1);
+		for (int e = 0; e < numEdges; e++)
+		{
+			int x0 = edgeCellMin[e * 2], y0 = edgeCellMin[e * 2 + 1];
+			int x1 = edgeCellMax[e * 2], y1 = edgeCellMax[e * 2 + 1];
+
+			if ((x1 - x0 + 1) * (y1 - y0 + 1) > maxCellsPerEdge)
+			{
+				cellEdges[fill[longEdges]++] = e;
+				continue;
+			}
+			for (int y = y0; y <= y1; y++)
+				for (int x = x0; x <= x1; x++)
+					cellEdges[fill[y * gridWidth + x]++] = e;
+		}
+	}
+
+	public int cellX(float x)
+	{
+		return Math.max(0, Math.min(gridWidth - 1, (int)((x - originX) * invCellSize)));
+	}
+
+	public int cellY(float y)
+	{
+		return Math.max(0, Math.min(gridHeight - 1, (int)((y - originY) * invCellSize)));
+	}
+
+	public float getCutoff()
+	{
+		return cutoff;
+	}
+
+	private void ensureCapacity(int cells, int entries)
+	{
+		if (cells > cellCapacity)
+		{
+			cellCapacity = Math.max(cells, cellCapacity * 2);
+			cellStart = new int[cellCapacity];
+		}
+		if (entries > entryCapacity)
+		{
+			entryCapacity = Math.max(entries, entryCapacity * 2);
+			cellEdges = new int[entryCapacity];
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package org.cytoscape.opencl.layout;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A network read from an edge list or SIF file, for layouts outside of Cytoscape.
+ * Nodes are numbered in order of first appearance and identified by that number.
+ * All nodes start at random positions, like a layout from scratch, and none are locked.
+ *
+ * Edge lists have one edge per line: source, target and an optional weight.
+ * SIF files have a source, an interaction type and any number of targets per line.
+ * A line with only one name adds an unconnected node. Columns are separated by tabs
+ * if the line contains any, otherwise by spaces. Empty lines and lines starting with
+ * '#' are skipped.
+ *
+ * Weights are normalized like EdgeWeighter's default does for the layouts in Cytoscape:
+ * linearly from the file's smallest and largest weight to 0.1 and 0.9, and 0.5 for edges
+ * without a weight. So a spring is between 1.1 and 10 times the default spring length,
+ * whatever the scale of the weights in the file.
+ */
+public class EdgeListGraph implements LayoutGraph
+{
+	// EdgeWeighter's default normalization range, and the weight of edges without one
+	static final float minNormalizedWeight = 0.1f;
+	static final float maxNormalizedWeight = 0.9f;
+	static final float defaultWeight = 0.5f;
+
+	private final List<String> nodeNames;
+	private final float[] nodePosX, nodePosY;
+	private final int[] edgeSources, edgeTargets;
+	// Normalized weights, null if no edge has a weight
+	private final float[] edgeWeights;
+
+	private EdgeListGraph(List<String> nodeNames, int[] edgeSources, int[] edgeTargets, float[] edgeWeights)
+	{
+		this.nodeNames = nodeNames;
+		this.edgeSources = edgeSources;
+		this.edgeTargets = edgeTargets;
+		this.edgeWeights = edgeWeights;
+		if (edgeWeights != null)
+			normalize(edgeWeights);
+
+		// Same start as CLLayoutTask's layouts from scratch
+		int n = nodeNames.size();
+		Random rand = new Random(123);
+		nodePosX = new float[n];
+		nodePosY = new float[n];
+		for (int i = 0; i < n; i++)
+		{
+			nodePosX[i] = (rand.nextFloat() - 0.5f) * 2f;
+			nodePosY[i] = (rand.nextFloat() - 0.5f) * 2f;
+		}
+	}
+
+	/**
+	 * Reads the file line by line, as SIF if its name ends in .sif and as an edge list otherwise.
+	 * @throws IOException If the file can't be read or a line can't be parsed
+	 */
+	public static EdgeListGraph read(Path file) throws IOException
+	{
+		boolean sif = file.getFileName().toString().toLowerCase().endsWith(".sif");
+		Builder builder = new Builder();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+		{
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null)
+			{
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				String[] columns = line.split(line.indexOf('\t') >= 0 ? "\\s*\t\\s*" : "\\s+");
+				if (columns.length == 1)
+					builder.node(columns[0]);
+				else if (sif)
+				{
+					if (columns.length == 2)
+						throw new IOException(file + ":" + lineNumber + ": SIF line has an interaction but no target");
+					int source = builder.node(columns[0]);
+					for (int i = 2; i < columns.length; i++)
+						builder.edge(source, builder.node(columns[i]), Float.NaN);
+				}
+				else
+				{
+					if (columns.length > 3)
+						throw new IOException(file + ":" + lineNumber + ": expected source, target and optional weight");
+					float weight = Float.NaN;
+					if (columns.length == 3)
+					{
+						try
+						{
+							weight = Float.parseFloat(columns[2]);
+						}
+						catch (NumberFormatException e)
+						{
+							throw new IOException(file + ":" + lineNumber + ": invalid weight '" + columns[2] + "'");
+						}
+						if (!(weight > 0f))
+							throw new IOException(file + ":" + lineNumber + ": weight must be > 0");
+					}
+					builder.edge(builder.node(columns[0]), builder.node(columns[1]), weight);
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Maps the weights given in the file linearly to the normalized range, in place.
+	 * If they are all the same, they become the default weight. Missing weights are NaN.
+	 */
+	private static void normalize(float[] weights)
+	{
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		for (float weight : weights)
+			if (!Float.isNaN(weight))
+			{
+				min = Math.min(min, weight);
+				max = Math.max(max, weight);
+			}
+		for (int e = 0; e < weights.length; e++)
+		{
+			if (Float.isNaN(weights[e]) || max == min)
+				weights[e] = defaultWeight;
+			else
+				weights[e] = minNormalizedWeight + (weights[e] - min) / (max - min) * (maxNormalizedWeight - minNormalizedWeight);
+		}
+	}
+
+	/**
+	 * Name of the node as given in the file.
+	 */
+	public String getNodeName(int node)
+	{
+		return nodeNames.get(node);
+	}
+
+	@Override
+	public int getNodeCount()
+	{
+		return nodeNames.size();
+	}
+
+	@Override
+	public int getEdgeCount()
+	{
+		return edgeSources.length;
+	}
+
+	@Override
+	public long getNodeId(int node)
+	{
+		return node;
+	}
+
+	@Override
+	public double getX(int node)
+	{
+		return nodePosX[node];
+	}
+
+	@Override
+	public double getY(int node)
+	{
+		return nodePosY[node];
+	}
+
+	@Override
+	public boolean isLocked(int node)
+	{
+		return false;
+	}
+
+	@Override
+	public int getEdgeSource(int edge)
+	{
+		return edgeSources[edge];
+	}
+
+	@Override
+	public int getEdgeTarget(int edge)
+	{
+		return edgeTargets[edge];
+	}
+
+	/**
+	 * The normalized weight from the file, or the default weight if the file has none.
+	 */
+	@Override
+	public double getEdgeWeight(int edge)
+	{
+		return edgeWeights == null ? defaultWeight : edgeWeights[edge];
+	}
+
+	/**
+	 * Collects nodes and edges in growing primitive arrays while a file is read.
+	 */
+	private static class Builder
+	{
+		private final HashMap<String, Integer> nodeIndex = new HashMap<>();
+		private final List<String> nodeNames = new ArrayList<>();
+		private int[] sources = new int[1024], targets = new int[1024];
+		private float[] weights;
+		private int numEdges;
+
+		int node(String name)
+		{
+			Integer index = nodeIndex.get(name);
+			if (index == null)
+			{
+				index = nodeNames.size();
+				nodeIndex.put(name, index);
+				nodeNames.add(name);
+			}
+			return index;
+		}
+
+		void edge(int source, int target, float weight)
+		{
+			if (numEdges == sources.length)
+			{
+				sources = Arrays.copyOf(sources, numEdges * 2);
+				targets = Arrays.copyOf(targets, numEdges * 2);
+				if (weights != null)
+					weights = Arrays.copyOf(weights, numEdges * 2);
+			}
+			if (weights == null && !Float.isNaN(weight))
+			{
+				weights = new float[sources.length];
+				Arrays.fill(weights, 0, numEdges, Float.NaN);
+			}
+			sources[numEdges] = source;
+			targets[numEdges] = target;
+			if (weights != null)
+				weights[numEdges] = weight;
+			numEdges++;
+		}
+
+		EdgeListGraph build()
+		{
+			return new EdgeListGraph(nodeNames,
+									 Arrays.copyOf(sources, numEdges),
+									 Arrays.copyOf(targets, numEdges),
+									 weights != null ? Arrays.copyOf(weights, numEdges) : null);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * The part of a network that is laid out again after a small edit: all free nodes within
+ * a few hops of a changed node move, while their other neighbors and all nodes around
+ * them stay pinned as anchors and repulsors. Nodes further away are left out of the
+ * simulation, so its cost depends on the size of the edit rather than of the network.
+ */
+class IncrementalRegion
+{
+	private final int[] subset;
+	private final SlimNetwork network;
+
+	private IncrementalRegion(int[] subset, SlimNetwork network)
+	{
+		this.subset = subset;
+		this.network = network;
+	}
+
+	/**
+	 * @param changed Which nodes of slim were added or moved since the last layout
+	 * @param hops Free nodes up to this many edges away from a changed node move as well
+	 * @param margin Pinned nodes about this close to a moving node repel it
+	 * @param maxFraction If a larger fraction of all nodes would move, returns null
+	 * @param padding Node and edge padding of the subnetwork
+	 * @return The region, or null if the whole network should be laid out
+	 */
+	static IncrementalRegion find(SlimNetwork slim, boolean[] changed, int hops, float margin, float maxFraction, int padding)
+	{
+		final int n = slim.numNodes;
+
+		// Breadth-first search from all changed nodes at once, through free nodes only
+		int[] frontier = new int[n];
+		int frontierSize = 0;
+		boolean[] moving = new boolean[n];
+		for (int i = 0; i < n; i++)
+			if (changed[i] && slim.nodeMobility[i] != 0f)
+			{
+				moving[i] = true;
+				frontier[frontierSize++] = i;
+			}
+		int numMoving = frontierSize;
+
+		int[] next = new int[n];
+		for (int hop = 0; hop < hops && frontierSize > 0; hop++)
+		{
+			int nextSize = 0;
+			for (int f = 0; f < frontierSize; f++)
+			{
+				int i = frontier[f];
+				for (int e = slim.edgeOffsetsSparse[i]; e < slim.edgeOffsetsSparse[i] + slim.edgeCounts[i]; e++)
+				{
+					int j = slim.edges[e];
+					if (!moving[j] && slim.nodeMobility[j] != 0f)
+					{
+						moving[j] = true;
+						next[nextSize++] = j;
+					}
+				}
+			}
+			int[] swap = frontier;
+			frontier = next;
+			next = swap;
+			frontierSize = nextSize;
+			numMoving += nextSize;
+		}
+
+		if (numMoving == 0 || numMoving > maxFraction * n)
+			return null;
+
+		// Everything near a moving node, plus the neighbors of moving nodes. Nearby means in the 
+		// same or an adjacent cell of a grid with the margin as cell size, wherever edits are.
+		HashSet<Long> movingCells = new HashSet<>();
+		for (int i = 0; i < n; i++)
+			if (moving[i])
+				movingCells.add(cell(slim.nodePosX[i], slim.nodePosY[i], margin));
+
+		boolean[] included = Arrays.copyOf(moving, n);
+		for (int i = 0; i < n; i++)
+		{
+			if (moving[i])
+				for (int e = slim.edgeOffsetsSparse[i]; e < slim.edgeOffsetsSparse[i] + slim.edgeCounts[i]; e++)
+					included[slim.edges[e]] = true;
+			else if (isNear(movingCells, slim.nodePosX[i], slim.nodePosY[i], margin))
+				included[i] = true;
+		}
+
+		int numIncluded = 0;
+		for (int i = 0; i < n; i++)
+			if (included[i])
+				numIncluded++;
+		int[] subset = new int[numIncluded];
+		numIncluded = 0;
+		for (int i = 0; i < n; i++)
+			if (included[i])
+				subset[numIncluded++] = i;
+
+		SlimNetwork network = slim.induce(subset, padding);
+		for (int i = 0; i < subset.length; i++)
+			if (!moving[subset[i]])
+				network.nodeMobility[i] = 0f;
+
+		return new IncrementalRegion(subset, network);
+	}
+
+	private static long cell(float x, float y, float cellSize)
+	{
+		return cell((int)Math.floor(x / cellSize), (int)Math.floor(y / cellSize));
+	}
+
+	private static long cell(int cx, int cy)
+	{
+		return (long)cx << 32 | (cy & 0xffffffffL);
+	}
+
+	private static boolean isNear(HashSet<Long> cells, float x, float y, float cellSize)
+	{
+		int cx = (int)Math.floor(x / cellSize), cy = (int)Math.floor(y / cellSize);
+		for (int dy = -1; dy <= 1; dy++)
+			for (int dx = -1; dx <= 1; dx++)
+				if (cells.contains(cell(cx + dx, cy + dy)))
+					return true;
+		return false;
+	}
+
+	/**
+	 * The subnetwork to simulate, with everything but the moving nodes pinned.
+	 */
+	SlimNetwork getNetwork()
+	{
+		return network;
+	}
+
+	/**
+	 * Copies the simulated positions back into the network the region was found in.
+	 */
+	void apply(SlimNetwork slim)
+	{
+		for (int i = 0; i < subset.length; i++)
+		{
+			slim.nodePosX[subset[i]] = network.nodePosX[i];
+			slim.nodePosY[subset[i]] = network.nodePosY[i];
+		}
+		slim.updateMetrics();
+	}
+}
@@ -0,0 +1,676 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Host-side implementation of the force model in LayoutKernels.cl, used when
+ * no OpenCL device is available. Every kernel is mirrored by a method operating
+ * on primitive arrays, parallelized over nodes (or edges) with fork/join.
+ * Node positions are read from and written to the SlimNetwork arrays directly.
+ */
+class JavaLayouter implements LayoutEngine
+{
+	// Smallest number of loop iterations handed to a single fork/join task
+	private static final int minGrainSize = 64;
+
+	private final ForkJoinPool pool = ForkJoinPool.commonPool();
+	
+	private final CLLayoutContext context;
+	private final LayoutTimings timings;
+	
+	// Barnes-Hut quadtree, null if repulsion is computed exactly
+	private QuadTree tree;
+	// Grid of edges within the repulsion cutoff, null if all edges are considered
+	private EdgeGrid grid;
+
+	private float[] nodeForce;
+	private float[] nodeVelocity;
+
+	// RK4 state, null with the integrators that evaluate forces once per step
+	private float[] nodeK;
+	private float[] nodeL;
+	// Acceleration at the end of the last velocity Verlet step, null with other integrators
+	private float[] nodeAccel;
+	// Velocities before the last step, to reject it, null with the fixed schedule
+	private float[] startVelocity;
+
+	// Edge data for repulsive edges
+	private float[] edgeStartX;
+	private float[] edgeStartY;
+	private float[] edgeTangentX;
+	private float[] edgeTangentY;
+	private float[] edgeCurrentLength;
+
+	/**
+	 * @param timings Receives the time spent in every kernel equivalent
+	 */
+	public JavaLayouter(CLLayoutContext context, LayoutTimings timings)
+	{
+		this.context = context;
+		this.timings = timings;
+	}
+
+	@Override
+	public void initializeBuffers(SlimNetwork slim)
+	{
+		nodeForce = new float[slim.numNodes * 2];
+		nodeVelocity = new float[slim.numNodes * 2];
+
+		if (context.useRungeKutta())
+		{
+			nodeK = new float[slim.numNodes * 8];
+			nodeL = new float[slim.numNodes * 6];
+		}
+		else if (context.useVerlet())
+			nodeAccel = new float[slim.numNodes * 2];
+		if (context.adaptiveTimestep)
+			startVelocity = new float[slim.numNodes * 2];
+
+		edgeStartX = new float[slim.numEdgesUnique];
+		edgeStartY = new float[slim.numEdgesUnique];
+		edgeTangentX = new float[slim.numEdgesUnique];
+		edgeTangentY = new float[slim.numEdgesUnique];
+		edgeCurrentLength = new float[slim.numEdgesUnique];
+
+		if (context.useBarnesHut(slim.numNodes))
+			tree = new QuadTree(slim.numNodes);
+		if (context.numIterationsEdgeRepulsive > 0 && context.useEdgeRepulsionGrid)
+			grid = new EdgeGrid((float)context.edgeRepulsionCutoff, slim.numNodes, slim.numEdgesUnique);
+	}
+
+	@Override
+	public void initializeSimulation(SlimNetwork slim)
+	{
+		Arrays.fill(nodeVelocity, 0f);
+		if (nodeAccel != null)
+			Arrays.fill(nodeAccel, 0f);
+	}
+
+	@Override
+	public float[] measureMotion(SlimNetwork slim)
+	{
+		float energy = 0f, maxSpeed2 = 0f;
+		for (int id = 0; id < slim.numNodes; id++)
+		{
+			float vx = nodeVelocity[id * 2], vy = nodeVelocity[id * 2 + 1];
+			float v2 = vx * vx + vy * vy;
+			energy += 0.5f * slim.nodeMass[id] * v2;
+			maxSpeed2 = Math.max(maxSpeed2, v2);
+		}
+		return new float[] { energy, (float)Math.sqrt(maxSpeed2) };
+	}
+
+	@Override
+	public float estimateError(SlimNetwork slim)
+	{
+		final int n = slim.numNodes;
+		float error2 = 0f;
+		for (int id = 0; id < n; id++)
+		{
+			// Difference to the midpoint solution, i.e. start position plus second stage increment
+			float dx = slim.nodePosX[id] - nodeK[(3 * n + id) * 2] - nodeK[(n + id) * 2];
+			float dy = slim.nodePosY[id] - nodeK[(3 * n + id) * 2 + 1] - nodeK[(n + id) * 2 + 1];
+			error2 = Math.max(error2, dx * dx + dy * dy);
+		}
+		return (float)Math.sqrt(error2);
+	}
+
+	@Override
+	public void rejectStep(SlimNetwork slim)
+	{
+		final int n = slim.numNodes;
+		for (int id = 0; id < n; id++)
+		{
+			slim.nodePosX[id] = nodeK[(3 * n + id) * 2];
+			slim.nodePosY[id] = nodeK[(3 * n + id) * 2 + 1];
+		}
+		System.arraycopy(startVelocity, 0, nodeVelocity, 0, n * 2);
+	}
+
+	@Override
+	public void getPositions(SlimNetwork slim)
+	{
+		// Positions are integrated in place, nothing to copy.
+	}
+
+	@Override
+	public void getPositions(SlimNetwork slim, float[] posX, float[] posY)
+	{
+		System.arraycopy(slim.nodePosX, 0, posX, 0, posX.length);
+		System.arraycopy(slim.nodePosY, 0, posY, 0, posY.length);
+	}
+
+	@Override
+	public void freeBuffers()
+	{
+		nodeForce = null;
+		nodeVelocity = null;
+		nodeK = null;
+		nodeL = null;
+		nodeAccel = null;
+		startVelocity = null;
+		edgeStartX = edgeStartY = null;
+		edgeTangentX = edgeTangentY = null;
+		edgeCurrentLength = null;
+		tree = null;
+		grid = null;
+	}
+
+	/**
+	 * Advances the simulation state by the given amount of time
+	 * using a Runge-Kutta 4th order integration scheme,
+	 * exactly like the IntegrateRK0..3 kernels, or the context's
+	 * cheaper integrator like IntegrateEuler and IntegrateVerletDrift/Kick.
+	 * @param timestep Amount of virtual time to be simulated in this step.
+	 */
+	@Override
+	public void advanceSimulation(final float timestep, boolean doEdgeRepulsion, final SlimNetwork slim)
+	{
+		final int n = slim.numNodes;
+
+		if (nodeAccel != null)
+		{
+			parallelFor("IntegrateVerletDrift", n, minGrainSize, (from, to) -> integrateVerletDrift(slim, 1.0f, timestep, from, to));
+			calculateForces(doEdgeRepulsion, slim);
+			parallelFor("IntegrateVerletKick", n, minGrainSize, (from, to) -> integrateVerletKick(slim, 1.0f, timestep, from, to));
+			return;
+		}
+		if (!context.useRungeKutta())
+		{
+			calculateForces(doEdgeRepulsion, slim);
+			parallelFor("IntegrateEuler", n, minGrainSize, (from, to) -> integrateEuler(slim, 1.0f, timestep, from, to));
+			return;
+		}
+		if (startVelocity != null)
+			System.arraycopy(nodeVelocity, 0, startVelocity, 0, n * 2);
+
+		calculateForces(doEdgeRepulsion, slim);
+		parallelFor("IntegrateRK0", n, minGrainSize, (from, to) -> integrateRK0(slim, timestep, from, to));
+
+		calculateForces(doEdgeRepulsion, slim);
+		parallelFor("IntegrateRK1", n, minGrainSize, (from, to) -> integrateRK12(slim, 0, 1, 1.0f, timestep, from, to));
+
+		calculateForces(doEdgeRepulsion, slim);
+		parallelFor("IntegrateRK2", n, minGrainSize, (from, to) -> integrateRK12(slim, 1, 2, 1.0f, timestep, from, to));
+
+		calculateForces(doEdgeRepulsion, slim);
+		parallelFor("IntegrateRK3", n, minGrainSize, (from, to) -> integrateRK3(slim, 1.0f, timestep, from, to));
+	}
+
+	/**
+	 * Calculates all forces for the current state of the simulation
+	 * and stores them for integration.
+	 */
+	private void calculateForces(boolean doEdgeRepulsion, final SlimNetwork slim)
+	{
+		final int n = slim.numNodes;
+		// Every node visits all other nodes, so smaller chunks balance better
+		final int allPairsGrain = Math.max(1, Math.min(minGrainSize, n / (pool.getParallelism() * 8)));
+
+		if (tree != null)
+		{
+			long start = System.nanoTime();
+			tree.build(slim.nodePosX, slim.nodePosY, slim.nodeMass, n);
+			timings.addOperation(LayoutTimings.quadTreeBuild, start);
+			parallelFor("CalcForcesBarnesHut", n, allPairsGrain, (from, to) -> calcForcesBarnesHut(slim, from, to));
+		}
+		else
+			parallelFor("CalcForcesGravity", n, allPairsGrain, (from, to) -> calcForcesGravity(slim, from, to));
+
+		if (doEdgeRepulsion)
+		{
+			parallelFor("PrepareEdgeRepulsion", slim.numEdgesUnique, minGrainSize, (from, to) -> prepareEdgeRepulsion(slim, from, to));
+			if (grid != null)
+			{
+				long start = System.nanoTime();
+				grid.build(slim.nodePosX, slim.nodePosY, n, slim.edgeUniqueSources, slim.edgeUniqueTargets, slim.numEdgesUnique);
+				timings.addOperation(LayoutTimings.edgeGridBuild, start);
+				parallelFor("CalcForcesEdgeRepulsionGrid", n, minGrainSize, (from, to) -> calcForcesEdgeRepulsionGrid(slim, from, to));
+			}
+			else
+				parallelFor("CalcForcesEdgeRepulsion", n, allPairsGrain, (from, to) -> calcForcesEdgeRepulsion(slim, from, to));
+		}
+
+		parallelFor("CalcForcesSpringDrag", n, minGrainSize, (from, to) -> calcForcesSpringDrag(slim, from, to));
+	}
+
+	private void calcForcesGravity(SlimNetwork slim, int from, int to)
+	{
+		final float[] posX = slim.nodePosX, posY = slim.nodePosY, mass = slim.nodeMass;
+		final int n = slim.numNodes;
+
+		for (int id1 = from; id1 < to; id1++)
+		{
+			// Pinned nodes never accelerate, so their forces are not needed
+			if (slim.nodeMobility[id1] == 0f)
+			{
+				nodeForce[id1 * 2] = nodeForce[id1 * 2 + 1] = 0f;
+				continue;
+			}
+
+			float x1 = posX[id1], y1 = posY[id1];
+			float fx = 0f, fy = 0f;
+
+			for (int id2 = 0; id2 < n; id2++)
+			{
+				float diffX = x1 - posX[id2];
+				float diffY = y1 - posY[id2];
+
+				float dist = rsqrt(diffX * diffX + diffY * diffY + 1e-6f);
+				float v = mass[id2] * dist * dist * dist;	// 3rd power to normalize diff vector
+
+				fx += diffX * v;
+				fy += diffY * v;
+			}
+
+			nodeForce[id1 * 2] = fx * mass[id1];
+			nodeForce[id1 * 2 + 1] = fy * mass[id1];
+		}
+	}
+
+	private void calcForcesBarnesHut(SlimNetwork slim, int from, int to)
+	{
+		final float theta = (float)context.barnesHutTheta;
+		final float[] force = new float[2];
+
+		for (int id1 = from; id1 < to; id1++)
+		{
+			if (slim.nodeMobility[id1] == 0f)
+			{
+				nodeForce[id1 * 2] = nodeForce[id1 * 2 + 1] = 0f;
+				continue;
+			}
+			tree.calcForce(slim.nodePosX[id1], slim.nodePosY[id1], slim.nodeMass[id1],
+						   slim.nodePosX, slim.nodePosY, slim.nodeMass,
+						   theta * theta, force);
+			nodeForce[id1 * 2] = force[0];
+			nodeForce[id1 * 2 + 1] = force[1];
+		}
+	}
+
+	private void prepareEdgeRepulsion(SlimNetwork slim, int from, int to)
+	{
+		final float[] posX = slim.nodePosX, posY = slim.nodePosY;
+
+		for (int id = from; id < to; id++)
+		{
+			int source = slim.edgeUniqueSources[id], target = slim.edgeUniqueTargets[id];
+
+			edgeStartX[id] = posX[source];
+			edgeStartY[id] = posY[source];
+
+			float tangentX = posX[target] - posX[source];
+			float tangentY = posY[target] - posY[source];
+			float length = (float)Math.sqrt(tangentX * tangentX + tangentY * tangentY);
+			edgeCurrentLength[id] = length;
+			length = 1.0f / length;
+			edgeTangentX[id] = tangentX * length;
+			edgeTangentY[id] = tangentY * length;
+		}
+	}
+
+	private void calcForcesEdgeRepulsion(SlimNetwork slim, int from, int to)
+	{
+		final float[] posX = slim.nodePosX, posY = slim.nodePosY, mass = slim.nodeMass;
+		final int numEdges = slim.numEdgesUnique;
+		final float[] force = new float[2];
+
+		for (int id1 = from; id1 < to; id1++)
+		{
+			if (slim.nodeMobility[id1] == 0f)
+				continue;
+
+			float x1 = posX[id1], y1 = posY[id1], mass1 = mass[id1];
+			force[0] = force[1] = 0f;
+
+			for (int e = 0; e < numEdges; e++)
+				addEdgeRepulsion(slim, e, x1, y1, mass1, Float.POSITIVE_INFINITY, force);
+
+			nodeForce[id1 * 2] += force[0];
+			nodeForce[id1 * 2 + 1] += force[1];
+		}
+	}
+
+	/**
+	 * Same as calcForcesEdgeRepulsion, but only visits the edges binned into the
+	 * 3x3 grid cells around each node, like the CalcForcesEdgeRepulsionGrid kernel.
+	 */
+	private void calcForcesEdgeRepulsionGrid(SlimNetwork slim, int from, int to)
+	{
+		final float[] posX = slim.nodePosX, posY = slim.nodePosY, mass = slim.nodeMass;
+		final float cutoff2 = grid.getCutoff() * grid.getCutoff();
+		final int longEdges = grid.gridWidth * grid.gridHeight;
+		final float[] force = new float[2];
+
+		for (int id1 = from; id1 < to; id1++)
+		{
+			if (slim.nodeMobility[id1] == 0f)
+				continue;
+
+			float x1 = posX[id1], y1 = posY[id1], mass1 = mass[id1];
+			force[0] = force[1] = 0f;
+
+			int cx = grid.cellX(x1), cy = grid.cellY(y1);
+			for (int y = Math.max(cy - 1, 0); y <= Math.min(cy + 1, grid.gridHeight - 1); y++)
+				for (int x = Math.max(cx - 1, 0); x <= Math.min(cx + 1, grid.gridWidth - 1); x++)
+				{
+					int cell = y * grid.gridWidth + x;
+					for (int i = grid.cellStart[cell]; i < grid.cellStart[cell + 1]; i++)
+					{
+						int e = grid.cellEdges[i];
+
+						// Only evaluate the edge in the first cell it shares with this neighborhood
+						if (x != Math.max(grid.edgeCellMin[e * 2], cx - 1) || y != Math.max(grid.edgeCellMin[e * 2 + 1], cy - 1))
+							continue;
+
+						addEdgeRepulsion(slim, e, x1, y1, mass1, cutoff2, force);
+					}
+				}
+
+			// Edges spanning too many cells to be binned
+			for (int i = grid.cellStart[longEdges]; i < grid.cellStart[longEdges + 1]; i++)
+				addEdgeRepulsion(slim, grid.cellEdges[i], x1, y1, mass1, cutoff2, force);
+
+			nodeForce[id1 * 2] += force[0];
+			nodeForce[id1 * 2 + 1] += force[1];
+		}
+	}
+
+	/**
+	 * Adds the repulsion between a node and its closest point on an edge to force,
+	 * unless that point is farther away than the cutoff.
+	 */
+	private void addEdgeRepulsion(SlimNetwork slim, int e, float x1, float y1, float mass1, float cutoff2, float[] force)
+	{
+		float length = edgeCurrentLength[e] + 1e-10f;
+		float tangentX = edgeTangentX[e], tangentY = edgeTangentY[e];
+
+		// Project the node's relative position onto the edge
+		float relX = x1 - edgeStartX[e], relY = y1 - edgeStartY[e];
+		float parallelDist = relX * tangentX + relY * tangentY;
+		parallelDist = Math.max(0f, Math.min(parallelDist, length));	// make sure the point lies on the edge
+
+		float diffX = relX - tangentX * parallelDist;
+		float diffY = relY - tangentY * parallelDist;
+
+		float dist = diffX * diffX + diffY * diffY;
+		if (dist > cutoff2)
+			return;
+
+		float massStart = slim.edgeMassStart[e];
+		float mass2 = massStart + (slim.edgeMassEnd[e] - massStart) * (parallelDist / length);
+
+		if (dist < 1e-5f)	// Either too close or own edge
+			dist = 0f;
+		else
+			dist = rsqrt(Math.max(dist, 1.0f));
+		dist = dist * dist * dist;	// 3rd power to normalize diff vector
+
+		float v = mass1 * mass2 * dist;
+		force[0] += diffX * v;
+		force[1] += diffY * v;
+	}
+
+	private void calcForcesSpringDrag(SlimNetwork slim, int from, int to)
+	{
+		final float[] posX = slim.nodePosX, posY = slim.nodePosY;
+
+		for (int id1 = from; id1 < to; id1++)
+		{
+			// Pinned nodes never accelerate, so their forces are not needed
+			if (slim.nodeMobility[id1] == 0f)
+			{
+				nodeForce[id1 * 2] = nodeForce[id1 * 2 + 1] = 0f;
+				continue;
+			}
+
+			float x1 = posX[id1], y1 = posY[id1];
+			float fx = 0f, fy = 0f;
+
+			int firstEdge = slim.edgeOffsetsSparse[id1];
+			int lastEdge = firstEdge + slim.edgeCounts[id1];
+			for (int e = firstEdge; e < lastEdge; e++)
+			{
+				int id2 = slim.edges[e];
+
+				float diffX = posX[id2] - x1;
+				float diffY = posY[id2] - y1;
+
+				// + 1e-8f to avoid division by zero in case of identical position.
+				float dist = (float)Math.sqrt(diffX * diffX + diffY * diffY) + 1e-8f;
+				float v = slim.edgeCoeffs[e] * (dist - slim.edgeLengths[e]) / dist;
+
+				fx += diffX * v;
+				fy += diffY * v;
+			}
+
+			// Apply drag force and store overall value
+			nodeForce[id1 * 2] += fx - 0.01f * nodeVelocity[id1 * 2];
+			nodeForce[id1 * 2 + 1] += fy - 0.01f * nodeVelocity[id1 * 2 + 1];
+		}
+	}
+
+	private void integrateRK0(SlimNetwork slim, float timestep, int from, int to)
+	{
+		final int n = slim.numNodes;
+
+		for (int id = from; id < to; id++)
+		{
+			float mass = slim.nodeMass[id];
+			// Pinned nodes never accelerate
+			float mobility = slim.nodeMobility[id];
+
+			// The start position is needed for the later stages, and to reject the step
+			nodeK[(3 * n + id) * 2] = slim.nodePosX[id];
+			nodeK[(3 * n + id) * 2 + 1] = slim.nodePosY[id];
+
+			float updateX = nodeVelocity[id * 2] * timestep;
+			float updateY = nodeVelocity[id * 2 + 1] * timestep;
+			nodeK[id * 2] = updateX;
+			nodeK[id * 2 + 1] = updateY;
+			nodeL[id * 2] = nodeForce[id * 2] * timestep / mass * mobility;
+			nodeL[id * 2 + 1] = nodeForce[id * 2 + 1] * timestep / mass * mobility;
+
+			slim.nodePosX[id] += 0.5f * updateX;
+			slim.nodePosY[id] += 0.5f * updateY;
+		}
+	}
+
+	/**
+	 * Second and third RK stage, which only differ in the slots they read from and write to.
+	 */
+	private void integrateRK12(SlimNetwork slim, int slotIn, int slotOut, float maxVelocity, float timestep, int from, int to)
+	{
+		final int n = slim.numNodes;
+
+		for (int id = from; id < to; id++)
+		{
+			float mass = slim.nodeMass[id];
+			float mobility = slim.nodeMobility[id];
+
+			float vx = nodeVelocity[id * 2] + 0.5f * nodeL[(slotIn * n + id) * 2];
+			float vy = nodeVelocity[id * 2 + 1] + 0.5f * nodeL[(slotIn * n + id) * 2 + 1];
+			float vmagn = (float)Math.sqrt(vx * vx + vy * vy);
+			if (vmagn > maxVelocity)
+			{
+				vx *= maxVelocity / vmagn;
+				vy *= maxVelocity / vmagn;
+			}
+
+			float updateX = vx * timestep, updateY = vy * timestep;
+			nodeK[(slotOut * n + id) * 2] = updateX;
+			nodeK[(slotOut * n + id) * 2 + 1] = updateY;
+			nodeL[(slotOut * n + id) * 2] = nodeForce[id * 2] * timestep / mass * mobility;
+			nodeL[(slotOut * n + id) * 2 + 1] = nodeForce[id * 2 + 1] * timestep / mass * mobility;
+
+			slim.nodePosX[id] = nodeK[(3 * n + id) * 2] + 0.5f * updateX;
+			slim.nodePosY[id] = nodeK[(3 * n + id) * 2 + 1] + 0.5f * updateY;
+		}
+	}
+
+	private void integrateRK3(SlimNetwork slim, float maxVelocity, float timestep, int from, int to)
+	{
+		final int n = slim.numNodes;
+
+		for (int id = from; id < to; id++)
+		{
+			float mass = slim.nodeMass[id];
+			float mobility = slim.nodeMobility[id];
+
+			float vx = nodeVelocity[id * 2] + 0.5f * nodeL[(2 * n + id) * 2];
+			float vy = nodeVelocity[id * 2 + 1] + 0.5f * nodeL[(2 * n + id) * 2 + 1];
+			float vmagn = (float)Math.sqrt(vx * vx + vy * vy);
+			if (vmagn > maxVelocity)
+			{
+				vx *= maxVelocity / vmagn;
+				vy *= maxVelocity / vmagn;
+			}
+
+			float k3x = vx * timestep, k3y = vy * timestep;
+			float l3x = nodeForce[id * 2] * timestep / mass * mobility, l3y = nodeForce[id * 2 + 1] * timestep / mass * mobility;
+
+			slim.nodePosX[id] = nodeK[(3 * n + id) * 2] + (nodeK[id * 2] + k3x) / 6.0f + (nodeK[(n + id) * 2] + nodeK[(2 * n + id) * 2]) / 3.0f;
+			slim.nodePosY[id] = nodeK[(3 * n + id) * 2 + 1] + (nodeK[id * 2 + 1] + k3y) / 6.0f + (nodeK[(n + id) * 2 + 1] + nodeK[(2 * n + id) * 2 + 1]) / 3.0f;
+
+			vx = (nodeL[id * 2] + l3x) / 6.0f + (nodeL[(n + id) * 2] + nodeL[(2 * n + id) * 2]) / 3.0f;
+			vy = (nodeL[id * 2 + 1] + l3y) / 6.0f + (nodeL[(n + id) * 2 + 1] + nodeL[(2 * n + id) * 2 + 1]) / 3.0f;
+			vmagn = (float)Math.sqrt(vx * vx + vy * vy);
+			if (vmagn > maxVelocity)
+			{
+				vx *= maxVelocity / vmagn;
+				vy *= maxVelocity / vmagn;
+			}
+
+			nodeVelocity[id * 2] += vx;
+			nodeVelocity[id * 2 + 1] += vy;
+		}
+	}
+
+	/**
+	 * Semi-implicit Euler: the new velocity moves the node.
+	 */
+	private void integrateEuler(SlimNetwork slim, float maxVelocity, float timestep, int from, int to)
+	{
+		for (int id = from; id < to; id++)
+		{
+			float scale = timestep / slim.nodeMass[id] * slim.nodeMobility[id];
+			float vx = nodeVelocity[id * 2] + nodeForce[id * 2] * scale;
+			float vy = nodeVelocity[id * 2 + 1] + nodeForce[id * 2 + 1] * scale;
+			float vmagn = (float)Math.sqrt(vx * vx + vy * vy);
+			if (vmagn > maxVelocity)
+			{
+				vx *= maxVelocity / vmagn;
+				vy *= maxVelocity / vmagn;
+			}
+
+			slim.nodePosX[id] += vx * timestep;
+			slim.nodePosY[id] += vy * timestep;
+			nodeVelocity[id * 2] = vx;
+			nodeVelocity[id * 2 + 1] = vy;
+		}
+	}
+
+	/**
+	 * Half kick with the previous step's acceleration, then the drift to the new positions.
+	 */
+	private void integrateVerletDrift(SlimNetwork slim, float maxVelocity, float timestep, int from, int to)
+	{
+		for (int id = from; id < to; id++)
+		{
+			float vx = nodeVelocity[id * 2] + 0.5f * timestep * nodeAccel[id * 2];
+			float vy = nodeVelocity[id * 2 + 1] + 0.5f * timestep * nodeAccel[id * 2 + 1];
+			float vmagn = (float)Math.sqrt(vx * vx + vy * vy);
+			if (vmagn > maxVelocity)
+			{
+				vx *= maxVelocity / vmagn;
+				vy *= maxVelocity / vmagn;
+			}
+
+			slim.nodePosX[id] += vx * timestep;
+			slim.nodePosY[id] += vy * timestep;
+			nodeVelocity[id * 2] = vx;
+			nodeVelocity[id * 2 + 1] = vy;
+		}
+	}
+
+	/**
+	 * Half kick with the forces at the new positions, whose acceleration is kept for the next drift.
+	 */
+	private void integrateVerletKick(SlimNetwork slim, float maxVelocity, float timestep, int from, int to)
+	{
+		for (int id = from; id < to; id++)
+		{
+			float scale = slim.nodeMobility[id] / slim.nodeMass[id];
+			float ax = nodeForce[id * 2] * scale, ay = nodeForce[id * 2 + 1] * scale;
+			float vx = nodeVelocity[id * 2] + 0.5f * timestep * ax;
+			float vy = nodeVelocity[id * 2 + 1] + 0.5f * timestep * ay;
+			float vmagn = (float)Math.sqrt(vx * vx + vy * vy);
+			if (vmagn > maxVelocity)
+			{
+				vx *= maxVelocity / vmagn;
+				vy *= maxVelocity / vmagn;
+			}
+
+			nodeVelocity[id * 2] = vx;
+			nodeVelocity[id * 2 + 1] = vy;
+			nodeAccel[id * 2] = ax;
+			nodeAccel[id * 2 + 1] = ay;
+		}
+	}
+
+	private static float rsqrt(float x)
+	{
+		return (float)(1.0 / Math.sqrt(x));
+	}
+
+	/**
+	 * Runs body over [0, n) and records its time under the name of the kernel it mirrors.
+	 */
+	private void parallelFor(String kernel, int n, int grainSize, RangeBody body)
+	{
+		if (n <= 0)
+			return;
+		long start = System.nanoTime();
+		if (n <= grainSize)
+			body.run(0, n);
+		else
+			pool.invoke(new RangeAction(body, 0, n, grainSize));
+		timings.addOperation(kernel, start);
+	}
+
+	private interface RangeBody
+	{
+		void run(int from, int to);
+	}
+
+	private static class RangeAction extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final RangeBody body;
+		private final int from, to, grainSize;
+
+		RangeAction(RangeBody body, int from, int to, int grainSize)
+		{
+			this.body = body;
+			this.from = from;
+			this.to = to;
+			this.grainSize = grainSize;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= grainSize)
+			{
+				body.run(from, to);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new RangeAction(body, from, mid, grainSize), new RangeAction(body, mid, to, grainSize));
+		}
+	}
+}
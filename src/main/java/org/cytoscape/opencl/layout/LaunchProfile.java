@@ -0,0 +1,93 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Properties;
+
+import org.cytoscape.cycl.CyCLDevice;
+
+/**
+ * Launch shapes {@link CLLayouter} uses on one device. The defaults are what the
+ * device reports as its best block size, the {@link Autotuner} replaces them with
+ * whatever ran fastest on the device.
+ */
+class LaunchProfile
+{
+	/** Work group size of the kernels with one work item per node or edge. */
+	final int nodeGroupSize;
+	/** Work group size, and thus tile size, of the GPU kernels preloading nodes or edges into local memory. */
+	final int tileGroupSize;
+	/** Work items per node of medium degree in the GPU spring kernel, a power of two. */
+	final int springLanes;
+	/** On GPUs, spring forces are only fused with integration if no node has more edges. */
+	final int maxFusedSpringDegree;
+
+	LaunchProfile(int nodeGroupSize, int tileGroupSize, int springLanes, int maxFusedSpringDegree)
+	{
+		this.nodeGroupSize = nodeGroupSize;
+		this.tileGroupSize = tileGroupSize;
+		this.springLanes = springLanes;
+		this.maxFusedSpringDegree = maxFusedSpringDegree;
+	}
+
+	static LaunchProfile defaults(CyCLDevice device)
+	{
+		int blockSize = (int)device.getBestBlockSize();
+		return new LaunchProfile(blockSize, blockSize, 16, 64);
+	}
+
+	LaunchProfile withNodeGroupSize(int nodeGroupSize)
+	{
+		return new LaunchProfile(nodeGroupSize, tileGroupSize, springLanes, maxFusedSpringDegree);
+	}
+
+	LaunchProfile withTileGroupSize(int tileGroupSize)
+	{
+		return new LaunchProfile(nodeGroupSize, tileGroupSize, springLanes, maxFusedSpringDegree);
+	}
+
+	LaunchProfile withSpringLanes(int springLanes)
+	{
+		return new LaunchProfile(nodeGroupSize, tileGroupSize, springLanes, maxFusedSpringDegree);
+	}
+
+	LaunchProfile withMaxFusedSpringDegree(int maxFusedSpringDegree)
+	{
+		return new LaunchProfile(nodeGroupSize, tileGroupSize, springLanes, maxFusedSpringDegree);
+	}
+
+	/**
+	 * Adds this profile to the properties, under keys starting with the given prefix.
+	 */
+	void store(Properties properties, String prefix)
+	{
+		properties.setProperty(prefix + ".nodeGroupSize", Integer.toString(nodeGroupSize));
+		properties.setProperty(prefix + ".tileGroupSize", Integer.toString(tileGroupSize));
+		properties.setProperty(prefix + ".springLanes", Integer.toString(springLanes));
+		properties.setProperty(prefix + ".maxFusedSpringDegree", Integer.toString(maxFusedSpringDegree));
+	}
+
+	/**
+	 * Reads a profile stored under the given prefix.
+	 * @return The profile, or null if none is stored or it is incomplete
+	 */
+	static LaunchProfile load(Properties properties, String prefix)
+	{
+		try
+		{
+			return new LaunchProfile(Integer.parseInt(properties.getProperty(prefix + ".nodeGroupSize")),
+									 Integer.parseInt(properties.getProperty(prefix + ".tileGroupSize")),
+									 Integer.parseInt(properties.getProperty(prefix + ".springLanes")),
+									 Integer.parseInt(properties.getProperty(prefix + ".maxFusedSpringDegree")));
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("node group %d, tile group %d, %d spring lanes, fused springs up to degree %d",
+							 nodeGroupSize, tileGroupSize, springLanes, maxFusedSpringDegree);
+	}
+}
@@ -0,0 +1,82 @@
+package org.cytoscape.opencl.layout;
+
+import org.cytoscape.cycl.CyCLDevice;
+import org.cytoscape.cycl.CyCLProgram;
+
+/**
+ * An OpenCL device together with the layout program compiled for it,
+ * the pool its buffers are leased from, the cache of resident topologies
+ * and the launch shapes to use on it.
+ */
+class LayoutDevice
+{
+	final CyCLDevice device;
+	final CyCLProgram program;
+	final BufferPool bufferPool;
+	// Null if topologies are always uploaded
+	final TopologyCache topologyCache;
+	// The device's defaults until the Autotuner replaces them
+	volatile LaunchProfile profile;
+
+	LayoutDevice(CyCLProgram program, BufferPool bufferPool, TopologyCache topologyCache)
+	{
+		this(program, bufferPool, topologyCache, LaunchProfile.defaults(bufferPool.getDevice()));
+	}
+
+	LayoutDevice(CyCLProgram program, BufferPool bufferPool, TopologyCache topologyCache, LaunchProfile profile)
+	{
+		this.device = bufferPool.getDevice();
+		this.program = program;
+		this.bufferPool = bufferPool;
+		this.topologyCache = topologyCache;
+		this.profile = profile;
+	}
+	
+	/**
+	 * Compiles the layout kernels for the pool's device, once per session.
+	 * @param topologyCache Cache to keep topology buffers resident in, or null
+	 * @throws Exception If the program could not be loaded or compiled
+	 */
+	static LayoutDevice compile(BufferPool bufferPool, TopologyCache topologyCache) throws Exception
+	{
+		String[] kernelNames = new String[] 
+				{
+					"Init",
+					"ReduceMotion",
+					"CalcForcesGravity",
+					"CalcForcesBarnesHut",
+					"PrepareEdgeRepulsion",
+					"CalcForcesEdgeRepulsion",
+					"CalcForcesEdgeRepulsionGrid",
+					"CalcForcesGravitySegmented",
+					"CalcForcesEdgeRepulsionSegmented",
+					"CalcForcesSpringDrag",
+					"IntegrateRK0",
+					"IntegrateRK1",
+					"IntegrateRK2",
+					"IntegrateRK3",
+					"SpringDragIntegrateRK",
+					"SpringDragIntegrateRKTile",
+					"SpringDragIntegrateEulerTile",
+					"IntegrateVerletDriftTile",
+					"SpringDragVerletKickTile",
+					"GravitySpringDragIntegrateRK",
+					"ReduceStepError",
+					"KeepStepStart",
+					"RejectStep",
+					"IntegrateEuler",
+					"IntegrateVerletDrift",
+					"IntegrateVerletKick"
+				};
+		
+		CyCLDevice device = bufferPool.getDevice();
+		CyCLProgram program = device.addProgram("PrefuseLayout", LayoutDevice.class.getResource("/LayoutKernels.cl"), kernelNames, null, false);
+		return new LayoutDevice(program, bufferPool, topologyCache);
+	}
+
+	@Override
+	public String toString()
+	{
+		return device.getName();
+	}
+}
@@ -0,0 +1,67 @@
+package org.cytoscape.opencl.layout;
+
+/**
+ * Executes the force simulation for one partition. {@link CLLayoutTask} prepares
+ * the {@link SlimNetwork}, drives the time step schedule through this interface
+ * and writes the resulting positions back to the partition.
+ */
+interface LayoutEngine
+{
+	/***
+	 * Allocates working memory and fills it with network data
+	 * @param slim Network data
+	 */
+	void initializeBuffers(SlimNetwork slim);
+
+	/***
+	 * Initializes velocity to 0
+	 * @param slim Network data
+	 */
+	void initializeSimulation(SlimNetwork slim);
+
+	/**
+	 * Advances the simulation state by the given amount of time.
+	 * @param timestep Amount of virtual time to be simulated in this step.
+	 * @param doEdgeRepulsion Whether edges repel nodes in this step.
+	 * @param slim Network data
+	 */
+	void advanceSimulation(float timestep, boolean doEdgeRepulsion, SlimNetwork slim);
+
+	/**
+	 * Estimates the local error of the last step as the largest distance between
+	 * the RK4 positions and the embedded midpoint (2nd order) positions.
+	 * @param slim Network data
+	 */
+	float estimateError(SlimNetwork slim);
+
+	/**
+	 * Restores positions and velocities from before the last step.
+	 * @param slim Network data
+	 */
+	void rejectStep(SlimNetwork slim);
+
+	/**
+	 * Measures how much the nodes are still moving, without copying velocities to the host.
+	 * @param slim Network data
+	 * @return Total kinetic energy and maximum node speed, in this order
+	 */
+	float[] measureMotion(SlimNetwork slim);
+
+	/***
+	 * Copies the current node positions into slim.nodePosX and slim.nodePosY
+	 * @param slim Network data
+	 */
+	void getPositions(SlimNetwork slim);
+
+	/**
+	 * Copies the current positions of the first posX.length nodes into the given arrays,
+	 * leaving the network data untouched
+	 * @param slim Network data
+	 */
+	void getPositions(SlimNetwork slim, float[] posX, float[] posY);
+
+	/***
+	 * Releases all working memory
+	 */
+	void freeBuffers();
+}
@@ -0,0 +1,37 @@
+package org.cytoscape.opencl.layout;
+
+/**
+ * What a layout needs to know about a network: nodes 0 to getNodeCount() - 1 with their
+ * initial positions, and the edges between them. Cytoscape partitions are read through
+ * {@link PartitionGraph}, networks outside of Cytoscape through e.g. {@link EdgeListGraph}.
+ * Edges may be read from several threads at once.
+ */
+public interface LayoutGraph
+{
+	int getNodeCount();
+
+	int getEdgeCount();
+
+	/**
+	 * Identifies the node across layouts of the same network, see {@link TopologyCache}.
+	 */
+	long getNodeId(int node);
+
+	double getX(int node);
+
+	double getY(int node);
+
+	/**
+	 * Locked nodes keep their position, but still act on the others.
+	 */
+	boolean isLocked(int node);
+
+	int getEdgeSource(int edge);
+
+	int getEdgeTarget(int edge);
+
+	/**
+	 * The edge's spring rest length is the default length divided by this.
+	 */
+	double getEdgeWeight(int edge);
+}
@@ -0,0 +1,128 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall-clock time spent in one partition (or one batch of partitions), split into
+ * the phases of a layout and, within the simulation phase, into individual kernels
+ * and host-side steps. Times are taken on the host around each call. CyCL does not
+ * expose OpenCL events, so a kernel's time includes its launch overhead.
+ *
+ * Recorded by the single thread laying out the partition, not thread-safe.
+ */
+class LayoutTimings
+{
+	static final String edgeWeights = "edge weights";
+	static final String networkBuild = "network build";
+	static final String coarsening = "coarsening";
+	static final String upload = "buffer upload";
+	static final String simulation = "simulation";
+	static final String readback = "readback";
+	static final String writeBack = "write-back";
+
+	static final String quadTreeBuild = "quadtree build";
+	static final String edgeGridBuild = "edge grid build";
+	static final String viewSnapshot = "view snapshot";
+	static final String tileTransfer = "tile transfer";
+
+	final String label;
+	final String engine;
+	int numNodes;
+	int numEdges;
+	// Most tiles a network was streamed through the device in, 0 if it fit
+	int numTiles;
+
+	// Name -> { total nanoseconds, number of calls }, in order of first occurrence
+	private final Map<String, long[]> phases = new LinkedHashMap<>();
+	private final Map<String, long[]> operations = new LinkedHashMap<>();
+
+	/**
+	 * @param label Partition number(s) the times belong to
+	 * @param engine Device name, or "host"
+	 */
+	LayoutTimings(String label, String engine)
+	{
+		this.label = label;
+		this.engine = engine;
+	}
+
+	/**
+	 * Adds the time since startNanos (from System.nanoTime()) to one of the phase constants above.
+	 */
+	void addPhase(String phase, long startNanos)
+	{
+		add(phases, phase, System.nanoTime() - startNanos, 1);
+	}
+
+	/**
+	 * Adds the time since startNanos to a kernel or host step within the simulation phase.
+	 */
+	void addOperation(String operation, long startNanos)
+	{
+		add(operations, operation, System.nanoTime() - startNanos, 1);
+	}
+
+	/**
+	 * Adds all times of another partition to this one.
+	 */
+	void addAll(LayoutTimings other)
+	{
+		numNodes += other.numNodes;
+		numEdges += other.numEdges;
+		numTiles = Math.max(numTiles, other.numTiles);
+		for (Map.Entry<String, long[]> e : other.phases.entrySet())
+			add(phases, e.getKey(), e.getValue()[0], e.getValue()[1]);
+		for (Map.Entry<String, long[]> e : other.operations.entrySet())
+			add(operations, e.getKey(), e.getValue()[0], e.getValue()[1]);
+	}
+
+	Map<String, long[]> getPhases()
+	{
+		return phases;
+	}
+
+	Map<String, long[]> getOperations()
+	{
+		return operations;
+	}
+
+	/**
+	 * Sum of all phases in nanoseconds.
+	 */
+	long getTotalNanos()
+	{
+		long total = 0;
+		for (long[] t : phases.values())
+			total += t[0];
+		return total;
+	}
+
+	private static void add(Map<String, long[]> map, String name, long nanos, long calls)
+	{
+		long[] t = map.computeIfAbsent(name, k -> new long[2]);
+		t[0] += nanos;
+		t[1] += calls;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("Partition %s on %s (%d nodes, %d edges): %.1f ms", label, engine, numNodes, numEdges, getTotalNanos() * 1e-6));
+		if (numTiles > 0)
+			result.append(String.format(" in %d tiles", numTiles));
+		appendTimes(result, phases);
+		result.append("; simulation:");
+		appendTimes(result, operations);
+		return result.toString();
+	}
+
+	static void appendTimes(StringBuilder result, Map<String, long[]> times)
+	{
+		for (Map.Entry<String, long[]> e : times.entrySet())
+			result.append(String.format(" %s %.1f ms (%dx),", e.getKey(), e.getValue()[0] * 1e-6, e.getValue()[1]));
+		if (!times.isEmpty())
+			result.setLength(result.length() - 1);
+	}
+}
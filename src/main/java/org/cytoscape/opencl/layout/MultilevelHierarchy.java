@@ -0,0 +1,131 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Successively coarser versions of a network for multilevel layout. Each level
+ * collapses a matching of the level below: nodes are paired with the unmatched
+ * neighbor they share the strongest spring with, relative to the pair's mass,
+ * and nodes with a single neighbor that stay unmatched join that neighbor.
+ * The latter keeps stars and trees shrinking where a matching alone barely would.
+ * Pinned nodes are never collapsed, so they keep their position on every level.
+ */
+class MultilevelHierarchy
+{
+	// Coarsening stops at this many nodes
+	static final int coarsestNodes = 100;
+	// ... or when a level keeps more than this fraction of the nodes below it
+	private static final float minReduction = 0.75f;
+
+	private final List<SlimNetwork> levels = new ArrayList<>();
+	// For every level but the coarsest, the node on the next coarser level each node was collapsed into
+	private final List<int[]> fineToCoarse = new ArrayList<>();
+
+	/**
+	 * @param finest Level 0, the original network
+	 * @param padding Node and edge padding of the coarse networks
+	 */
+	MultilevelHierarchy(SlimNetwork finest, int padding)
+	{
+		levels.add(finest);
+		SlimNetwork fine = finest;
+		while (fine.numNodes > coarsestNodes)
+		{
+			int[] groups = new int[fine.numNodes];
+			int numGroups = match(fine, groups);
+			if (numGroups > minReduction * fine.numNodes)
+				break;
+
+			SlimNetwork coarse = fine.coarsen(groups, numGroups, padding);
+			fineToCoarse.add(groups);
+			levels.add(coarse);
+			fine = coarse;
+		}
+	}
+
+	int getNumLevels()
+	{
+		return levels.size();
+	}
+
+	/**
+	 * @param level 0 is the original network, getNumLevels() - 1 the coarsest
+	 */
+	SlimNetwork getLevel(int level)
+	{
+		return levels.get(level);
+	}
+
+	/**
+	 * Places every node of a level at the position of the node it was collapsed into
+	 * on the next coarser level, plus a random offset so that collapsed nodes separate.
+	 * Pinned nodes stay where they are.
+	 * @param maxOffset Largest offset in x and y
+	 */
+	void prolong(int level, Random random, float maxOffset)
+	{
+		SlimNetwork fine = levels.get(level), coarse = levels.get(level + 1);
+		int[] groups = fineToCoarse.get(level);
+		for (int i = 0; i < fine.numNodes; i++)
+		{
+			if (fine.nodeMobility[i] == 0f)
+				continue;
+			fine.nodePosX[i] = coarse.nodePosX[groups[i]] + (random.nextFloat() - 0.5f) * 2f * maxOffset;
+			fine.nodePosY[i] = coarse.nodePosY[groups[i]] + (random.nextFloat() - 0.5f) * 2f * maxOffset;
+		}
+		fine.updateMetrics();
+	}
+
+	/**
+	 * Assigns every node to a group of one or more nodes.
+	 * @return Number of groups
+	 */
+	private static int match(SlimNetwork slim, int[] groups)
+	{
+		final int n = slim.numNodes;
+		Arrays.fill(groups, -1);
+		int numGroups = 0;
+
+		// Nodes are ordered by degree, so low-degree nodes pick their partners first
+		for (int i = 0; i < n; i++)
+		{
+			if (groups[i] >= 0 || slim.nodeMobility[i] == 0f)
+				continue;
+
+			int best = -1;
+			float bestScore = 0f;
+			for (int e = slim.edgeOffsetsSparse[i]; e < slim.edgeOffsetsSparse[i] + slim.edgeCounts[i]; e++)
+			{
+				int j = slim.edges[e];
+				if (groups[j] >= 0 || slim.nodeMobility[j] == 0f)
+					continue;
+				float score = slim.edgeCoeffs[e] / (slim.nodeMass[i] + slim.nodeMass[j]);
+				if (score > bestScore)
+				{
+					best = j;
+					bestScore = score;
+				}
+			}
+
+			if (best >= 0)
+			{
+				groups[i] = numGroups;
+				groups[best] = numGroups;
+				numGroups++;
+			}
+		}
+
+		// Unmatched leaves join their neighbor, all others stay on their own
+		for (int i = 0; i < n; i++)
+			if (groups[i] < 0 && slim.nodeMobility[i] != 0f && slim.edgeCounts[i] == 1 && groups[slim.edges[slim.edgeOffsetsSparse[i]]] >= 0)
+				groups[i] = groups[slim.edges[slim.edgeOffsetsSparse[i]]];
+		for (int i = 0; i < n; i++)
+			if (groups[i] < 0)
+				groups[i] = numGroups++;
+
+		return numGroups;
+	}
+}
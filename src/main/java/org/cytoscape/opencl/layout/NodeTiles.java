@@ -0,0 +1,271 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Arrays;
+
+/**
+ * Ranges of consecutive nodes of a network that is too large for the device, see the tiled
+ * mode of {@link CLLayouter}. Positions, masses and forces of all nodes stay on the device,
+ * everything else is streamed through it one tile at a time.
+ * 
+ * Adjacency, springs and mobility are sliced from the network once. If the whole network's
+ * fit into half of the tile budget, there is a single slice that stays on the device, and
+ * tiles are sized by their integration state alone. Otherwise every tile has its own slice,
+ * with edge offsets relative to the tile's first neighbor slot.
+ * 
+ * The host keeps each tile's integration state between passes, laid out as the kernels
+ * expect it, so a tile is always transferred as whole arrays. The state is that of the
+ * context's integrator: K and L for RK4, the acceleration for velocity Verlet, and nothing
+ * but the velocity for semi-implicit Euler. A network in a single tile keeps its state on
+ * the device, and the host has none.
+ * 
+ * The host arrays are plain float and int arrays rather than direct or mapped buffers:
+ * CyCL buffers only copy from and to Java arrays, and transfers are blocking.
+ */
+class NodeTiles
+{
+	// Device bytes per node of the whole network: positions in and out, mass and force
+	static final long residentBytesPerNode = 4 * 4 + 4 + 8;
+	// Device bytes per node of a topology slice: edge offset and count, mobility
+	static final long topologyBytesPerNode = 4 + 4 + 4;
+	// Device bytes per node of a tile's velocity, which every integrator keeps
+	static final long velocityBytesPerNode = 8;
+	// Device bytes per node of the integration state: RK4 K and L, or the velocity Verlet acceleration
+	static final long rkStateBytesPerNode = 32 + 24;
+	static final long verletStateBytesPerNode = 8;
+	// Device bytes per node of the velocities before a step, if steps may be rejected
+	static final long startVelocityBytesPerNode = 8;
+
+	final int numTiles;
+	// First node of every tile, followed by the number of nodes
+	final int[] tileStart;
+	final int maxTileNodes;
+
+	// True if there is a single topology slice for all tiles, see topologySlice
+	final boolean topologyResident;
+	final int maxSliceNodes;
+	final int maxSliceSlots;
+
+	final int[][] edges;
+	final int[][] edgeOffsets;
+	final int[][] edgeCounts;
+	// Only the arrays the springs' storage uses are sliced, the others are null
+	final float[][] edgeCoeffs;
+	final float[][] edgeLengths;
+	final int[][] edgeSprings;
+	final float[][] mobility;
+
+	// Integration state, owned by the host while other tiles are on the device, null if there is a single tile.
+	// K and L are null unless the integrator is RK4, the acceleration unless it is velocity Verlet.
+	final float[][] velocity;
+	final float[][] k;
+	final float[][] l;
+	final float[][] accel;
+	// Velocities before the last step, null unless steps may be rejected
+	final float[][] startVelocity;
+
+	/**
+	 * @param springs How the device stores the network's springs
+	 * @param tileBudget Device bytes available for topology and tiles. A node whose
+	 * edges alone exceed it still gets a tile of its own.
+	 * @param context Integrator, and whether RK4 steps may be rejected with {@link #rejectStep}
+	 */
+	NodeTiles(SlimNetwork slim, CompactSprings springs, long tileBudget, CLLayoutContext context)
+	{
+		final int n = slim.numNodes;
+		final boolean rk = context.useRungeKutta(), verlet = context.useVerlet();
+		final long stateBytes = velocityBytesPerNode + stateBytesPerNode(context);
+		final long bytesPerSlot = 4 + (springs.storage == CompactSprings.floatStorage ? 8 : springs.storage == CompactSprings.halfStorage ? 4 : 0);
+		final long topologyBytes = n * topologyBytesPerNode + (n > 0 ? slotEnd(slim, n - 1) : 0) * bytesPerSlot;
+		final boolean fits = topologyBytes <= tileBudget / 2;
+
+		int[] starts = new int[n + 1];
+		int count = 0, maxNodes = 0;
+		for (int first = 0; first < n; count++)
+		{
+			starts[count] = first;
+			int end = first + 1;
+			if (fits)
+				end = (int)Math.min(n, first + Math.max(1, (tileBudget - topologyBytes) / stateBytes));
+			else
+				while (end < n && (end + 1 - first) * (topologyBytesPerNode + stateBytes) + (slotEnd(slim, end) - slim.edgeOffsetsSparse[first]) * bytesPerSlot <= tileBudget)
+					end++;
+			maxNodes = Math.max(maxNodes, end - first);
+			first = end;
+		}
+		starts[count] = n;
+
+		numTiles = count;
+		tileStart = Arrays.copyOf(starts, count + 1);
+		maxTileNodes = maxNodes;
+
+		// A single tile's slice is the whole network's
+		topologyResident = fits || count == 1;
+		int[] sliceStart = topologyResident ? new int[] { 0, n } : tileStart;
+		int numSlices = sliceStart.length - 1;
+		edges = new int[numSlices][];
+		edgeOffsets = new int[numSlices][];
+		edgeCounts = new int[numSlices][];
+		edgeCoeffs = new float[numSlices][];
+		edgeLengths = new float[numSlices][];
+		edgeSprings = new int[numSlices][];
+		mobility = new float[numSlices][];
+
+		int maxNodesInSlice = 0, maxSlots = 0;
+		for (int t = 0; t < numSlices; t++)
+		{
+			int first = sliceStart[t], end = sliceStart[t + 1], size = end - first;
+			int firstSlot = size > 0 ? slim.edgeOffsetsSparse[first] : 0, lastSlot = size > 0 ? slotEnd(slim, end - 1) : 0;
+			maxNodesInSlice = Math.max(maxNodesInSlice, size);
+			maxSlots = Math.max(maxSlots, lastSlot - firstSlot);
+
+			edges[t] = Arrays.copyOfRange(slim.edges, firstSlot, lastSlot);
+			edgeOffsets[t] = new int[size];
+			for (int i = 0; i < size; i++)
+				edgeOffsets[t][i] = slim.edgeOffsetsSparse[first + i] - firstSlot;
+			edgeCounts[t] = Arrays.copyOfRange(slim.edgeCounts, first, end);
+			if (springs.storage == CompactSprings.floatStorage)
+			{
+				edgeCoeffs[t] = Arrays.copyOfRange(slim.edgeCoeffs, firstSlot, lastSlot);
+				edgeLengths[t] = Arrays.copyOfRange(slim.edgeLengths, firstSlot, lastSlot);
+			}
+			else if (springs.storage == CompactSprings.halfStorage)
+				edgeSprings[t] = Arrays.copyOfRange(springs.packed, firstSlot, lastSlot);
+			mobility[t] = Arrays.copyOfRange(slim.nodeMobility, first, end);
+		}
+		maxSliceNodes = maxNodesInSlice;
+		maxSliceSlots = maxSlots;
+
+		boolean hostState = count > 1;
+		velocity = hostState ? new float[count][] : null;
+		k = hostState && rk ? new float[count][] : null;
+		l = hostState && rk ? new float[count][] : null;
+		accel = hostState && verlet ? new float[count][] : null;
+		startVelocity = hostState && rk && context.adaptiveTimestep ? new float[count][] : null;
+		for (int t = 0; hostState && t < count; t++)
+		{
+			int size = tileStart[t + 1] - tileStart[t];
+			velocity[t] = new float[size * 2];
+			if (rk)
+			{
+				k[t] = new float[size * 8];
+				l[t] = new float[size * 6];
+			}
+			if (verlet)
+				accel[t] = new float[size * 2];
+			if (startVelocity != null)
+				startVelocity[t] = new float[size * 2];
+		}
+	}
+
+	/**
+	 * Topology slice of the given tile.
+	 */
+	int topologySlice(int tile)
+	{
+		return topologyResident ? 0 : tile;
+	}
+
+	/**
+	 * Index of the given tile's first node in its topology slice.
+	 */
+	int topologyStart(int tile)
+	{
+		return topologyResident ? tileStart[tile] : 0;
+	}
+
+	/**
+	 * Device bytes of the integration state of one node with the context's integrator.
+	 * Semi-implicit Euler keeps nothing but the velocity.
+	 */
+	static long stateBytesPerNode(CLLayoutContext context)
+	{
+		return context.useRungeKutta() ? rkStateBytesPerNode : context.useVerlet() ? verletStateBytesPerNode : 0;
+	}
+
+	/**
+	 * End of the neighbor slots of the given node.
+	 */
+	private static int slotEnd(SlimNetwork slim, int node)
+	{
+		return slim.edgeOffsetsSparse[node] + slim.edgeCounts[node];
+	}
+
+	/**
+	 * Sets velocities, and accelerations of velocity Verlet, to 0, as the Init kernel does.
+	 */
+	void resetVelocity()
+	{
+		for (float[] v : velocity)
+			Arrays.fill(v, 0f);
+		if (accel != null)
+			for (float[] a : accel)
+				Arrays.fill(a, 0f);
+	}
+
+	/**
+	 * Total kinetic energy and maximum speed, as computed by the ReduceMotion kernel.
+	 */
+	float[] measureMotion(float[] nodeMass)
+	{
+		float energy = 0f, maxSpeed2 = 0f;
+		for (int t = 0; t < numTiles; t++)
+		{
+			float[] v = velocity[t];
+			for (int i = 0; i < v.length / 2; i++)
+			{
+				float v2 = v[i * 2] * v[i * 2] + v[i * 2 + 1] * v[i * 2 + 1];
+				energy += 0.5f * nodeMass[tileStart[t] + i] * v2;
+				maxSpeed2 = Math.max(maxSpeed2, v2);
+			}
+		}
+		return new float[] { energy, (float)Math.sqrt(maxSpeed2) };
+	}
+
+	/**
+	 * Largest difference between the last step and its first-stage estimate, as computed by the ReduceStepError kernel.
+	 * @param nodePosX X component of the positions after the step
+	 * @param nodePosY Y component of the positions after the step
+	 */
+	float estimateError(float[] nodePosX, float[] nodePosY)
+	{
+		float error2 = 0f;
+		for (int t = 0; t < numTiles; t++)
+		{
+			int size = tileStart[t + 1] - tileStart[t];
+			float[] kt = k[t];
+			for (int i = 0; i < size; i++)
+			{
+				float dx = nodePosX[tileStart[t] + i] - kt[(3 * size + i) * 2] - kt[(size + i) * 2];
+				float dy = nodePosY[tileStart[t] + i] - kt[(3 * size + i) * 2 + 1] - kt[(size + i) * 2 + 1];
+				error2 = Math.max(error2, dx * dx + dy * dy);
+			}
+		}
+		return (float)Math.sqrt(error2);
+	}
+
+	/**
+	 * Keeps the velocities before a step, as the KeepStepStart kernel does.
+	 */
+	void keepStepStart()
+	{
+		for (int t = 0; t < numTiles; t++)
+			System.arraycopy(velocity[t], 0, startVelocity[t], 0, velocity[t].length);
+	}
+
+	/**
+	 * Restores positions and velocities from the beginning of the last step, as the RejectStep kernel does.
+	 */
+	void rejectStep(float[] nodePosX, float[] nodePosY)
+	{
+		for (int t = 0; t < numTiles; t++)
+		{
+			int size = tileStart[t + 1] - tileStart[t];
+			for (int i = 0; i < size; i++)
+			{
+				nodePosX[tileStart[t] + i] = k[t][(3 * size + i) * 2];
+				nodePosY[tileStart[t] + i] = k[t][(3 * size + i) * 2 + 1];
+			}
+			System.arraycopy(startVelocity[t], 0, velocity[t], 0, size * 2);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.cytoscape.view.layout.LayoutEdge;
+import org.cytoscape.view.layout.LayoutNode;
+import org.cytoscape.view.layout.LayoutPartition;
+
+/**
+ * A partition's node and edge lists in their current order, as a {@link LayoutGraph}.
+ * Nodes are identified by their SUID.
+ */
+class PartitionGraph implements LayoutGraph
+{
+	private final LayoutPartition partition;
+	private final LayoutNode[] nodes;
+	private final LayoutEdge[] edges;
+	private final int[] edgeSources;
+	private final int[] edgeTargets;
+
+	PartitionGraph(LayoutPartition partition)
+	{
+		this.partition = partition;
+		List<LayoutNode> nodeList = partition.getNodeList();
+		List<LayoutEdge> edgeList = partition.getEdgeList();
+		nodes = nodeList.toArray(new LayoutNode[nodeList.size()]);
+		edges = edgeList.toArray(new LayoutEdge[edgeList.size()]);
+
+		// Position of every node in the node list, only used to translate objects to ints
+		final HashMap<LayoutNode, Integer> index = new HashMap<>(nodes.length * 2);
+		for (int i = 0; i < nodes.length; i++)
+			index.put(nodes[i], i);
+
+		edgeSources = new int[edges.length];
+		edgeTargets = new int[edges.length];
+		SlimTopology.range(edges.length).forEach(e ->
+		{
+			edgeSources[e] = index.get(edges[e].getSource());
+			edgeTargets[e] = index.get(edges[e].getTarget());
+		});
+	}
+
+	LayoutPartition getPartition()
+	{
+		return partition;
+	}
+
+	LayoutNode getNode(int node)
+	{
+		return nodes[node];
+	}
+
+	@Override
+	public int getNodeCount()
+	{
+		return nodes.length;
+	}
+
+	@Override
+	public int getEdgeCount()
+	{
+		return edges.length;
+	}
+
+	@Override
+	public long getNodeId(int node)
+	{
+		return nodes[node].getNode().getSUID();
+	}
+
+	@Override
+	public double getX(int node)
+	{
+		return nodes[node].getX();
+	}
+
+	@Override
+	public double getY(int node)
+	{
+		return nodes[node].getY();
+	}
+
+	@Override
+	public boolean isLocked(int node)
+	{
+		return nodes[node].isLocked();
+	}
+
+	@Override
+	public int getEdgeSource(int edge)
+	{
+		return edgeSources[edge];
+	}
+
+	@Override
+	public int getEdgeTarget(int edge)
+	{
+		return edgeTargets[edge];
+	}
+
+	@Override
+	public double getEdgeWeight(int edge)
+	{
+		return edges[edge].getWeight();
+	}
+}
@@ -0,0 +1,54 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.cytoscape.model.CyNode;
+import org.cytoscape.view.layout.LayoutNode;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.model.View;
+import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+
+/**
+ * Node positions after the last layout of each network view, so that an incremental
+ * layout can tell which nodes were added or moved since. Views are held weakly.
+ */
+class PositionHistory
+{
+	// Nodes that moved less than this are considered unchanged
+	private static final double tolerance = 0.5;
+
+	private final Map<CyNetworkView, Map<CyNode, double[]>> views = new WeakHashMap<>();
+
+	/**
+	 * Remembers the current position of every node in the view.
+	 */
+	synchronized void record(CyNetworkView networkView)
+	{
+		Map<CyNode, double[]> positions = new HashMap<>();
+		for (View<CyNode> nodeView : networkView.getNodeViews())
+			positions.put(nodeView.getModel(), new double[] { nodeView.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION),
+															   nodeView.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION) });
+		views.put(networkView, positions);
+	}
+
+	/**
+	 * Positions recorded for the view, or null if it was never recorded.
+	 * Only read them while nothing else records the same view.
+	 */
+	synchronized Map<CyNode, double[]> get(CyNetworkView networkView)
+	{
+		return views.get(networkView);
+	}
+
+	/**
+	 * Whether a node is new or not where it was recorded.
+	 * @param positions Positions returned by {@link #get}
+	 */
+	static boolean isChanged(Map<CyNode, double[]> positions, LayoutNode node)
+	{
+		double[] position = positions.get(node.getNode());
+		return position == null || Math.abs(position[0] - node.getX()) > tolerance || Math.abs(position[1] - node.getY()) > tolerance;
+	}
+}
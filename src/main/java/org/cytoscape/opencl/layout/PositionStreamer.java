@@ -0,0 +1,117 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cytoscape.view.layout.LayoutNode;
+import org.cytoscape.view.layout.LayoutPartition;
+import org.cytoscape.view.model.CyNetworkView;
+
+/**
+ * Shows intermediate positions of a running simulation in the network view.
+ * The simulation thread publishes snapshots, and a frame task on a separate
+ * thread applies the latest one at a capped rate. Snapshots cycle through
+ * at most three pairs of host arrays, and publishing never waits for the view:
+ * a snapshot that wasn't applied before the next one arrives is dropped.
+ *
+ * CyCL buffers can only be read with blocking calls, so taking a snapshot
+ * waits for the device to finish the steps queued so far. Snapshots are
+ * therefore taken no more often than frames are shown.
+ *
+ * Only a partition that is laid out alone may be streamed, as the positions
+ * are shown before the partitions are moved apart.
+ */
+class PositionStreamer
+{
+	private final LayoutPartition partition;
+	private final SlimNetwork slim;
+	private final CyNetworkView networkView;
+
+	// Latest snapshot not yet applied to the view
+	private final AtomicReference<float[][]> pending = new AtomicReference<>();
+	// Snapshot arrays that are free to be filled again
+	private final AtomicReference<float[][]> spare = new AtomicReference<>();
+
+	private final ScheduledFuture<?> frames;
+	// Minimum time between snapshots, and when the last one was taken
+	private final long period;
+	private long lastPublish;
+	private boolean closed = false;
+
+	/**
+	 * Starts applying snapshots to the view.
+	 * @param framesPerSecond Maximum number of view updates per second
+	 */
+	PositionStreamer(LayoutPartition partition, SlimNetwork slim, CyNetworkView networkView,
+					 ScheduledExecutorService executor, int framesPerSecond)
+	{
+		this.partition = partition;
+		this.slim = slim;
+		this.networkView = networkView;
+
+		period = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+		lastPublish = System.nanoTime();
+		frames = executor.scheduleAtFixedRate(this::applyLatest, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Copies the engine's current positions into a snapshot for the view, unless the
+	 * last one was taken less than a frame ago. Called by the simulation thread.
+	 * @return Whether a snapshot was taken
+	 */
+	boolean publish(LayoutEngine engine)
+	{
+		long now = System.nanoTime();
+		if (now - lastPublish < period)
+			return false;
+		lastPublish = now;
+
+		float[][] snapshot = spare.getAndSet(null);
+		if (snapshot == null)
+			snapshot = new float[][] { new float[slim.numNodes], new float[slim.numNodes] };
+
+		engine.getPositions(slim, snapshot[0], snapshot[1]);
+
+		// Replace an older snapshot the view hasn't picked up yet
+		float[][] dropped = pending.getAndSet(snapshot);
+		if (dropped != null)
+			spare.set(dropped);
+		return true;
+	}
+
+	/**
+	 * Stops view updates. When this returns, no frame is being applied anymore,
+	 * so the final positions can be written back safely.
+	 */
+	void close()
+	{
+		frames.cancel(false);
+		synchronized (this)
+		{
+			closed = true;
+		}
+	}
+
+	private synchronized void applyLatest()
+	{
+		float[][] snapshot = pending.getAndSet(null);
+		if (closed || snapshot == null)
+			return;
+
+		for (LayoutNode ln : partition.getNodeList())
+		{
+			if (!ln.isLocked())
+			{
+				int id = slim.nodeToIndex.get(ln);
+				ln.setX(snapshot[0][id]);
+				ln.setY(snapshot[1][id]);
+				ln.moveToLocation();
+			}
+		}
+		networkView.updateView();
+
+		spare.set(snapshot);
+	}
+}
@@ -0,0 +1,204 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut quadtree over the node positions of a SlimNetwork.
+ *
+ * Cells are stored in depth-first pre-order, so the children of a cell
+ * directly follow it and every cell carries a skip index pointing past its
+ * subtree. This lets both the CalcForcesBarnesHut kernel and the host engine
+ * walk the tree with a single loop and no stack:
+ * open a cell by moving to cell + 1, or skip it by jumping to its skip index.
+ *
+ * Leaves hold up to {@link #leafCapacity} bodies, which are listed in cellBodies.
+ */
+class QuadTree
+{
+	public static final int leafCapacity = 8;
+	// Coincident nodes can never be separated, so stop subdividing at some point.
+	public static final int maxDepth = 24;
+
+	public int numCells;
+	public int capacity;
+
+	// Per cell: center of mass x, y, total mass, edge length of the cell
+	public float[] cellData;
+	// Per cell: skip index, first body, number of bodies (0 for internal cells), unused
+	public int[] cellLinks;
+	// Node indices, grouped by leaf
+	public int[] cellBodies;
+
+	private float[] posX, posY, mass;
+	private int[] scratch;
+
+	public QuadTree(int numNodes)
+	{
+		ensureCapacity(Math.max(16, numNodes / 2));
+		cellBodies = new int[Math.max(1, numNodes)];
+		scratch = new int[Math.max(1, numNodes)];
+	}
+
+	/**
+	 * Rebuilds the tree for the current positions.
+	 */
+	public void build(float[] nodePosX, float[] nodePosY, float[] nodeMass, int numNodes)
+	{
+		posX = nodePosX;
+		posY = nodePosY;
+		mass = nodeMass;
+		numCells = 0;
+
+		if (numNodes == 0)
+			return;
+
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < numNodes; i++)
+		{
+			minX = Math.min(minX, posX[i]);
+			minY = Math.min(minY, posY[i]);
+			maxX = Math.max(maxX, posX[i]);
+			maxY = Math.max(maxY, posY[i]);
+			cellBodies[i] = i;
+		}
+		float size = Math.max(maxX - minX, maxY - minY) * 1.0001f + 1e-3f;
+
+		buildCell(0, numNodes, minX, minY, size, 0);
+
+		posX = posY = mass = null;
+	}
+
+	/**
+	 * Creates the cell for bodies [from, to) and, if needed, its subtree.
+	 * Recursion depth is bounded by maxDepth.
+	 */
+	private void buildCell(int from, int to, float x0, float y0, float size, int depth)
+	{
+		int cell = numCells++;
+		ensureCapacity(numCells);
+
+		float m = 0f, cx = 0f, cy = 0f;
+		for (int i = from; i < to; i++)
+		{
+			int b = cellBodies[i];
+			m += mass[b];
+			cx += mass[b] * posX[b];
+			cy += mass[b] * posY[b];
+		}
+		if (m > 0f)
+		{
+			cx /= m;
+			cy /= m;
+		}
+		else
+		{
+			cx = x0 + size * 0.5f;
+			cy = y0 + size * 0.5f;
+		}
+		cellData[cell * 4] = cx;
+		cellData[cell * 4 + 1] = cy;
+		cellData[cell * 4 + 2] = m;
+		cellData[cell * 4 + 3] = size;
+
+		if (to - from <= leafCapacity || depth >= maxDepth)
+		{
+			cellLinks[cell * 4 + 1] = from;
+			cellLinks[cell * 4 + 2] = to - from;
+			cellLinks[cell * 4] = numCells;
+			return;
+		}
+
+		// Sort bodies into the four quadrants
+		float half = size * 0.5f, midX = x0 + half, midY = y0 + half;
+		int[] counts = new int[4];
+		for (int i = from; i < to; i++)
+		{
+			int b = cellBodies[i];
+			counts[quadrant(posX[b], posY[b], midX, midY)]++;
+		}
+		int[] starts = new int[5];
+		starts[0] = from;
+		for (int q = 0; q < 4; q++)
+			starts[q + 1] = starts[q] + counts[q];
+		int[] fill = Arrays.copyOf(starts, 4);
+		for (int i = from; i < to; i++)
+		{
+			int b = cellBodies[i];
+			scratch[fill[quadrant(posX[b], posY[b], midX, midY)]++] = b;
+		}
+		System.arraycopy(scratch, from, cellBodies, from, to - from);
+
+		for (int q = 0; q < 4; q++)
+			if (starts[q + 1] > starts[q])
+				buildCell(starts[q], starts[q + 1], (q & 1) == 0 ? x0 : midX, (q & 2) == 0 ? y0 : midY, half, depth + 1);
+
+		cellLinks[cell * 4 + 1] = from;
+		cellLinks[cell * 4 + 2] = 0;
+		cellLinks[cell * 4] = numCells;
+	}
+
+	private static int quadrant(float x, float y, float midX, float midY)
+	{
+		return (x < midX ? 0 : 1) | (y < midY ? 0 : 2);
+	}
+
+	private void ensureCapacity(int cells)
+	{
+		if (cells <= capacity)
+			return;
+
+		capacity = Math.max(cells, capacity * 2);
+		cellData = cellData == null ? new float[capacity * 4] : Arrays.copyOf(cellData, capacity * 4);
+		cellLinks = cellLinks == null ? new int[capacity * 4] : Arrays.copyOf(cellLinks, capacity * 4);
+	}
+
+	/**
+	 * Walks the tree for one node, exactly like the CalcForcesBarnesHut kernel.
+	 * @param force Receives the x and y component of the (anti)gravity force at index 0 and 1
+	 */
+	public void calcForce(float x1, float y1, float mass1, float[] nodePosX, float[] nodePosY, float[] nodeMass, float theta2, float[] force)
+	{
+		float fx = 0f, fy = 0f;
+		int cell = 0;
+		while (cell < numCells)
+		{
+			int bodyCount = cellLinks[cell * 4 + 2];
+			if (bodyCount > 0)
+			{
+				// Leaf: exact interaction with every body
+				int first = cellLinks[cell * 4 + 1];
+				for (int b = first; b < first + bodyCount; b++)
+				{
+					int id2 = cellBodies[b];
+					float diffX = x1 - nodePosX[id2], diffY = y1 - nodePosY[id2];
+					float dist = (float)(1.0 / Math.sqrt(diffX * diffX + diffY * diffY + 1e-6f));
+					float v = mass1 * nodeMass[id2] * dist * dist * dist;
+					fx += diffX * v;
+					fy += diffY * v;
+				}
+				cell = cellLinks[cell * 4];
+				continue;
+			}
+
+			float diffX = x1 - cellData[cell * 4], diffY = y1 - cellData[cell * 4 + 1];
+			float dist2 = diffX * diffX + diffY * diffY;
+			float size = cellData[cell * 4 + 3];
+			if (size * size < theta2 * dist2)
+			{
+				// Far enough away, the whole cell acts as one body
+				float dist = (float)(1.0 / Math.sqrt(dist2 + 1e-6f));
+				float v = mass1 * cellData[cell * 4 + 2] * dist * dist * dist;
+				fx += diffX * v;
+				fy += diffY * v;
+				cell = cellLinks[cell * 4];
+			}
+			else
+			{
+				cell++;	// Open the cell, its children follow in pre-order
+			}
+		}
+
+		force[0] = fx;
+		force[1] = fy;
+	}
+}
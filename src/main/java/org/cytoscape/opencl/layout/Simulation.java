@@ -0,0 +1,263 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Drives a {@link LayoutEngine} through the time step schedule: fixed cooling or 
+ * adaptive steps, optionally stopping early once the layout has converged.
+ */
+class Simulation
+{
+	// First time step of the cooling schedule, plus a constant 50 for every step
+	private static final float initialTimestep = 1000f;
+	// Refinement levels of a multilevel layout and incremental layouts start from a good layout, so they start cooler
+	private static final float refinementTimestep = 100f;
+	// The finest levels only smooth out local detail, with a few steps that must not undo the levels above
+	private static final float finestRefinementTimestep = 25f;
+	private static final int numFinestLevels = 2;
+	// A level's refinement iterations grow with this power of how many times larger the original network is
+	private static final double refinementIterationExponent = 0.25;
+	// Nodes collapsed into one are spread by up to this fraction of the default spring length
+	private static final float prolongationOffset = 0.1f;
+	
+	private final CLLayoutContext context;
+	private final BooleanSupplier cancelled;
+	private final LayoutTimings timings;
+	
+	/**
+	 * @param cancelled Polled after every step, stops the simulation when true
+	 * @param timings Receives the time spent in upload, simulation and readback
+	 */
+	public Simulation(CLLayoutContext context, BooleanSupplier cancelled, LayoutTimings timings)
+	{
+		this.context = context;
+		this.cancelled = cancelled;
+		this.timings = timings;
+	}
+	
+	/**
+	 * Runs the simulation schedule on the given engine and
+	 * leaves the resulting positions in slim.nodePosX and slim.nodePosY.
+	 * @param streamer Receives intermediate positions, may be null
+	 */
+	public void run(SlimNetwork slim, LayoutEngine engine, PositionStreamer streamer)
+	{
+		if (context.useMultilevel(slim.numNodes) && slim.nodeSegment == null)
+			runMultilevel(slim, engine, streamer);
+		else
+			runLevel(slim, engine, streamer, context.numIterations, initialTimestep, true);
+	}
+	
+	/**
+	 * Like {@link #run}, but for a network that is already laid out except for a few nodes,
+	 * such as an {@link IncrementalRegion}. Starts cooler, and doesn't show intermediate positions.
+	 */
+	public void runIncremental(SlimNetwork slim, LayoutEngine engine)
+	{
+		runLevel(slim, engine, null, context.numIterations, refinementTimestep, true);
+	}
+	
+	/**
+	 * Lays out the coarsest level of a {@link MultilevelHierarchy} with the full schedule,
+	 * then every finer level with a short, cooler schedule starting from the positions of 
+	 * the level above. Edge repulsion and intermediate positions only apply to the original network.
+	 *
+	 * Coarser levels get more refinement iterations, see {@link #getRefinementIterations}.
+	 * Levels shrink by about half, so refinement costs about 2.5 times the finest level's
+	 * iterations. With the defaults (100 iterations, 4 on the finest level) that is
+	 * about a tenth of the force evaluations of a full layout.
+	 */
+	private void runMultilevel(SlimNetwork slim, LayoutEngine engine, PositionStreamer streamer)
+	{
+		long start = System.nanoTime();
+		MultilevelHierarchy hierarchy = new MultilevelHierarchy(slim, CLLayouter.requiredPadding);
+		timings.addPhase(LayoutTimings.coarsening, start);
+		
+		Random random = new Random(123);
+		int coarsest = hierarchy.getNumLevels() - 1;
+		runLevel(hierarchy.getLevel(coarsest), engine, coarsest == 0 ? streamer : null, context.numIterations, initialTimestep, coarsest == 0);
+		for (int level = coarsest - 1; level >= 0 && !cancelled.getAsBoolean(); level--)
+		{
+			start = System.nanoTime();
+			hierarchy.prolong(level, random, prolongationOffset * (float)context.defaultSpringLength);
+			timings.addPhase(LayoutTimings.coarsening, start);
+			
+			SlimNetwork fine = hierarchy.getLevel(level);
+			runLevel(fine, engine, level == 0 ? streamer : null, getRefinementIterations(slim, fine), 
+					 level < numFinestLevels ? finestRefinementTimestep : refinementTimestep, level == 0);
+		}
+	}
+	
+	/**
+	 * Refinement iterations of a multilevel layout's level: the context's on the original network,
+	 * growing with the fourth root of how much smaller the level is, up to a full layout's.
+	 * Forces on a level cost about its number of nodes, so the coarse levels' extra iterations
+	 * are cheap, and help most where the positions of the level above are the roughest.
+	 */
+	private int getRefinementIterations(SlimNetwork finest, SlimNetwork level)
+	{
+		double growth = Math.pow((double)finest.numNodes / Math.max(1, level.numNodes), refinementIterationExponent);
+		return (int)Math.min(context.numIterations, Math.round(context.multilevelRefinementIterations * growth));
+	}
+	
+	/**
+	 * Runs the simulation schedule for one network, from upload to readback.
+	 * @param numIterations Iterations of the cooling schedule
+	 * @param timestep Time step of the first iteration, without the constant part
+	 * @param edgeRepulsive Whether the edge-repulsive iterations follow
+	 */
+	private void runLevel(SlimNetwork slim, LayoutEngine engine, PositionStreamer streamer, 
+						  int numIterations, float timestep, boolean edgeRepulsive)
+	{
+		long start = System.nanoTime();
+		engine.initializeBuffers(slim);
+		timings.addPhase(LayoutTimings.upload, start);
+		
+		try
+		{
+			start = System.nanoTime();
+			// Initialize velocity to 0
+			engine.initializeSimulation(slim);
+			runSchedule(slim, engine, streamer, numIterations, timestep, edgeRepulsive);
+			timings.addPhase(LayoutTimings.simulation, start);
+			
+			// Get positions back from the engine
+			start = System.nanoTime();
+			engine.getPositions(slim);
+			timings.addPhase(LayoutTimings.readback, start);
+		}
+		finally
+		{
+			// Release all buffers
+			engine.freeBuffers();
+		}
+	}
+	
+	/**
+	 * Runs either the adaptive or the fixed time step schedule.
+	 */
+	private void runSchedule(SlimNetwork slim, LayoutEngine engine, PositionStreamer streamer, 
+							 int numIterations, float initialTimestep, boolean edgeRepulsive)
+	{
+		if (context.adaptiveTimestep)
+		{
+			// Cover the same virtual time as the fixed schedule below, starting with its first step
+			float duration = 0f;
+			float timestep = initialTimestep;
+			for (int i = 0; i < numIterations; i++)
+			{
+				timestep *= (1f - (float)i / (float)numIterations);
+				duration += timestep + 50f;
+			}
+			simulateAdaptive(engine, slim, streamer, duration, initialTimestep + 50f, false, numIterations);
+			
+			if (edgeRepulsive && context.numIterationsEdgeRepulsive > 0)
+			{
+				engine.initializeSimulation(slim);
+				simulateAdaptive(engine, slim, streamer, 0.25f * context.numIterationsEdgeRepulsive, 0.25f, true, context.numIterationsEdgeRepulsive);
+			}
+		}
+		else
+			simulateScheduled(engine, slim, streamer, numIterations, initialTimestep, edgeRepulsive);
+	}
+	
+	/**
+	 * Runs the fixed cooling schedule.
+	 */
+	private void simulateScheduled(LayoutEngine engine, SlimNetwork slim, PositionStreamer streamer, 
+								   int numIterations, float timestep, boolean edgeRepulsive)
+	{
+		for (int i = 0; i < numIterations && !cancelled.getAsBoolean(); i++) 
+		{
+			// Gradually decrease time step as simulation converges
+			float decrease = (1f - (float)i / (float)numIterations);
+			timestep *= decrease;
+			float step = timestep + 50f;
+
+			engine.advanceSimulation(step, false, slim);
+			
+			if (finishStep(engine, slim, streamer, i, step))
+				break;
+		}
+	
+		if (edgeRepulsive && context.numIterationsEdgeRepulsive > 0)
+		{
+			engine.initializeSimulation(slim);
+			
+			timestep = 10f;
+			for (int i = 0; i < context.numIterationsEdgeRepulsive && !cancelled.getAsBoolean(); i++) 
+			{
+				// Gradually decrease time step as simulation converges
+				float decrease = (1f - (float)i / (float)context.numIterations);
+				timestep *= decrease;
+				
+				engine.advanceSimulation(0.25f, true, slim);
+				
+				if (finishStep(engine, slim, streamer, i, 0.25f))
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Integrates the given amount of virtual time, choosing each step size from 
+	 * the difference between the RK4 result and the embedded midpoint result. 
+	 * Steps whose error exceeds the tolerance are undone and retried smaller.
+	 * @param duration Virtual time to cover
+	 * @param step Size of the first step
+	 * @param maxSteps Upper bound on attempted steps, so no more forces are 
+	 * evaluated than with the fixed schedule
+	 */
+	private void simulateAdaptive(LayoutEngine engine, SlimNetwork slim, PositionStreamer streamer, float duration, float step, boolean doEdgeRepulsion, int maxSteps)
+	{
+		final float tolerance = (float)context.adaptiveTolerance;
+		final float minStep = step * 1e-3f;
+		
+		float time = 0f;
+		int accepted = 0;
+		for (int attempt = 0; attempt < maxSteps && time < duration && !cancelled.getAsBoolean(); attempt++)
+		{
+			step = Math.min(step, duration - time);
+			engine.advanceSimulation(step, doEdgeRepulsion, slim);
+			float error = engine.estimateError(slim);
+			
+			// The midpoint solution is 2nd order, so its local error scales with step^3
+			float factor = error > 0f ? 0.9f * (float)Math.cbrt(tolerance / error) : 4f;
+			factor = Math.max(0.2f, Math.min(4f, factor));
+			
+			if (!(error <= tolerance) && step > minStep)
+			{
+				engine.rejectStep(slim);
+				step = Math.max(minStep, step * factor);
+				continue;
+			}
+			
+			time += step;
+			if (finishStep(engine, slim, streamer, accepted++, step))
+				break;
+			step = Math.max(minStep, step * factor);
+		}
+	}
+	
+	/**
+	 * Publishes intermediate positions and checks the convergence criterion 
+	 * every few iterations, if enabled. The motion is reduced on the device, 
+	 * so only two values are read back.
+	 * @return Whether the simulation has converged
+	 */
+	private boolean finishStep(LayoutEngine engine, SlimNetwork slim, PositionStreamer streamer, int iteration, float timestep)
+	{
+		if (streamer != null && (iteration + 1) % context.progressiveInterval == 0)
+		{
+			long start = System.nanoTime();
+			if (streamer.publish(engine))
+				timings.addOperation(LayoutTimings.viewSnapshot, start);
+		}
+		
+		if (!context.stopWhenConverged || (iteration + 1) % context.convergenceCheckInterval != 0)
+			return false;
+		
+		return context.isConverged(engine.measureMotion(slim), timestep, slim.numNodes);
+	}
+}
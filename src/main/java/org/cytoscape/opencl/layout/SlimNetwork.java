@@ -1,15 +1,12 @@
 package org.cytoscape.opencl.layout;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.cytoscape.view.layout.EdgeWeighter;
-import org.cytoscape.view.layout.LayoutEdge;
 import org.cytoscape.view.layout.LayoutNode;
 import org.cytoscape.view.layout.LayoutPartition;
 
@@ -27,6 +24,8 @@ public class SlimNetwork
 	public int numEdgesUniquePadded;
 	
 	float[] nodeMass;
+	// Pinned mask: 0 for nodes that keep their position, 1 for all others
+	float[] nodeMobility;
 	
 	int[] edgeOffsetsSparse;
 	int[] edgeCounts;
@@ -41,170 +40,506 @@ public class SlimNetwork
 	public float[] edgeMassEnd;
 	
 	public HashMap<LayoutNode, Integer> nodeToIndex;
+	// What the structure above was built from and is shared with, null for networks derived from others
+	SlimTopology topology;
+	
+	// Only set if several networks were concatenated into one batch, see concatenate()
+	public int numSegments;
+	public int[] segmentNodeStart;
+	public int[] segmentEdgeStart;
+	public int[] nodeSegment;
+	
+	private SlimNetwork()
+	{
+	}
 	
 	public SlimNetwork(LayoutPartition part, Boolean deterministic, float defaultNodeMass, float springCoefficient, float springLength, EdgeWeighter edgeWeighter, int padding)
 	{
-		List<LayoutNode> nodeList = part.getNodeList();
-		List<LayoutEdge> edgeList = part.getEdgeList();
-		
 		if (deterministic)
+			sort(part);
+		PartitionGraph graph = new PartitionGraph(part);
+		init(new SlimTopology(graph, padding), graph, defaultNodeMass, springCoefficient, springLength);
+		indexNodes(graph);
+	}
+	
+	/**
+	 * Builds the network from a topology that was built from the same graph,
+	 * e.g. in a previous layout. Only node positions, masses and springs are computed.
+	 */
+	public SlimNetwork(SlimTopology topology, LayoutGraph graph, float defaultNodeMass, float springCoefficient, float springLength)
+	{
+		init(topology, graph, defaultNodeMass, springCoefficient, springLength);
+	}
+	
+	/**
+	 * Sorts the partition's node and edge lists, so that the layout doesn't depend on their incoming order.
+	 */
+	static void sort(LayoutPartition part)
+	{
+		Collections.sort(part.getNodeList());
+		Collections.sort(part.getEdgeList());
+	}
+	
+	/**
+	 * Maps the partition's nodes to their index in this network, 
+	 * and puts the partition's node list in index order.
+	 * @param graph The partition this network was built from
+	 */
+	void indexNodes(PartitionGraph graph)
+	{
+		final int[] order = topology.order;
+		List<LayoutNode> nodeList = graph.getPartition().getNodeList();
+		
+		nodeToIndex = new HashMap<>(numNodes * 2);
+		for (int id = 0; id < numNodes; id++)
 		{
-			Collections.sort(nodeList);
-			Collections.sort(edgeList);
+			LayoutNode node = graph.getNode(order[id]);
+			nodeToIndex.put(node, id);
+			nodeList.set(id, node);
 		}
+	}
+	
+	private void init(SlimTopology topology, LayoutGraph graph, float defaultNodeMass, float springCoefficient, float springLength)
+	{
+		this.topology = topology;
 		
-		// Initialize state variables on the host side
-		numNodesPadded = nextMultipleOf(nodeList.size(), padding);	// Needed for loop unrolling
+		final int n = topology.numNodes;
+		final int[] order = topology.order;
+		
+		numNodes = n;
+		numNodesPadded = topology.numNodesPadded;
+		numEdgesSparse = topology.numEdgesSparse;
+		numEdgesUnique = topology.numEdgesUnique;
+		numEdgesUniquePadded = topology.numEdgesUniquePadded;
 		
+		// The structure is shared with the topology
+		edgeOffsetsSparse = topology.edgeOffsetsSparse;
+		edgeCounts = topology.edgeCounts;
+		edges = topology.edges;
+		edgeUniqueSources = topology.edgeUniqueSources;
+		edgeUniqueTargets = topology.edgeUniqueTargets;
+		
+		// Initialize state variables on the host side
 		nodeMass = new float[numNodesPadded];
-		edgeOffsetsSparse = new int[nodeList.size()];
-		edgeCounts = new int[nodeList.size()];
+		Arrays.fill(nodeMass, 0, n, defaultNodeMass);
+		nodeMobility = new float[numNodesPadded];
 		
-				
-		// initialize nodes
-		numEdgesSparse = 0;
-		numEdgesUnique = 0;
-		nodeToIndex = new HashMap<>();
-		final HashMap<LayoutNode, ArrayList<LayoutEdge>> nodeEdges = new HashMap<>();
-		final HashMap<LayoutNode, LayoutNode[]> nodeNeighbors = new HashMap<>();
+		// Multiple edges between the same nodes share one spring with their average length
+		final int m = graph.getEdgeCount();
+		final float[] edgeSpringLength = new float[m];
+		range(m).forEach(e -> edgeSpringLength[e] = springLength / (float)graph.getEdgeWeight(e));
 		
-		for (LayoutNode ln: nodeList) 
+		edgeCoeffs = new float[numEdgesSparse];
+		edgeLengths = new float[numEdgesSparse];
+		final int[] edgeSlots = topology.edgeSlots, slotSamples = topology.slotSamples;
+		for (int e = 0; e < m; e++)
+			for (int end = 0; end < 2; end++)
+			{
+				int slot = edgeSlots[e * 2 + end];
+				if (slot >= 0)
+				{
+					edgeCoeffs[slot] += springCoefficient;
+					edgeLengths[slot] += edgeSpringLength[e];
+				}
+			}
+		range(numEdgesSparse).forEach(slot -> 
 		{
-			nodeEdges.put(ln, new ArrayList<LayoutEdge>());	
-			List<LayoutNode> neighbors = ln.getNeighbors();
-			HashSet<LayoutNode> uniqueNeighbors = new HashSet<>();
-			for (LayoutNode neighbor: neighbors)
-				if (neighbor != ln)
-					uniqueNeighbors.add(neighbor);
-			LayoutNode[] uniqueArray = new LayoutNode[uniqueNeighbors.size()];
-			nodeNeighbors.put(ln, uniqueNeighbors.toArray(uniqueArray));
-			numEdgesSparse += nextMultipleOf(uniqueNeighbors.size(), padding);
-			numEdgesUnique += uniqueNeighbors.size();
-		}
-		numEdgesUnique /= 2;
-		numEdgesUniquePadded = nextMultipleOf(numEdgesUnique, padding);
+			if (slotSamples[slot] > 0)
+				edgeLengths[slot] /= (float)slotSamples[slot];
+		});
+		
+		// Padded node and edge masses stay 0, so they don't affect calculations.
+		edgeMassStart = new float[numEdgesUniquePadded];
+		edgeMassEnd = new float[numEdgesUniquePadded];
+		Arrays.fill(edgeMassStart, 0, numEdgesUnique, defaultNodeMass);
+		Arrays.fill(edgeMassEnd, 0, numEdgesUnique, defaultNodeMass);
 		
-		for (LayoutEdge le: edgeList)
+		nodePosX = new float[numNodesPadded];
+		nodePosY = new float[numNodesPadded];
+		range(n).forEach(id -> 
 		{
-			LayoutNode src = le.getSource(), tgt = le.getTarget();
-			if (src == tgt)
-				continue;
-			
-			nodeEdges.get(src).add(le);
-			nodeEdges.get(tgt).add(le);
-		}
+			int node = order[id];
+			nodePosX[id] = (float)graph.getX(node);
+			nodePosY[id] = (float)graph.getY(node);
+			nodeMobility[id] = graph.isLocked(node) ? 0f : 1f;
+		});
 		
-		class LayoutNodeComparator implements Comparator<LayoutNode> 
-		{  
-		    public int compare(LayoutNode a, LayoutNode b) 
-		    {
-		    	return nodeNeighbors.get(a).length - nodeNeighbors.get(b).length;
-		    }
-		}
-		nodeList.sort(new LayoutNodeComparator());
+		updateMetrics();
+	}
+	
+	/**
+	 * Whether the edge between node and neighbor is seen for the first time 
+	 * when walking the nodes in index order, see {@link SlimTopology#isFirstVisit}.
+	 */
+	private boolean isFirstVisit(int node, int neighbor)
+	{
+		return SlimTopology.isFirstVisit(edges, edgeOffsetsSparse, edgeCounts, node, neighbor);
+	}
+	
+	private static IntStream range(int n)
+	{
+		return SlimTopology.range(n);
+	}
+	
+	/**
+	 * Concatenates several networks into one, so they can be simulated in the same kernel launches.
+	 * Node and edge indices of every part are shifted past all parts before it, and each part
+	 * becomes a segment: nodeSegment maps nodes to segments, segmentNodeStart and
+	 * segmentEdgeStart give the node and unique edge range of every segment.
+	 * Repulsion has to be restricted to each node's segment.
+	 * @param parts Networks to concatenate
+	 * @param padding Node and unique edge counts are padded to a multiple of this
+	 * @return The combined network, without nodeToIndex
+	 */
+	public static SlimNetwork concatenate(List<SlimNetwork> parts, int padding)
+	{
+		SlimNetwork merged = new SlimNetwork();
 		
+		for (SlimNetwork part : parts)
 		{
-			int n = 0;
-			for (LayoutNode ln: nodeList)
-				nodeToIndex.put(ln, n++);
+			merged.numNodes += part.numNodes;
+			merged.numEdgesSparse += part.numEdgesSparse;
+			merged.numEdgesUnique += part.numEdgesUnique;
 		}
+		merged.numNodesPadded = nextMultipleOf(merged.numNodes, padding);
+		merged.numEdgesUniquePadded = nextMultipleOf(merged.numEdgesUnique, padding);
 		
-		// For edge springs
-		edges = new int[numEdgesSparse];
-		edgeCoeffs = new float[numEdgesSparse];
-		edgeLengths = new float[numEdgesSparse];
+		merged.nodePosX = new float[merged.numNodesPadded];
+		merged.nodePosY = new float[merged.numNodesPadded];
+		merged.nodeMass = new float[merged.numNodesPadded];
+		merged.nodeMobility = new float[merged.numNodesPadded];
+		merged.edgeOffsetsSparse = new int[merged.numNodes];
+		merged.edgeCounts = new int[merged.numNodes];
 		
-		// For repulsive edges
-		edgeUniqueSources = new int[numEdgesUniquePadded];
-		edgeUniqueTargets = new int[numEdgesUniquePadded];
-		edgeMassStart = new float[numEdgesUniquePadded];
-		edgeMassEnd = new float[numEdgesUniquePadded];
+		merged.edges = new int[merged.numEdgesSparse];
+		merged.edgeCoeffs = new float[merged.numEdgesSparse];
+		merged.edgeLengths = new float[merged.numEdgesSparse];
 		
+		merged.edgeUniqueSources = new int[merged.numEdgesUniquePadded];
+		merged.edgeUniqueTargets = new int[merged.numEdgesUniquePadded];
+		merged.edgeMassStart = new float[merged.numEdgesUniquePadded];
+		merged.edgeMassEnd = new float[merged.numEdgesUniquePadded];
+		
+		merged.numSegments = parts.size();
+		merged.segmentNodeStart = new int[merged.numSegments + 1];
+		merged.segmentEdgeStart = new int[merged.numSegments + 1];
+		merged.nodeSegment = new int[merged.numNodesPadded];
+		
+		int node = 0, sparse = 0, unique = 0;
+		for (int s = 0; s < merged.numSegments; s++)
 		{
-			int eSparse = 0, eUnique = 0;
-			HashSet<Long> edgesConsidered = new HashSet<>();
-			for (LayoutNode ln: nodeList)
+			SlimNetwork part = parts.get(s);
+			merged.segmentNodeStart[s] = node;
+			merged.segmentEdgeStart[s] = unique;
+			
+			System.arraycopy(part.nodePosX, 0, merged.nodePosX, node, part.numNodes);
+			System.arraycopy(part.nodePosY, 0, merged.nodePosY, node, part.numNodes);
+			System.arraycopy(part.nodeMass, 0, merged.nodeMass, node, part.numNodes);
+			System.arraycopy(part.nodeMobility, 0, merged.nodeMobility, node, part.numNodes);
+			Arrays.fill(merged.nodeSegment, node, node + part.numNodes, s);
+			
+			for (int i = 0; i < part.numNodes; i++)
 			{
-				final int id = nodeToIndex.get(ln);
-				nodeMass[id] = defaultNodeMass;
+				merged.edgeOffsetsSparse[node + i] = part.edgeOffsetsSparse[i] + sparse;
+				merged.edgeCounts[node + i] = part.edgeCounts[i];
+			}
+			for (int e = 0; e < part.numEdgesSparse; e++)
+				merged.edges[sparse + e] = part.edges[e] + node;
+			System.arraycopy(part.edgeCoeffs, 0, merged.edgeCoeffs, sparse, part.numEdgesSparse);
+			System.arraycopy(part.edgeLengths, 0, merged.edgeLengths, sparse, part.numEdgesSparse);
 			
-				LayoutNode[] uniqueNeighbors = nodeNeighbors.get(ln);
-				int[] sortedEdges = new int[uniqueNeighbors.length];
-				for (int i = 0; i < uniqueNeighbors.length; i++)
-					sortedEdges[i] = nodeToIndex.get(uniqueNeighbors[i]);
-				Arrays.sort(sortedEdges);
-				
-				HashMap<Integer, Integer> order = new HashMap<>();
-				for (int i = 0; i < sortedEdges.length; i++)
-					order.put(sortedEdges[i], i);
-				
-				float[] coeffs = new float[sortedEdges.length], lengths = new float[sortedEdges.length], samples = new float[sortedEdges.length];
-				ArrayList<LayoutEdge> unsortedEdges = nodeEdges.get(ln);
-				for (LayoutEdge le: unsortedEdges)
-				{
-					int tgtId = nodeToIndex.get(le.getTarget());
-					if (tgtId == id)
-						tgtId = nodeToIndex.get(le.getSource());
-					
-					int position = order.get(tgtId);
-					coeffs[position] += springCoefficient;
-					lengths[position] += getSpringLength(springLength, le);
-					samples[position]++;
-				}
-				for (int i = 0; i < lengths.length; i++)
-						lengths[i] /= samples[i];
-				
-				edgeOffsetsSparse[id] = eSparse;
-				edgeCounts[id] = sortedEdges.length;
-				
-				for (int i = 0; i < sortedEdges.length; i++)
-				{
-					edges[eSparse + i] = sortedEdges[i];
-					edgeCoeffs[eSparse + i] = coeffs[i];
-					edgeLengths[eSparse + i] = lengths[i];
-					
-					long edgeHash = getEdgeHash(id, sortedEdges[i]);
-					if (!edgesConsidered.contains(edgeHash))
-					{
-						edgesConsidered.add(edgeHash);
-						int sourceId = Math.min(id, sortedEdges[i]);
-						int targetId = Math.max(id, sortedEdges[i]);
-						edgeUniqueSources[eUnique] = sourceId;
-						edgeUniqueTargets[eUnique] = targetId;
-						edgeMassStart[eUnique] = defaultNodeMass;// / nodeEdges.get(sourceNode).size();
-						edgeMassEnd[eUnique] = defaultNodeMass;// / nodeEdges.get(targetNode).size();
-						eUnique++;
-					}
-				}
-				
-				eSparse += nextMultipleOf(sortedEdges.length, padding);
-			}	
-			// Node positions and mass are padded to multiple of 16 for loop unrolling.
-			// Set the padded mass values to 0 so they don't affect calculations.
-			for (int i = nodeList.size(); i < numNodesPadded; i++)
-				nodeMass[i] = 0f;
-			// Same for edge mass
-			for (int i = eUnique; i < numEdgesUniquePadded; i++)
+			for (int e = 0; e < part.numEdgesUnique; e++)
 			{
-				edgeMassStart[i] = 0f;
-				edgeMassEnd[i] = 0f;
+				merged.edgeUniqueSources[unique + e] = part.edgeUniqueSources[e] + node;
+				merged.edgeUniqueTargets[unique + e] = part.edgeUniqueTargets[e] + node;
 			}
+			System.arraycopy(part.edgeMassStart, 0, merged.edgeMassStart, unique, part.numEdgesUnique);
+			System.arraycopy(part.edgeMassEnd, 0, merged.edgeMassEnd, unique, part.numEdgesUnique);
+			
+			node += part.numNodes;
+			sparse += part.numEdgesSparse;
+			unique += part.numEdgesUnique;
 		}
+		merged.segmentNodeStart[merged.numSegments] = node;
+		merged.segmentEdgeStart[merged.numSegments] = unique;
 		
-		numNodes = nodeList.size();
-		
-		nodePosX = new float[numNodesPadded];
-		nodePosY = new float[numNodesPadded];
-		for (LayoutNode node : nodeList)
+		merged.updateMetrics();
+		return merged;
+	}
+	
+	/**
+	 * Copies the node positions of a concatenated network back to its parts.
+	 * @param parts The networks passed to concatenate(), in the same order
+	 */
+	public void split(List<SlimNetwork> parts)
+	{
+		for (int s = 0; s < numSegments; s++)
 		{
-			int nodeIndex = nodeToIndex.get(node);
-			nodePosX[nodeIndex] = (float)node.getX();
-			nodePosY[nodeIndex] = (float)node.getY();
+			SlimNetwork part = parts.get(s);
+			System.arraycopy(nodePosX, segmentNodeStart[s], part.nodePosX, 0, part.numNodes);
+			System.arraycopy(nodePosY, segmentNodeStart[s], part.nodePosY, 0, part.numNodes);
+			part.updateMetrics();
 		}
-		
-		updateMetrics();
 	}
 	
+	/**
+	 * Collapses groups of nodes into single nodes, for multilevel layout. A coarse node
+	 * has the total mass of its group and sits at the group's center of mass. It is pinned
+	 * if any node of the group is. Edges within
+	 * a group disappear, edges between two groups become one spring whose coefficient
+	 * is the sum and whose length is the average of theirs. Coarse nodes are ordered
+	 * by degree like in a network built from a partition.
+	 * @param fineToCoarse Group of every node, in [0, numGroups)
+	 * @param padding Node and unique edge counts are padded to a multiple of this
+	 * @return The coarse network, without nodeToIndex. fineToCoarse is updated to
+	 * index its nodes.
+	 */
+	SlimNetwork coarsen(int[] fineToCoarse, int numGroups, int padding)
+	{
+		final int n = numGroups;
+
+		// Members of every group in CSR form
+		final int[] memberOffsets = new int[n + 1];
+		for (int i = 0; i < numNodes; i++)
+			memberOffsets[fineToCoarse[i] + 1]++;
+		for (int g = 0; g < n; g++)
+			memberOffsets[g + 1] += memberOffsets[g];
+		final int[] members = new int[numNodes];
+		{
+			int[] fill = Arrays.copyOf(memberOffsets, n);
+			for (int i = 0; i < numNodes; i++)
+				members[fill[fineToCoarse[i]]++] = i;
+		}
+
+		// Springs between groups, sorted by neighbor group and merged
+		final int[][] groupNeighbors = new int[n][];
+		final float[][] groupCoeffs = new float[n][];
+		final float[][] groupLengths = new float[n][];
+		range(n).forEach(g ->
+		{
+			int count = 0;
+			for (int j = memberOffsets[g]; j < memberOffsets[g + 1]; j++)
+				count += edgeCounts[members[j]];
+			long[] keys = new long[count];
+			count = 0;
+			for (int j = memberOffsets[g]; j < memberOffsets[g + 1]; j++)
+			{
+				int i = members[j];
+				for (int e = edgeOffsetsSparse[i]; e < edgeOffsetsSparse[i] + edgeCounts[i]; e++)
+					if (fineToCoarse[edges[e]] != g)
+						keys[count++] = (long)fineToCoarse[edges[e]] << 32 | e;
+			}
+			Arrays.sort(keys, 0, count);
+
+			int[] neighbors = new int[count];
+			float[] coeffs = new float[count];
+			float[] lengths = new float[count];
+			int unique = 0, samples = 0;
+			for (int k = 0; k < count; k++)
+			{
+				int neighbor = (int)(keys[k] >>> 32), e = (int)keys[k];
+				if (unique == 0 || neighbors[unique - 1] != neighbor)
+				{
+					if (unique > 0)
+						lengths[unique - 1] /= (float)samples;
+					neighbors[unique++] = neighbor;
+					samples = 0;
+				}
+				coeffs[unique - 1] += edgeCoeffs[e];
+				lengths[unique - 1] += edgeLengths[e];
+				samples++;
+			}
+			if (unique > 0)
+				lengths[unique - 1] /= (float)samples;
+
+			groupNeighbors[g] = Arrays.copyOf(neighbors, unique);
+			groupCoeffs[g] = coeffs;
+			groupLengths[g] = lengths;
+		});
+
+		// Stable counting sort by degree gives the coarse node order
+		int maxDegree = 0;
+		for (int g = 0; g < n; g++)
+			maxDegree = Math.max(maxDegree, groupNeighbors[g].length);
+		final int[] degreeStart = new int[maxDegree + 2];
+		for (int g = 0; g < n; g++)
+			degreeStart[groupNeighbors[g].length + 1]++;
+		for (int d = 0; d <= maxDegree; d++)
+			degreeStart[d + 1] += degreeStart[d];
+		final int[] order = new int[n];		// coarse index -> group
+		final int[] rank = new int[n];		// group -> coarse index
+		for (int g = 0; g < n; g++)
+		{
+			int id = degreeStart[groupNeighbors[g].length]++;
+			order[id] = g;
+			rank[g] = id;
+		}
+		for (int i = 0; i < numNodes; i++)
+			fineToCoarse[i] = rank[fineToCoarse[i]];
+
+		SlimNetwork coarse = new SlimNetwork();
+		coarse.numNodes = n;
+		coarse.numNodesPadded = nextMultipleOf(n, padding);
+		coarse.nodeMass = new float[coarse.numNodesPadded];
+		coarse.nodeMobility = new float[coarse.numNodesPadded];
+		coarse.nodePosX = new float[coarse.numNodesPadded];
+		coarse.nodePosY = new float[coarse.numNodesPadded];
+		coarse.edgeOffsetsSparse = new int[n];
+		coarse.edgeCounts = new int[n];
+
+		for (int id = 0; id < n; id++)
+		{
+			int g = order[id], degree = groupNeighbors[g].length;
+			coarse.edgeOffsetsSparse[id] = coarse.numEdgesSparse;
+			coarse.edgeCounts[id] = degree;
+			coarse.numEdgesSparse += degree;
+
+			float mass = 0f, x = 0f, y = 0f, mobility = 1f;
+			for (int j = memberOffsets[g]; j < memberOffsets[g + 1]; j++)
+			{
+				int i = members[j];
+				mobility = Math.min(mobility, nodeMobility[i]);
+				mass += nodeMass[i];
+				x += nodeMass[i] * nodePosX[i];
+				y += nodeMass[i] * nodePosY[i];
+			}
+			coarse.nodeMass[id] = mass;
+			coarse.nodeMobility[id] = mobility;
+			coarse.nodePosX[id] = x / mass;
+			coarse.nodePosY[id] = y / mass;
+		}
+		coarse.edges = new int[coarse.numEdgesSparse];
+		coarse.edgeCoeffs = new float[coarse.numEdgesSparse];
+		coarse.edgeLengths = new float[coarse.numEdgesSparse];
+		range(n).forEach(id ->
+		{
+			int g = order[id], first = coarse.edgeOffsetsSparse[id], count = coarse.edgeCounts[id];
+
+			// Neighbors were sorted by group, sort them again by their new index
+			long[] keys = new long[count];
+			for (int i = 0; i < count; i++)
+				keys[i] = (long)rank[groupNeighbors[g][i]] << 32 | i;
+			Arrays.sort(keys);
+			for (int i = 0; i < count; i++)
+			{
+				int k = (int)keys[i];
+				coarse.edges[first + i] = (int)(keys[i] >>> 32);
+				coarse.edgeCoeffs[first + i] = groupCoeffs[g][k];
+				coarse.edgeLengths[first + i] = groupLengths[g][k];
+			}
+		});
+
+		// Every undirected edge once, like in a network built from a partition
+		for (int id = 0; id < n; id++)
+			for (int i = coarse.edgeOffsetsSparse[id]; i < coarse.edgeOffsetsSparse[id] + coarse.edgeCounts[id]; i++)
+				if (coarse.isFirstVisit(id, coarse.edges[i]))
+					coarse.numEdgesUnique++;
+		coarse.numEdgesUniquePadded = nextMultipleOf(coarse.numEdgesUnique, padding);
+		coarse.edgeUniqueSources = new int[coarse.numEdgesUniquePadded];
+		coarse.edgeUniqueTargets = new int[coarse.numEdgesUniquePadded];
+		coarse.edgeMassStart = new float[coarse.numEdgesUniquePadded];
+		coarse.edgeMassEnd = new float[coarse.numEdgesUniquePadded];
+		int eUnique = 0;
+		for (int id = 0; id < n; id++)
+			for (int i = coarse.edgeOffsetsSparse[id]; i < coarse.edgeOffsetsSparse[id] + coarse.edgeCounts[id]; i++)
+				if (coarse.isFirstVisit(id, coarse.edges[i]))
+				{
+					int source = Math.min(id, coarse.edges[i]), target = Math.max(id, coarse.edges[i]);
+					coarse.edgeUniqueSources[eUnique] = source;
+					coarse.edgeUniqueTargets[eUnique] = target;
+					coarse.edgeMassStart[eUnique] = coarse.nodeMass[source];
+					coarse.edgeMassEnd[eUnique] = coarse.nodeMass[target];
+					eUnique++;
+				}
+
+		coarse.updateMetrics();
+		return coarse;
+	}
+
+	/**
+	 * The subnetwork induced by the given nodes, with all edges among them.
+	 * @param subset Indices of the nodes to keep, ascending
+	 * @param padding Node and unique edge counts are padded to a multiple of this
+	 * @return The subnetwork, without nodeToIndex. Node i of it is node subset[i] of this network.
+	 */
+	SlimNetwork induce(int[] subset, int padding)
+	{
+		final int n = subset.length;
+		final int[] subIndex = new int[numNodes];
+		Arrays.fill(subIndex, -1);
+		for (int i = 0; i < n; i++)
+			subIndex[subset[i]] = i;
+
+		SlimNetwork sub = new SlimNetwork();
+		sub.numNodes = n;
+		sub.numNodesPadded = nextMultipleOf(n, padding);
+		sub.nodePosX = new float[sub.numNodesPadded];
+		sub.nodePosY = new float[sub.numNodesPadded];
+		sub.nodeMass = new float[sub.numNodesPadded];
+		sub.nodeMobility = new float[sub.numNodesPadded];
+		sub.edgeOffsetsSparse = new int[n];
+		sub.edgeCounts = new int[n];
+
+		for (int i = 0; i < n; i++)
+		{
+			int id = subset[i];
+			sub.nodePosX[i] = nodePosX[id];
+			sub.nodePosY[i] = nodePosY[id];
+			sub.nodeMass[i] = nodeMass[id];
+			sub.nodeMobility[i] = nodeMobility[id];
+
+			int degree = 0;
+			for (int e = edgeOffsetsSparse[id]; e < edgeOffsetsSparse[id] + edgeCounts[id]; e++)
+				if (subIndex[edges[e]] >= 0)
+					degree++;
+			sub.edgeOffsetsSparse[i] = sub.numEdgesSparse;
+			sub.edgeCounts[i] = degree;
+			sub.numEdgesSparse += degree;
+		}
+
+		// The subset is ascending, so neighbors stay sorted
+		sub.edges = new int[sub.numEdgesSparse];
+		sub.edgeCoeffs = new float[sub.numEdgesSparse];
+		sub.edgeLengths = new float[sub.numEdgesSparse];
+		for (int i = 0; i < n; i++)
+		{
+			int id = subset[i], next = sub.edgeOffsetsSparse[i];
+			for (int e = edgeOffsetsSparse[id]; e < edgeOffsetsSparse[id] + edgeCounts[id]; e++)
+				if (subIndex[edges[e]] >= 0)
+				{
+					sub.edges[next] = subIndex[edges[e]];
+					sub.edgeCoeffs[next] = edgeCoeffs[e];
+					sub.edgeLengths[next] = edgeLengths[e];
+					next++;
+				}
+		}
+
+		for (int i = 0; i < n; i++)
+			for (int e = sub.edgeOffsetsSparse[i]; e < sub.edgeOffsetsSparse[i] + sub.edgeCounts[i]; e++)
+				if (sub.isFirstVisit(i, sub.edges[e]))
+					sub.numEdgesUnique++;
+		sub.numEdgesUniquePadded = nextMultipleOf(sub.numEdgesUnique, padding);
+		sub.edgeUniqueSources = new int[sub.numEdgesUniquePadded];
+		sub.edgeUniqueTargets = new int[sub.numEdgesUniquePadded];
+		sub.edgeMassStart = new float[sub.numEdgesUniquePadded];
+		sub.edgeMassEnd = new float[sub.numEdgesUniquePadded];
+		int eUnique = 0;
+		for (int i = 0; i < n; i++)
+			for (int e = sub.edgeOffsetsSparse[i]; e < sub.edgeOffsetsSparse[i] + sub.edgeCounts[i]; e++)
+				if (sub.isFirstVisit(i, sub.edges[e]))
+				{
+					int source = Math.min(i, sub.edges[e]), target = Math.max(i, sub.edges[e]);
+					sub.edgeUniqueSources[eUnique] = source;
+					sub.edgeUniqueTargets[eUnique] = target;
+					sub.edgeMassStart[eUnique] = sub.nodeMass[source];
+					sub.edgeMassEnd[eUnique] = sub.nodeMass[target];
+					eUnique++;
+				}
+
+		sub.updateMetrics();
+		return sub;
+	}
+
 	public void updateMetrics()
 	{
 		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = Float.MIN_VALUE, maxY = Float.MIN_VALUE;
@@ -244,36 +579,9 @@ public class SlimNetwork
 		massCenterY += y;
 	}
 
-
-	/**
-	 * Get the spring length for the given edge. Subclasses should
-	 * override this method to perform custom spring length assignment.
-	 * @param e the edge for which to compute the spring length
-	 * @return the spring length for the edge. A return value of
-	 * -1 means to ignore this method and use the global default.
-	*/
-	static float getSpringLength(float defaultLength, LayoutEdge e) 
-	{
-		float weight = (float)e.getWeight();
-		return defaultLength / weight;
-	}
-	
-	/**
-	 * Calculates the hash assuming the edge is undirected.
-	 * @param node1 First of the two nodes defining this edge.
-	 * @param node2 Second of the two nodes defining this edge.
-	 * @return
-	 */
-	static long getEdgeHash(int node1, int node2)
-	{
-		if (node1 <= node2)
-			return ((long)node1 << 32) + (long)node2;
-		else
-			return ((long)node2 << 32) + (long)node1;
-	}
 	
-	private int nextMultipleOf(int n, int multipleOf)
+	private static int nextMultipleOf(int n, int multipleOf)
 	{
-		return (n + multipleOf - 1) / multipleOf * multipleOf;
+		return SlimTopology.nextMultipleOf(n, multipleOf);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,289 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The part of a {@link SlimNetwork} that only depends on which nodes and edges a graph
+ * has: node order, adjacency in CSR form and the list of unique edges, plus where every
+ * edge's spring ends up. Positions, masses, weights and spring parameters are not included,
+ * so one topology serves every layout of the same graph. It is never modified after
+ * it was built, and networks built from it share its arrays.
+ */
+class SlimTopology
+{
+	final int numNodes;
+	final int numNodesPadded;
+	final int numEdgesSparse;
+	final int numEdgesUnique;
+	final int numEdgesUniquePadded;
+	final int padding;
+
+	// Final index -> node of the graph
+	final int[] order;
+
+	final int[] edgeOffsetsSparse;
+	final int[] edgeCounts;
+	final int[] edges;
+
+	final int[] edgeUniqueSources;
+	final int[] edgeUniqueTargets;
+
+	// For every edge of the graph, its spring slot in edges at the source
+	// and at the target, or -1 for self-loops
+	final int[] edgeSlots;
+	// Number of edges sharing each spring slot
+	final int[] slotSamples;
+
+	// Ids of all nodes, and of the source and target of all edges, in graph order
+	private final long[] nodeIds;
+	private final long[] edgeEndpoints;
+
+	// Loops over fewer nodes or edges than this run sequentially
+	private static final int minParallelCount = 4096;
+
+	/**
+	 * @param graph Graph whose nodes and edges are in their final (possibly sorted) order
+	 * @param padding Node and unique edge counts are padded to a multiple of this
+	 */
+	SlimTopology(LayoutGraph graph, int padding)
+	{
+		this.padding = padding;
+
+		final int n = graph.getNodeCount();
+		final int m = graph.getEdgeCount();
+		final int[] inputSource = new int[m], inputTarget = new int[m];
+		range(m).forEach(e ->
+		{
+			inputSource[e] = graph.getEdgeSource(e);
+			inputTarget[e] = graph.getEdgeTarget(e);
+		});
+
+		// Unique neighbors of every node in CSR form, by input index
+		final int[] neighborOffsets = new int[n + 1];
+		for (int e = 0; e < m; e++)
+			if (inputSource[e] != inputTarget[e])
+			{
+				neighborOffsets[inputSource[e] + 1]++;
+				neighborOffsets[inputTarget[e] + 1]++;
+			}
+		for (int i = 0; i < n; i++)
+			neighborOffsets[i + 1] += neighborOffsets[i];
+		final int[] neighbors = new int[neighborOffsets[n]];
+		{
+			int[] fill = Arrays.copyOf(neighborOffsets, n);
+			for (int e = 0; e < m; e++)
+				if (inputSource[e] != inputTarget[e])
+				{
+					neighbors[fill[inputSource[e]]++] = inputTarget[e];
+					neighbors[fill[inputTarget[e]]++] = inputSource[e];
+				}
+		}
+		final int[] degrees = new int[n];
+		range(n).forEach(i ->
+		{
+			int first = neighborOffsets[i], last = neighborOffsets[i + 1];
+
+			// Remove duplicates
+			Arrays.sort(neighbors, first, last);
+			int unique = first;
+			for (int j = first; j < last; j++)
+				if (unique == first || neighbors[unique - 1] != neighbors[j])
+					neighbors[unique++] = neighbors[j];
+			degrees[i] = unique - first;
+		});
+
+		// Stable counting sort by degree gives the final node order
+		int maxDegree = 0;
+		for (int i = 0; i < n; i++)
+			maxDegree = Math.max(maxDegree, degrees[i]);
+		final int[] degreeStart = new int[maxDegree + 2];
+		for (int i = 0; i < n; i++)
+			degreeStart[degrees[i] + 1]++;
+		for (int d = 0; d <= maxDegree; d++)
+			degreeStart[d + 1] += degreeStart[d];
+		order = new int[n];
+		final int[] rank = new int[n];		// input index -> final index
+		for (int i = 0; i < n; i++)
+		{
+			int id = degreeStart[degrees[i]]++;
+			order[id] = i;
+			rank[i] = id;
+		}
+
+		numNodes = n;
+		numNodesPadded = nextMultipleOf(n, padding);	// Needed for loop unrolling
+
+		// Neighbor lists are packed back to back, every slot holds one neighbor
+		edgeOffsetsSparse = new int[n];
+		edgeCounts = new int[n];
+		int slots = 0;
+		for (int id = 0; id < n; id++)
+		{
+			int degree = degrees[order[id]];
+			edgeOffsetsSparse[id] = slots;
+			edgeCounts[id] = degree;
+			slots += degree;
+		}
+		numEdgesSparse = slots;
+		numEdgesUnique = slots / 2;
+		numEdgesUniquePadded = nextMultipleOf(numEdgesUnique, padding);
+
+		// Incident edges of every node in CSR form, in edge order, without self-loops
+		final int[] edgeSource = new int[m], edgeTarget = new int[m];
+		range(m).forEach(e ->
+		{
+			edgeSource[e] = rank[inputSource[e]];
+			edgeTarget[e] = rank[inputTarget[e]];
+		});
+		final int[] incidentOffsets = new int[n + 1];
+		for (int e = 0; e < m; e++)
+			if (edgeSource[e] != edgeTarget[e])
+			{
+				incidentOffsets[edgeSource[e] + 1]++;
+				incidentOffsets[edgeTarget[e] + 1]++;
+			}
+		for (int id = 0; id < n; id++)
+			incidentOffsets[id + 1] += incidentOffsets[id];
+		final int[] incident = new int[incidentOffsets[n]];
+		{
+			int[] fill = Arrays.copyOf(incidentOffsets, n);
+			for (int e = 0; e < m; e++)
+				if (edgeSource[e] != edgeTarget[e])
+				{
+					incident[fill[edgeSource[e]]++] = e;
+					incident[fill[edgeTarget[e]]++] = e;
+				}
+		}
+
+		// Neighbors by final index, and the slot of every edge's spring at both of its ends.
+		// Multiple edges between the same nodes share one slot.
+		edges = new int[numEdgesSparse];
+		edgeSlots = new int[m * 2];
+		Arrays.fill(edgeSlots, -1);
+		slotSamples = new int[numEdgesSparse];
+		range(n).forEach(id ->
+		{
+			final int first = edgeOffsetsSparse[id], count = edgeCounts[id];
+			final int inputFirst = neighborOffsets[order[id]];
+			for (int i = 0; i < count; i++)
+				edges[first + i] = rank[neighbors[inputFirst + i]];
+			Arrays.sort(edges, first, first + count);
+
+			for (int j = incidentOffsets[id]; j < incidentOffsets[id + 1]; j++)
+			{
+				int e = incident[j];
+				boolean isSource = edgeSource[e] == id;
+				int slot = Arrays.binarySearch(edges, first, first + count, isSource ? edgeTarget[e] : edgeSource[e]);
+				edgeSlots[e * 2 + (isSource ? 0 : 1)] = slot;
+				slotSamples[slot]++;
+			}
+		});
+
+		// For repulsive edges. Every undirected edge is listed once, when its first endpoint
+		// in node order is visited, which is usually the one with the lower index.
+		final int[] uniqueOffsets = new int[n + 1];
+		range(n).forEach(id ->
+		{
+			int count = 0;
+			for (int i = edgeOffsetsSparse[id]; i < edgeOffsetsSparse[id] + edgeCounts[id]; i++)
+				if (isFirstVisit(edges, edgeOffsetsSparse, edgeCounts, id, edges[i]))
+					count++;
+			uniqueOffsets[id + 1] = count;
+		});
+		for (int id = 0; id < n; id++)
+			uniqueOffsets[id + 1] += uniqueOffsets[id];
+
+		edgeUniqueSources = new int[numEdgesUniquePadded];
+		edgeUniqueTargets = new int[numEdgesUniquePadded];
+		range(n).forEach(id ->
+		{
+			int eUnique = uniqueOffsets[id];
+			for (int i = edgeOffsetsSparse[id]; i < edgeOffsetsSparse[id] + edgeCounts[id]; i++)
+				if (isFirstVisit(edges, edgeOffsetsSparse, edgeCounts, id, edges[i]))
+				{
+					edgeUniqueSources[eUnique] = Math.min(id, edges[i]);
+					edgeUniqueTargets[eUnique] = Math.max(id, edges[i]);
+					eUnique++;
+				}
+		});
+
+		nodeIds = new long[n];
+		range(n).forEach(i -> nodeIds[i] = graph.getNodeId(i));
+		edgeEndpoints = new long[m * 2];
+		range(m).forEach(e ->
+		{
+			edgeEndpoints[e * 2] = nodeIds[inputSource[e]];
+			edgeEndpoints[e * 2 + 1] = nodeIds[inputTarget[e]];
+		});
+	}
+
+	/**
+	 * Whether the graph has exactly the nodes and edges this topology was built from,
+	 * in the same order.
+	 */
+	boolean matches(LayoutGraph graph, int padding)
+	{
+		int n = graph.getNodeCount(), m = graph.getEdgeCount();
+		if (padding != this.padding || n != nodeIds.length || m * 2 != edgeEndpoints.length)
+			return false;
+
+		for (int i = 0; i < n; i++)
+			if (graph.getNodeId(i) != nodeIds[i])
+				return false;
+		for (int e = 0; e < m; e++)
+			if (nodeIds[graph.getEdgeSource(e)] != edgeEndpoints[e * 2] || nodeIds[graph.getEdgeTarget(e)] != edgeEndpoints[e * 2 + 1])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Hash of the graph's node ids in order, the same for every graph
+	 * that {@link #matches} this topology.
+	 */
+	static long hashNodes(LayoutGraph graph)
+	{
+		int n = graph.getNodeCount();
+		long hash = n;
+		for (int i = 0; i < n; i++)
+			hash = hash * 31 + graph.getNodeId(i);
+		return hash;
+	}
+
+	/**
+	 * Approximate host memory held by this topology, in bytes.
+	 */
+	long getBytes()
+	{
+		return 4L * (order.length + edgeOffsetsSparse.length + edgeCounts.length + edges.length +
+					 edgeUniqueSources.length + edgeUniqueTargets.length + edgeSlots.length + slotSamples.length) +
+			   8L * (nodeIds.length + edgeEndpoints.length);
+	}
+
+	/**
+	 * Whether the edge between node and neighbor is seen for the first time
+	 * when walking the nodes in index order. That is when the neighbor comes
+	 * later, or doesn't list node as its own neighbor.
+	 */
+	static boolean isFirstVisit(int[] edges, int[] edgeOffsets, int[] edgeCounts, int node, int neighbor)
+	{
+		if (neighbor > node)
+			return true;
+		int first = edgeOffsets[neighbor];
+		return Arrays.binarySearch(edges, first, first + edgeCounts[neighbor], node) < 0;
+	}
+
+	/**
+	 * Parallel for large networks, sequential for small ones where forking doesn't pay off.
+	 */
+	static IntStream range(int n)
+	{
+		IntStream stream = IntStream.range(0, n);
+		return n >= minParallelCount ? stream.parallel() : stream;
+	}
+
+	static int nextMultipleOf(int n, int multipleOf)
+	{
+		return (n + multipleOf - 1) / multipleOf * multipleOf;
+	}
+}
@@ -0,0 +1,136 @@
+package org.cytoscape.opencl.layout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the {@link LayoutTimings} of all partitions of one layout run,
+ * and summarizes them for the log and the task monitor or writes them as JSON.
+ */
+class TimingReport
+{
+	// Number of kernels and host steps named in the summary
+	private static final int summaryOperations = 5;
+
+	private final List<LayoutTimings> partitions = new ArrayList<>();
+
+	synchronized void add(LayoutTimings timings)
+	{
+		partitions.add(timings);
+	}
+
+	synchronized boolean isEmpty()
+	{
+		return partitions.isEmpty();
+	}
+
+	/**
+	 * Times of all partitions added up.
+	 */
+	synchronized LayoutTimings getTotal()
+	{
+		LayoutTimings total = new LayoutTimings("all", "all");
+		for (LayoutTimings timings : partitions)
+			total.addAll(timings);
+		return total;
+	}
+
+	/**
+	 * One line with the time per phase and the most expensive kernels and host steps.
+	 * Partitions are summed, so with several devices the total exceeds the elapsed time.
+	 */
+	synchronized String summary()
+	{
+		LayoutTimings total = getTotal();
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("Layout of %d partitions took %.1f ms:", partitions.size(), total.getTotalNanos() * 1e-6));
+		LayoutTimings.appendTimes(result, total.getPhases());
+
+		List<Map.Entry<String, long[]>> operations = new ArrayList<>(total.getOperations().entrySet());
+		operations.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+		if (!operations.isEmpty())
+		{
+			result.append("; most time in");
+			for (Map.Entry<String, long[]> e : operations.subList(0, Math.min(summaryOperations, operations.size())))
+				result.append(String.format(" %s %.1f ms,", e.getKey(), e.getValue()[0] * 1e-6));
+			result.setLength(result.length() - 1);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Writes the totals and all partitions with their phases and simulation operations,
+	 * each as { "ms": ..., "calls": ... }.
+	 */
+	void writeJson(File file) throws IOException
+	{
+		try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))
+		{
+			StringBuilder json = new StringBuilder();
+			json.append("{\n  \"total\": ");
+			appendJson(json, getTotal(), "  ");
+			json.append(",\n  \"partitions\": [");
+			synchronized (this)
+			{
+				for (int i = 0; i < partitions.size(); i++)
+				{
+					json.append(i == 0 ? "\n    " : ",\n    ");
+					appendJson(json, partitions.get(i), "    ");
+				}
+			}
+			json.append("\n  ]\n}\n");
+			out.write(json.toString());
+		}
+	}
+
+	private static void appendJson(StringBuilder json, LayoutTimings timings, String indent)
+	{
+		json.append("{\n");
+		json.append(indent).append("  \"partition\": ").append(quote(timings.label)).append(",\n");
+		json.append(indent).append("  \"engine\": ").append(quote(timings.engine)).append(",\n");
+		json.append(indent).append("  \"nodes\": ").append(timings.numNodes).append(",\n");
+		json.append(indent).append("  \"edges\": ").append(timings.numEdges).append(",\n");
+		json.append(indent).append(String.format(Locale.ROOT, "  \"ms\": %.3f,\n", timings.getTotalNanos() * 1e-6));
+		json.append(indent).append("  \"phases\": ");
+		appendJson(json, timings.getPhases());
+		json.append(",\n");
+		json.append(indent).append("  \"operations\": ");
+		appendJson(json, timings.getOperations());
+		json.append("\n").append(indent).append("}");
+	}
+
+	private static void appendJson(StringBuilder json, Map<String, long[]> times)
+	{
+		json.append("{");
+		String separator = " ";
+		for (Map.Entry<String, long[]> e : times.entrySet())
+		{
+			json.append(separator).append(quote(e.getKey()));
+			json.append(String.format(Locale.ROOT, ": { \"ms\": %.3f, \"calls\": %d }", e.getValue()[0] * 1e-6, e.getValue()[1]));
+			separator = ", ";
+		}
+		json.append(" }");
+	}
+
+	private static String quote(String s)
+	{
+		StringBuilder result = new StringBuilder("\"");
+		for (char c : s.toCharArray())
+		{
+			if (c == '"' || c == '\\')
+				result.append('\\').append(c);
+			else if (c < 0x20)
+				result.append(String.format("\\u%04x", (int)c));
+			else
+				result.append(c);
+		}
+		return result.append('"').toString();
+	}
+}
@@ -0,0 +1,245 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cytoscape.cycl.CyCLBuffer;
+
+/**
+ * Keeps the {@link SlimTopology} of recently laid out partitions, so that running the layout
+ * again on an unchanged network, e.g. with other parameters, doesn't rebuild the adjacency.
+ * Entries are keyed by network and node set, and only used if the partition's edges are
+ * still exactly the ones the topology was built from. A changed network thus gets a new
+ * entry, and the outdated one is evicted like any other.
+ *
+ * The integer topology buffers (adjacency and unique edges) can also stay resident on
+ * devices, leased from the device's {@link BufferPool} until their entry is evicted.
+ * Entries are evicted in least-recently-used order once host and device memory together
+ * exceed the memory cap, except while a device is using their buffers.
+ */
+public class TopologyCache
+{
+	// Buffers per device: edges, edge offsets, edge counts, unique edge sources and targets
+	private static final int numDeviceBuffers = 5;
+
+	// In access order, least recently used first
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final IdentityHashMap<SlimTopology, Entry> byTopology = new IdentityHashMap<>();
+
+	private long memoryCap;
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param memoryCap Maximum number of host and device bytes held by cached topologies
+	 */
+	public TopologyCache(long memoryCap)
+	{
+		this.memoryCap = memoryCap;
+	}
+
+	/**
+	 * Returns the cached topology of the graph, or builds it and adds it to the cache.
+	 * @param networkSuid SUID of the network the graph belongs to
+	 * @param graph Graph whose nodes and edges are in their final (possibly sorted) order
+	 * @param padding See {@link SlimTopology#SlimTopology}
+	 */
+	SlimTopology get(long networkSuid, LayoutGraph graph, int padding)
+	{
+		Key key = new Key(networkSuid, SlimTopology.hashNodes(graph));
+		Entry entry;
+		boolean enabled;
+		synchronized (this)
+		{
+			enabled = memoryCap > 0;
+			entry = entries.get(key);
+		}
+		if (!enabled)
+			return new SlimTopology(graph, padding);
+
+		// Compared outside the lock, cached topologies are never modified
+		if (entry != null && entry.topology.matches(graph, padding))
+		{
+			synchronized (this)
+			{
+				hits++;
+			}
+			return entry.topology;
+		}
+
+		SlimTopology topology = new SlimTopology(graph, padding);
+		synchronized (this)
+		{
+			misses++;
+			Entry outdated = entries.get(key);
+			if (outdated != null && outdated.users == 0)
+				remove(outdated);
+
+			if (!entries.containsKey(key))
+			{
+				entry = new Entry(key, topology);
+				entries.put(key, entry);
+				byTopology.put(topology, entry);
+				bytes += entry.bytes;
+				evict();
+			}
+		}
+		return topology;
+	}
+
+	/**
+	 * Returns the topology's buffers on the pool's device, uploading them if they
+	 * aren't resident yet. They stay valid until {@link #releaseDeviceBuffers}.
+	 * @return Edges, edge offsets, edge counts, unique edge sources and targets,
+	 * or null if the topology isn't cached
+	 */
+	synchronized CyCLBuffer[] acquireDeviceBuffers(SlimTopology topology, BufferPool pool)
+	{
+		Entry entry = byTopology.get(topology);
+		if (entry == null)
+			return null;
+
+		entries.get(entry.key);		// Mark as recently used
+		CyCLBuffer[] buffers = entry.deviceBuffers.get(pool);
+		if (buffers == null)
+		{
+			int[][] data = { topology.edges, topology.edgeOffsetsSparse, topology.edgeCounts,
+							 topology.edgeUniqueSources, topology.edgeUniqueTargets };
+			buffers = new CyCLBuffer[numDeviceBuffers];
+			long deviceBytes = 0;
+			for (int i = 0; i < numDeviceBuffers; i++)
+			{
+				buffers[i] = pool.lease(int.class, data[i].length);
+				BufferPool.upload(buffers[i], data[i]);
+				deviceBytes += 4L * BufferPool.sizeClass(data[i].length);
+			}
+			entry.deviceBuffers.put(pool, buffers);
+			entry.bytes += deviceBytes;
+			bytes += deviceBytes;
+		}
+		entry.users++;
+		evict();
+		return buffers;
+	}
+
+	/**
+	 * Lets the buffers returned by {@link #acquireDeviceBuffers} be evicted again.
+	 */
+	synchronized void releaseDeviceBuffers(SlimTopology topology)
+	{
+		Entry entry = byTopology.get(topology);
+		if (entry == null)
+			return;
+
+		entry.users--;
+		evict();
+	}
+
+	/**
+	 * Changes the memory cap, evicting entries if needed. 0 disables the cache.
+	 */
+	public synchronized void setMemoryCap(long memoryCap)
+	{
+		this.memoryCap = memoryCap;
+		evict();
+	}
+
+	private void evict()
+	{
+		Iterator<Entry> oldest = entries.values().iterator();
+		while (bytes > memoryCap && oldest.hasNext())
+		{
+			Entry entry = oldest.next();
+			if (entry.users > 0)
+				continue;
+
+			oldest.remove();
+			release(entry);
+			evictions++;
+		}
+	}
+
+	private void remove(Entry entry)
+	{
+		entries.remove(entry.key);
+		release(entry);
+	}
+
+	private void release(Entry entry)
+	{
+		byTopology.remove(entry.topology);
+		for (Map.Entry<BufferPool, CyCLBuffer[]> device : entry.deviceBuffers.entrySet())
+			for (CyCLBuffer buffer : device.getValue())
+				device.getKey().release(buffer);
+		bytes -= entry.bytes;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		long total = hits + misses;
+		return String.format("Topology cache: %d hits, %d misses (%.1f%% reused), %d evictions, %d entries, %d kB",
+							 hits, misses, total > 0 ? 100.0 * hits / total : 0.0, evictions, entries.size(), bytes / 1024);
+	}
+
+	private static class Entry
+	{
+		final Key key;
+		final SlimTopology topology;
+		final Map<BufferPool, CyCLBuffer[]> deviceBuffers = new HashMap<>();
+		// Host and device bytes
+		long bytes;
+		// Layouts currently using the device buffers
+		int users;
+
+		Entry(Key key, SlimTopology topology)
+		{
+			this.key = key;
+			this.topology = topology;
+			bytes = topology.getBytes();
+		}
+	}
+
+	private static class Key
+	{
+		final long networkSuid;
+		final long nodeHash;
+
+		Key(long networkSuid, long nodeHash)
+		{
+			this.networkSuid = networkSuid;
+			this.nodeHash = nodeHash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key)o;
+			return networkSuid == other.networkSuid && nodeHash == other.nodeHash;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode(networkSuid) * 31 + Long.hashCode(nodeHash);
+		}
+	}
+}
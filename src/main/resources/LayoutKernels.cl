@@ -8,6 +8,42 @@ __kernel void Init(__global float2* nodeVelocity,
     nodeVelocity[id] = (float2)(0.0f, 0.0f);
 }
 
+// Reduces node velocities to the total kinetic energy and maximum squared speed
+// of each work group, so only a few values are read back to check convergence.
+// Work group size must be a power of two.
+__kernel void ReduceMotion(__local float2* s_motion,
+                           __global float2* nodeVelocity, __global float* nodeMass,
+                           __global float2* groupMotion,
+                           int n)
+{
+    int lid = get_local_id(0);
+
+    // Each work item first accumulates a strided range of nodes
+    float2 motion = (float2)(0.0f, 0.0f);
+    for (int id = get_global_id(0); id < n; id += get_global_size(0))
+    {
+        float2 v = nodeVelocity[id];
+        float v2 = dot(v, v);
+        motion.x += 0.5f * nodeMass[id] * v2;
+        motion.y = max(motion.y, v2);
+    }
+    s_motion[lid] = motion;
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    for (int stride = get_local_size(0) / 2; stride > 0; stride >>= 1)
+    {
+        if (lid < stride)
+        {
+            float2 other = s_motion[lid + stride];
+            s_motion[lid] = (float2)(s_motion[lid].x + other.x, max(s_motion[lid].y, other.y));
+        }
+        barrier(CLK_LOCAL_MEM_FENCE);
+    }
+
+    if (lid == 0)
+        groupMotion[get_group_id(0)] = s_motion[0];
+}
+
 // Calculates the gravity force between two nodes.
 // Gravity constant is premultiplied in mass1.
 #ifdef CYCL_GPU
@@ -43,13 +79,15 @@ static float16 calcGravity(float2 pos1, float8 pos2x, float8 pos2y, float8 mass2
 #define POS(i) (float2)(s_posX[i], s_posY[i])
 #define MASS(i) s_mass[i]
 
-__kernel void CalcForcesGravity(__local float* s_posX, __local float* s_posY, __local float* s_mass,
-                                __global float* nodePosX, __global float* nodePosY,
-                                __global float* nodeMass,
-                                __global float2* nodeForce,
-                                unsigned int n, unsigned int npadded)
+// Sums up the gravity acting on node id1 from all other nodes, preloading
+// tiles of nodes into local memory. Must be called by all work items of
+// the group, including those beyond n.
+static float2 calcGravityTiled(__local float* s_posX, __local float* s_posY, __local float* s_mass,
+                               __global float* nodePosX, __global float* nodePosY,
+                               __global float* nodeMass,
+                               unsigned int id1,
+                               unsigned int n, unsigned int npadded)
 {
-    unsigned int id1 = get_global_id(0);
     unsigned int localId = get_local_id(0);
     unsigned int groupSize = get_local_size(0);
 
@@ -132,6 +170,18 @@ __kernel void CalcForcesGravity(__local float* s_posX, __local float* s_posY, __
         // operation overwrites a value another thread might still need.
     }
 
+    return force;
+}
+
+__kernel void CalcForcesGravity(__local float* s_posX, __local float* s_posY, __local float* s_mass,
+                                __global float* nodePosX, __global float* nodePosY,
+                                __global float* nodeMass,
+                                __global float2* nodeForce,
+                                unsigned int n, unsigned int npadded)
+{
+    unsigned int id1 = get_global_id(0);
+    float2 force = calcGravityTiled(s_posX, s_posY, s_mass, nodePosX, nodePosY, nodeMass, id1, n, npadded);
+
     if (id1 < n)
         nodeForce[id1] = force;
 }
@@ -178,6 +228,75 @@ __kernel void CalcForcesGravity(__global float8* nodePosX, __global float8* node
 }
 #endif
 
+// Same as the GPU calcGravity, but available to both device types.
+static float2 calcGravityCell(float2 pos1, float2 pos2, float mass1, float mass2, float2 force)
+{
+    float2 diff = (float2)(pos1.x - pos2.x, pos1.y - pos2.y);
+
+    float dist = rsqrt(diff.x * diff.x + diff.y * diff.y + 1e-6f);
+    dist = dist * dist * dist;
+
+    float v = mass1 * mass2 * dist;
+
+    return (float2)(fma(diff.x, v, force.x), fma(diff.y, v, force.y));
+}
+
+// Approximates (anti)gravity with a Barnes-Hut quadtree built on the host.
+// Cells are stored in pre-order with skip indices, so the tree is walked without a stack:
+// cellData holds center of mass x, y, total mass and cell size,
+// cellLinks holds skip index, first body and body count (0 for internal cells).
+__kernel void CalcForcesBarnesHut(__global float* nodePosX, __global float* nodePosY,
+                                  __global float* nodeMass,
+                                  __global float4* cellData,
+                                  __global int4* cellLinks,
+                                  __global int* cellBodies,
+                                  __global float2* nodeForce,
+                                  float theta2,
+                                  int ncells,
+                                  int n)
+{
+    int id1 = get_global_id(0);
+    if (id1 >= n)
+        return;
+
+    float2 node1 = (float2)(nodePosX[id1], nodePosY[id1]);
+    float mass1 = nodeMass[id1];
+    float2 force = (float2)(0.0f, 0.0f);
+
+    int cell = 0;
+    while (cell < ncells)
+    {
+        int4 links = cellLinks[cell];
+
+        if (links.z > 0)
+        {
+            // Leaf: exact interaction with every body
+            for (int b = links.y; b < links.y + links.z; b++)
+            {
+                int id2 = cellBodies[b];
+                force = calcGravityCell(node1, (float2)(nodePosX[id2], nodePosY[id2]), mass1, nodeMass[id2], force);
+            }
+            cell = links.x;
+            continue;
+        }
+
+        float4 data = cellData[cell];
+        float2 diff = (float2)(node1.x - data.x, node1.y - data.y);
+        if (data.w * data.w < theta2 * (diff.x * diff.x + diff.y * diff.y))
+        {
+            // Far enough away, the whole cell acts as one body
+            force = calcGravityCell(node1, (float2)(data.x, data.y), mass1, data.z, force);
+            cell = links.x;
+        }
+        else
+        {
+            cell++;     // Open the cell, its children follow in pre-order
+        }
+    }
+
+    nodeForce[id1] = force;
+}
+
 __kernel void PrepareEdgeRepulsion(__global float* nodePosX, __global float* nodePosY,
                                    __global unsigned int* edgeSource, __global unsigned int* edgeTarget,
                                    __global float* edgeStartX, __global float* edgeStartY,
@@ -230,6 +349,8 @@ static float2 calcEdgeRepulsion (float2 pos1, float mass1, float2 edgePos, float
     return (float2)(fma(diff.x, v, force.x), fma(diff.y, v, force.y));
 }
 
+#ifdef CYCL_GPU
+
 #define START(i) (float2)(s_startX[i], s_startY[i])
 #define TANGENT(i) (float2)(s_tangX[i], s_tangY[i])
 #define LENGTH(i) s_length[i]
@@ -338,90 +459,354 @@ __kernel void CalcForcesEdgeRepulsion(__local float* s_startX, __local float* s_
     if (id1 < n)
         nodeForce[id1] += force;
 }
+#else
 
-// Groups of 16 threads work together to compute the overall spring
-// force for one node, reduce their individual values to one and let
-// the first thread store the value in global memory in the end.
+// Same as calcEdgeRepulsion for eight edges at once, with x and y of all forces in one vector.
+// The node's mass is left out.
+static float16 calcEdgeRepulsion8(float2 pos1, float8 startX, float8 startY, float8 tangX, float8 tangY, float8 length,
+                                  float8 massStart, float8 massEnd, float16 force)
+{
+    float8 relX = pos1.x - startX, relY = pos1.y - startY;
+    float8 parallelDist = min(max(relX * tangX + relY * tangY, 0.0f), length);
 
-#ifdef CYCL_GPU
-__kernel void CalcForcesSpringDrag(__local float2* s_buffer,
-                                   __global float* nodePosX, __global float* nodePosY,
-                                   __global unsigned int* edges, __global unsigned int* edgeOffsets, __global unsigned int* edgeCounts,
-                                   __global float* edgeCoeffs, __global float* edgeLengths,
-                                   __global float2* nodeVelocity,
-                                   __global float2* nodeForce,
-                                   unsigned int n)
+    float8 mass2 = massStart + (massEnd - massStart) * (parallelDist / length);
+
+    float8 diffX = relX - tangX * parallelDist;
+    float8 diffY = relY - tangY * parallelDist;
+
+    float8 dist = diffX * diffX + diffY * diffY;
+    // Either too close or own edge
+    dist = select(rsqrt(max(dist, 1.0f)), (float8)(0.0f), dist < 1e-5f);
+
+    float8 v = dist * dist * dist * mass2;
+
+    return fma((float16)(diffX, diffY), (float16)(v, v), force);
+}
+
+// CPU version: local memory and barriers are emulated on CPUs, so edges are read straight
+// from global memory, eight at a time into vector registers like in CalcForcesGravity.
+// Edges are padded to a multiple of 16 with zero mass, so the padding adds no force.
+__kernel void CalcForcesEdgeRepulsion(__global float* nodePosX, __global float* nodePosY,
+                                      __global float* nodeMass,
+                                      __global float8* edgeStartX, __global float8* edgeStartY,
+                                      __global float8* edgeTangX, __global float8* edgeTangY,
+                                      __global float8* edgeLength,
+                                      __global float8* edgeMassStart, __global float8* edgeMassEnd,
+                                      __global float2* nodeForce,
+                                      unsigned int n, unsigned int nedges)
 {
-    unsigned int id1 = get_global_id(1);
-    //if (id1 >= n)
-        //return;
+    unsigned int id1 = get_global_id(0);
+    if (id1 >= n)
+        return;
 
-    // Figure out position in warp and shift s_nodeForce address to forget about other warps
-    unsigned int warpSize = 16;
-    unsigned int warpId = get_local_id(0);
-	s_buffer += get_local_id(1) * warpSize;
+    float2 pos1 = (float2)(nodePosX[id1], nodePosY[id1]);
+    float16 f0 = (float16)(0.0f);
+    float16 f1 = (float16)(0.0f);
 
-	if (id1 < n)
-	{
-		// Get data for the current node
-		float2 node1 = (float2)(nodePosX[id1], nodePosY[id1]);
-		float2 force = (float2)(0.0f, 0.0f);
+    // Two independent sums, so consecutive edge blocks don't wait for each other
+    unsigned int n8 = nedges / 8;
+    for (unsigned int e = 0; e < n8; e += 2)
+    {
+        f0 = calcEdgeRepulsion8(pos1, edgeStartX[e], edgeStartY[e], edgeTangX[e], edgeTangY[e], edgeLength[e] + 1e-10f,
+                                edgeMassStart[e], edgeMassEnd[e], f0);
+        f1 = calcEdgeRepulsion8(pos1, edgeStartX[e + 1], edgeStartY[e + 1], edgeTangX[e + 1], edgeTangY[e + 1], edgeLength[e + 1] + 1e-10f,
+                                edgeMassStart[e + 1], edgeMassEnd[e + 1], f1);
+    }
 
-		// Iterate over edges for spring force
-		unsigned int firstEdge = edgeOffsets[id1];
-		unsigned int lastEdge = firstEdge + edgeCounts[id1];
-		for (unsigned int e = firstEdge + warpId; e < lastEdge; e += warpSize)
-		{
-			unsigned int id2 = edges[e];
+    nodeForce[id1] += REDUCE16TO2(f0 + f1) * nodeMass[id1];
+}
+#endif
 
-			float2 node2 = (float2)(nodePosX[id2], nodePosY[id2]);
+// Same as calcEdgeRepulsion, but ignores edges farther away than the cutoff
+static float2 calcEdgeRepulsionCutoff(float2 pos1, float mass1, float2 edgePos, float2 edgeTangent, float edgeLength, float2 edgeMass, float cutoff2, float2 force)
+{
+    pos1 = (float2)(pos1.x - edgePos.x, pos1.y - edgePos.y);
+    float parallelDist = pos1.x * edgeTangent.x + pos1.y * edgeTangent.y;
+    parallelDist = clamp(parallelDist, 0.0f, edgeLength);
 
-			float2 diff = (float2)(node2.x - node1.x, node2.y - node1.y);
+    float2 pos2 = edgeTangent * parallelDist;
+    float2 diff = (float2)(pos1.x - pos2.x, pos1.y - pos2.y);
 
-			// + 1e-8f to avoid division by zero in case of identical position.
-			float dist = hypot(diff.x, diff.y) + 1e-8f;
-			float v = edgeCoeffs[e] * (dist - edgeLengths[e]) / dist;
+    float dist = diff.x * diff.x + diff.y * diff.y;
+    if (dist > cutoff2)
+        return force;
 
-			// Equivalent of force += diff * v
-			force.x = fma(diff.x, v, force.x);
-			force.y = fma(diff.y, v, force.y);
-		}
+    float mass2 = edgeMass.x + (edgeMass.y - edgeMass.x) * (parallelDist / edgeLength);
 
-		// Store this thread's result in local memory
-		s_buffer[warpId] = force;
-	}
+    if (dist < 1e-5f)           // Either too close or own edge
+        dist = 0.0f;
+    else
+        dist = rsqrt(max(dist, 1.0f));
+    dist = dist * dist * dist;
 
-    // On some hardware, no synchronization should be needed (warp-synchronous programming).
-    // But synchronize anyway to be on the safe side.
-    barrier(CLK_LOCAL_MEM_FENCE);
+    float v = mass1 * mass2 * dist;
 
-    if (warpId < 8)
+    return (float2)(fma(diff.x, v, force.x), fma(diff.y, v, force.y));
+}
+
+#define EDGE(e) (float2)(edgeStartX[e], edgeStartY[e]), (float2)(edgeTangX[e], edgeTangY[e]), edgeLength[e] + 1e-10f, (float2)(edgeMassStart[e], edgeMassEnd[e])
+
+// Edge repulsion limited to edges within the cutoff radius. Edges are binned into
+// a uniform grid on the host (see EdgeGrid.java), so each node only visits the
+// 3x3 cells around its own, plus the bucket of edges too long to be binned.
+__kernel void CalcForcesEdgeRepulsionGrid(__global float* nodePosX, __global float* nodePosY,
+                                          __global float* nodeMass,
+                                          __global float* edgeStartX, __global float* edgeStartY,
+                                          __global float* edgeTangX, __global float* edgeTangY,
+                                          __global float* edgeLength,
+                                          __global float* edgeMassStart, __global float* edgeMassEnd,
+                                          __global int* cellStart, __global int* cellEdges,
+                                          __global int2* edgeCellMin,
+                                          __global float2* nodeForce,
+                                          float originX, float originY, float invCellSize, float cutoff,
+                                          int gridWidth, int gridHeight,
+                                          unsigned int n)
+{
+    unsigned int id1 = get_global_id(0);
+    if (id1 >= n)
+        return;
+
+    float2 node1 = (float2)(nodePosX[id1], nodePosY[id1]);
+    float mass1 = nodeMass[id1];
+    float2 force = (float2)(0.0f, 0.0f);
+    float cutoff2 = cutoff * cutoff;
+
+    int cx = clamp((int)((node1.x - originX) * invCellSize), 0, gridWidth - 1);
+    int cy = clamp((int)((node1.y - originY) * invCellSize), 0, gridHeight - 1);
+
+    for (int y = max(cy - 1, 0); y <= min(cy + 1, gridHeight - 1); y++)
+        for (int x = max(cx - 1, 0); x <= min(cx + 1, gridWidth - 1); x++)
+        {
+            int cell = y * gridWidth + x;
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+            {
+                int e = cellEdges[i];
+
+                // An edge can be binned into several cells of the neighborhood,
+                // only evaluate it in the first one.
+                int2 first = edgeCellMin[e];
+                if (x != max(first.x, cx - 1) || y != max(first.y, cy - 1))
+                    continue;
+
+                force = calcEdgeRepulsionCutoff(node1, mass1, EDGE(e), cutoff2, force);
+            }
+        }
+
+    // Edges spanning too many cells to be binned
+    int longEdges = gridWidth * gridHeight;
+    for (int i = cellStart[longEdges]; i < cellStart[longEdges + 1]; i++)
     {
-        s_buffer[warpId] += s_buffer[warpId + 8];
+        int e = cellEdges[i];
+        force = calcEdgeRepulsionCutoff(node1, mass1, EDGE(e), cutoff2, force);
     }
-    barrier(CLK_LOCAL_MEM_FENCE);
-    if (warpId < 4)
+
+    nodeForce[id1] += force;
+}
+
+// (Anti)gravity for a batch of concatenated networks: each node only interacts
+// with the nodes of its own segment, given by nodeSegment and segmentNodeStart.
+__kernel void CalcForcesGravitySegmented(__global float* nodePosX, __global float* nodePosY,
+                                         __global float* nodeMass,
+                                         __global int* nodeSegment, __global int* segmentNodeStart,
+                                         __global float2* nodeForce,
+                                         int n)
+{
+    int id1 = get_global_id(0);
+    if (id1 >= n)
+        return;
+
+    float2 node1 = (float2)(nodePosX[id1], nodePosY[id1]);
+    float mass1 = nodeMass[id1];
+    float2 force = (float2)(0.0f, 0.0f);
+
+    int segment = nodeSegment[id1];
+    for (int id2 = segmentNodeStart[segment]; id2 < segmentNodeStart[segment + 1]; id2++)
+        force = calcGravityCell(node1, (float2)(nodePosX[id2], nodePosY[id2]), mass1, nodeMass[id2], force);
+
+    nodeForce[id1] = force;
+}
+
+// Edge repulsion for a batch of concatenated networks: each node only interacts
+// with the unique edges of its own segment, given by nodeSegment and segmentEdgeStart.
+__kernel void CalcForcesEdgeRepulsionSegmented(__global float* nodePosX, __global float* nodePosY,
+                                               __global float* nodeMass,
+                                               __global float* edgeStartX, __global float* edgeStartY,
+                                               __global float* edgeTangX, __global float* edgeTangY,
+                                               __global float* edgeLength,
+                                               __global float* edgeMassStart, __global float* edgeMassEnd,
+                                               __global int* nodeSegment, __global int* segmentEdgeStart,
+                                               __global float2* nodeForce,
+                                               int n)
+{
+    int id1 = get_global_id(0);
+    if (id1 >= n)
+        return;
+
+    float2 node1 = (float2)(nodePosX[id1], nodePosY[id1]);
+    float mass1 = nodeMass[id1];
+    float2 force = (float2)(0.0f, 0.0f);
+
+    int segment = nodeSegment[id1];
+    for (int e = segmentEdgeStart[segment]; e < segmentEdgeStart[segment + 1]; e++)
+        force = calcEdgeRepulsion(node1, mass1, EDGE(e), force);
+
+    nodeForce[id1] += force;
+}
+
+// Spring coefficient and rest length of every neighbor slot, stored as given by springStorage:
+// 0: edgeCoeffs and edgeLengths hold them as floats.
+// 1: edgeSprings holds them as half2, relative to springCoeffScale and springLengthScale.
+// 2: all springs are equal to springCoeffScale and springLengthScale, nothing is read.
+// The buffers a mode doesn't use may be any dummy buffer.
+#define SPRING_PARAMS __global float* edgeCoeffs, __global float* edgeLengths, __global half* edgeSprings, \
+                      float springCoeffScale, float springLengthScale, int springStorage
+#define SPRING_ARGS edgeCoeffs, edgeLengths, edgeSprings, springCoeffScale, springLengthScale, springStorage
+
+static float2 loadSpring(unsigned int e, SPRING_PARAMS)
+{
+    if (springStorage == 2)
+        return (float2)(springCoeffScale, springLengthScale);
+    else if (springStorage == 1)
+        return vload_half2(e, edgeSprings) * (float2)(springCoeffScale, springLengthScale);
+    else
+        return (float2)(edgeCoeffs[e], edgeLengths[e]);
+}
+
+#ifndef CYCL_GPU
+// Spring parameters of the four edges from e on: coefficients in s0123, rest lengths in s4567.
+static float8 loadSprings4(unsigned int e, SPRING_PARAMS)
+{
+    if (springStorage == 2)
+        return (float8)((float4)(springCoeffScale), (float4)(springLengthScale));
+    else if (springStorage == 1)
     {
-        s_buffer[warpId] += s_buffer[warpId + 4];
+        // Coefficient and length of every edge are stored next to each other
+        float8 packed = vload_half8(0, edgeSprings + 2 * e);
+        return (float8)(packed.even * springCoeffScale, packed.odd * springLengthScale);
     }
-    barrier(CLK_LOCAL_MEM_FENCE);
-    if (warpId < 2)
+    else
+        return (float8)(vload4(0, edgeCoeffs + e), vload4(0, edgeLengths + e));
+}
+#endif
+
+// Spring force of all edges of one node plus drag. On CPUs, four edges at
+// a time are computed in vector registers, and only the rest one by one.
+static float2 calcSpringDrag(unsigned int id1, float2 node1,
+                             __global float* nodePosX, __global float* nodePosY,
+                             __global unsigned int* edges, __global unsigned int* edgeOffsets, __global unsigned int* edgeCounts,
+                             SPRING_PARAMS,
+                             __global float2* nodeVelocity)
+{
+    float2 force = (float2)(0.0f, 0.0f);
+
+    unsigned int e = edgeOffsets[id1];
+    unsigned int lastEdge = e + edgeCounts[id1];
+
+#ifndef CYCL_GPU
+    float4 forceX = (float4)(0.0f), forceY = (float4)(0.0f);
+    for (; e + 4 <= lastEdge; e += 4)
     {
-        s_buffer[warpId] += s_buffer[warpId + 2];
+        uint4 id2 = vload4(0, edges + e);
+
+        float4 diffX = (float4)(nodePosX[id2.s0], nodePosX[id2.s1], nodePosX[id2.s2], nodePosX[id2.s3]) - node1.x;
+        float4 diffY = (float4)(nodePosY[id2.s0], nodePosY[id2.s1], nodePosY[id2.s2], nodePosY[id2.s3]) - node1.y;
+
+        // + 1e-8f to avoid division by zero in case of identical position.
+        float4 dist = hypot(diffX, diffY) + 1e-8f;
+        float8 spring = loadSprings4(e, SPRING_ARGS);
+        float4 v = spring.lo * (dist - spring.hi) / dist;
+
+        forceX = fma(diffX, v, forceX);
+        forceY = fma(diffY, v, forceY);
     }
-    barrier(CLK_LOCAL_MEM_FENCE);
-    if (warpId == 0)
+    force = (float2)(forceX.s0 + forceX.s1 + forceX.s2 + forceX.s3, forceY.s0 + forceY.s1 + forceY.s2 + forceY.s3);
+#endif
+
+    for (; e < lastEdge; e++)
+    {
+        unsigned int id2 = edges[e];
+
+        float2 diff = (float2)(nodePosX[id2] - node1.x, nodePosY[id2] - node1.y);
+
+        // + 1e-8f to avoid division by zero in case of identical position.
+        float dist = hypot(diff.x, diff.y) + 1e-8f;
+        float2 spring = loadSpring(e, SPRING_ARGS);
+        float v = spring.x * (dist - spring.y) / dist;
+
+        force.x = fma(diff.x, v, force.x);
+        force.y = fma(diff.y, v, force.y);
+    }
+
+    return force - 0.01f * nodeVelocity[id1];
+}
+
+// Spring and drag forces of the binSize nodes listed in binNodes from binFirst on. Every node gets
+// get_local_size(0) work items, a power of two, which split its edges and reduce their forces
+// in local memory: one for low degrees, 16 for medium ones and a whole work group for hubs.
+// So no node keeps the others in its group waiting for its edges for long.
+
+#ifdef CYCL_GPU
+__kernel void CalcForcesSpringDrag(__local float2* s_buffer,
+                                   __global float* nodePosX, __global float* nodePosY,
+                                   __global unsigned int* edges, __global unsigned int* edgeOffsets, __global unsigned int* edgeCounts,
+                                   SPRING_PARAMS,
+                                   __global float2* nodeVelocity,
+                                   __global float2* nodeForce,
+                                   __global unsigned int* binNodes,
+                                   unsigned int binFirst, unsigned int binSize)
+{
+    unsigned int b = get_global_id(1);
+    unsigned int lanes = get_local_size(0);
+    unsigned int lane = get_local_id(0);
+    s_buffer += get_local_id(1) * lanes;
+
+    unsigned int id1 = b < binSize ? binNodes[binFirst + b] : 0;
+    float2 force = (float2)(0.0f, 0.0f);
+    if (b < binSize)
     {
-        s_buffer[0] += s_buffer[1];
+        // Get data for the current node
+        float2 node1 = (float2)(nodePosX[id1], nodePosY[id1]);
+
+        // Iterate over edges for spring force
+        unsigned int firstEdge = edgeOffsets[id1];
+        unsigned int lastEdge = firstEdge + edgeCounts[id1];
+        for (unsigned int e = firstEdge + lane; e < lastEdge; e += lanes)
+        {
+            unsigned int id2 = edges[e];
 
-		if (id1 < n)
-			nodeForce[id1] += s_buffer[0] - 0.01f * nodeVelocity[id1];          // Apply drag force and store overall value
+            float2 node2 = (float2)(nodePosX[id2], nodePosY[id2]);
+
+            float2 diff = (float2)(node2.x - node1.x, node2.y - node1.y);
+
+            // + 1e-8f to avoid division by zero in case of identical position.
+            float dist = hypot(diff.x, diff.y) + 1e-8f;
+            float2 spring = loadSpring(e, SPRING_ARGS);
+            float v = spring.x * (dist - spring.y) / dist;
+
+            // Equivalent of force += diff * v
+            force.x = fma(diff.x, v, force.x);
+            force.y = fma(diff.y, v, force.y);
+        }
     }
+
+    // Store this work item's result in local memory and reduce the node's lanes to one
+    s_buffer[lane] = force;
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    for (unsigned int stride = lanes / 2; stride > 0; stride >>= 1)
+    {
+        if (lane < stride)
+            s_buffer[lane] += s_buffer[lane + stride];
+        barrier(CLK_LOCAL_MEM_FENCE);
+    }
+
+    if (lane == 0 && b < binSize)
+        nodeForce[id1] += s_buffer[0] - 0.01f * nodeVelocity[id1];          // Apply drag force and store overall value
 }
 #else
 __kernel void CalcForcesSpringDrag(__global float* nodePosX, __global float* nodePosY,
                                    __global unsigned int* edges, __global unsigned int* edgeOffsets, __global unsigned int* edgeCounts,
-                                   __global float* edgeCoeffs, __global float* edgeLengths,
+                                   SPRING_PARAMS,
                                    __global float2* nodeVelocity,
                                    __global float2* nodeForce,
                                    unsigned int n)
@@ -430,36 +815,17 @@ __kernel void CalcForcesSpringDrag(__global float* nodePosX, __global float* nod
 		if (id1 >= n)
 				return;
 
-		// Get data for the current node
 		float2 node1 = (float2)(nodePosX[id1], nodePosY[id1]);
-		float2 force = (float2)(0.0f, 0.0f);
-
-		// Iterate over edges for spring force
-		unsigned int firstEdge = edgeOffsets[id1];
-		unsigned int lastEdge = firstEdge + edgeCounts[id1];
-		for (unsigned int e = firstEdge; e < lastEdge; e++)
-		{
-				unsigned int id2 = edges[e];
-
-				float2 node2 = (float2)(nodePosX[id2], nodePosY[id2]);
-
-				float2 diff = (float2)(node2.x - node1.x, node2.y - node1.y);
-
-				// + 1e-8f to avoid division by zero in case of identical position.
-				float dist = hypot(diff.x, diff.y) + 1e-8f;
-				float v = edgeCoeffs[e] * (dist - edgeLengths[e]) / dist;
-
-				// Equivalent of force += diff * v
-				force.x = fma(diff.x, v, force.x);
-				force.y = fma(diff.y, v, force.y);
-		}
-
-		nodeForce[id1] += force - 0.01f * nodeVelocity[id1];          // Apply drag force and store overall value
+		nodeForce[id1] += calcSpringDrag(id1, node1, nodePosX, nodePosY, edges, edgeOffsets, edgeCounts, SPRING_ARGS, nodeVelocity);
 }
 #endif
 
+// In all integration kernels, nodeMobility is the pinned mask: 0 for pinned nodes, 1 for all
+// others. Pinned nodes get no acceleration, so starting at rest they never move, but they
+// still exert forces on the others.
 __kernel void IntegrateRK0(__global float* nodePosX, __global float* nodePosY,
                            __global float* nodeMass,
+                           __global float* nodeMobility,
                            __global float2* nodeK,
                            __global float2* nodeL,
                            __global float2* nodeVelocity,
@@ -473,11 +839,12 @@ __kernel void IntegrateRK0(__global float* nodePosX, __global float* nodePosY,
 
 		float mass = nodeMass[id];
 
+		// The start position is needed for the later stages, and to reject the step
 		nodeK[3 * n + id] = (float2)(nodePosX[id], nodePosY[id]);
 
 		float2 update = nodeVelocity[id] * timestep;
 		nodeK[id] = update;
-		nodeL[id] = nodeForce[id] * timestep / mass;
+		nodeL[id] = nodeForce[id] * timestep / mass * nodeMobility[id];
 
 		nodePosX[id] += 0.5f * update.x;
 		nodePosY[id] += 0.5f * update.y;
@@ -485,6 +852,7 @@ __kernel void IntegrateRK0(__global float* nodePosX, __global float* nodePosY,
 
 __kernel void IntegrateRK1(__global float* nodePosX, __global float* nodePosY,
                            __global float* nodeMass,
+                           __global float* nodeMobility,
                            __global float2* nodeK,
                            __global float2* nodeL,
                            __global float2* nodeVelocity,
@@ -506,7 +874,7 @@ __kernel void IntegrateRK1(__global float* nodePosX, __global float* nodePosY,
 
 		float2 update = v * timestep;
 		nodeK[n + id] = update;
-		nodeL[n + id] = nodeForce[id] * timestep / mass;
+		nodeL[n + id] = nodeForce[id] * timestep / mass * nodeMobility[id];
 
 		update = nodeK[3 * n + id] + 0.5f * update;
 		nodePosX[id] = update.x;
@@ -515,6 +883,7 @@ __kernel void IntegrateRK1(__global float* nodePosX, __global float* nodePosY,
 
 __kernel void IntegrateRK2(__global float* nodePosX, __global float* nodePosY,
                            __global float* nodeMass,
+                           __global float* nodeMobility,
                            __global float2* nodeK,
                            __global float2* nodeL,
                            __global float2* nodeVelocity,
@@ -536,7 +905,7 @@ __kernel void IntegrateRK2(__global float* nodePosX, __global float* nodePosY,
 
 		float2 update = v * timestep;
 		nodeK[2 * n + id] = update;
-		nodeL[2 * n + id] = nodeForce[id] * timestep / mass;
+		nodeL[2 * n + id] = nodeForce[id] * timestep / mass * nodeMobility[id];
 
 		update = nodeK[3 * n + id] + 0.5f * update;
 		nodePosX[id] = update.x;
@@ -545,6 +914,7 @@ __kernel void IntegrateRK2(__global float* nodePosX, __global float* nodePosY,
 
 __kernel void IntegrateRK3(__global float* nodePosX, __global float* nodePosY,
                            __global float* nodeMass,
+                           __global float* nodeMobility,
                            __global float2* nodeK,
                            __global float2* nodeL,
                            __global float2* nodeVelocity,
@@ -565,7 +935,7 @@ __kernel void IntegrateRK3(__global float* nodePosX, __global float* nodePosY,
 				v *= maxVelocity / vmagn;
 
 		float2 k3 = v * timestep;
-		float2 l3 = nodeForce[id] * timestep / mass;
+		float2 l3 = nodeForce[id] * timestep / mass * nodeMobility[id];
 
 		k3 = nodeK[3 * n + id] + (nodeK[id] + k3) / 6.0f + (nodeK[n + id] + nodeK[2 * n + id]) / 3.0f;
 		nodePosX[id] = k3.x;
@@ -579,8 +949,399 @@ __kernel void IntegrateRK3(__global float* nodePosX, __global float* nodePosY,
 		nodeVelocity[id] += v;
 }
 
+// Reduces the difference between the RK4 positions and the embedded midpoint
+// (2nd order) positions of the last step to the maximum squared distance of
+// each work group. The midpoint solution is the start position plus the
+// increment of the second stage. Work group size must be a power of two.
+__kernel void ReduceStepError(__local float* s_error,
+                              __global float* nodePosX, __global float* nodePosY,
+                              __global float2* nodeK,
+                              __global float* groupError,
+                              int n)
+{
+    int lid = get_local_id(0);
+
+    float error = 0.0f;
+    for (int id = get_global_id(0); id < n; id += get_global_size(0))
+    {
+        float2 diff = (float2)(nodePosX[id], nodePosY[id]) - nodeK[3 * n + id] - nodeK[n + id];
+        error = max(error, dot(diff, diff));
+    }
+    s_error[lid] = error;
+    barrier(CLK_LOCAL_MEM_FENCE);
+
+    for (int stride = get_local_size(0) / 2; stride > 0; stride >>= 1)
+    {
+        if (lid < stride)
+            s_error[lid] = max(s_error[lid], s_error[lid + stride]);
+        barrier(CLK_LOCAL_MEM_FENCE);
+    }
+
+    if (lid == 0)
+        groupError[get_group_id(0)] = s_error[0];
+}
+
+// Keeps the velocities before an RK4 step that may be rejected. Only launched
+// with the adaptive time step, so fixed schedules don't pay for the copy.
+__kernel void KeepStepStart(__global float2* nodeVelocity,
+                            __global float2* startVelocity,
+                            int n)
+{
+    int id = get_global_id(0);
+    if (id >= n)
+        return;
+
+    startVelocity[id] = nodeVelocity[id];
+}
+
+// Restores positions and velocities from the beginning of the last RK4 step.
+__kernel void RejectStep(__global float* nodePosX, __global float* nodePosY,
+                         __global float2* nodeK,
+                         __global float2* startVelocity,
+                         __global float2* nodeVelocity,
+                         int n)
+{
+    int id = get_global_id(0);
+    if (id >= n)
+        return;
+
+    float2 pos = nodeK[3 * n + id];
+    nodePosX[id] = pos.x;
+    nodePosY[id] = pos.y;
+    nodeVelocity[id] = startVelocity[id];
+}
+
+// One stage of the RK4 step for a single node, identical to IntegrateRK0..3.
+// Reads the node's position at the current stage from pos and writes the
+// position for the next stage to nodePosOutX/Y.
+static void integrateRKStage(int stage, int id, int n, float2 pos, float2 force,
+                             __global float* nodePosOutX, __global float* nodePosOutY,
+                             __global float* nodeMass,
+                             __global float* nodeMobility,
+                             __global float2* nodeK,
+                             __global float2* nodeL,
+                             __global float2* nodeVelocity,
+                             float maxVelocity,
+                             float timestep)
+{
+    float mass = nodeMass[id];
+    float2 v;
+    if (stage == 0)
+    {
+        // The start position is needed for the later stages, and to reject the step
+        nodeK[3 * n + id] = pos;
+        v = nodeVelocity[id];
+    }
+    else
+    {
+        v = nodeVelocity[id] + 0.5f * nodeL[(stage - 1) * n + id];
+        float vmagn = length(v);
+        if (vmagn > maxVelocity)
+            v *= maxVelocity / vmagn;
+    }
+
+    float2 update = v * timestep;
+    float2 accel = force * timestep / mass * nodeMobility[id];
+
+    if (stage == 0)
+        pos += 0.5f * update;
+    else if (stage < 3)
+        pos = nodeK[3 * n + id] + 0.5f * update;
+    else
+    {
+        pos = nodeK[3 * n + id] + (nodeK[id] + update) / 6.0f + (nodeK[n + id] + nodeK[2 * n + id]) / 3.0f;
+
+        v = (nodeL[id] + accel) / 6.0f + (nodeL[n + id] + nodeL[2 * n + id]) / 3.0f;
+        float vmagn = length(v);
+        if (vmagn > maxVelocity)
+            v *= maxVelocity / vmagn;
+        nodeVelocity[id] += v;
+    }
+
+    if (stage < 3)
+    {
+        nodeK[stage * n + id] = update;
+        nodeL[stage * n + id] = accel;
+    }
+
+    nodePosOutX[id] = pos.x;
+    nodePosOutY[id] = pos.y;
+}
+
+#ifndef CYCL_GPU
+// Repeats every element of a float4 for x and y: (a, a, b, b, c, c, d, d).
+#define PAIRS(v) shuffle((v), (uint8)(0, 0, 1, 1, 2, 2, 3, 3))
+
+// Scales the velocities of four nodes, x and y interleaved, down to maxVelocity where they are faster.
+static float8 clampVelocity4(float8 v, float maxVelocity)
+{
+    float8 sq = v * v;
+    float4 vmagn = sqrt(sq.even + sq.odd);
+    return v * PAIRS(select((float4)(1.0f), maxVelocity / vmagn, vmagn > maxVelocity));
+}
+
+// integrateRKStage for the four nodes from id on. Positions and forces are
+// interleaved like the float2 of nodeK, nodeL and nodeVelocity, so all four
+// nodes' state is loaded and stored as one float8.
+static void integrateRKStage4(int stage, int id, int n, float8 pos, float8 force,
+                              __global float* nodePosOutX, __global float* nodePosOutY,
+                              __global float* nodeMass,
+                              __global float* nodeMobility,
+                              __global float* nodeK,
+                              __global float* nodeL,
+                              __global float* nodeVelocity,
+                              float maxVelocity,
+                              float timestep)
+{
+    float8 mass = PAIRS(vload4(0, nodeMass + id));
+    float8 mobility = PAIRS(vload4(0, nodeMobility + id));
+    float8 v;
+    if (stage == 0)
+    {
+        // The start position is needed for the later stages, and to reject the step
+        v = vload8(0, nodeVelocity + 2 * id);
+        vstore8(pos, 0, nodeK + 2 * (3 * n + id));
+    }
+    else
+        v = clampVelocity4(vload8(0, nodeVelocity + 2 * id) + 0.5f * vload8(0, nodeL + 2 * ((stage - 1) * n + id)), maxVelocity);
+
+    float8 update = v * timestep;
+    float8 accel = force * timestep / mass * mobility;
+
+    if (stage == 0)
+        pos += 0.5f * update;
+    else if (stage < 3)
+        pos = vload8(0, nodeK + 2 * (3 * n + id)) + 0.5f * update;
+    else
+    {
+        pos = vload8(0, nodeK + 2 * (3 * n + id)) + (vload8(0, nodeK + 2 * id) + update) / 6.0f
+            + (vload8(0, nodeK + 2 * (n + id)) + vload8(0, nodeK + 2 * (2 * n + id))) / 3.0f;
+
+        v = (vload8(0, nodeL + 2 * id) + accel) / 6.0f
+          + (vload8(0, nodeL + 2 * (n + id)) + vload8(0, nodeL + 2 * (2 * n + id))) / 3.0f;
+        vstore8(vload8(0, nodeVelocity + 2 * id) + clampVelocity4(v, maxVelocity), 0, nodeVelocity + 2 * id);
+    }
+
+    if (stage < 3)
+    {
+        vstore8(update, 0, nodeK + 2 * (stage * n + id));
+        vstore8(accel, 0, nodeL + 2 * (stage * n + id));
+    }
+
+    vstore4(pos.even, 0, nodePosOutX + id);
+    vstore4(pos.odd, 0, nodePosOutY + id);
+}
+#endif
+
+// Spring and drag forces fused with one RK4 stage. Positions are read from one
+// pair of buffers and written to another, because neighbors read positions
+// while they are being integrated. Gravity and edge repulsion must already be in nodeForce.
+// On CPUs, every work item integrates four consecutive nodes in vector registers.
+__kernel void SpringDragIntegrateRK(__global float* nodePosX, __global float* nodePosY,
+                                    __global float* nodePosOutX, __global float* nodePosOutY,
+                                    __global float* nodeMass,
+                                    __global float* nodeMobility,
+                                    __global unsigned int* edges, __global unsigned int* edgeOffsets, __global unsigned int* edgeCounts,
+                                    SPRING_PARAMS,
+                                    __global float2* nodeK,
+                                    __global float2* nodeL,
+                                    __global float2* nodeVelocity,
+                                    __global float2* nodeForce,
+                                    float maxVelocity,
+                                    float timestep,
+                                    int stage,
+                                    int n)
+{
+#ifdef CYCL_GPU
+    int id = get_global_id(0);
+    if (id >= n)
+        return;
+#else
+    int id = get_global_id(0) * 4;
+    if (id + 4 <= n)
+    {
+        float8 pos = shuffle2(vload4(0, nodePosX + id), vload4(0, nodePosY + id), (uint8)(0, 4, 1, 5, 2, 6, 3, 7));
+        float8 force = vload8(0, (__global float*)(nodeForce + id))
+                     + (float8)(calcSpringDrag(id, pos.s01, nodePosX, nodePosY, edges, edgeOffsets, edgeCounts, SPRING_ARGS, nodeVelocity),
+                                calcSpringDrag(id + 1, pos.s23, nodePosX, nodePosY, edges, edgeOffsets, edgeCounts, SPRING_ARGS, nodeVelocity),
+                                calcSpringDrag(id + 2, pos.s45, nodePosX, nodePosY, edges, edgeOffsets, edgeCounts, SPRING_ARGS, nodeVelocity),
+                                calcSpringDrag(id + 3, pos.s67, nodePosX, nodePosY, edges, edgeOffsets, edgeCounts, SPRING_ARGS, nodeVelocity));
+
+        integrateRKStage4(stage, id, n, pos, force, nodePosOutX, nodePosOutY, nodeMass, nodeMobility,
+                          (__global float*)nodeK, (__global float*)nodeL, (__global float*)nodeVelocity, maxVelocity, timestep);
+        return;
+    }
+
+    // The last up to three nodes one by one
+    for (; id < n; id++)
+#endif
+    {
+        float2 pos = (float2)(nodePosX[id], nodePosY[id]);
+        float2 force = nodeForce[id] + calcSpringDrag(id, pos, nodePosX, nodePosY, edges, edgeOffsets, edgeCounts, SPRING_ARGS, nodeVelocity);
+
+        integrateRKStage(stage, id, n, pos, force, nodePosOutX, nodePosOutY, nodeMass, nodeMobility, nodeK, nodeL, nodeVelocity, maxVelocity, timestep);
+    }
+}
+
+// SpringDragIntegrateRK for the nodes tileStart .. tileStart + tileSize - 1 of a network that
+// doesn't fit on the device. Positions, masses and forces are those of all nodes, and the
+// integration state is the tile's, indexed from 0. Adjacency, springs and mobility are those
+// of a slice of the network, where the tile's first node is at topologyStart.
+__kernel void SpringDragIntegrateRKTile(__global float* nodePosX, __global float* nodePosY,
+                                        __global float* nodePosOutX, __global float* nodePosOutY,
+                                        __global float* nodeMass,
+                                        __global float2* nodeForce,
+                                        __global float* tileMobility,
+                                        __global unsigned int* tileEdges, __global unsigned int* tileEdgeOffsets, __global unsigned int* tileEdgeCounts,
+                                        SPRING_PARAMS,
+                                        __global float2* tileK,
+                                        __global float2* tileL,
+                                        __global float2* tileVelocity,
+                                        float maxVelocity,
+                                        float timestep,
+                                        int stage,
+                                        int tileStart,
+                                        int tileSize,
+                                        int topologyStart)
+{
+    int id = get_global_id(0);
+    if (id >= tileSize)
+        return;
+
+    float2 pos = (float2)(nodePosX[tileStart + id], nodePosY[tileStart + id]);
+    float2 force = nodeForce[tileStart + id] + calcSpringDrag(id, pos, nodePosX, nodePosY, tileEdges, tileEdgeOffsets + topologyStart, tileEdgeCounts + topologyStart, SPRING_ARGS, tileVelocity);
+
+    integrateRKStage(stage, id, tileSize, pos, force, nodePosOutX + tileStart, nodePosOutY + tileStart, nodeMass + tileStart,
+                     tileMobility + topologyStart, tileK, tileL, tileVelocity, maxVelocity, timestep);
+}
+
+// Spring and drag forces fused with a semi-implicit Euler step, like IntegrateEuler, for the
+// tile of nodes from tileStart on. Positions go to the other pair of buffers, because nodes
+// of later tiles still read this step's positions.
+__kernel void SpringDragIntegrateEulerTile(__global float* nodePosX, __global float* nodePosY,
+                                           __global float* nodePosOutX, __global float* nodePosOutY,
+                                           __global float* nodeMass,
+                                           __global float2* nodeForce,
+                                           __global float* tileMobility,
+                                           __global unsigned int* tileEdges, __global unsigned int* tileEdgeOffsets, __global unsigned int* tileEdgeCounts,
+                                           SPRING_PARAMS,
+                                           __global float2* tileVelocity,
+                                           float maxVelocity,
+                                           float timestep,
+                                           int tileStart,
+                                           int tileSize,
+                                           int topologyStart)
+{
+    int id = get_global_id(0);
+    if (id >= tileSize)
+        return;
+
+    float2 pos = (float2)(nodePosX[tileStart + id], nodePosY[tileStart + id]);
+    float2 force = nodeForce[tileStart + id] + calcSpringDrag(id, pos, nodePosX, nodePosY, tileEdges, tileEdgeOffsets + topologyStart, tileEdgeCounts + topologyStart, SPRING_ARGS, tileVelocity);
+
+    float2 v = tileVelocity[id] + force / nodeMass[tileStart + id] * timestep * tileMobility[topologyStart + id];
+    float vmagn = length(v);
+    if (vmagn > maxVelocity)
+        v *= maxVelocity / vmagn;
+
+    pos += v * timestep;
+    nodePosOutX[tileStart + id] = pos.x;
+    nodePosOutY[tileStart + id] = pos.y;
+    tileVelocity[id] = v;
+}
+
+// IntegrateVerletDrift for the tile of nodes from tileStart on. Only reads the tile's own
+// nodes, so positions are updated in place.
+__kernel void IntegrateVerletDriftTile(__global float* nodePosX, __global float* nodePosY,
+                                       __global float2* tileVelocity,
+                                       __global float2* tileAccel,
+                                       float maxVelocity,
+                                       float timestep,
+                                       int tileStart,
+                                       int tileSize)
+{
+    int id = get_global_id(0);
+    if (id >= tileSize)
+        return;
+
+    float2 v = tileVelocity[id] + 0.5f * timestep * tileAccel[id];
+    float vmagn = length(v);
+    if (vmagn > maxVelocity)
+        v *= maxVelocity / vmagn;
+
+    nodePosX[tileStart + id] += v.x * timestep;
+    nodePosY[tileStart + id] += v.y * timestep;
+    tileVelocity[id] = v;
+}
+
+// Spring and drag forces fused with IntegrateVerletKick, for the tile of nodes from tileStart on.
+// Gravity and edge repulsion must already be in nodeForce.
+__kernel void SpringDragVerletKickTile(__global float* nodePosX, __global float* nodePosY,
+                                       __global float* nodeMass,
+                                       __global float2* nodeForce,
+                                       __global float* tileMobility,
+                                       __global unsigned int* tileEdges, __global unsigned int* tileEdgeOffsets, __global unsigned int* tileEdgeCounts,
+                                       SPRING_PARAMS,
+                                       __global float2* tileVelocity,
+                                       __global float2* tileAccel,
+                                       float maxVelocity,
+                                       float timestep,
+                                       int tileStart,
+                                       int tileSize,
+                                       int topologyStart)
+{
+    int id = get_global_id(0);
+    if (id >= tileSize)
+        return;
+
+    float2 pos = (float2)(nodePosX[tileStart + id], nodePosY[tileStart + id]);
+    float2 force = nodeForce[tileStart + id] + calcSpringDrag(id, pos, nodePosX, nodePosY, tileEdges, tileEdgeOffsets + topologyStart, tileEdgeCounts + topologyStart, SPRING_ARGS, tileVelocity);
+
+    float2 accel = force / nodeMass[tileStart + id] * tileMobility[topologyStart + id];
+    float2 v = tileVelocity[id] + 0.5f * timestep * accel;
+    float vmagn = length(v);
+    if (vmagn > maxVelocity)
+        v *= maxVelocity / vmagn;
+
+    tileVelocity[id] = v;
+    tileAccel[id] = accel;
+}
+
+#ifdef CYCL_GPU
+// Gravity, spring and drag forces fused with one RK4 stage, so the force never
+// goes through global memory. Used when there is no edge repulsion.
+__kernel void GravitySpringDragIntegrateRK(__local float* s_posX, __local float* s_posY, __local float* s_mass,
+                                           __global float* nodePosX, __global float* nodePosY,
+                                           __global float* nodePosOutX, __global float* nodePosOutY,
+                                           __global float* nodeMass,
+                                           __global float* nodeMobility,
+                                           __global unsigned int* edges, __global unsigned int* edgeOffsets, __global unsigned int* edgeCounts,
+                                           SPRING_PARAMS,
+                                           __global float2* nodeK,
+                                           __global float2* nodeL,
+                                           __global float2* nodeVelocity,
+                                           float maxVelocity,
+                                           float timestep,
+                                           int stage,
+                                           unsigned int n, unsigned int npadded)
+{
+    unsigned int id = get_global_id(0);
+    float2 force = calcGravityTiled(s_posX, s_posY, s_mass, nodePosX, nodePosY, nodeMass, id, n, npadded);
+    if (id >= n)
+        return;
+
+    float2 pos = (float2)(nodePosX[id], nodePosY[id]);
+    force += calcSpringDrag(id, pos, nodePosX, nodePosY, edges, edgeOffsets, edgeCounts, SPRING_ARGS, nodeVelocity);
+
+    integrateRKStage(stage, id, n, pos, force, nodePosOutX, nodePosOutY, nodeMass, nodeMobility, nodeK, nodeL, nodeVelocity, maxVelocity, timestep);
+}
+#endif
+
+// Semi-implicit Euler step: the velocity is updated first, and the position moves with
+// the new velocity. One force evaluation per step, and no RK4 state.
 __kernel void IntegrateEuler(__global float* nodePosX, __global float* nodePosY,
                              __global float* nodeMass,
+                             __global float* nodeMobility,
                              __global float2* nodeVelocity,
                              __global float2* nodeForce,
                              float maxVelocity,
@@ -591,21 +1352,61 @@ __kernel void IntegrateEuler(__global float* nodePosX, __global float* nodePosY,
     if (id >= n)
         return;
 
-		float2 pos = (float2)(nodePosX[id], nodePosY[id]);
-		float m = nodeMass[id];
-		float2 v = nodeVelocity[id];
-		float2 f = nodeForce[id];
+    float2 v = nodeVelocity[id] + nodeForce[id] / nodeMass[id] * timestep * nodeMobility[id];
+    float vmagn = length(v);
+    if (vmagn > maxVelocity)
+        v *= maxVelocity / vmagn;
 
-		pos += v * timestep;
+    nodePosX[id] += v.x * timestep;
+    nodePosY[id] += v.y * timestep;
+    nodeVelocity[id] = v;
+}
 
-		v += f / m * timestep;
-		float vmagn = length(v);
-		if (vmagn > maxVelocity)
-				v *= maxVelocity / vmagn;
+// First half of a velocity Verlet step: a half kick with the acceleration from the end
+// of the previous step, then the drift to the new positions, where forces are evaluated
+// once before IntegrateVerletKick.
+__kernel void IntegrateVerletDrift(__global float* nodePosX, __global float* nodePosY,
+                                   __global float2* nodeVelocity,
+                                   __global float2* nodeAccel,
+                                   float maxVelocity,
+                                   float timestep,
+                                   int n)
+{
+    int id = get_global_id(0);
+    if (id >= n)
+        return;
 
-		nodePosX[id] = pos.x;
-		nodePosY[id] = pos.y;
-		nodeVelocity[id] = v;
+    float2 v = nodeVelocity[id] + 0.5f * timestep * nodeAccel[id];
+    float vmagn = length(v);
+    if (vmagn > maxVelocity)
+        v *= maxVelocity / vmagn;
+
+    nodePosX[id] += v.x * timestep;
+    nodePosY[id] += v.y * timestep;
+    nodeVelocity[id] = v;
 }
 
+// Second half of a velocity Verlet step: the half kick with the forces at the new
+// positions, whose acceleration is kept for the next step's drift.
+__kernel void IntegrateVerletKick(__global float* nodeMass,
+                                  __global float* nodeMobility,
+                                  __global float2* nodeVelocity,
+                                  __global float2* nodeAccel,
+                                  __global float2* nodeForce,
+                                  float maxVelocity,
+                                  float timestep,
+                                  int n)
+{
+    int id = get_global_id(0);
+    if (id >= n)
+        return;
+
+    float2 accel = nodeForce[id] / nodeMass[id] * nodeMobility[id];
+    float2 v = nodeVelocity[id] + 0.5f * timestep * accel;
+    float vmagn = length(v);
+    if (vmagn > maxVelocity)
+        v *= maxVelocity / vmagn;
 
+    nodeVelocity[id] = v;
+    nodeAccel[id] = accel;
+}
@@ -0,0 +1,32 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.cytoscape.opencl.layout.BatchLayoutRunner.OutputFormat;
+import org.junit.Test;
+
+public class BatchLayoutRunnerTest
+{
+	@Test
+	public void outputNameKeepsInputExtension()
+	{
+		assertEquals("graph.txt.csv", BatchLayoutRunner.outputName(Paths.get("in", "graph.txt"), OutputFormat.csv));
+		assertEquals("graph.sif.bin", BatchLayoutRunner.outputName(Paths.get("in", "graph.sif"), OutputFormat.binary));
+		assertEquals("graph.csv", BatchLayoutRunner.outputName(Paths.get("graph"), OutputFormat.csv));
+	}
+
+	@Test
+	public void inputsWithSameBaseNameAreAccepted()
+	{
+		BatchLayoutRunner.checkOutputNames(Arrays.asList(Paths.get("in", "graph.txt"), Paths.get("in", "graph.sif")), OutputFormat.csv);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void inputsWithSameFileNameAreRejected()
+	{
+		BatchLayoutRunner.checkOutputNames(Arrays.asList(Paths.get("a", "graph.txt"), Paths.get("b", "graph.txt")), OutputFormat.csv);
+	}
+}
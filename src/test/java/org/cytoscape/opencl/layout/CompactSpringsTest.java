@@ -0,0 +1,129 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompactSpringsTest
+{
+	@Test
+	public void roundsKnownValues()
+	{
+		assertEquals(0x0000, CompactSprings.toHalf(0f));
+		assertEquals(0x8000, CompactSprings.toHalf(-0f));
+		assertEquals(0x3c00, CompactSprings.toHalf(1f));
+		assertEquals(0xc000, CompactSprings.toHalf(-2f) & 0xffff);
+		assertEquals(0x3800, CompactSprings.toHalf(0.5f));
+		assertEquals(0x7bff, CompactSprings.toHalf(65504f));
+		// Halfway to the next power of two, so it rounds to even, which is out of range
+		assertEquals(0x7c00, CompactSprings.toHalf(65520f));
+		assertEquals(0x7c00, CompactSprings.toHalf(1e10f));
+		assertEquals(0xfc00, CompactSprings.toHalf(-1e10f) & 0xffff);
+		// Smallest subnormal, and halfway below it
+		assertEquals(0x0001, CompactSprings.toHalf(0x1p-24f));
+		assertEquals(0x0000, CompactSprings.toHalf(0x1p-25f));
+		assertEquals(0x0001, CompactSprings.toHalf(0x1.8p-25f));
+		// Ties to even
+		assertEquals(0x3c00, CompactSprings.toHalf(1f + 0x1p-11f));
+		assertEquals(0x3c02, CompactSprings.toHalf(1f + 0x3p-11f));
+		// Largest subnormal rounds up into the normal range
+		assertEquals(0x0400, CompactSprings.toHalf(0x1.ffep-15f));
+	}
+
+	@Test
+	public void everyHalfRoundTrips()
+	{
+		for (int half = 0; half < 0x10000; half++)
+		{
+			if ((half & 0x7c00) == 0x7c00)
+				continue;	// Infinity and NaN
+			assertEquals(Integer.toHexString(half), half, CompactSprings.toHalf(toFloat(half)) & 0xffff);
+		}
+	}
+
+	@Test
+	public void roundsToNearest()
+	{
+		Random rand = new Random(1);
+		for (int i = 0; i < 100000; i++)
+		{
+			float value = (float)((rand.nextDouble() * 2 - 1) * Math.pow(2, rand.nextInt(40) - 25));
+			int half = CompactSprings.toHalf(value) & 0xffff;
+			float error = Math.abs(toFloat(half) - value);
+			// Neither neighbor of the result is closer
+			if ((half & 0x7fff) > 0)
+				assertTrue(value + " rounded to " + toFloat(half), error <= Math.abs(toFloat(half - 1) - value));
+			if ((half & 0x7fff) < 0x7bff)
+				assertTrue(value + " rounded to " + toFloat(half), error <= Math.abs(toFloat(half + 1) - value));
+		}
+	}
+
+	@Test
+	public void equalSpringsAreStoredOnce()
+	{
+		TestGraph graph = new TestGraph(4, new int[] { 0, 1, 2 }, new int[] { 1, 2, 3 });
+		SlimNetwork slim = graph.network(1, 50f);
+
+		CompactSprings springs = CompactSprings.of(slim, true);
+		assertEquals(CompactSprings.uniformStorage, springs.storage);
+		assertEquals(TestGraph.springCoefficient, springs.coeffScale, 0f);
+		assertEquals(50f, springs.lengthScale, 0f);
+		assertNull(springs.packed);
+	}
+
+	@Test
+	public void networkWithoutEdgesIsUniform()
+	{
+		TestGraph graph = new TestGraph(3, new int[0], new int[0]);
+		SlimNetwork slim = graph.network(1, 50f);
+
+		assertEquals(CompactSprings.uniformStorage, CompactSprings.of(slim, true).storage);
+	}
+
+	@Test
+	public void differentSpringsNeedFloatsWithoutHalfPrecision()
+	{
+		SlimNetwork slim = TestGraph.random(3, 200, 600).network(16, 50f);
+
+		CompactSprings springs = CompactSprings.of(slim, false);
+		assertEquals(CompactSprings.floatStorage, springs.storage);
+		assertNull(springs.packed);
+	}
+
+	@Test
+	public void halvesKeepSpringsToHalfPrecision()
+	{
+		SlimNetwork slim = TestGraph.random(3, 200, 600).network(16, 50f);
+
+		CompactSprings springs = CompactSprings.of(slim, true);
+		assertEquals(CompactSprings.halfStorage, springs.storage);
+		assertEquals(slim.numEdgesSparse, springs.packed.length);
+		for (int e = 0; e < slim.numEdgesSparse; e++)
+		{
+			float coeff = toFloat(springs.packed[e] & 0xffff) * springs.coeffScale;
+			float length = toFloat(springs.packed[e] >>> 16) * springs.lengthScale;
+			assertEquals(slim.edgeCoeffs[e], coeff, slim.edgeCoeffs[e] * 0x1p-10f);
+			assertEquals(slim.edgeLengths[e], length, slim.edgeLengths[e] * 0x1p-10f);
+		}
+	}
+
+	/**
+	 * Decodes an IEEE 754 half precision value.
+	 */
+	private static float toFloat(int half)
+	{
+		int exponent = (half >>> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		float magnitude;
+		if (exponent == 0x1f)
+			magnitude = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		else if (exponent == 0)
+			magnitude = mantissa * 0x1p-24f;
+		else
+			magnitude = (1024 + mantissa) * (float)Math.pow(2, exponent - 25);
+		// Negated rather than multiplied, to keep -0
+		return (half & 0x8000) != 0 ? -magnitude : magnitude;
+	}
+}
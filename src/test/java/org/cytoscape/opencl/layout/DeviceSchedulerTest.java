@@ -0,0 +1,115 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DeviceSchedulerTest
+{
+	@Test
+	public void handsOutIdleDevicesBestFirst() throws InterruptedException
+	{
+		DeviceScheduler<String> scheduler = new DeviceScheduler<>(Arrays.asList("gpu", "cpu"));
+
+		assertEquals("gpu", scheduler.acquire(10));
+		assertEquals("cpu", scheduler.acquire(10));
+
+		scheduler.release("gpu");
+		assertEquals("gpu", scheduler.acquire(10));
+	}
+
+	@Test
+	public void releasedDeviceGoesToLargestWaitingPartition() throws InterruptedException
+	{
+		DeviceScheduler<String> scheduler = new DeviceScheduler<>(Collections.singletonList("gpu"));
+		assertEquals("gpu", scheduler.acquire(1));
+
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		Thread small = startWaiter(scheduler, 10, "small", order);
+		awaitWaiting(small);
+		Thread large = startWaiter(scheduler, 1000, "large", order);
+		awaitWaiting(large);
+
+		scheduler.release("gpu");
+		small.join(5000);
+		large.join(5000);
+
+		assertEquals(Arrays.asList("large", "small"), order);
+	}
+
+	@Test
+	public void equalPartitionsAreServedInArrivalOrder() throws InterruptedException
+	{
+		DeviceScheduler<String> scheduler = new DeviceScheduler<>(Collections.singletonList("gpu"));
+		assertEquals("gpu", scheduler.acquire(1));
+
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		Thread first = startWaiter(scheduler, 5, "first", order);
+		awaitWaiting(first);
+		Thread second = startWaiter(scheduler, 5, "second", order);
+		awaitWaiting(second);
+
+		scheduler.release("gpu");
+		first.join(5000);
+		second.join(5000);
+
+		assertEquals(Arrays.asList("first", "second"), order);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void releasingIdleDeviceFails()
+	{
+		new DeviceScheduler<>(Arrays.asList("gpu", "cpu")).release("cpu");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void releasingUnknownDeviceFails()
+	{
+		new DeviceScheduler<>(Collections.singletonList("gpu")).release("fpga");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void needsAtLeastOneDevice()
+	{
+		new DeviceScheduler<String>(Collections.emptyList());
+	}
+
+	/**
+	 * Starts a thread that acquires a device, records its name and gives the device back.
+	 */
+	private static Thread startWaiter(DeviceScheduler<String> scheduler, long work, String name, List<String> order)
+	{
+		Thread thread = new Thread(() -> {
+			try
+			{
+				String device = scheduler.acquire(work);
+				order.add(name);
+				scheduler.release(device);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Waits until the thread blocks in acquire().
+	 */
+	private static void awaitWaiting(Thread thread) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (thread.getState() != Thread.State.WAITING)
+		{
+			assertTrue("Thread did not start waiting for a device", System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+}
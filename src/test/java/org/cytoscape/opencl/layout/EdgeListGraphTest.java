@@ -0,0 +1,139 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EdgeListGraphTest
+{
+	@Test
+	public void sifLineWithSeveralTargets() throws IOException
+	{
+		EdgeListGraph graph = read(".sif", "a pp b c d", "b\tpp\tc");
+
+		assertEquals(4, graph.getNodeCount());
+		assertEquals(4, graph.getEdgeCount());
+		assertEdge(graph, 0, "a", "b");
+		assertEdge(graph, 1, "a", "c");
+		assertEdge(graph, 2, "a", "d");
+		assertEdge(graph, 3, "b", "c");
+		for (int e = 0; e < graph.getEdgeCount(); e++)
+			assertEquals(EdgeListGraph.defaultWeight, graph.getEdgeWeight(e), 0.0);
+	}
+
+	@Test
+	public void tabsSeparateColumnsWithSpaces() throws IOException
+	{
+		EdgeListGraph graph = read(".txt", "node one\tnode two", "node two \t node three\t2");
+
+		assertEquals(3, graph.getNodeCount());
+		assertEdge(graph, 0, "node one", "node two");
+		assertEdge(graph, 1, "node two", "node three");
+	}
+
+	@Test
+	public void spacesSeparateColumnsWithoutTabs() throws IOException
+	{
+		EdgeListGraph graph = read(".txt", "a   b", "  b c 2  ");
+
+		assertEquals(3, graph.getNodeCount());
+		assertEdge(graph, 0, "a", "b");
+		assertEdge(graph, 1, "b", "c");
+	}
+
+	@Test
+	public void nodeOnlyLinesCommentsAndEmptyLines() throws IOException
+	{
+		EdgeListGraph graph = read(".txt", "# comment", "", "x", "a b", "   ", "y", "x");
+
+		assertEquals(4, graph.getNodeCount());
+		assertEquals(1, graph.getEdgeCount());
+		// Numbered in order of first appearance
+		assertEquals(Arrays.asList("x", "a", "b", "y"), names(graph));
+		assertEdge(graph, 0, "a", "b");
+	}
+
+	@Test
+	public void weightsAreNormalizedToEdgeWeighterRange() throws IOException
+	{
+		EdgeListGraph graph = read(".txt", "a b 1000", "b c 10", "c d 0.01", "d a");
+
+		assertEquals(EdgeListGraph.maxNormalizedWeight, graph.getEdgeWeight(0), 1e-6);
+		assertEquals(0.1 + (10 - 0.01) / (1000 - 0.01) * 0.8, graph.getEdgeWeight(1), 1e-6);
+		assertEquals(EdgeListGraph.minNormalizedWeight, graph.getEdgeWeight(2), 1e-6);
+		assertEquals(EdgeListGraph.defaultWeight, graph.getEdgeWeight(3), 0.0);
+	}
+
+	@Test
+	public void equalWeightsAreTheDefault() throws IOException
+	{
+		EdgeListGraph graph = read(".txt", "a b 7", "b c 7");
+
+		assertEquals(EdgeListGraph.defaultWeight, graph.getEdgeWeight(0), 0.0);
+		assertEquals(EdgeListGraph.defaultWeight, graph.getEdgeWeight(1), 0.0);
+	}
+
+	@Test
+	public void invalidLinesAreRejected() throws IOException
+	{
+		assertRejected(".sif", "line 2", "a pp b", "a pp");
+		assertRejected(".txt", "line 1", "a b 1 2");
+		assertRejected(".txt", "invalid weight 'heavy'", "a b heavy");
+		assertRejected(".txt", "must be > 0", "a b 0");
+		assertRejected(".txt", "must be > 0", "a b -1");
+		assertRejected(".txt", "must be > 0", "a b NaN");
+	}
+
+	private static EdgeListGraph read(String extension, String... lines) throws IOException
+	{
+		Path file = Files.createTempFile("graph", extension);
+		try
+		{
+			Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+			return EdgeListGraph.read(file);
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Checks that reading the lines fails with a message containing the given text,
+	 * where "line N" stands for the file name followed by the line number.
+	 */
+	private static void assertRejected(String extension, String message, String... lines)
+	{
+		try
+		{
+			read(extension, lines);
+			fail("Accepted " + Arrays.toString(lines));
+		}
+		catch (IOException e)
+		{
+			String expected = message.startsWith("line ") ? extension + ":" + message.substring(5) + ":" : message;
+			assertTrue(e.getMessage(), e.getMessage().contains(expected));
+		}
+	}
+
+	private static void assertEdge(EdgeListGraph graph, int edge, String source, String target)
+	{
+		assertEquals(source, graph.getNodeName(graph.getEdgeSource(edge)));
+		assertEquals(target, graph.getNodeName(graph.getEdgeTarget(edge)));
+	}
+
+	private static List<String> names(EdgeListGraph graph)
+	{
+		String[] names = new String[graph.getNodeCount()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = graph.getNodeName(i);
+		return Arrays.asList(names);
+	}
+}
@@ -0,0 +1,149 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class IncrementalRegionTest
+{
+	private static final int padding = 16;
+	private static final float spacing = 50f;
+	private static final float margin = 3 * spacing;
+
+	@Test
+	public void movesChangedNodesAndTheirNeighborhood()
+	{
+		SlimNetwork slim = path(100);
+		IncrementalRegion region = IncrementalRegion.find(slim, changed(slim, 50), 2, margin, 0.5f, padding);
+		assertNotNull(region);
+
+		Map<Integer, Boolean> free = freeByNode(region.getNetwork());
+		for (int node = 48; node <= 52; node++)
+			assertEquals("node " + node, Boolean.TRUE, free.get(node));
+		// Anchors: the next neighbors, pinned
+		assertEquals(Boolean.FALSE, free.get(47));
+		assertEquals(Boolean.FALSE, free.get(53));
+		// Far away nodes are left out
+		assertNull(free.get(0));
+		assertNull(free.get(99));
+		for (Map.Entry<Integer, Boolean> node : free.entrySet())
+			assertTrue("node " + node.getKey(), Math.abs(node.getKey() - 50) * spacing < 3 * margin);
+	}
+
+	@Test
+	public void searchStopsAtPinnedNodes()
+	{
+		TestGraph graph = pathGraph(100);
+		graph.locked[51] = true;
+		SlimNetwork slim = graph.network(padding, spacing);
+		IncrementalRegion region = IncrementalRegion.find(slim, changed(slim, 50), 3, margin, 0.5f, padding);
+
+		Map<Integer, Boolean> free = freeByNode(region.getNetwork());
+		assertEquals(Boolean.TRUE, free.get(47));
+		assertEquals(Boolean.FALSE, free.get(51));
+		assertNotEquals(Boolean.TRUE, free.get(52));
+	}
+
+	@Test
+	public void changedPinnedNodesDontMove()
+	{
+		TestGraph graph = pathGraph(100);
+		graph.locked[50] = true;
+		SlimNetwork slim = graph.network(padding, spacing);
+
+		assertNull(IncrementalRegion.find(slim, changed(slim, 50), 2, margin, 0.5f, padding));
+	}
+
+	@Test
+	public void nothingChangedMeansFullLayout()
+	{
+		SlimNetwork slim = path(100);
+
+		assertNull(IncrementalRegion.find(slim, new boolean[slim.numNodes], 2, margin, 0.5f, padding));
+	}
+
+	@Test
+	public void largeEditMeansFullLayout()
+	{
+		SlimNetwork slim = path(100);
+
+		assertNull(IncrementalRegion.find(slim, changed(slim, 10, 30, 50, 70, 90), 5, margin, 0.3f, padding));
+		assertNotNull(IncrementalRegion.find(slim, changed(slim, 10, 30, 50, 70, 90), 5, margin, 0.6f, padding));
+	}
+
+	@Test
+	public void applyCopiesPositionsBack()
+	{
+		SlimNetwork slim = path(100);
+		float[] before = slim.nodePosY.clone();
+		IncrementalRegion region = IncrementalRegion.find(slim, changed(slim, 50), 2, margin, 0.5f, padding);
+		SlimNetwork sub = region.getNetwork();
+
+		Map<Integer, Integer> subIndex = new HashMap<>();
+		for (int i = 0; i < sub.numNodes; i++)
+			subIndex.put(node(sub.nodePosX[i]), i);
+		for (int i = 0; i < sub.numNodes; i++)
+			sub.nodePosY[i] = 1000f + i;
+		region.apply(slim);
+
+		for (int id = 0; id < slim.numNodes; id++)
+		{
+			Integer i = subIndex.get(node(slim.nodePosX[id]));
+			assertEquals(i != null ? 1000f + i : before[id], slim.nodePosY[id], 0f);
+		}
+	}
+
+	/**
+	 * Nodes 0 to n - 1 in a row, spacing apart, each linked to the next.
+	 */
+	private static TestGraph pathGraph(int n)
+	{
+		int[] sources = new int[n - 1], targets = new int[n - 1];
+		for (int i = 0; i < n - 1; i++)
+		{
+			sources[i] = i;
+			targets[i] = i + 1;
+		}
+		TestGraph graph = new TestGraph(n, sources, targets);
+		for (int i = 0; i < n; i++)
+			graph.x[i] = i * spacing;
+		return graph;
+	}
+
+	private static SlimNetwork path(int n)
+	{
+		return pathGraph(n).network(padding, spacing);
+	}
+
+	/**
+	 * Node of the path graph at this position; networks reorder nodes by degree.
+	 */
+	private static int node(float x)
+	{
+		return Math.round(x / spacing);
+	}
+
+	private static boolean[] changed(SlimNetwork slim, int... nodes)
+	{
+		boolean[] changed = new boolean[slim.numNodes];
+		for (int id = 0; id < slim.numNodes; id++)
+			for (int node : nodes)
+				if (node(slim.nodePosX[id]) == node)
+					changed[id] = true;
+		return changed;
+	}
+
+	/**
+	 * Whether each node of the path graph in the region is free to move.
+	 */
+	private static Map<Integer, Boolean> freeByNode(SlimNetwork region)
+	{
+		Map<Integer, Boolean> free = new HashMap<>();
+		for (int i = 0; i < region.numNodes; i++)
+			free.put(node(region.nodePosX[i]), region.nodeMobility[i] != 0f);
+		return free;
+	}
+}
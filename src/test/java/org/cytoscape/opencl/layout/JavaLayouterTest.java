@@ -0,0 +1,136 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class JavaLayouterTest
+{
+	private static final String[] integrators =
+	{
+		CLLayoutContext.rungeKuttaIntegrator, CLLayoutContext.eulerIntegrator, CLLayoutContext.verletIntegrator
+	};
+
+	@Test
+	public void pinnedNodesDontMove()
+	{
+		for (String integrator : integrators)
+		{
+			SlimNetwork slim = TestGraph.random(1, 500, 1500).network(16, 50f);
+			float[] startX = slim.nodePosX.clone(), startY = slim.nodePosY.clone();
+			run(context(integrator), slim, 10, true);
+
+			for (int i = 0; i < slim.numNodes; i++)
+				if (slim.nodeMobility[i] == 0f)
+				{
+					assertEquals(integrator, startX[i], slim.nodePosX[i], 0f);
+					assertEquals(integrator, startY[i], slim.nodePosY[i], 0f);
+				}
+		}
+	}
+
+	@Test
+	public void positionsStayFinite()
+	{
+		for (String integrator : integrators)
+		{
+			SlimNetwork slim = TestGraph.random(2, 500, 1500).network(16, 50f);
+			float[] startX = slim.nodePosX.clone();
+			run(context(integrator), slim, 10, true);
+
+			int moved = 0;
+			for (int i = 0; i < slim.numNodes; i++)
+			{
+				assertTrue(integrator, Float.isFinite(slim.nodePosX[i]) && Float.isFinite(slim.nodePosY[i]));
+				if (slim.nodePosX[i] != startX[i])
+					moved++;
+			}
+			assertTrue(integrator, moved > 0);
+		}
+	}
+
+	@Test
+	public void symmetricPairStaysSymmetric()
+	{
+		for (String integrator : integrators)
+		{
+			TestGraph graph = new TestGraph(2, new int[] { 0 }, new int[] { 1 });
+			graph.x[0] = -100;
+			graph.x[1] = 100;
+			SlimNetwork slim = graph.network(16, 50f);
+			run(context(integrator), slim, 10, false);
+
+			assertEquals(integrator, -slim.nodePosX[0], slim.nodePosX[1], 1e-3f);
+			assertEquals(integrator, 0f, slim.nodePosY[0], 0f);
+			assertEquals(integrator, 0f, slim.nodePosY[1], 0f);
+			// The spring is stretched far beyond its length, so it pulls the nodes together
+			float distance = Math.abs(slim.nodePosX[1] - slim.nodePosX[0]);
+			assertTrue(integrator + ": " + distance, distance < 200f);
+		}
+	}
+
+	@Test
+	public void rejectedStepIsRepeatedExactly()
+	{
+		CLLayoutContext context = context(CLLayoutContext.rungeKuttaIntegrator);
+		context.adaptiveTimestep = true;
+		SlimNetwork slim = TestGraph.random(3, 300, 900).network(16, 50f);
+		JavaLayouter engine = new JavaLayouter(context, new LayoutTimings("test", "host"));
+		engine.initializeBuffers(slim);
+		engine.initializeSimulation(slim);
+		engine.advanceSimulation(50f, false, slim);
+
+		float[] startX = slim.nodePosX.clone(), startY = slim.nodePosY.clone();
+		engine.advanceSimulation(50f, false, slim);
+		float[] stepX = slim.nodePosX.clone(), stepY = slim.nodePosY.clone();
+		assertTrue(engine.estimateError(slim) > 0f);
+
+		engine.rejectStep(slim);
+		assertArrayEquals(startX, slim.nodePosX, 0f);
+		assertArrayEquals(startY, slim.nodePosY, 0f);
+		// Velocities are restored as well, so the same step gives the same positions
+		engine.advanceSimulation(50f, false, slim);
+		assertArrayEquals(stepX, slim.nodePosX, 0f);
+		assertArrayEquals(stepY, slim.nodePosY, 0f);
+		engine.freeBuffers();
+	}
+
+	@Test
+	public void smallerStepsHaveSmallerErrors()
+	{
+		float[] errors = new float[2];
+		float[] timesteps = { 100f, 25f };
+		for (int k = 0; k < timesteps.length; k++)
+		{
+			SlimNetwork slim = TestGraph.random(4, 300, 900).network(16, 50f);
+			JavaLayouter engine = new JavaLayouter(context(CLLayoutContext.rungeKuttaIntegrator), new LayoutTimings("test", "host"));
+			engine.initializeBuffers(slim);
+			engine.initializeSimulation(slim);
+			engine.advanceSimulation(timesteps[k], false, slim);
+			errors[k] = engine.estimateError(slim);
+			engine.freeBuffers();
+		}
+		assertTrue(errors[0] + " vs. " + errors[1], errors[1] < errors[0]);
+	}
+
+	private static CLLayoutContext context(String integrator)
+	{
+		CLLayoutContext context = new CLLayoutContext();
+		context.integrator.setSelectedValue(integrator);
+		return context;
+	}
+
+	/**
+	 * Runs a fixed number of steps like the cooling schedule, without convergence checks.
+	 */
+	private static void run(CLLayoutContext context, SlimNetwork slim, int numIterations, boolean edgeRepulsion)
+	{
+		JavaLayouter engine = new JavaLayouter(context, new LayoutTimings("test", "host"));
+		engine.initializeBuffers(slim);
+		engine.initializeSimulation(slim);
+		for (int i = 0; i < numIterations; i++)
+			engine.advanceSimulation(50f, edgeRepulsion && i % 2 == 1, slim);
+		engine.getPositions(slim);
+		engine.freeBuffers();
+	}
+}
@@ -0,0 +1,249 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MultilevelHierarchyTest
+{
+	private static final int padding = 16;
+
+	@Test
+	public void smallNetworkHasOneLevel()
+	{
+		SlimNetwork slim = TestGraph.random(1, MultilevelHierarchy.coarsestNodes, 3000).network(padding, 50f);
+		MultilevelHierarchy hierarchy = new MultilevelHierarchy(slim, padding);
+
+		assertEquals(1, hierarchy.getNumLevels());
+		assertSame(slim, hierarchy.getLevel(0));
+	}
+
+	@Test
+	public void levelsShrinkAndKeepMass()
+	{
+		SlimNetwork slim = TestGraph.random(2, 20000, 40000).network(padding, 50f);
+		MultilevelHierarchy hierarchy = new MultilevelHierarchy(slim, padding);
+
+		assertTrue(hierarchy.getNumLevels() > 2);
+		for (int level = 1; level < hierarchy.getNumLevels(); level++)
+		{
+			SlimNetwork fine = hierarchy.getLevel(level - 1), coarse = hierarchy.getLevel(level);
+			assertTrue(coarse.numNodes < fine.numNodes);
+			assertEquals(sum(fine.nodeMass, fine.numNodes), sum(coarse.nodeMass, coarse.numNodes), 1e-3);
+			// Coarse nodes sit at their group's center of mass, so the total moment is the same
+			assertEquals(moment(fine), moment(coarse), 1e-3 * Math.abs(moment(fine)) + 1);
+			assertValidNetwork(coarse);
+		}
+		assertTrue(hierarchy.getLevel(hierarchy.getNumLevels() - 2).numNodes > MultilevelHierarchy.coarsestNodes);
+	}
+
+	@Test
+	public void pinnedNodesAreNeverCollapsed()
+	{
+		SlimNetwork slim = TestGraph.random(3, 5000, 12000).network(padding, 50f);
+		MultilevelHierarchy hierarchy = new MultilevelHierarchy(slim, padding);
+		assertTrue(hierarchy.getNumLevels() > 1);
+
+		for (int level = 1; level < hierarchy.getNumLevels(); level++)
+		{
+			SlimNetwork fine = hierarchy.getLevel(level - 1), coarse = hierarchy.getLevel(level);
+			float[][] finePinned = pinnedPositions(fine), coarsePinned = pinnedPositions(coarse);
+			assertEquals(finePinned.length, coarsePinned.length);
+			for (int i = 0; i < finePinned.length; i++)
+			{
+				assertEquals(finePinned[i][0], coarsePinned[i][0], 1e-3f);
+				assertEquals(finePinned[i][1], coarsePinned[i][1], 1e-3f);
+			}
+			for (int i = 0; i < coarse.numNodes; i++)
+				if (coarse.nodeMobility[i] == 0f)
+					assertEquals(TestGraph.nodeMass, coarse.nodeMass[i], 0f);
+		}
+	}
+
+	@Test
+	public void prolongPlacesNodesOnTheirGroup()
+	{
+		SlimNetwork slim = TestGraph.random(4, 5000, 12000).network(padding, 50f);
+		MultilevelHierarchy hierarchy = new MultilevelHierarchy(slim, padding);
+		SlimNetwork fine = hierarchy.getLevel(0), coarse = hierarchy.getLevel(1);
+		float[] pinnedX = fine.nodePosX.clone();
+
+		// Without an offset, every node lands exactly on its coarse node, which has its group's mass
+		for (int k = 0; k < coarse.numNodes; k++)
+			coarse.nodePosX[k] = k;
+		hierarchy.prolong(0, new Random(1), 0f);
+
+		float[] groupMass = new float[coarse.numNodes];
+		for (int i = 0; i < fine.numNodes; i++)
+		{
+			if (fine.nodeMobility[i] == 0f)
+			{
+				assertEquals(pinnedX[i], fine.nodePosX[i], 0f);
+				continue;
+			}
+			int k = (int)fine.nodePosX[i];
+			assertEquals(k, fine.nodePosX[i], 0f);
+			groupMass[k] += fine.nodeMass[i];
+		}
+		for (int k = 0; k < coarse.numNodes; k++)
+			if (coarse.nodeMobility[k] != 0f)
+				assertEquals(coarse.nodeMass[k], groupMass[k], 1e-4f);
+	}
+
+	@Test
+	public void prolongOffsetsStayWithinBounds()
+	{
+		SlimNetwork slim = TestGraph.random(5, 5000, 12000).network(padding, 50f);
+		MultilevelHierarchy hierarchy = new MultilevelHierarchy(slim, padding);
+		SlimNetwork fine = hierarchy.getLevel(0), coarse = hierarchy.getLevel(1);
+
+		Arrays.fill(coarse.nodePosX, 0, coarse.numNodes, 100f);
+		Arrays.fill(coarse.nodePosY, 0, coarse.numNodes, -100f);
+		hierarchy.prolong(0, new Random(1), 5f);
+		for (int i = 0; i < fine.numNodes; i++)
+			if (fine.nodeMobility[i] != 0f)
+			{
+				assertEquals(100f, fine.nodePosX[i], 5f);
+				assertEquals(-100f, fine.nodePosY[i], 5f);
+			}
+	}
+
+	@Test
+	public void coarsenMergesSpringsBetweenGroups()
+	{
+		SlimNetwork fine = TestGraph.random(6, 300, 900).network(padding, 50f);
+		// Pairs of consecutive nodes
+		int numGroups = (fine.numNodes + 1) / 2;
+		int[] groups = new int[fine.numNodes];
+		for (int i = 0; i < fine.numNodes; i++)
+			groups[i] = i / 2;
+		int[] pairOf = groups.clone();
+		SlimNetwork coarse = fine.coarsen(groups, numGroups, padding);
+
+		assertEquals(numGroups, coarse.numNodes);
+		assertValidNetwork(coarse);
+
+		// groups now holds coarse indices; every spring between two groups is in the coarse spring
+		double[][] coeffs = new double[numGroups][numGroups];
+		for (int i = 0; i < fine.numNodes; i++)
+			for (int e = fine.edgeOffsetsSparse[i]; e < fine.edgeOffsetsSparse[i] + fine.edgeCounts[i]; e++)
+				if (pairOf[i] != pairOf[fine.edges[e]])
+					coeffs[groups[i]][groups[fine.edges[e]]] += fine.edgeCoeffs[e];
+		for (int k = 0; k < numGroups; k++)
+		{
+			int springs = 0;
+			for (int l = 0; l < numGroups; l++)
+				if (coeffs[k][l] > 0)
+					springs++;
+			assertEquals(springs, coarse.edgeCounts[k]);
+			for (int e = coarse.edgeOffsetsSparse[k]; e < coarse.edgeOffsetsSparse[k] + coarse.edgeCounts[k]; e++)
+				assertEquals(coeffs[k][coarse.edges[e]], coarse.edgeCoeffs[e], 1e-9);
+		}
+	}
+
+	@Test
+	public void induceKeepsEdgesWithinSubset()
+	{
+		SlimNetwork slim = TestGraph.random(7, 300, 900).network(padding, 50f);
+		int[] subset = new int[100];
+		for (int i = 0; i < subset.length; i++)
+			subset[i] = i * 3;
+		SlimNetwork sub = slim.induce(subset, padding);
+
+		assertEquals(subset.length, sub.numNodes);
+		assertValidNetwork(sub);
+		for (int i = 0; i < subset.length; i++)
+		{
+			int id = subset[i];
+			assertEquals(slim.nodePosX[id], sub.nodePosX[i], 0f);
+			assertEquals(slim.nodeMobility[id], sub.nodeMobility[i], 0f);
+
+			int expected = 0;
+			for (int e = slim.edgeOffsetsSparse[id]; e < slim.edgeOffsetsSparse[id] + slim.edgeCounts[id]; e++)
+				if (slim.edges[e] % 3 == 0 && slim.edges[e] / 3 < subset.length)
+					expected++;
+			assertEquals(expected, sub.edgeCounts[i]);
+			for (int e = sub.edgeOffsetsSparse[i]; e < sub.edgeOffsetsSparse[i] + sub.edgeCounts[i]; e++)
+			{
+				int original = Arrays.binarySearch(slim.edges, slim.edgeOffsetsSparse[id], slim.edgeOffsetsSparse[id] + slim.edgeCounts[id], subset[sub.edges[e]]);
+				assertTrue(original >= 0);
+				assertEquals(slim.edgeCoeffs[original], sub.edgeCoeffs[e], 0f);
+				assertEquals(slim.edgeLengths[original], sub.edgeLengths[e], 0f);
+			}
+		}
+	}
+
+	/**
+	 * Checks what the kernels rely on: sorted neighbor lists without self-loops, springs
+	 * that are the same from both ends, and every such pair once in the unique edges.
+	 */
+	private static void assertValidNetwork(SlimNetwork slim)
+	{
+		int sparse = 0;
+		for (int i = 0; i < slim.numNodes; i++)
+		{
+			assertEquals(sparse, slim.edgeOffsetsSparse[i]);
+			sparse += slim.edgeCounts[i];
+			for (int e = slim.edgeOffsetsSparse[i]; e < slim.edgeOffsetsSparse[i] + slim.edgeCounts[i]; e++)
+			{
+				int j = slim.edges[e];
+				assertNotEquals(i, j);
+				if (e > slim.edgeOffsetsSparse[i])
+					assertTrue(slim.edges[e - 1] < j);
+				int back = Arrays.binarySearch(slim.edges, slim.edgeOffsetsSparse[j], slim.edgeOffsetsSparse[j] + slim.edgeCounts[j], i);
+				assertTrue(back >= 0);
+				assertEquals(slim.edgeCoeffs[e], slim.edgeCoeffs[back], 1e-9f);
+				assertEquals(slim.edgeLengths[e], slim.edgeLengths[back], 1e-3f);
+			}
+		}
+		assertEquals(sparse, slim.numEdgesSparse);
+		assertEquals(sparse / 2, slim.numEdgesUnique);
+		assertEquals(SlimTopology.nextMultipleOf(slim.numEdgesUnique, padding), slim.numEdgesUniquePadded);
+		assertEquals(SlimTopology.nextMultipleOf(slim.numNodes, padding), slim.numNodesPadded);
+
+		for (int u = 0; u < slim.numEdgesUnique; u++)
+		{
+			int source = slim.edgeUniqueSources[u], target = slim.edgeUniqueTargets[u];
+			assertTrue(source < target);
+			assertTrue(Arrays.binarySearch(slim.edges, slim.edgeOffsetsSparse[source], slim.edgeOffsetsSparse[source] + slim.edgeCounts[source], target) >= 0);
+			assertEquals(slim.nodeMass[source], slim.edgeMassStart[u], 0f);
+			assertEquals(slim.nodeMass[target], slim.edgeMassEnd[u], 0f);
+		}
+		for (int i = slim.numNodes; i < slim.numNodesPadded; i++)
+			assertEquals(0f, slim.nodeMass[i], 0f);
+	}
+
+	private static double sum(float[] values, int count)
+	{
+		double sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += values[i];
+		return sum;
+	}
+
+	private static double moment(SlimNetwork slim)
+	{
+		double moment = 0;
+		for (int i = 0; i < slim.numNodes; i++)
+			moment += (double)slim.nodeMass[i] * slim.nodePosX[i];
+		return moment;
+	}
+
+	/**
+	 * Positions of the pinned nodes, sorted.
+	 */
+	private static float[][] pinnedPositions(SlimNetwork slim)
+	{
+		float[][] pinned = new float[slim.numNodes][];
+		int count = 0;
+		for (int i = 0; i < slim.numNodes; i++)
+			if (slim.nodeMobility[i] == 0f)
+				pinned[count++] = new float[] { slim.nodePosX[i], slim.nodePosY[i] };
+		float[][] sorted = Arrays.copyOf(pinned, count);
+		Arrays.sort(sorted, (a, b) -> a[0] != b[0] ? Float.compare(a[0], b[0]) : Float.compare(a[1], b[1]));
+		return sorted;
+	}
+}
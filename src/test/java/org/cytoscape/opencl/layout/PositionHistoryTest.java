@@ -0,0 +1,101 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.cytoscape.model.CyNode;
+import org.cytoscape.view.layout.LayoutNode;
+import org.cytoscape.view.model.CyNetworkView;
+import org.cytoscape.view.model.View;
+import org.cytoscape.view.presentation.property.BasicVisualLexicon;
+import org.junit.Test;
+
+public class PositionHistoryTest
+{
+	private final CyNode a = mock(CyNode.class), b = mock(CyNode.class);
+
+	@Test
+	public void recordsPositionsPerView()
+	{
+		PositionHistory history = new PositionHistory();
+		CyNetworkView first = networkView(nodeView(a, 10, 20), nodeView(b, -5, 0));
+		CyNetworkView second = networkView(nodeView(a, 1, 2));
+		history.record(first);
+		history.record(second);
+
+		Map<CyNode, double[]> positions = history.get(first);
+		assertEquals(2, positions.size());
+		assertArrayEquals(new double[] { 10, 20 }, positions.get(a), 0);
+		assertArrayEquals(new double[] { -5, 0 }, positions.get(b), 0);
+		assertArrayEquals(new double[] { 1, 2 }, history.get(second).get(a), 0);
+		assertNull(history.get(networkView()));
+	}
+
+	@Test
+	public void recordingAgainReplacesPositions()
+	{
+		PositionHistory history = new PositionHistory();
+		List<View<CyNode>> nodeViews = new ArrayList<>();
+		nodeViews.add(nodeView(a, 10, 20));
+		CyNetworkView view = mock(CyNetworkView.class);
+		when(view.getNodeViews()).thenReturn(nodeViews);
+		history.record(view);
+
+		nodeViews.set(0, nodeView(b, 3, 4));
+		history.record(view);
+
+		assertNull(history.get(view).get(a));
+		assertArrayEquals(new double[] { 3, 4 }, history.get(view).get(b), 0);
+	}
+
+	@Test
+	public void smallMovesDontCountAsChanges()
+	{
+		PositionHistory history = new PositionHistory();
+		CyNetworkView view = networkView(nodeView(a, 10, 20));
+		history.record(view);
+		Map<CyNode, double[]> positions = history.get(view);
+
+		assertFalse(PositionHistory.isChanged(positions, layoutNode(a, 10, 20)));
+		assertFalse(PositionHistory.isChanged(positions, layoutNode(a, 10.2, 19.8)));
+		assertTrue(PositionHistory.isChanged(positions, layoutNode(a, 11, 20)));
+		assertTrue(PositionHistory.isChanged(positions, layoutNode(a, 10, 19)));
+		// Added since the last layout
+		assertTrue(PositionHistory.isChanged(positions, layoutNode(b, 10, 20)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static View<CyNode> nodeView(CyNode node, double x, double y)
+	{
+		View<CyNode> view = mock(View.class);
+		when(view.getModel()).thenReturn(node);
+		when(view.getVisualProperty(BasicVisualLexicon.NODE_X_LOCATION)).thenReturn(x);
+		when(view.getVisualProperty(BasicVisualLexicon.NODE_Y_LOCATION)).thenReturn(y);
+		return view;
+	}
+
+	@SafeVarargs
+	private static CyNetworkView networkView(View<CyNode>... nodeViews)
+	{
+		List<View<CyNode>> list = new ArrayList<>();
+		for (View<CyNode> nodeView : nodeViews)
+			list.add(nodeView);
+		CyNetworkView view = mock(CyNetworkView.class);
+		when(view.getNodeViews()).thenReturn(list);
+		return view;
+	}
+
+	private static LayoutNode layoutNode(CyNode node, double x, double y)
+	{
+		LayoutNode layoutNode = mock(LayoutNode.class);
+		when(layoutNode.getNode()).thenReturn(node);
+		when(layoutNode.getX()).thenReturn(x);
+		when(layoutNode.getY()).thenReturn(y);
+		return layoutNode;
+	}
+}
@@ -0,0 +1,210 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SlimNetworkTest
+{
+	private static final float mass = 3f, springCoefficient = 1e-4f, springLength = 50f;
+
+	@Test
+	public void smallGraphsMatchReference()
+	{
+		for (int padding : new int[] { 1, 4, 16 })
+			for (long seed = 0; seed < 20; seed++)
+				assertMatchesReference(TestGraph.random(seed, 1 + (int)seed * 7, (int)seed * 15), padding);
+	}
+
+	@Test
+	public void largeGraphMatchesReference()
+	{
+		// Large enough for the parallel passes
+		assertMatchesReference(TestGraph.random(42, 20000, 60000), 16);
+	}
+
+	@Test
+	public void graphWithoutEdgesMatchesReference()
+	{
+		assertMatchesReference(new TestGraph(10, new int[0], new int[0]), 16);
+	}
+
+	@Test
+	public void parallelEdgesShareOneSpring()
+	{
+		TestGraph graph = new TestGraph(2, new int[] { 0, 1, 0 }, new int[] { 1, 0, 1 });
+		graph.weights[0] = 1.0;
+		graph.weights[1] = 2.0;
+		graph.weights[2] = 4.0;
+		SlimNetwork network = new SlimNetwork(new SlimTopology(graph, 1), graph, mass, springCoefficient, springLength);
+
+		assertEquals(2, network.numEdgesSparse);
+		assertEquals(1, network.numEdgesUnique);
+		assertArrayEquals(new float[] { 3 * springCoefficient, 3 * springCoefficient }, network.edgeCoeffs, 1e-9f);
+		float length = (springLength + springLength / 2 + springLength / 4) / 3;
+		assertArrayEquals(new float[] { length, length }, network.edgeLengths, 1e-4f);
+	}
+
+	static void assertMatchesReference(TestGraph graph, int padding)
+	{
+		SlimTopology topology = new SlimTopology(graph, padding);
+		SlimNetwork actual = new SlimNetwork(topology, graph, mass, springCoefficient, springLength);
+		Reference expected = new Reference(graph, padding);
+		assertSameNetwork(expected, actual);
+		assertArrayEquals(expected.order, topology.order);
+	}
+
+	static void assertSameNetwork(Reference expected, SlimNetwork actual)
+	{
+		assertEquals(expected.numNodes, actual.numNodes);
+		assertEquals(expected.numNodesPadded, actual.numNodesPadded);
+		assertEquals(expected.numEdgesSparse, actual.numEdgesSparse);
+		assertEquals(expected.numEdgesUnique, actual.numEdgesUnique);
+		assertEquals(expected.numEdgesUniquePadded, actual.numEdgesUniquePadded);
+
+		assertArrayEquals(expected.nodePosX, actual.nodePosX, 0f);
+		assertArrayEquals(expected.nodePosY, actual.nodePosY, 0f);
+		assertArrayEquals(expected.nodeMass, actual.nodeMass, 0f);
+		assertArrayEquals(expected.nodeMobility, actual.nodeMobility, 0f);
+
+		assertArrayEquals(expected.edgeOffsetsSparse, actual.edgeOffsetsSparse);
+		assertArrayEquals(expected.edgeCounts, actual.edgeCounts);
+		assertArrayEquals(expected.edges, actual.edges);
+		assertArrayEquals(expected.edgeCoeffs, actual.edgeCoeffs, 0f);
+		assertArrayEquals(expected.edgeLengths, actual.edgeLengths, 0f);
+
+		assertArrayEquals(expected.edgeUniqueSources, actual.edgeUniqueSources);
+		assertArrayEquals(expected.edgeUniqueTargets, actual.edgeUniqueTargets);
+		assertArrayEquals(expected.edgeMassStart, actual.edgeMassStart, 0f);
+		assertArrayEquals(expected.edgeMassEnd, actual.edgeMassEnd, 0f);
+	}
+
+	/**
+	 * The network built the way SlimNetwork did before it worked on primitive arrays:
+	 * per-node collections of neighbors and edges, a sort of the node list by degree,
+	 * and a hash set of the unique edges seen so far. Neighbor lists are packed back
+	 * to back, like in the current layout of the arrays.
+	 */
+	static class Reference
+	{
+		int numNodes, numNodesPadded, numEdgesSparse, numEdgesUnique, numEdgesUniquePadded;
+		int[] order;
+		float[] nodePosX, nodePosY, nodeMass, nodeMobility;
+		int[] edgeOffsetsSparse, edgeCounts, edges;
+		float[] edgeCoeffs, edgeLengths;
+		int[] edgeUniqueSources, edgeUniqueTargets;
+		float[] edgeMassStart, edgeMassEnd;
+
+		Reference(LayoutGraph graph, int padding)
+		{
+			int n = graph.getNodeCount();
+			numNodes = n;
+			numNodesPadded = SlimTopology.nextMultipleOf(n, padding);
+
+			List<Set<Integer>> neighbors = new ArrayList<>();
+			List<List<Integer>> nodeEdges = new ArrayList<>();
+			for (int i = 0; i < n; i++)
+			{
+				neighbors.add(new HashSet<>());
+				nodeEdges.add(new ArrayList<>());
+			}
+			for (int e = 0; e < graph.getEdgeCount(); e++)
+			{
+				int source = graph.getEdgeSource(e), target = graph.getEdgeTarget(e);
+				if (source == target)
+					continue;
+				neighbors.get(source).add(target);
+				neighbors.get(target).add(source);
+				nodeEdges.get(source).add(e);
+				nodeEdges.get(target).add(e);
+			}
+			for (Set<Integer> unique : neighbors)
+				numEdgesSparse += unique.size();
+			numEdgesUnique = numEdgesSparse / 2;
+			numEdgesUniquePadded = SlimTopology.nextMultipleOf(numEdgesUnique, padding);
+
+			// Stable sort by degree
+			List<Integer> nodeList = new ArrayList<>();
+			for (int i = 0; i < n; i++)
+				nodeList.add(i);
+			nodeList.sort((a, b) -> neighbors.get(a).size() - neighbors.get(b).size());
+			order = new int[n];
+			Map<Integer, Integer> nodeToIndex = new HashMap<>();
+			for (int id = 0; id < n; id++)
+			{
+				order[id] = nodeList.get(id);
+				nodeToIndex.put(nodeList.get(id), id);
+			}
+
+			nodePosX = new float[numNodesPadded];
+			nodePosY = new float[numNodesPadded];
+			nodeMass = new float[numNodesPadded];
+			nodeMobility = new float[numNodesPadded];
+			edgeOffsetsSparse = new int[n];
+			edgeCounts = new int[n];
+			edges = new int[numEdgesSparse];
+			edgeCoeffs = new float[numEdgesSparse];
+			edgeLengths = new float[numEdgesSparse];
+			edgeUniqueSources = new int[numEdgesUniquePadded];
+			edgeUniqueTargets = new int[numEdgesUniquePadded];
+			edgeMassStart = new float[numEdgesUniquePadded];
+			edgeMassEnd = new float[numEdgesUniquePadded];
+
+			int eSparse = 0, eUnique = 0;
+			Set<Long> edgesConsidered = new HashSet<>();
+			for (int id = 0; id < n; id++)
+			{
+				int node = order[id];
+				nodePosX[id] = (float)graph.getX(node);
+				nodePosY[id] = (float)graph.getY(node);
+				nodeMass[id] = mass;
+				nodeMobility[id] = graph.isLocked(node) ? 0f : 1f;
+
+				int[] sortedEdges = neighbors.get(node).stream().mapToInt(nodeToIndex::get).sorted().toArray();
+				Map<Integer, Integer> position = new HashMap<>();
+				for (int i = 0; i < sortedEdges.length; i++)
+					position.put(sortedEdges[i], i);
+
+				float[] coeffs = new float[sortedEdges.length], lengths = new float[sortedEdges.length], samples = new float[sortedEdges.length];
+				for (int e : nodeEdges.get(node))
+				{
+					int other = graph.getEdgeSource(e) == node ? graph.getEdgeTarget(e) : graph.getEdgeSource(e);
+					int i = position.get(nodeToIndex.get(other));
+					coeffs[i] += springCoefficient;
+					lengths[i] += springLength / (float)graph.getEdgeWeight(e);
+					samples[i]++;
+				}
+				for (int i = 0; i < lengths.length; i++)
+					lengths[i] /= samples[i];
+
+				edgeOffsetsSparse[id] = eSparse;
+				edgeCounts[id] = sortedEdges.length;
+				for (int i = 0; i < sortedEdges.length; i++)
+				{
+					edges[eSparse + i] = sortedEdges[i];
+					edgeCoeffs[eSparse + i] = coeffs[i];
+					edgeLengths[eSparse + i] = lengths[i];
+
+					int source = Math.min(id, sortedEdges[i]), target = Math.max(id, sortedEdges[i]);
+					if (edgesConsidered.add(((long)source << 32) + target))
+					{
+						edgeUniqueSources[eUnique] = source;
+						edgeUniqueTargets[eUnique] = target;
+						edgeMassStart[eUnique] = mass;
+						edgeMassEnd[eUnique] = mass;
+						eUnique++;
+					}
+				}
+				eSparse += sortedEdges.length;
+			}
+			assertEquals(numEdgesUnique, eUnique);
+		}
+	}
+}
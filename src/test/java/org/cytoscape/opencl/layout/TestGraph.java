@@ -0,0 +1,142 @@
+package org.cytoscape.opencl.layout;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A graph held in arrays, for tests that don't need Cytoscape's model.
+ */
+class TestGraph implements LayoutGraph
+{
+	// Mass of every node and coefficient of every spring before weighting, in network()
+	static final float nodeMass = 3f;
+	static final float springCoefficient = 1e-4f;
+
+	final long[] nodeIds;
+	final double[] x, y;
+	final boolean[] locked;
+	int[] sources, targets;
+	double[] weights;
+
+	TestGraph(int numNodes, int[] sources, int[] targets)
+	{
+		nodeIds = new long[numNodes];
+		for (int i = 0; i < numNodes; i++)
+			nodeIds[i] = 1000 + i;
+		x = new double[numNodes];
+		y = new double[numNodes];
+		locked = new boolean[numNodes];
+		this.sources = sources;
+		this.targets = targets;
+		weights = new double[sources.length];
+		Arrays.fill(weights, 1.0);
+	}
+
+	/**
+	 * A random graph with everything that makes building the network tricky: edges in both
+	 * directions between the same nodes, self-loops, nodes without edges, varying weights and
+	 * some locked nodes.
+	 */
+	static TestGraph random(long seed, int numNodes, int numEdges)
+	{
+		Random rand = new Random(seed);
+		// The last tenth of the nodes stays unconnected
+		int connected = Math.max(1, numNodes - numNodes / 10);
+		int[] sources = new int[numEdges], targets = new int[numEdges];
+		for (int e = 0; e < numEdges; e++)
+		{
+			float kind = rand.nextFloat();
+			if (e > 0 && kind < 0.1f)
+			{
+				// Repeat an earlier edge, possibly reversed
+				int earlier = rand.nextInt(e);
+				boolean reverse = rand.nextBoolean();
+				sources[e] = reverse ? targets[earlier] : sources[earlier];
+				targets[e] = reverse ? sources[earlier] : targets[earlier];
+			}
+			else if (kind < 0.15f)
+			{
+				sources[e] = targets[e] = rand.nextInt(connected);
+			}
+			else
+			{
+				sources[e] = rand.nextInt(connected);
+				targets[e] = rand.nextInt(connected);
+			}
+		}
+
+		TestGraph graph = new TestGraph(numNodes, sources, targets);
+		for (int i = 0; i < numNodes; i++)
+		{
+			graph.x[i] = rand.nextDouble() * 1000 - 500;
+			graph.y[i] = rand.nextDouble() * 1000 - 500;
+			graph.locked[i] = rand.nextFloat() < 0.05f;
+		}
+		for (int e = 0; e < numEdges; e++)
+			graph.weights[e] = 0.5 + rand.nextDouble() * 1.5;
+		return graph;
+	}
+
+	/**
+	 * The network the layout runs on for this graph, with an uncached topology.
+	 * @param springLength Length of springs of weight 1
+	 */
+	SlimNetwork network(int padding, float springLength)
+	{
+		return new SlimNetwork(new SlimTopology(this, padding), this, nodeMass, springCoefficient, springLength);
+	}
+
+	@Override
+	public int getNodeCount()
+	{
+		return nodeIds.length;
+	}
+
+	@Override
+	public int getEdgeCount()
+	{
+		return sources.length;
+	}
+
+	@Override
+	public long getNodeId(int node)
+	{
+		return nodeIds[node];
+	}
+
+	@Override
+	public double getX(int node)
+	{
+		return x[node];
+	}
+
+	@Override
+	public double getY(int node)
+	{
+		return y[node];
+	}
+
+	@Override
+	public boolean isLocked(int node)
+	{
+		return locked[node];
+	}
+
+	@Override
+	public int getEdgeSource(int edge)
+	{
+		return sources[edge];
+	}
+
+	@Override
+	public int getEdgeTarget(int edge)
+	{
+		return targets[edge];
+	}
+
+	@Override
+	public double getEdgeWeight(int edge)
+	{
+		return weights[edge];
+	}
+}
@@ -0,0 +1,155 @@
+package org.cytoscape.opencl.layout;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.cytoscape.cycl.CyCLBuffer;
+import org.cytoscape.cycl.CyCLDevice;
+import org.junit.Test;
+
+public class TopologyCacheTest
+{
+	private static final int padding = 16;
+	private static final long unlimited = Long.MAX_VALUE;
+
+	@Test
+	public void reusedTopologyGivesSameNetworkAsFreshBuild()
+	{
+		TopologyCache cache = new TopologyCache(unlimited);
+		SlimTopology first = cache.get(1, TestGraph.random(7, 500, 1500), padding);
+
+		// Same nodes and edges, but other positions, weights and locks
+		TestGraph graph = TestGraph.random(7, 500, 1500);
+		TestGraph other = TestGraph.random(8, 500, 1500);
+		System.arraycopy(other.x, 0, graph.x, 0, graph.x.length);
+		System.arraycopy(other.locked, 0, graph.locked, 0, graph.locked.length);
+		System.arraycopy(other.weights, 0, graph.weights, 0, graph.weights.length);
+		SlimTopology second = cache.get(1, graph, padding);
+
+		assertSame(first, second);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		SlimNetworkTest.assertSameNetwork(new SlimNetworkTest.Reference(graph, padding),
+										  new SlimNetwork(second, graph, 3f, 1e-4f, 50f));
+	}
+
+	@Test
+	public void changedEdgesAreNotReused()
+	{
+		TopologyCache cache = new TopologyCache(unlimited);
+		SlimTopology first = cache.get(1, TestGraph.random(7, 500, 1500), padding);
+
+		TestGraph graph = TestGraph.random(7, 500, 1500);
+		graph.targets[10] = (graph.targets[10] + 1) % 500;
+		SlimTopology second = cache.get(1, graph, padding);
+
+		assertNotSame(first, second);
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertArrayEquals(new SlimNetworkTest.Reference(graph, padding).edges, second.edges);
+
+		// The outdated entry was replaced
+		assertSame(second, cache.get(1, graph, padding));
+	}
+
+	@Test
+	public void otherPaddingIsNotReused()
+	{
+		TopologyCache cache = new TopologyCache(unlimited);
+		TestGraph graph = TestGraph.random(7, 500, 1500);
+		SlimTopology first = cache.get(1, graph, 16);
+
+		assertNotSame(first, cache.get(1, graph, 4));
+	}
+
+	@Test
+	public void networksAreCachedSeparately()
+	{
+		TopologyCache cache = new TopologyCache(unlimited);
+		TestGraph graph = TestGraph.random(7, 500, 1500);
+		SlimTopology first = cache.get(1, graph, padding);
+		SlimTopology second = cache.get(2, graph, padding);
+
+		assertNotSame(first, second);
+		assertSame(first, cache.get(1, graph, padding));
+		assertSame(second, cache.get(2, graph, padding));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed()
+	{
+		TestGraph a = graph(0), b = graph(1), c = graph(2);
+		long bytes = new SlimTopology(a, padding).getBytes();
+		TopologyCache cache = new TopologyCache(bytes * 5 / 2);
+
+		SlimTopology topologyA = cache.get(1, a, padding);
+		SlimTopology topologyB = cache.get(1, b, padding);
+		assertSame(topologyA, cache.get(1, a, padding));
+		cache.get(1, c, padding);
+
+		// B was used least recently, so it made room for C
+		assertSame(topologyA, cache.get(1, a, padding));
+		assertNotSame(topologyB, cache.get(1, b, padding));
+	}
+
+	@Test
+	public void zeroCapDisablesCache()
+	{
+		TopologyCache cache = new TopologyCache(unlimited);
+		TestGraph graph = graph(0);
+		SlimTopology first = cache.get(1, graph, padding);
+
+		cache.setMemoryCap(0);
+		SlimTopology second = cache.get(1, graph, padding);
+		assertNotSame(first, second);
+		assertNotSame(second, cache.get(1, graph, padding));
+		assertEquals(0, cache.getHits());
+	}
+
+	@Test
+	public void entriesInUseOnDeviceAreNotEvicted()
+	{
+		CyCLDevice device = mock(CyCLDevice.class);
+		when(device.createBuffer(any(), anyInt())).thenAnswer(invocation -> mock(CyCLBuffer.class));
+		BufferPool pool = new BufferPool(device, unlimited);
+
+		TopologyCache cache = new TopologyCache(unlimited);
+		TestGraph graph = graph(0);
+		SlimTopology topology = cache.get(1, graph, padding);
+		CyCLBuffer[] buffers = cache.acquireDeviceBuffers(topology, pool);
+		assertNotNull(buffers);
+		assertEquals(5, buffers.length);
+
+		cache.setMemoryCap(1);
+		assertSame(topology, cache.get(1, graph, padding));
+		assertEquals(0, pool.getIdleBytes());
+
+		// Evicted as soon as the device is done with it, and its buffers go back to the pool
+		cache.releaseDeviceBuffers(topology);
+		assertTrue(pool.getIdleBytes() > 0);
+		assertNotSame(topology, cache.get(1, graph, padding));
+	}
+
+	@Test
+	public void uncachedTopologyHasNoDeviceBuffers()
+	{
+		BufferPool pool = new BufferPool(mock(CyCLDevice.class), unlimited);
+		TopologyCache cache = new TopologyCache(unlimited);
+
+		assertNull(cache.acquireDeviceBuffers(new SlimTopology(graph(0), padding), pool));
+	}
+
+	/**
+	 * Random graphs of equal size with distinct node ids.
+	 */
+	private static TestGraph graph(int index)
+	{
+		TestGraph graph = TestGraph.random(index, 300, 900);
+		for (int i = 0; i < graph.nodeIds.length; i++)
+			graph.nodeIds[i] += index * 100000L;
+		return graph;
+	}
+}